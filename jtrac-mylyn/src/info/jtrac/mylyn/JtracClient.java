@@ -17,6 +17,7 @@
 package info.jtrac.mylyn;
 
 import info.jtrac.mylyn.domain.Item;
+import info.jtrac.mylyn.domain.ItemChanges;
 import info.jtrac.mylyn.domain.JtracVersion;
 import info.jtrac.mylyn.domain.Success;
 import info.jtrac.mylyn.exception.HttpException;
@@ -25,9 +26,13 @@ import info.jtrac.mylyn.util.XmlUtils;
 import java.net.HttpURLConnection;
 import java.net.Proxy;
 
+import org.dom4j.Element;
+
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
@@ -37,6 +42,9 @@ import org.apache.commons.httpclient.methods.StringRequestEntity;
  * server / repository over HTTP(S).  Messages are Plain Old XML (POX), 
  * and requests are made REST style as HTTP GET / POST depending on the
  * complexity of input parameters
+ * 
+ * the username and password are sent only once to obtain an API token
+ * which is then sent with every request until it expires
  */
 public class JtracClient {
 	
@@ -47,44 +55,75 @@ public class JtracClient {
 	private String password;
 	private Proxy proxy;
 	
+	private String token;
+	private long tokenExpires;
+	
 	public JtracClient(String repoUrl, String username, String password, Proxy proxy) {
 		this.repoUrl = repoUrl;
 		this.username = username;
 		this.password = password;
 		this.proxy = proxy;
+		if (username != null) {
+			httpClient.getState().setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
+		}
 	}
 	
-	private String doGet(String url) throws Exception {
-		HttpMethod get = new GetMethod(url);
-		String response = null;
-		int code;
+	/**
+	 * basic authentication is used only here, renew a minute before the server
+	 * would reject the token to allow for clock skew and long requests
+	 */
+	private synchronized String getToken(boolean renew) throws Exception {
+		if (renew || token == null || System.currentTimeMillis() > tokenExpires) {
+			GetMethod get = new GetMethod(repoUrl + new RequestUri("token.get"));
+			get.setDoAuthentication(true);
+			httpClient.getParams().setAuthenticationPreemptive(true);
+			try {
+				int code = httpClient.executeMethod(get);
+				if (code != HttpURLConnection.HTTP_OK) {
+					throw new HttpException("HTTP Response Code: " + code);
+				}
+				Element root = XmlUtils.parse(get.getResponseBodyAsString()).getRootElement();
+				long expiresIn = Long.parseLong(root.attributeValue("expiresIn"));
+				token = root.getTextTrim();
+				tokenExpires = System.currentTimeMillis() + (expiresIn - 60) * 1000;
+			} finally {
+				get.releaseConnection();
+			}
+		}
+		return token;
+	}
+	
+	/**
+	 * a token can be revoked on the server (e.g. password changed, key rotated)
+	 * so on 401 a fresh one is requested and the request retried once
+	 */
+	private String execute(HttpMethod method) throws Exception {
+		method.setDoAuthentication(false);
 		try {
-			code = httpClient.executeMethod(get);
+			method.setRequestHeader("Authorization", "Bearer " + getToken(false));
+			int code = httpClient.executeMethod(method);
+			if (code == HttpURLConnection.HTTP_UNAUTHORIZED) {
+				method.releaseConnection();
+				method.setRequestHeader("Authorization", "Bearer " + getToken(true));
+				code = httpClient.executeMethod(method);
+			}
 			if (code != HttpURLConnection.HTTP_OK) {
 				throw new HttpException("HTTP Response Code: " + code);
 			}
-			response = get.getResponseBodyAsString();			
+			return method.getResponseBodyAsString();
 		} finally {
-			get.releaseConnection();
+			method.releaseConnection();
 		}
-		return response;
+	}
+	
+	private String doGet(String url) throws Exception {
+		return execute(new GetMethod(url));
 	} 
 	
 	private String doPost(String url, String message) throws Exception {
 		PostMethod post = new PostMethod(url);
 		post.setRequestEntity(new StringRequestEntity(message, "text/xml", "UTF-8"));
-		String response = null;
-		int code;
-		try {
-			code = httpClient.executeMethod(post);
-			if (code != HttpURLConnection.HTTP_OK) {
-				throw new HttpException("HTTP Response Code: " + code);
-			}
-			response = post.getResponseBodyAsString();
-		} finally {
-			post.releaseConnection();
-		}
-		return response;
+		return execute(post);
 	} 	
 	
 	public JtracVersion getJtracVersion() throws Exception {
@@ -93,6 +132,20 @@ public class JtracClient {
 		return new JtracVersion(XmlUtils.parseJtrac(xml));
 	}
 	
+	/**
+	 * changes after the given cursor, pass null to get just the current
+	 * position of the change log, callers should keep asking with the
+	 * returned cursor while ItemChanges.isMore() is true
+	 */
+	public ItemChanges getItemChanges(String cursor) throws Exception {
+		RequestUri uri = new RequestUri("item.changes.get");
+		if (cursor != null) {
+			uri.addParameter("cursor", cursor);
+		}
+		String xml = doGet(repoUrl + uri);
+		return new ItemChanges(XmlUtils.parseJtrac(xml));
+	}
+	
 	public String putItem(Item item) throws Exception {
 		RequestUri uri = new RequestUri("item.put");
 		String xml = doPost(repoUrl + uri, item.getAsXml());
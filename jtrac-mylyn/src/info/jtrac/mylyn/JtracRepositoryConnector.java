@@ -16,12 +16,16 @@
 
 package info.jtrac.mylyn;
 
+import info.jtrac.mylyn.domain.ItemChanges;
+
 import java.io.File;
+import java.util.HashSet;
 import java.util.Set;
 
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
 import org.eclipse.mylyn.tasks.core.AbstractAttachmentHandler;
 import org.eclipse.mylyn.tasks.core.AbstractRepositoryConnector;
 import org.eclipse.mylyn.tasks.core.AbstractRepositoryQuery;
@@ -119,12 +123,43 @@ public class JtracRepositoryConnector extends AbstractRepositoryConnector {
 		return null;
 	}
 
+	/**
+	 * the repository synchronization time stamp holds the change log cursor,
+	 * so only the items changed since the last synchronization are marked stale
+	 * and the cost of polling depends on the number of changes, not of tasks
+	 */
 	@Override
 	public boolean markStaleTasks(TaskRepository repository,
 			Set<AbstractTask> tasks, IProgressMonitor monitor)
 			throws CoreException {
-		// TODO Auto-generated method stub
-		return false;
+		JtracClient client = getTaskRepositoryListener().getClient(repository);
+		String cursor = repository.getSynchronizationTimeStamp();
+		try {
+			if (cursor == null) {
+				// first time, everything is stale
+				for (AbstractTask task : tasks) {
+					task.setStale(true);
+				}
+				repository.setSynchronizationTimeStamp(client.getItemChanges(null).getCursor());
+				return true;
+			}
+			Set<String> changed = new HashSet<String>();
+			ItemChanges changes;
+			do {
+				changes = client.getItemChanges(cursor);
+				changed.addAll(changes.getAllRefIds());
+				cursor = changes.getCursor();
+			} while (changes.isMore() && !monitor.isCanceled());
+			for (AbstractTask task : tasks) {
+				if (changed.contains(task.getTaskId())) {
+					task.setStale(true);
+				}
+			}
+			repository.setSynchronizationTimeStamp(cursor);
+			return true;
+		} catch (Exception e) {
+			throw new CoreException(new Status(IStatus.ERROR, JtracPlugin.PLUGIN_ID, 0, "Could not get changes from repository", e));
+		}
 	}
 
 	@Override
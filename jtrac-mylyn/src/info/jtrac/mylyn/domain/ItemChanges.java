@@ -0,0 +1,66 @@
+package info.jtrac.mylyn.domain;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.dom4j.Element;
+
+/**
+ * one page of the server side change log, see "item.changes.get"
+ */
+public class ItemChanges {
+	
+	private String cursor;
+	private boolean more;
+	private Set<String> refIds = new LinkedHashSet<String>();
+	private Set<String> deletedRefIds = new LinkedHashSet<String>();
+	
+	@SuppressWarnings("unchecked")
+	public ItemChanges(JtracDocument d) {
+		Element root = d.getDocument().getRootElement();
+		cursor = root.attributeValue("cursor");
+		if (cursor == null) {
+			throw new RuntimeException("Unexpected XML response from server");
+		}
+		more = "true".equals(root.attributeValue("more"));
+		for (Element e : (List<Element>) root.elements("change")) {
+			String refId = e.attributeValue("refId");
+			if ("deleted".equals(e.attributeValue("type"))) {
+				refIds.remove(refId);
+				deletedRefIds.add(refId);
+			} else {
+				refIds.add(refId);
+			}
+		}
+	}
+	
+	//==========================================================================
+	
+	public String getCursor() {
+		return cursor;
+	}
+	
+	public boolean isMore() {
+		return more;
+	}
+	
+	/**
+	 * created or updated, each item only once even if changed many times
+	 */
+	public Set<String> getRefIds() {
+		return refIds;
+	}
+	
+	public Set<String> getDeletedRefIds() {
+		return deletedRefIds;
+	}
+	
+	public List<String> getAllRefIds() {
+		List<String> list = new ArrayList<String>(refIds);
+		list.addAll(deletedRefIds);
+		return list;
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.acegi;
+
+import info.jtrac.domain.Config;
+import info.jtrac.domain.User;
+import info.jtrac.service.Jtrac;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.acegisecurity.userdetails.UsernameNotFoundException;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * signed, expiring tokens for the remote API, so that clients do not have to
+ * send (and the server does not have to check) a password on every request
+ *
+ * a token is "base64(expires:fingerprint:loginName).hex(hmac)" where the HMAC-SHA256
+ * signature uses a secret generated once and kept in the config table (so it
+ * survives restarts and is shared by all nodes using the same database)
+ * checking signature and expiry needs no database access at all, the user is then
+ * resolved through Jtrac.loadUserByUsername() which is served from the principal cache
+ * the fingerprint is derived from the password hash, so changing the password
+ * revokes all tokens issued before
+ */
+public class ApiTokenService {
+
+	private static final Logger logger = LoggerFactory.getLogger(ApiTokenService.class);
+
+	private static final String KEY_PARAM = "api.token.key";
+	private static final String ALGORITHM = "HmacSHA256";
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private Jtrac jtrac;
+	private int timeoutMinutes = 8 * 60;
+	private volatile SecretKeySpec key;
+
+	public void setJtrac(Jtrac jtrac) {
+		this.jtrac = jtrac;
+	}
+
+	public void setTimeoutMinutes(int timeoutMinutes) {
+		this.timeoutMinutes = timeoutMinutes;
+	}
+
+	public int getTimeoutMinutes() {
+		return timeoutMinutes;
+	}
+
+	public String createToken(User user) {
+		long expires = System.currentTimeMillis() + timeoutMinutes * 60 * 1000L;
+		String payload = expires + ":" + getFingerprint(user) + ":" + user.getLoginName();
+		String encoded = new String(Base64.encodeBase64(payload.getBytes(UTF8)), UTF8);
+		return encoded + "." + new String(Hex.encodeHex(sign(encoded)));
+	}
+
+	/**
+	 * @return the user the token was issued to, or null if the token is invalid,
+	 * expired or was issued before the last password change
+	 */
+	public User getUser(String token) {
+		int pos = token.indexOf('.');
+		if (pos == -1) {
+			return null;
+		}
+		String encoded = token.substring(0, pos);
+		byte[] signature;
+		try {
+			signature = Hex.decodeHex(token.substring(pos + 1).toCharArray());
+		} catch (Exception e) {
+			return null;
+		}
+		if (!MessageDigest.isEqual(signature, sign(encoded))) {
+			logger.debug("api token signature invalid");
+			return null;
+		}
+		String[] parts = new String(Base64.decodeBase64(encoded.getBytes(UTF8)), UTF8).split(":", 3);
+		if (parts.length != 3 || Long.parseLong(parts[0]) < System.currentTimeMillis()) {
+			logger.debug("api token expired");
+			return null;
+		}
+		User user;
+		try {
+			user = (User) jtrac.loadUserByUsername(parts[2]);
+		} catch (UsernameNotFoundException e) {
+			return null;
+		}
+		if (user.isLocked() || !parts[1].equals(getFingerprint(user))) {
+			logger.debug("api token revoked for user: " + parts[2]);
+			return null;
+		}
+		return user;
+	}
+
+	private String getFingerprint(User user) {
+		String password = user.getPassword() == null ? "" : user.getPassword();
+		byte[] mac = sign("password:" + password);
+		return new String(Hex.encodeHex(mac)).substring(0, 16);
+	}
+
+	private byte[] sign(String data) {
+		try {
+			Mac mac = Mac.getInstance(ALGORITHM);
+			mac.init(getKey());
+			return mac.doFinal(data.getBytes(UTF8));
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private SecretKeySpec getKey() throws Exception {
+		if (key == null) {
+			synchronized (this) {
+				if (key == null) {
+					String hex = jtrac.loadConfig(KEY_PARAM);
+					if (hex == null) {
+						logger.info("generating api token signing key");
+						byte[] bytes = new byte[32];
+						new SecureRandom().nextBytes(bytes);
+						hex = new String(Hex.encodeHex(bytes));
+						jtrac.storeConfig(new Config(KEY_PARAM, hex));
+					}
+					key = new SecretKeySpec(Hex.decodeHex(hex.toCharArray()), ALGORITHM);
+				}
+			}
+		}
+		return key;
+	}
+
+}
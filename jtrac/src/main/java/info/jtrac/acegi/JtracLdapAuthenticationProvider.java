@@ -24,6 +24,7 @@ import java.util.Map;
 
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.SearchControls;
@@ -50,12 +51,22 @@ import org.springframework.beans.factory.InitializingBean;
  * a) it does not appear to support binding _as_ the user signing in
  *    as opposed to a "hardcoded" user and password which is not very nice
  * b) easier to configure, customize and extend in the future
+ *
+ * connections are taken from the JNDI LDAP connection pool so that repeated
+ * logins do not pay for a new TCP / TLS handshake, every context is closed
+ * (returned to the pool) when done, if a service account is configured the
+ * attribute search runs on a pooled connection of that account and the user
+ * connection is only used for the bind, successful logins can optionally be
+ * remembered for a few minutes (see LdapCredentialCache)
  */
 public class JtracLdapAuthenticationProvider implements AuthenticationProvider, InitializingBean {
 
+	private static final String POOL_PROTOCOL_PROPERTY = "com.sun.jndi.ldap.connect.pool.protocol";
+
 	private final Logger logger = LoggerFactory.getLogger(getClass());
 
 	private UserDetailsService userDetailsService;
+	private String initialContextFactory = "com.sun.jndi.ldap.LdapCtxFactory";
 	private String ldapUrl;
 	private String activeDirectoryDomain;
 	private String searchBase;
@@ -64,6 +75,13 @@ public class JtracLdapAuthenticationProvider implements AuthenticationProvider,
 	private String mailKey = "mail";
 	private String[] otherReturningAttributes;
 	private String[] returningAttributes;
+	private String managerDn;
+	private String managerPassword;
+	private int connectTimeoutMillis = 5000;
+	private int readTimeoutMillis = 10000;
+	private int credentialCacheSeconds;
+	private int credentialCacheSize = 1000;
+	private LdapCredentialCache credentialCache;
 
 	// please refer http://forum.java.sun.com/thread.jspa?threadID=726601&tstart=0
 	// for the Active Directory LDAP Fast Bind Control approach used here
@@ -86,6 +104,13 @@ public class JtracLdapAuthenticationProvider implements AuthenticationProvider,
 		this.userDetailsService = userDetailsService;
 	}
 
+	/**
+	 * the JNDI provider, only to be changed for testing
+	 */
+	public void setInitialContextFactory(String initialContextFactory) {
+		this.initialContextFactory = initialContextFactory;
+	}
+
 	public void setLdapUrl(String ldapUrl) {
 		this.ldapUrl = ldapUrl;
 	}
@@ -114,6 +139,33 @@ public class JtracLdapAuthenticationProvider implements AuthenticationProvider,
 		this.otherReturningAttributes = otherReturningAttributes;
 	}
 
+	public void setManagerDn(String managerDn) {
+		this.managerDn = managerDn;
+	}
+
+	public void setManagerPassword(String managerPassword) {
+		this.managerPassword = managerPassword;
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public void setReadTimeoutMillis(int readTimeoutMillis) {
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	/**
+	 * zero (the default) switches the credential cache off
+	 */
+	public void setCredentialCacheSeconds(int credentialCacheSeconds) {
+		this.credentialCacheSeconds = credentialCacheSeconds;
+	}
+
+	public void setCredentialCacheSize(int credentialCacheSize) {
+		this.credentialCacheSize = credentialCacheSize;
+	}
+
 	@Override
 	public boolean supports(@SuppressWarnings("rawtypes") Class clazz) {
 		return UsernamePasswordAuthenticationToken.class.isAssignableFrom(clazz);
@@ -124,13 +176,25 @@ public class JtracLdapAuthenticationProvider implements AuthenticationProvider,
 		if (!supports(authentication.getClass())) {
 			return null;
 		}
-		logger.debug("attempting authentication via LDAP");
-		try {
-			bind(authentication.getName(), authentication.getCredentials().toString());
-		} catch(Exception e) {
-			logger.debug("bind failed: " + e);
-			logger.debug("returning null from ldap authentication provider");
-			return null;
+		String loginName = authentication.getName();
+		String password = authentication.getCredentials().toString();
+		if (credentialCache != null && credentialCache.isValid(loginName, password)) {
+			logger.debug("credentials found in cache, skipping LDAP");
+		} else {
+			logger.debug("attempting authentication via LDAP");
+			try {
+				bind(loginName, password);
+			} catch(Exception e) {
+				logger.debug("bind failed: " + e);
+				logger.debug("returning null from ldap authentication provider");
+				if (credentialCache != null) {
+					credentialCache.remove(loginName);
+				}
+				return null;
+			}
+			if (credentialCache != null) {
+				credentialCache.put(loginName, password);
+			}
 		}
 		logger.debug("user details retrieved from LDAP, now checking local database");
 		UserDetails userDetails = null;
@@ -143,52 +207,103 @@ public class JtracLdapAuthenticationProvider implements AuthenticationProvider,
 		return new UsernamePasswordAuthenticationToken(userDetails, "", userDetails.getAuthorities());
 	}
 
+	private Hashtable<String, String> getEnvironment(boolean pooled) {
+		Hashtable<String, String> env = new Hashtable<String, String>();
+		env.put(Context.INITIAL_CONTEXT_FACTORY, initialContextFactory);
+		env.put(Context.PROVIDER_URL, ldapUrl);
+		env.put(Context.SECURITY_AUTHENTICATION, "simple");
+		env.put("com.sun.jndi.ldap.connect.timeout", connectTimeoutMillis + "");
+		env.put("com.sun.jndi.ldap.read.timeout", readTimeoutMillis + "");
+		if (pooled) {
+			// pool size and idle timeout are JVM wide system properties, see
+			// com.sun.jndi.ldap.connect.pool.maxsize / .prefsize / .timeout
+			env.put("com.sun.jndi.ldap.connect.pool", "true");
+		}
+		return env;
+	}
+
 	/**
 	 * displayName and mail are returned always, the map allows us to support
 	 * getting arbitrary properties in the future, hopefully
 	 */
 	public Map<String, String> bind(String loginName, String password) throws Exception {
-		Hashtable<String, String> env = new Hashtable<String, String>();
-		env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
-		env.put(Context.PROVIDER_URL, ldapUrl);
-		env.put(Context.SECURITY_AUTHENTICATION, "simple");
+		if (password == null || password.length() == 0) {
+			// would be an anonymous bind, which most servers accept
+			throw new Exception("empty password");
+		}
 		LdapContext ctx = null;
-		if(activeDirectoryDomain != null) { // we are using Active Directory
-			Control[] controls = new Control[] {control};
-			ctx = new InitialLdapContext(env, controls);
-			logger.debug("Active Directory LDAP context initialized");
-			ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, activeDirectoryDomain + "\\" + loginName);
-			ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
-			// javax.naming.AuthenticationException
-			ctx.reconnect(controls);
-			logger.debug("Active Directory LDAP bind successful");
-		} else { // standard LDAP
-			env.put(Context.SECURITY_PRINCIPAL, searchKey + "=" + loginName + "," + searchBase);
-			env.put(Context.SECURITY_CREDENTIALS, password);
-			ctx = new InitialLdapContext(env, null);
-			logger.debug("Standard LDAP bind successful");
+		LdapContext searchCtx = null;
+		try {
+			if(activeDirectoryDomain != null) { // we are using Active Directory
+				// fast bind re-authenticates the connection, which the pool does not allow
+				Control[] controls = new Control[] {control};
+				ctx = new InitialLdapContext(getEnvironment(false), controls);
+				logger.debug("Active Directory LDAP context initialized");
+				ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, activeDirectoryDomain + "\\" + loginName);
+				ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+				// javax.naming.AuthenticationException
+				ctx.reconnect(controls);
+				logger.debug("Active Directory LDAP bind successful");
+			} else { // standard LDAP
+				Hashtable<String, String> env = getEnvironment(true);
+				env.put(Context.SECURITY_PRINCIPAL, searchKey + "=" + loginName + "," + searchBase);
+				env.put(Context.SECURITY_CREDENTIALS, password);
+				ctx = new InitialLdapContext(env, null);
+				logger.debug("Standard LDAP bind successful");
+			}
+			if (managerDn != null) {
+				Hashtable<String, String> env = getEnvironment(true);
+				env.put(Context.SECURITY_PRINCIPAL, managerDn);
+				env.put(Context.SECURITY_CREDENTIALS, managerPassword);
+				searchCtx = new InitialLdapContext(env, null);
+			}
+			return search(searchCtx == null ? ctx : searchCtx, loginName);
+		} finally {
+			close(searchCtx);
+			close(ctx);
 		}
+	}
+
+	private Map<String, String> search(LdapContext ctx, String loginName) throws Exception {
 		SearchControls sc = new SearchControls();
 		sc.setSearchScope(SearchControls.SUBTREE_SCOPE);
 		sc.setReturningAttributes(returningAttributes);
-		NamingEnumeration<?> results = ctx.search(searchBase, searchKey + "=" + loginName, sc);
-		while(results.hasMoreElements()) {
-			SearchResult sr = (SearchResult) results.next();
-			Attributes attrs = sr.getAttributes();
-			logger.debug("attributes: " + attrs);
-			Map<String, String> map = new HashMap<String, String>(returningAttributes.length);
-			for(String key : returningAttributes) {
-				Attribute attr = attrs.get(key);
-				if (attr != null) {
-					map.put(key, (String) attr.get());
+		sc.setCountLimit(1);
+		// filter argument so that the login name is escaped properly
+		NamingEnumeration<SearchResult> results = ctx.search(searchBase, "(" + searchKey + "={0})", new Object[] {loginName}, sc);
+		try {
+			if(results.hasMore()) {
+				SearchResult sr = results.next();
+				Attributes attrs = sr.getAttributes();
+				logger.debug("attributes: " + attrs);
+				Map<String, String> map = new HashMap<String, String>(returningAttributes.length);
+				for(String key : returningAttributes) {
+					Attribute attr = attrs.get(key);
+					if (attr != null) {
+						map.put(key, (String) attr.get());
+					}
 				}
+				return map; // there should be only one anyway
 			}
-			return map; // there should be only one anyway
+		} finally {
+			results.close();
 		}
 		// if we reached here, there was no search result
 		throw new Exception("no results returned from ldap");
 	}
 
+	private void close(Context ctx) {
+		if (ctx == null) {
+			return;
+		}
+		try {
+			// for a pooled context this returns the connection to the pool
+			ctx.close();
+		} catch (NamingException e) {
+			logger.warn("failed to close ldap context: " + e);
+		}
+	}
+
 	// one-time init routine normally called by Spring as InitializingBean
 	// but when we use a custom FactoryBean, we have to call this manually
 	@Override
@@ -204,6 +319,12 @@ public class JtracLdapAuthenticationProvider implements AuthenticationProvider,
 		} else {
 			returningAttributes = new String[] {mailKey, displayNameKey};
 		}
+		if(managerDn != null && managerDn.trim().length() == 0) {
+			managerDn = null;
+		}
+		if(credentialCacheSeconds > 0) {
+			credentialCache = new LdapCredentialCache(credentialCacheSeconds, credentialCacheSize);
+		}
 		if(searchKey == null) {
 			if(activeDirectoryDomain != null && activeDirectoryDomain.trim().length() > 0) {
 				searchKey = "sAMAccountName";
@@ -212,9 +333,20 @@ public class JtracLdapAuthenticationProvider implements AuthenticationProvider,
 				searchKey = "uid";
 			}
 		}
+		// the JNDI pool leaves ldaps:// connections unpooled unless "ssl" is one of
+		// the pooled protocols, a JVM wide setting read when the pool is first used
+		if(ldapUrl != null && ldapUrl.toLowerCase().contains("ldaps:")) {
+			String protocols = System.getProperty(POOL_PROTOCOL_PROPERTY);
+			if(protocols == null) {
+				System.setProperty(POOL_PROTOCOL_PROPERTY, "plain ssl");
+			} else if(!protocols.contains("ssl")) {
+				logger.warn("ldaps connections will not be pooled, " + POOL_PROTOCOL_PROPERTY + " = '" + protocols + "'");
+			}
+		}
 		logger.info("ldap authenthication provider initialized searchKey = '" + searchKey + "'"
 				+ ", searchBase = '" + searchBase + "', activeDirectoryDomain = '" + activeDirectoryDomain + "'"
-				+ ", ldapUrl = '" + ldapUrl + "'");
+				+ ", ldapUrl = '" + ldapUrl + "', managerDn = '" + managerDn + "'"
+				+ ", credentialCacheSeconds = " + credentialCacheSeconds);
 	}
 
 }
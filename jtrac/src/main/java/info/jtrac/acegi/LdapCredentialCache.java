@@ -0,0 +1,115 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.acegi;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * remembers successful directory logins for a short time so that clients
+ * sending Basic auth on every request do not cause an LDAP round trip each time
+ *
+ * only a salted SHA-256 hash of login name and password is kept, never the
+ * password itself, the salt is random per instance so that hashes are useless
+ * outside this JVM, the cache is bounded and least recently used entries
+ * are evicted first
+ */
+public class LdapCredentialCache {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final long ttlMillis;
+	private final int maxSize;
+	private final byte[] salt = new byte[16];
+	private final Map<String, Entry> entries;
+
+	private static class Entry {
+
+		private final byte[] hash;
+		private final long expires;
+
+		Entry(byte[] hash, long expires) {
+			this.hash = hash;
+			this.expires = expires;
+		}
+
+	}
+
+	public LdapCredentialCache(int ttlSeconds, final int maxSize) {
+		this.ttlMillis = ttlSeconds * 1000L;
+		this.maxSize = maxSize;
+		new SecureRandom().nextBytes(salt);
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > LdapCredentialCache.this.maxSize;
+			}
+		};
+	}
+
+	public boolean isValid(String loginName, String password) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(loginName);
+		}
+		if (entry == null) {
+			return false;
+		}
+		if (entry.expires < System.currentTimeMillis()) {
+			remove(loginName);
+			return false;
+		}
+		return MessageDigest.isEqual(entry.hash, hash(loginName, password));
+	}
+
+	public void put(String loginName, String password) {
+		Entry entry = new Entry(hash(loginName, password), System.currentTimeMillis() + ttlMillis);
+		synchronized (entries) {
+			entries.put(loginName, entry);
+		}
+	}
+
+	public void remove(String loginName) {
+		synchronized (entries) {
+			entries.remove(loginName);
+		}
+	}
+
+	public int getSize() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	private byte[] hash(String loginName, String password) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			md.update(salt);
+			md.update(loginName.getBytes(UTF8));
+			md.update((byte) 0);
+			md.update(password.getBytes(UTF8));
+			return md.digest();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
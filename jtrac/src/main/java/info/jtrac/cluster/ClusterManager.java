@@ -0,0 +1,212 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.cluster;
+
+import info.jtrac.domain.ClusterEvent;
+import info.jtrac.domain.ClusterNode;
+import info.jtrac.repository.JtracDao;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.StringUtils;
+
+/**
+ * lets several JTrac nodes share one database behind a load balancer, switched
+ * on by giving every node its own "cluster.node" name in jtrac.properties, each
+ * node has its own jtrac.home with the Lucene index, the attachments folder
+ * must be the same shared directory on all nodes
+ *
+ * nodes register in the cluster_nodes table and update their row every few
+ * seconds (heartbeat), the live node that registered first is the leader and
+ * the only one to run scheduled jobs, the leader also removes nodes that have
+ * not been seen for a while, node clocks are assumed to be roughly in sync
+ *
+ * events in the cluster_events table are the invalidation bus, published within
+ * the transaction that makes the change and picked up by the other nodes with
+ * the next heartbeat, the Lucene index of every node is kept up to date from
+ * the item change log in the same way, see JtracImpl.executeClusterTask()
+ *
+ * without a node name there is no cluster, this node is always the leader and
+ * nothing is written
+ */
+public class ClusterManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(ClusterManager.class);
+
+	private static final int MAX_EVENTS = 500;
+	private static final long EVENT_MAX_AGE_MILLIS = 60 * 60 * 1000L;
+
+	private JtracDao dao;
+	private String nodeName;
+	private int nodeTimeoutSeconds = 30;
+
+	private volatile ClusterNode node;
+	private volatile boolean leader;
+	private volatile List<ClusterNode> nodes = Collections.emptyList();
+	private LogCursor eventCursor;
+
+	public void setDao(JtracDao dao) {
+		this.dao = dao;
+	}
+
+	public void setNodeName(String nodeName) {
+		this.nodeName = nodeName;
+	}
+
+	public void setNodeTimeoutSeconds(int nodeTimeoutSeconds) {
+		this.nodeTimeoutSeconds = nodeTimeoutSeconds;
+	}
+
+	public int getNodeTimeoutSeconds() {
+		return nodeTimeoutSeconds;
+	}
+
+	public boolean isEnabled() {
+		return StringUtils.hasText(nodeName);
+	}
+
+	public String getNodeName() {
+		return nodeName;
+	}
+
+	/**
+	 * always true when not clustered, false until the first heartbeat otherwise
+	 */
+	public boolean isLeader() {
+		return !isEnabled() || leader;
+	}
+
+	/**
+	 * the nodes as of the last heartbeat, in order of registration
+	 */
+	public List<ClusterNode> getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * configured as Spring init-method, the node is registered right away but
+	 * only takes part in leader election with the first heartbeat
+	 */
+	public void start() {
+		if (!isEnabled()) {
+			return;
+		}
+		eventCursor = new LogCursor(dao.loadLastClusterEventId(), nodeTimeoutSeconds * 1000L);
+		register();
+	}
+
+	/**
+	 * configured as Spring destroy-method, other nodes take over at once
+	 * instead of waiting for the node timeout
+	 */
+	public void stop() {
+		if (node == null) {
+			return;
+		}
+		try {
+			dao.removeClusterNode(node.getId());
+			logger.info("cluster node removed: " + node);
+		} catch (Exception e) {
+			logger.warn("could not remove cluster node: " + e.getMessage());
+		}
+		node = null;
+		leader = false;
+	}
+
+	private void register() {
+		String host;
+		try {
+			host = InetAddress.getLocalHost().getHostName();
+		} catch (Exception e) {
+			host = null;
+		}
+		node = dao.storeClusterNode(new ClusterNode(nodeName, host));
+		logger.info("cluster node registered: " + node);
+	}
+
+	/**
+	 * updates this node in the registry and works out who is leader, called
+	 * every few seconds by JtracImpl.executeClusterTask()
+	 */
+	public void heartbeat() {
+		if (!isEnabled() || node == null) {
+			return;
+		}
+		Date now = new Date();
+		if (dao.updateClusterNodeLastSeen(node.getId(), now) == 0) {
+			// taken for dead by the leader, e.g. after a long pause
+			logger.warn("cluster node was removed from registry, registering again: " + node);
+			register();
+		}
+		Date cutOff = new Date(now.getTime() - nodeTimeoutSeconds * 1000L);
+		List<ClusterNode> all = dao.findAllClusterNodes();
+		ClusterNode first = null;
+		for (ClusterNode n : all) {
+			if (n.getLastSeen() != null && !n.getLastSeen().before(cutOff)) {
+				first = n;
+				break;
+			}
+		}
+		boolean wasLeader = leader;
+		leader = first != null && first.getId() == node.getId();
+		nodes = all;
+		if (leader != wasLeader) {
+			logger.info("cluster node " + node + (leader ? " is now leader" : " is no longer leader"));
+		}
+		if (leader) {
+			int removed = dao.removeClusterNodesLastSeenBefore(new Date(now.getTime() - 10 * nodeTimeoutSeconds * 1000L));
+			if (removed > 0) {
+				logger.info("cluster nodes removed from registry as not seen for long: " + removed);
+			}
+			dao.removeClusterEventsBefore(new Date(now.getTime() - EVENT_MAX_AGE_MILLIS));
+		}
+	}
+
+	/**
+	 * tells the other nodes, joins the current transaction if there is one so
+	 * that nothing is sent for a change that is rolled back
+	 */
+	public void publish(String type) {
+		if (node == null) {
+			return;
+		}
+		dao.storeClusterEvent(new ClusterEvent(node.getId(), type));
+	}
+
+	/**
+	 * events from other nodes since the last call
+	 */
+	public List<ClusterEvent> receive() {
+		if (node == null) {
+			return Collections.emptyList();
+		}
+		List<ClusterEvent> events = new ArrayList<ClusterEvent>();
+		for (ClusterEvent event : dao.findClusterEvents(eventCursor.getLastId(), eventCursor.getGaps(), MAX_EVENTS)) {
+			if (eventCursor.add(event.getId()) && event.getNodeId() != node.getId()) {
+				events.add(event);
+			}
+		}
+		return events;
+	}
+
+}
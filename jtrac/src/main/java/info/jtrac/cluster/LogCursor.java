@@ -0,0 +1,82 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.cluster;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * position in a table that is read in id order while other transactions are
+ * still writing to it, ids are handed out before commit so a lower id can
+ * become visible after a higher one, such gaps are asked for again until they
+ * show up or are older than the timeout, then they are taken as rolled back
+ */
+public class LogCursor {
+
+	// a pooled id generator can leave large holes, no point in tracking all of them
+	private static final int MAX_GAPS = 1000;
+
+	private final long gapTimeoutMillis;
+	private long lastId;
+	// missing id and when it was first missed
+	private final Map<Long, Long> gaps = new LinkedHashMap<Long, Long>();
+
+	public LogCursor(long lastId, long gapTimeoutMillis) {
+		this.lastId = lastId;
+		this.gapTimeoutMillis = gapTimeoutMillis;
+	}
+
+	public synchronized long getLastId() {
+		return lastId;
+	}
+
+	/**
+	 * the ids still missing, to be read in addition to those after getLastId()
+	 */
+	public synchronized List<Long> getGaps() {
+		long cutOff = System.currentTimeMillis() - gapTimeoutMillis;
+		Iterator<Long> i = gaps.values().iterator();
+		while (i.hasNext()) {
+			if (i.next() < cutOff) {
+				i.remove();
+			}
+		}
+		return new ArrayList<Long>(gaps.keySet());
+	}
+
+	/**
+	 * false if the id has been seen before and should not be processed again
+	 */
+	public synchronized boolean add(long id) {
+		if (id <= lastId) {
+			return gaps.remove(id) != null;
+		}
+		long now = System.currentTimeMillis();
+		for (long missing = Math.max(lastId + 1, id - MAX_GAPS); missing < id; missing++) {
+			gaps.put(missing, now);
+		}
+		while (gaps.size() > MAX_GAPS) {
+			gaps.remove(gaps.keySet().iterator().next());
+		}
+		lastId = id;
+		return true;
+	}
+
+}
@@ -221,7 +221,20 @@ public class JtracConfigurer extends PropertyPlaceholderConfigurer implements Se
         props.setProperty("ldap.url", "");
         props.setProperty("ldap.activeDirectoryDomain", "");
         props.setProperty("ldap.searchBase", "");
+        props.setProperty("ldap.managerDn", "");
+        props.setProperty("ldap.managerPassword", "");
+        props.setProperty("ldap.credentialCacheSeconds", "0");
         props.setProperty("database.datasource.jndiname", "");
+        // read replicas, see ReplicaRoutingDataSource
+        props.setProperty("database.replica.urls", "");
+        props.setProperty("database.replica.maxLagSeconds", "30");
+        // node name when running clustered, see info.jtrac.cluster.ClusterManager
+        props.setProperty("cluster.node", "");
+        props.setProperty("cluster.nodeTimeoutSeconds", "30");
+        // spaces with at least this many items are searched in memory, -1 for never, see ItemFilterIndex
+        props.setProperty("search.filterIndex.minItems", "-1");
+        // nightly run of the job that archives closed items, see Space.archiveAfterDays
+        props.setProperty("archive.cron", "0 30 2 * * *");
         // set default properties that can be overridden by user if required
         setProperties(props);
         // finally set the property that spring is expecting, manually
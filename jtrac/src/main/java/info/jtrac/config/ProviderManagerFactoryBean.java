@@ -40,6 +40,9 @@ public class ProviderManagerFactoryBean implements FactoryBean<ProviderManager>
 	private String ldapUrl;
 	private String activeDirectoryDomain;
 	private String searchBase;
+	private String managerDn;
+	private String managerPassword;
+	private int credentialCacheSeconds;
 	private AuthenticationProvider authenticationProvider;
 
 	public void setUserDetailsService(UserDetailsService userDetailsService) {
@@ -58,6 +61,18 @@ public class ProviderManagerFactoryBean implements FactoryBean<ProviderManager>
 		this.searchBase = searchBase;
 	}
 
+	public void setManagerDn(String managerDn) {
+		this.managerDn = managerDn;
+	}
+
+	public void setManagerPassword(String managerPassword) {
+		this.managerPassword = managerPassword;
+	}
+
+	public void setCredentialCacheSeconds(int credentialCacheSeconds) {
+		this.credentialCacheSeconds = credentialCacheSeconds;
+	}
+
 	public void setAuthenticationProvider(AuthenticationProvider authenticationProvider) {
 		this.authenticationProvider = authenticationProvider;
 	}
@@ -71,6 +86,9 @@ public class ProviderManagerFactoryBean implements FactoryBean<ProviderManager>
 			ldapProvider.setLdapUrl(ldapUrl);
 			ldapProvider.setActiveDirectoryDomain(activeDirectoryDomain);
 			ldapProvider.setSearchBase(searchBase);
+			ldapProvider.setManagerDn(managerDn);
+			ldapProvider.setManagerPassword(managerPassword);
+			ldapProvider.setCredentialCacheSeconds(credentialCacheSeconds);
 			ldapProvider.setUserDetailsService(userDetailsService);
 			// **IMPORTANT!** we have to call this one time init ourselves
 			// as we are manually doing the factory stuff not Spring
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.config;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.StringUtils;
+
+/**
+ * sends connections for reads that run outside of a transaction (service methods
+ * with propagation SUPPORTS) or within a read only one to one of the replica
+ * databases listed in "database.replica.urls", everything else to the primary
+ *
+ * has to sit behind a LazyConnectionDataSourceProxy, JPA asks for a connection
+ * as soon as a transaction begins but Spring marks the transaction as active
+ * only after that, the lazy proxy defers the choice to the first statement
+ *
+ * a replica is used only while it is known to be at most "maxLagSeconds" behind,
+ * checkReplicas() writes a heartbeat row to the config table of the primary and
+ * reads it back from every replica, and for a session that has written something
+ * only once the heartbeat seen on the replica is newer than that write, so users
+ * always see their own changes (read your writes)
+ * if a replica cannot be reached the connection comes from the primary instead
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements InitializingBean, DisposableBean {
+
+	static final String HEARTBEAT_PARAM = "replica.heartbeat";
+
+	/**
+	 * commit time of the last write of the current web session, bound by the
+	 * ReplicaStickinessFilter, threads outside of requests like background jobs
+	 * keep their own
+	 */
+	private static final ThreadLocal<AtomicLong> LAST_WRITE = new ThreadLocal<AtomicLong>() {
+		@Override
+		protected AtomicLong initialValue() {
+			return new AtomicLong();
+		}
+	};
+
+	private final Logger logger = LoggerFactory.getLogger(getClass());
+
+	private DataSource primaryDataSource;
+	private String replicaUrls;
+	private String driverClassName;
+	private String username;
+	private String password;
+	private String validationQuery;
+	private int maxLagSeconds = 30;
+
+	private final List<Replica> replicas = new ArrayList<Replica>();
+	private final AtomicInteger next = new AtomicInteger();
+
+	private static class Replica {
+
+		private final String url;
+		private final DataSourceFactoryBean factoryBean;
+		private final DataSource dataSource;
+		// time of the last heartbeat found on the replica and how far behind it
+		// was when checked, -1 while the replica is not known to be usable
+		private volatile long heartbeat;
+		private volatile long lagMillis = -1;
+
+		Replica(String url, DataSourceFactoryBean factoryBean, DataSource dataSource) {
+			this.url = url;
+			this.factoryBean = factoryBean;
+			this.dataSource = dataSource;
+		}
+
+	}
+
+	public static void bindLastWrite(AtomicLong lastWrite) {
+		LAST_WRITE.set(lastWrite);
+	}
+
+	public static void unbindLastWrite() {
+		LAST_WRITE.remove();
+	}
+
+	public void setPrimaryDataSource(DataSource primaryDataSource) {
+		this.primaryDataSource = primaryDataSource;
+	}
+
+	public void setReplicaUrls(String replicaUrls) {
+		this.replicaUrls = replicaUrls;
+	}
+
+	public void setDriverClassName(String driverClassName) {
+		this.driverClassName = driverClassName;
+	}
+
+	public void setUsername(String username) {
+		this.username = username;
+	}
+
+	public void setPassword(String password) {
+		this.password = password;
+	}
+
+	public void setValidationQuery(String validationQuery) {
+		this.validationQuery = validationQuery;
+	}
+
+	public void setMaxLagSeconds(int maxLagSeconds) {
+		this.maxLagSeconds = maxLagSeconds;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (!StringUtils.hasText(replicaUrls)) {
+			return;
+		}
+		for (String url : StringUtils.commaDelimitedListToStringArray(replicaUrls)) {
+			url = url.trim();
+			DataSourceFactoryBean factoryBean = new DataSourceFactoryBean();
+			factoryBean.setDriverClassName(driverClassName);
+			factoryBean.setUrl(url);
+			factoryBean.setUsername(username);
+			factoryBean.setPassword(password);
+			factoryBean.setValidationQuery(validationQuery);
+			replicas.add(new Replica(url, factoryBean, factoryBean.getObject()));
+			logger.info("read replica configured: " + url);
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		for (Replica replica : replicas) {
+			replica.factoryBean.destroy();
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		Replica replica = selectReplica();
+		if (replica != null) {
+			try {
+				return replica.dataSource.getConnection();
+			} catch (SQLException e) {
+				replicaFailed(replica, e);
+			}
+		}
+		return primaryDataSource.getConnection();
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		Replica replica = selectReplica();
+		if (replica != null) {
+			try {
+				return replica.dataSource.getConnection(username, password);
+			} catch (SQLException e) {
+				replicaFailed(replica, e);
+			}
+		}
+		return primaryDataSource.getConnection(username, password);
+	}
+
+	/**
+	 * null when the primary has to be used
+	 */
+	private Replica selectReplica() {
+		if (replicas.isEmpty()) {
+			return null;
+		}
+		if (TransactionSynchronizationManager.isActualTransactionActive()
+				&& !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			rememberWrite();
+			return null;
+		}
+		long lastWrite = LAST_WRITE.get().get();
+		long maxLagMillis = maxLagSeconds * 1000L;
+		int start = next.getAndIncrement() & Integer.MAX_VALUE;
+		for (int i = 0; i < replicas.size(); i++) {
+			Replica replica = replicas.get((start + i) % replicas.size());
+			long lag = replica.lagMillis;
+			if (lag >= 0 && lag <= maxLagMillis && replica.heartbeat > lastWrite) {
+				return replica;
+			}
+		}
+		return null;
+	}
+
+	private void rememberWrite() {
+		final AtomicLong lastWrite = LAST_WRITE.get();
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			lastWrite.set(System.currentTimeMillis());
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				lastWrite.set(System.currentTimeMillis());
+			}
+		});
+	}
+
+	private void replicaFailed(Replica replica, SQLException e) {
+		replica.lagMillis = -1;
+		logger.warn("read replica not reachable, using primary until next check: " + replica.url + ", " + e.getMessage());
+	}
+
+	/**
+	 * writes the heartbeat to the primary and reads it back from every replica,
+	 * run every few seconds by the scheduler, see applicationContext-scheduler.xml
+	 * a replica that lags behind or cannot be read is not used until the next check
+	 */
+	public void checkReplicas() {
+		if (replicas.isEmpty()) {
+			return;
+		}
+		String now = String.valueOf(System.currentTimeMillis());
+		try {
+			JdbcTemplate primary = new JdbcTemplate(primaryDataSource);
+			if (primary.update("update config set value = ? where param = ?", now, HEARTBEAT_PARAM) == 0) {
+				primary.update("insert into config (param, value) values (?, ?)", HEARTBEAT_PARAM, now);
+			}
+		} catch (DataAccessException e) {
+			logger.warn("could not write replica heartbeat to primary: " + e.getMessage());
+		}
+		for (Replica replica : replicas) {
+			boolean wasUsable = replica.lagMillis >= 0 && replica.lagMillis <= maxLagSeconds * 1000L;
+			try {
+				List<String> values = new JdbcTemplate(replica.dataSource).queryForList(
+						"select value from config where param = ?", String.class, HEARTBEAT_PARAM);
+				long heartbeat = values.isEmpty() ? 0 : Long.parseLong(values.get(0));
+				replica.heartbeat = heartbeat;
+				replica.lagMillis = heartbeat == 0 ? -1 : Math.max(0, System.currentTimeMillis() - heartbeat);
+			} catch (DataAccessException e) {
+				replica.lagMillis = -1;
+				logger.debug("could not read replica heartbeat: " + replica.url + ", " + e.getMessage());
+			}
+			boolean usable = replica.lagMillis >= 0 && replica.lagMillis <= maxLagSeconds * 1000L;
+			if (usable != wasUsable) {
+				logger.info("read replica " + replica.url + (usable ? " in use" : " not used")
+						+ ", lag in milliseconds: " + replica.lagMillis);
+			}
+		}
+	}
+
+}
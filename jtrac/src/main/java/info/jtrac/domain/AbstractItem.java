@@ -19,7 +19,10 @@ package info.jtrac.domain;
 import info.jtrac.util.DateUtils;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 import org.springmodules.lucene.index.core.DocumentCreator;
@@ -159,6 +162,20 @@ public abstract class AbstractItem implements Serializable, DocumentCreator {
 		return getSpace().getMetadata().getStatusValue(status);
 	}
 
+	/**
+	 * the names of the tags of the item in alphabetical order, history has none
+	 */
+	public List<String> getTagNames() {
+		List<String> names = new ArrayList<String>();
+		if (itemTags != null) {
+			for (ItemTag itemTag : itemTags) {
+				names.add(itemTag.getTag().getName());
+			}
+		}
+		Collections.sort(names);
+		return names;
+	}
+
 	//===================================================
 
 	public Integer getStatus() {
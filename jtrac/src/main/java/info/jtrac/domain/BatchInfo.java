@@ -29,8 +29,10 @@ public class BatchInfo implements Serializable {
     private static final int BATCH_SIZE = 500;
     
     private int batchSize = BATCH_SIZE;  
-    private int totalSize;
-    private int currentPosition;
+    // progress is written by a background thread and read by the UI
+    private volatile int totalSize;
+    private volatile int currentPosition;
+    private volatile boolean cancelled;
 
     public boolean isComplete() {
         return currentPosition >= totalSize;
@@ -40,6 +42,18 @@ public class BatchInfo implements Serializable {
         currentPosition++;
     }
     
+    /**
+     * long running batches are expected to check this between
+     * units of work and stop early when set
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+    
     public int getBatchSize() {
         return batchSize;
     }
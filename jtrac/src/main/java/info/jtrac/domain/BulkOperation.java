@@ -0,0 +1,215 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.domain;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * a space wide bulk change, such as removing a space or clearing a deleted
+ * field, that is applied to the items of the space in chunks of ascending id
+ *
+ * the last item id processed is saved as a Config entry after every chunk
+ * so that an operation interrupted by a restart can be resumed, the config
+ * param identifies the operation and the value is the last item id
+ *
+ * when clustered the node running an operation holds a lease on it, another
+ * Config entry with the node name and the time the lease runs out, renewed
+ * with every chunk so that no other node runs the operation at the same time
+ */
+public class BulkOperation implements Serializable {
+
+	private static final String CONFIG_PREFIX = "bulk.";
+	private static final String LEASE_PREFIX = "lease.";
+
+	public enum Type {
+		REMOVE_SPACE, FIELD_TO_NULL, FIELD_VALUE_TO_NULL, STATUS_TO_OPEN
+	}
+
+	private final Type type;
+	private final long spaceId;
+	private final Field.Name fieldName;
+	private final int value;
+	private volatile long lastItemId;
+
+	private BulkOperation(Type type, long spaceId, Field.Name fieldName, int value) {
+		this.type = type;
+		this.spaceId = spaceId;
+		this.fieldName = fieldName;
+		this.value = value;
+	}
+
+	public static BulkOperation removeSpace(Space space) {
+		return new BulkOperation(Type.REMOVE_SPACE, space.getId(), null, 0);
+	}
+
+	public static BulkOperation fieldToNull(Space space, Field field) {
+		return new BulkOperation(Type.FIELD_TO_NULL, space.getId(), field.getName(), 0);
+	}
+
+	public static BulkOperation fieldValueToNull(Space space, Field field, int optionKey) {
+		return new BulkOperation(Type.FIELD_VALUE_TO_NULL, space.getId(), field.getName(), optionKey);
+	}
+
+	public static BulkOperation statusToOpen(Space space, int status) {
+		return new BulkOperation(Type.STATUS_TO_OPEN, space.getId(), null, status);
+	}
+
+	//==========================================================================
+
+	/**
+	 * the columns that pending operations are still clearing, a new field must
+	 * not be given one of them or its values would be cleared as well
+	 */
+	public static Set<Field.Name> getFieldNames(Collection<BulkOperation> operations) {
+		Set<Field.Name> fieldNames = new HashSet<Field.Name>();
+		for (BulkOperation operation : operations) {
+			if (operation.fieldName != null) {
+				fieldNames.add(operation.fieldName);
+			}
+		}
+		return fieldNames;
+	}
+
+	/**
+	 * the option keys of the field that pending operations are still clearing
+	 */
+	public static Set<Integer> getOptionKeys(Collection<BulkOperation> operations, Field.Name fieldName) {
+		Set<Integer> optionKeys = new HashSet<Integer>();
+		for (BulkOperation operation : operations) {
+			if (operation.type == Type.FIELD_VALUE_TO_NULL && operation.fieldName == fieldName) {
+				optionKeys.add(operation.value);
+			}
+		}
+		return optionKeys;
+	}
+
+	/**
+	 * the states that pending operations are still moving items out of
+	 */
+	public static Set<Integer> getStates(Collection<BulkOperation> operations) {
+		Set<Integer> states = new HashSet<Integer>();
+		for (BulkOperation operation : operations) {
+			if (operation.type == Type.STATUS_TO_OPEN) {
+				states.add(operation.value);
+			}
+		}
+		return states;
+	}
+
+	public static boolean isConfigParam(String param) {
+		return param.startsWith(CONFIG_PREFIX);
+	}
+
+	public static String getLeaseParam(String configParam) {
+		return LEASE_PREFIX + configParam;
+	}
+
+	/**
+	 * e.g. "1700000000000 node1", the time the lease runs out and the node
+	 */
+	public static String getLeaseValue(String nodeName, long expires) {
+		return expires + " " + nodeName;
+	}
+
+	public static boolean isLeaseHeld(String leaseValue, long now) {
+		return Long.parseLong(leaseValue.substring(0, leaseValue.indexOf(' '))) > now;
+	}
+
+	public static String getLeaseNodeName(String leaseValue) {
+		return leaseValue.substring(leaseValue.indexOf(' ') + 1);
+	}
+
+	/**
+	 * the reverse of getConfigParam() and getLastItemId()
+	 */
+	public static BulkOperation fromConfig(String param, String value) {
+		String[] parts = param.substring(CONFIG_PREFIX.length()).split("\\.");
+		Type type = Type.valueOf(parts[0].toUpperCase());
+		long spaceId = Long.parseLong(parts[1]);
+		Field.Name fieldName = null;
+		int optionKey = 0;
+		switch (type) {
+		case FIELD_TO_NULL:
+			fieldName = Field.convertToName(parts[2]);
+			break;
+		case FIELD_VALUE_TO_NULL:
+			fieldName = Field.convertToName(parts[2]);
+			optionKey = Integer.parseInt(parts[3]);
+			break;
+		case STATUS_TO_OPEN:
+			optionKey = Integer.parseInt(parts[2]);
+			break;
+		default:
+		}
+		BulkOperation operation = new BulkOperation(type, spaceId, fieldName, optionKey);
+		if (value != null) {
+			operation.setLastItemId(Long.parseLong(value));
+		}
+		return operation;
+	}
+
+	/**
+	 * e.g. "bulk.field_value_to_null.3.cusInt01.2", also used as the job name
+	 */
+	public String getConfigParam() {
+		StringBuilder sb = new StringBuilder(CONFIG_PREFIX);
+		sb.append(type.name().toLowerCase()).append('.').append(spaceId);
+		if (fieldName != null) {
+			sb.append('.').append(fieldName.getText());
+		}
+		if (type == Type.FIELD_VALUE_TO_NULL || type == Type.STATUS_TO_OPEN) {
+			sb.append('.').append(value);
+		}
+		return sb.toString();
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public long getSpaceId() {
+		return spaceId;
+	}
+
+	public Field.Name getFieldName() {
+		return fieldName;
+	}
+
+	/**
+	 * the option key for FIELD_VALUE_TO_NULL and the status for STATUS_TO_OPEN
+	 */
+	public int getValue() {
+		return value;
+	}
+
+	public long getLastItemId() {
+		return lastItemId;
+	}
+
+	public void setLastItemId(long lastItemId) {
+		this.lastItemId = lastItemId;
+	}
+
+	@Override
+	public String toString() {
+		return getConfigParam() + " after item " + lastItemId;
+	}
+
+}
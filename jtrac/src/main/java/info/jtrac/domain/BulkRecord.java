@@ -0,0 +1,153 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.domain;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * one record of a bulk item upload, either a new item or a new history
+ * entry (comment, status change) for an existing item, holds the raw
+ * values as received and after processing the outcome for the response
+ */
+public class BulkRecord {
+
+	public enum Type { ITEM, HISTORY }
+
+	private final int index;
+	private final Type type;
+	private final String key;
+	private final Map<String, String> values = new LinkedHashMap<String, String>();
+
+	private String refId;
+	private String error;
+
+	/**
+	 * @param key the space prefix code for a new item, the ref id of the item for a history entry
+	 */
+	public BulkRecord(int index, Type type, String key) {
+		this.index = index;
+		this.type = type;
+		this.key = key;
+	}
+
+	public void put(String name, String value) {
+		values.put(name, value);
+	}
+
+	public String get(String name) {
+		String value = values.get(name);
+		if (value == null || value.trim().length() == 0) {
+			return null;
+		}
+		return value.trim();
+	}
+
+	public boolean has(String name) {
+		return get(name) != null;
+	}
+
+	/**
+	 * converts the text received for a custom field, drop downs accept
+	 * either the option label or the key
+	 * @throws IllegalArgumentException with a message fit for the response
+	 */
+	public Object getValue(Field field) {
+		String text = get(field.getName().getText());
+		if (text == null) {
+			return null;
+		}
+		switch (field.getName().getType()) {
+			case 1:
+			case 2:
+			case 3:
+				for (Map.Entry<String, String> entry : field.getOptions().entrySet()) {
+					if (entry.getValue().equalsIgnoreCase(text) || entry.getKey().equals(text)) {
+						return Integer.valueOf(entry.getKey());
+					}
+				}
+				throw new IllegalArgumentException("invalid option for " + field.getName().getText() + ": " + text);
+			case 4:
+				try {
+					return Double.valueOf(text);
+				} catch (NumberFormatException e) {
+					throw new IllegalArgumentException("invalid number for " + field.getName().getText() + ": " + text);
+				}
+			case 6:
+				try {
+					// not shared, SimpleDateFormat is not thread safe
+					SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+					format.setLenient(false);
+					return format.parse(text);
+				} catch (ParseException e) {
+					throw new IllegalArgumentException("invalid date for " + field.getName().getText() + ", expected yyyy-MM-dd: " + text);
+				}
+			default:
+				return text;
+		}
+	}
+
+	public boolean isHistory() {
+		return type == Type.HISTORY;
+	}
+
+	public boolean isSuccess() {
+		return error == null && refId != null;
+	}
+
+	//==========================================================================
+
+	public int getIndex() {
+		return index;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public Map<String, String> getValues() {
+		return values;
+	}
+
+	public String getRefId() {
+		return refId;
+	}
+
+	public void setRefId(String refId) {
+		this.refId = refId;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	@Override
+	public String toString() {
+		return "index [" + index + "]; type [" + type + "]; key [" + key + "]; values " + values;
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.domain;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * a message from one node of a cluster to all others, written in the same
+ * transaction as the change it is about, so that caches such as the
+ * principal cache can be cleared on the nodes that did not make the change
+ */
+public class ClusterEvent implements Serializable {
+
+	public static final String PRINCIPALS = "principals";
+	public static final String USERS = "users";
+	public static final String CONFIG = "config";
+	public static final String INDEX_REBUILD = "index-rebuild";
+
+	private long id;
+	private long nodeId;
+	private String type;
+	private Date timeStamp;
+
+	public ClusterEvent() {
+		// zero arg constructor
+	}
+
+	public ClusterEvent(long nodeId, String type) {
+		this.nodeId = nodeId;
+		this.type = type;
+		this.timeStamp = new Date();
+	}
+
+	//==========================================================================
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public long getNodeId() {
+		return nodeId;
+	}
+
+	public void setNodeId(long nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public Date getTimeStamp() {
+		return timeStamp;
+	}
+
+	public void setTimeStamp(Date timeStamp) {
+		this.timeStamp = timeStamp;
+	}
+
+	@Override
+	public String toString() {
+		return "id [" + id + "], node [" + nodeId + "], type [" + type + "]";
+	}
+
+}
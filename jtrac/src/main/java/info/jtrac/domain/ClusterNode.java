@@ -0,0 +1,93 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.domain;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * one row per running JTrac node when several nodes share a database,
+ * "lastSeen" is updated every few seconds, the live node registered first
+ * is the leader that runs the scheduled jobs, see info.jtrac.cluster
+ */
+public class ClusterNode implements Serializable {
+
+	private long id;
+	private String name;
+	private String host;
+	private Date startedAt;
+	private Date lastSeen;
+
+	public ClusterNode() {
+		// zero arg constructor
+	}
+
+	public ClusterNode(String name, String host) {
+		this.name = name;
+		this.host = host;
+		this.startedAt = new Date();
+		this.lastSeen = startedAt;
+	}
+
+	//==========================================================================
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	public Date getStartedAt() {
+		return startedAt;
+	}
+
+	public void setStartedAt(Date startedAt) {
+		this.startedAt = startedAt;
+	}
+
+	public Date getLastSeen() {
+		return lastSeen;
+	}
+
+	public void setLastSeen(Date lastSeen) {
+		this.lastSeen = lastSeen;
+	}
+
+	@Override
+	public String toString() {
+		return "id [" + id + "], name [" + name + "], host [" + host + "]";
+	}
+
+}
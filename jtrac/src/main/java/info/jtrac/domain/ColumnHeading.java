@@ -75,7 +75,8 @@ public class ColumnHeading implements Serializable {
 		STATUS("status"),
 		ASSIGNED_TO("assignedTo"),
 		TIME_STAMP("timeStamp"),
-		SPACE("space");
+		SPACE("space"),
+		TAGS("tags");
 
 		private String text;
 
@@ -103,7 +104,7 @@ public class ColumnHeading implements Serializable {
 
 	public ColumnHeading(Name name) {
 		this.name = name;
-		if(name == DETAIL || name == SPACE) {
+		if(name == DETAIL || name == SPACE || name == TAGS) {
 			visible = false;
 		}
 	}
@@ -139,6 +140,8 @@ public class ColumnHeading implements Serializable {
 			list.add(new ColumnHeading(f));
 		}
 		list.add(new ColumnHeading(TIME_STAMP));
+		// last so that the visible flags of bookmarked searches stay valid
+		list.add(new ColumnHeading(TAGS));
 		return list;
 	}
 
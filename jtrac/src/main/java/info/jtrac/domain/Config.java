@@ -51,6 +51,7 @@ public class Config implements Serializable {
         PARAMS.add("locale.default");
         PARAMS.add("session.timeout");
         PARAMS.add("attachment.maxsize");
+        PARAMS.add("history.checkpoint.interval");
     }
     
     public static Set<String> getParams() {
@@ -82,6 +83,10 @@ public class Config implements Serializable {
         return param.startsWith("locale.");
     }
     
+    public boolean isHistoryConfig() {
+        return param.startsWith("history.");
+    }
+    
     //==========================================================================
     
     public String getParam() {
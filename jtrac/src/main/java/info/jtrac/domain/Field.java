@@ -21,6 +21,8 @@ import static info.jtrac.Constants.*;
 import info.jtrac.util.XmlUtils;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -195,14 +197,23 @@ public class Field implements Serializable {
     }
     
     public void addOption(String value) {
-        if (options == null) {
+        addOption(value, Collections.<Integer>emptySet());
+    }
+    
+    /**
+     * reserved keys are not given out again, see BulkOperation.getOptionKeys()
+     */
+    public void addOption(String value, Collection<Integer> reserved) {
+        Set<Integer> set = new TreeSet<Integer>(reserved);
+        if (options != null) {
+            for (String s : options.keySet()) {
+                set.add(new Integer(s));
+            }
+        }
+        if (set.isEmpty()) {
             addOption("1", value);
             return;
         }
-        Set<Integer> set = new TreeSet<Integer>();
-        for (String s : options.keySet()) {
-            set.add(new Integer(s));
-        }
         int last = set.toArray(new Integer[set.size()])[set.size() -1];
         addOption(last + 1 + "", value);             
     }
@@ -59,7 +59,8 @@ public class FilterCriteria implements Serializable {
 		NOT_EQ("notEqual"),
 		GT("greaterThan"),
 		LT("lessThan"),
-		BETWEEN("between");
+		BETWEEN("between"),
+		ALL("all");
 
 		private String key;
 
@@ -32,6 +32,7 @@ public class History extends AbstractItem {
 	private String comment;
 	private Double actualEffort;
 	private Attachment attachment;
+	private Long changes; // null for a full snapshot, see HistoryDelta
 
 	public History() {
 		// zero arg constructor
@@ -133,6 +134,14 @@ public class History extends AbstractItem {
 		this.attachment = attachment;
 	}
 
+	public Long getChanges() {
+		return changes;
+	}
+
+	public void setChanges(Long changes) {
+		this.changes = changes;
+	}
+
 	public Double getActualEffort() {
 		return actualEffort;
 	}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * history entries can be stored as a sparse change set instead of a full
+ * snapshot of the item, the "changes" bit mask of such an entry says which
+ * of the snapshot columns (summary, detail, planned effort and the custom
+ * fields) were changed, columns without their bit are null in the database
+ * and carry over the value of the entry before, a set bit with a null value
+ * means that the field was cleared
+ *
+ * entries without a bit mask are full snapshots, this is true for everything
+ * written before change sets were introduced and for the periodic checkpoints,
+ * so the state of any entry can be rebuilt from the nearest checkpoint at or
+ * before it, the other columns of an entry (status, assigned to, comment etc.)
+ * describe the event itself and are always stored
+ */
+public final class HistoryDelta {
+
+	private static final long SUMMARY = 1L;
+	private static final long DETAIL = 1L << 1;
+	private static final long PLANNED_EFFORT = 1L << 2;
+	private static final int FIELDS = 3;
+
+	private static final Comparator<History> BY_ID = new Comparator<History>() {
+		@Override
+		public int compare(History left, History right) {
+			return left.getId() < right.getId() ? -1 : (left.getId() == right.getId() ? 0 : 1);
+		}
+	};
+
+	private HistoryDelta() {
+		// static helpers only
+	}
+
+	public static long bit(Field.Name fieldName) {
+		return 1L << (FIELDS + fieldName.ordinal());
+	}
+
+	/**
+	 * true if the entry holds a value for the field, either because it is a full
+	 * snapshot or because the field was changed
+	 */
+	public static boolean hasValue(Long changes, Field.Name fieldName) {
+		return changes == null || (changes & bit(fieldName)) != 0;
+	}
+
+	/**
+	 * the bit mask of snapshot columns in which the second differs from the first
+	 */
+	public static long diff(AbstractItem before, AbstractItem after) {
+		long changes = 0;
+		if (!same(before.getSummary(), after.getSummary())) {
+			changes |= SUMMARY;
+		}
+		if (!same(before.getDetail(), after.getDetail())) {
+			changes |= DETAIL;
+		}
+		if (!same(before.getPlannedEffort(), after.getPlannedEffort())) {
+			changes |= PLANNED_EFFORT;
+		}
+		for (Field.Name fieldName : Field.Name.values()) {
+			if (!same(before.getValue(fieldName), after.getValue(fieldName))) {
+				changes |= bit(fieldName);
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * copies the snapshot columns of the given state onto the entry
+	 */
+	public static void copyState(AbstractItem state, History history) {
+		history.setSummary(state.getSummary());
+		history.setDetail(state.getDetail());
+		history.setPlannedEffort(state.getPlannedEffort());
+		for (Field.Name fieldName : Field.Name.values()) {
+			history.setValue(fieldName, state.getValue(fieldName));
+		}
+		history.setChanges(null);
+	}
+
+	/**
+	 * turns an entry holding the full snapshot into a change set against the
+	 * state of the entry before it
+	 */
+	public static void strip(History history, AbstractItem before) {
+		long changes = diff(before, history);
+		if ((changes & SUMMARY) == 0) {
+			history.setSummary(null);
+		}
+		if ((changes & DETAIL) == 0) {
+			history.setDetail(null);
+		}
+		if ((changes & PLANNED_EFFORT) == 0) {
+			history.setPlannedEffort(null);
+		}
+		for (Field.Name fieldName : Field.Name.values()) {
+			if ((changes & bit(fieldName)) == 0) {
+				history.setValue(fieldName, null);
+			}
+		}
+		history.setChanges(changes);
+	}
+
+	/**
+	 * moves the state forward by one entry, a full snapshot replaces it
+	 */
+	public static void apply(AbstractItem state, History history) {
+		Long changes = history.getChanges();
+		if (changes == null || (changes & SUMMARY) != 0) {
+			state.setSummary(history.getSummary());
+		}
+		if (changes == null || (changes & DETAIL) != 0) {
+			state.setDetail(history.getDetail());
+		}
+		if (changes == null || (changes & PLANNED_EFFORT) != 0) {
+			state.setPlannedEffort(history.getPlannedEffort());
+		}
+		for (Field.Name fieldName : Field.Name.values()) {
+			if (hasValue(changes, fieldName)) {
+				state.setValue(fieldName, history.getValue(fieldName));
+			}
+		}
+	}
+
+	/**
+	 * the entries of one item in id order with every one of them holding the
+	 * full snapshot, entries that already do are returned as they are and the
+	 * others as copies that are not managed by the persistence context
+	 */
+	public static List<History> expand(Collection<History> history) {
+		List<History> sorted = new ArrayList<History>(history);
+		Collections.sort(sorted, BY_ID);
+		boolean sparse = false;
+		for (History h : sorted) {
+			if (h.getChanges() != null) {
+				sparse = true;
+				break;
+			}
+		}
+		if (!sparse) {
+			return sorted;
+		}
+		return snapshots(sorted, false);
+	}
+
+	/**
+	 * the number of entries since the last full snapshot, including it, taken
+	 * from the newest entry backwards
+	 */
+	public static int countSinceCheckpoint(Collection<History> history) {
+		List<History> sorted = new ArrayList<History>(history);
+		Collections.sort(sorted, BY_ID);
+		int count = 0;
+		for (int i = sorted.size() - 1; i >= 0; i--) {
+			count++;
+			if (sorted.get(i).getChanges() == null) {
+				break;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * rewrites the entries of one item so that the first and every interval-th
+	 * entry after it hold the full snapshot and all others only their changes,
+	 * an interval below two turns everything back into full snapshots, the
+	 * state of every entry stays the same, returns the number of entries that
+	 * were rewritten
+	 */
+	public static int compact(Collection<History> history, int interval) {
+		List<History> sorted = new ArrayList<History>(history);
+		Collections.sort(sorted, BY_ID);
+		List<History> states = snapshots(sorted, true);
+		int count = 0;
+		for (int i = 0; i < sorted.size(); i++) {
+			History h = sorted.get(i);
+			Long before = h.getChanges();
+			copyState(states.get(i), h);
+			if (interval > 1 && i % interval != 0) {
+				strip(h, states.get(i - 1));
+			}
+			if (before == null ? h.getChanges() != null : !before.equals(h.getChanges())) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static List<History> snapshots(List<History> sorted, boolean copyAll) {
+		List<History> list = new ArrayList<History>(sorted.size());
+		History state = new History();
+		for (History h : sorted) {
+			apply(state, h);
+			if (h.getChanges() == null && !copyAll) {
+				list.add(h);
+			} else {
+				list.add(copy(h, state));
+			}
+		}
+		return list;
+	}
+
+	private static History copy(History h, AbstractItem state) {
+		History copy = new History();
+		copy.setId(h.getId());
+		copy.setVersion(h.getVersion());
+		copy.setParent(h.getParent());
+		copy.setType(h.getType());
+		copy.setComment(h.getComment());
+		copy.setActualEffort(h.getActualEffort());
+		copy.setAttachment(h.getAttachment());
+		copy.setTimeStamp(h.getTimeStamp());
+		copy.setLoggedBy(h.getLoggedBy());
+		copy.setAssignedTo(h.getAssignedTo());
+		copy.setStatus(h.getStatus());
+		copyState(state, copy);
+		return copy;
+	}
+
+	private static boolean same(Object left, Object right) {
+		if (left == null || right == null) {
+			return left == right;
+		}
+		// a java.sql.Timestamp never equals a java.util.Date
+		if (left instanceof Date && right instanceof Date) {
+			return ((Date) left).getTime() == ((Date) right).getTime();
+		}
+		return left.equals(right);
+	}
+
+}
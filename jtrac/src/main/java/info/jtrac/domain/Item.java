@@ -21,6 +21,7 @@ import info.jtrac.util.XmlUtils;
 
 import java.io.BufferedReader;
 import java.io.StringReader;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
@@ -94,6 +95,32 @@ public class Item extends AbstractItem {
 		getRelatedItems().add(itemItem);
 	}
 
+	/**
+	 * @return false if the item already has the tag
+	 */
+	public boolean addTag(Tag tag) {
+		if (getItemTags() == null) {
+			setItemTags(new LinkedHashSet<ItemTag>());
+		}
+		return getItemTags().add(new ItemTag(tag));
+	}
+
+	/**
+	 * @return false if the item does not have the tag
+	 */
+	public boolean removeTag(String tagName) {
+		if (getItemTags() == null) {
+			return false;
+		}
+		for (Iterator<ItemTag> i = getItemTags().iterator(); i.hasNext();) {
+			if (i.next().getTag().getName().equals(tagName)) {
+				i.remove();
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Lucene DocumentCreator implementation
 	 */
@@ -158,6 +185,13 @@ public class Item extends AbstractItem {
 		return history;
 	}
 
+	/**
+	 * true for items loaded from the archive tables, see ArchivedItem
+	 */
+	public boolean isArchived() {
+		return false;
+	}
+
 	public void setHistory(Set<History> history) {
 		this.history = history;
 	}
@@ -261,7 +295,7 @@ public class Item extends AbstractItem {
 		// history
 		if (this.getHistory() != null) {
 			Element historyRoot = root.addElement("history");
-			for(History history : this.getHistory()) {
+			for(History history : HistoryDelta.expand(this.getHistory())) {
 				Element event = historyRoot.addElement("event");
 				// index
 				event.addAttribute("eventId", (history.getIndex() + 1) + "");
@@ -426,7 +460,7 @@ public class Item extends AbstractItem {
 
 		if (this.getHistory() != null) {
 			row = 1;
-			for(History history : this.getHistory()) {
+			for(History history : HistoryDelta.expand(this.getHistory())) {
 				sb.append("<tr valign='top'" + (row % 2 == 0 ? altStyle : "") + ">");
 				sb.append("  <td" + tdStyle + ">" + history.getLoggedBy().getName() + "</td>");
 				sb.append("  <td" + tdStyle + ">" + history.getStatusValue() +"</td>");
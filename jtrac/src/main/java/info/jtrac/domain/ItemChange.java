@@ -0,0 +1,140 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.domain;
+
+import java.io.Serializable;
+import java.util.Date;
+
+/**
+ * one row per change to an item, written in the same transaction as the change
+ * itself so that polling clients (e.g. the Mylyn connector) can ask for
+ * "everything after change id X" instead of re-running full queries
+ *
+ * deliberately has no associations, rows stay valid when items are deleted
+ * and reading a page of changes does not join anything
+ */
+public class ItemChange implements Serializable {
+
+	public static final int CREATED = 1;
+	public static final int UPDATED = 2;
+	public static final int DELETED = 3;
+	public static final int ARCHIVED = 4;
+
+	private long id;
+	private long itemId;
+	private long spaceId;
+	private long sequenceNum;
+	private Long historyId;
+	private int version;
+	private int type;
+	private Date timeStamp;
+
+	public ItemChange() {
+		// zero arg constructor
+	}
+
+	public ItemChange(Item item, History history, int type) {
+		this.itemId = item.getId();
+		this.spaceId = item.getSpace().getId();
+		this.sequenceNum = item.getSequenceNum();
+		this.historyId = history == null ? null : history.getId();
+		this.version = item.getVersion();
+		this.type = type;
+		this.timeStamp = new Date();
+	}
+
+	public String getTypeName() {
+		switch (type) {
+			case CREATED: return "created";
+			case DELETED: return "deleted";
+			case ARCHIVED: return "archived";
+			default: return "updated";
+		}
+	}
+
+	//==========================================================================
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public long getItemId() {
+		return itemId;
+	}
+
+	public void setItemId(long itemId) {
+		this.itemId = itemId;
+	}
+
+	public long getSpaceId() {
+		return spaceId;
+	}
+
+	public void setSpaceId(long spaceId) {
+		this.spaceId = spaceId;
+	}
+
+	public long getSequenceNum() {
+		return sequenceNum;
+	}
+
+	public void setSequenceNum(long sequenceNum) {
+		this.sequenceNum = sequenceNum;
+	}
+
+	public Long getHistoryId() {
+		return historyId;
+	}
+
+	public void setHistoryId(Long historyId) {
+		this.historyId = historyId;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public void setVersion(int version) {
+		this.version = version;
+	}
+
+	public int getType() {
+		return type;
+	}
+
+	public void setType(int type) {
+		this.type = type;
+	}
+
+	public Date getTimeStamp() {
+		return timeStamp;
+	}
+
+	public void setTimeStamp(Date timeStamp) {
+		this.timeStamp = timeStamp;
+	}
+
+	@Override
+	public String toString() {
+		return "id [" + id + "]; itemId [" + itemId + "]; version [" + version + "]; type [" + type + "]";
+	}
+
+}
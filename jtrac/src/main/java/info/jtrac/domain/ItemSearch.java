@@ -41,6 +41,7 @@ public class ItemSearch implements Serializable {
 	private String sortFieldName = "id";
 	private boolean sortDescending = true;
 	private boolean showHistory;
+	private boolean archived; // search the archive instead of the live items
 	private boolean batchMode;
 
 	private long selectedItemId;
@@ -133,6 +134,25 @@ public class ItemSearch implements Serializable {
 		return getStringValue(ch);
 	}
 
+	/**
+	 * the tags filtered on, null if none, see isAllTagsRequired()
+	 */
+	public List<String> getTagNames() {
+		ColumnHeading ch = getColumnHeading(TAGS);
+		if(ch == null || !ch.filterHasValueList()) {
+			return null;
+		}
+		return ch.getFilterCriteria().getValues();
+	}
+
+	/**
+	 * true if items must have all tags filtered on, else any one of them is enough
+	 */
+	public boolean isAllTagsRequired() {
+		ColumnHeading ch = getColumnHeading(TAGS);
+		return ch != null && ch.getFilterCriteria().getExpression() == FilterCriteria.Expression.ALL;
+	}
+
 	public Collection<Space> getSelectedSpaces() {
 		ColumnHeading ch = getColumnHeading(SPACE);
 		List<Space> values = ch.getFilterCriteria().getValues();
@@ -171,6 +191,12 @@ public class ItemSearch implements Serializable {
 		ch.getFilterCriteria().setValues(getSingletonList(i));
 	}
 
+	public void setTagName(String tagName) {
+		ColumnHeading ch = getColumnHeading(TAGS);
+		ch.getFilterCriteria().setExpression(FilterCriteria.Expression.IN);
+		ch.getFilterCriteria().setValues(getSingletonList(tagName));
+	}
+
 	public List<ColumnHeading> getColumnHeadingsToRender() {
 		List<ColumnHeading> list = new ArrayList<ColumnHeading>(columnHeadings.size());
 		for(ColumnHeading ch : columnHeadings) {
@@ -255,6 +281,14 @@ public class ItemSearch implements Serializable {
 		this.showHistory = showHistory;
 	}
 
+	public boolean isArchived() {
+		return archived;
+	}
+
+	public void setArchived(boolean archived) {
+		this.archived = archived;
+	}
+
 	public long getSelectedItemId() {
 		return selectedItemId;
 	}
@@ -201,9 +201,18 @@ public class Metadata implements Serializable {
 	}
 
 	public void addState(String stateName) {
-		// first get the max of existing state keys
+		addState(stateName, Collections.<Integer>emptySet());
+	}
+
+	/**
+	 * reserved states are not given out again, see BulkOperation.getStates()
+	 */
+	public void addState(String stateName, Collection<Integer> reserved) {
+		// first get the max of existing and reserved state keys
+		Set<Integer> used = new HashSet<Integer>(states.keySet());
+		used.addAll(reserved);
 		int maxStatus = 0;
-		for (int status : states.keySet()) {
+		for (int status : used) {
 			if (status > maxStatus && status != State.CLOSED) {
 				maxStatus = status;
 			}
@@ -253,16 +262,29 @@ public class Metadata implements Serializable {
 	}
 
 	public Set<Field.Name> getUnusedFieldNames() {
+		return getUnusedFieldNames(Collections.<Field.Name>emptySet());
+	}
+
+	/**
+	 * reserved names are not free yet because the items of the space still
+	 * have values in those columns, see BulkOperation.getFieldNames()
+	 */
+	public Set<Field.Name> getUnusedFieldNames(Collection<Field.Name> reserved) {
 		EnumSet<Field.Name> allFieldNames = EnumSet.allOf(Field.Name.class);
 		for (Field f : getFields().values()) {
 			allFieldNames.remove(f.getName());
 		}
+		allFieldNames.removeAll(reserved);
 		return allFieldNames;
 	}
 
 	public Map<String, String> getAvailableFieldTypes() {
+		return getAvailableFieldTypes(Collections.<Field.Name>emptySet());
+	}
+
+	public Map<String, String> getAvailableFieldTypes(Collection<Field.Name> reserved) {
 		Map<String, String> fieldTypes = new LinkedHashMap<String, String>();
-		for (Field.Name fieldName : getUnusedFieldNames()) {
+		for (Field.Name fieldName : getUnusedFieldNames(reserved)) {
 			String fieldType = fieldTypes.get(fieldName.getType() + "");
 			if (fieldType == null) {
 				fieldTypes.put(fieldName.getType() + "", "1");
@@ -276,7 +298,11 @@ public class Metadata implements Serializable {
 	}
 
 	public Field getNextAvailableField(int fieldType) {
-		for (Field.Name fieldName : getUnusedFieldNames()) {
+		return getNextAvailableField(fieldType, Collections.<Field.Name>emptySet());
+	}
+
+	public Field getNextAvailableField(int fieldType, Collection<Field.Name> reserved) {
+		for (Field.Name fieldName : getUnusedFieldNames(reserved)) {
 			if (fieldName.getType() == fieldType) {
 				return new Field(fieldName + "");
 			}
@@ -39,6 +39,7 @@ public class Space implements Serializable, Comparable<Space> {
 	private String name;
 	private String description;
 	private boolean guestAllowed;
+	private Integer archiveAfterDays; // null for never
 	private Metadata metadata;
 
 	public Space() {
@@ -111,6 +112,14 @@ public class Space implements Serializable, Comparable<Space> {
 		this.guestAllowed = guestAllowed;
 	}
 
+	public Integer getArchiveAfterDays() {
+		return archiveAfterDays;
+	}
+
+	public void setArchiveAfterDays(Integer archiveAfterDays) {
+		this.archiveAfterDays = archiveAfterDays;
+	}
+
 	@Override
 	public String toString() {
 		StringBuffer sb = new StringBuffer();
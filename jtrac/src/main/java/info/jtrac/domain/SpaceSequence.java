@@ -34,6 +34,15 @@ public class SpaceSequence implements Serializable {
         return nextSeqNum++;
     }
     
+    /**
+     * reserves a block of numbers at once, used by bulk inserts
+     */
+    public long getAndAdd(int count) {
+        long next = nextSeqNum;
+        nextSeqNum += count;
+        return next;
+    }
+    
     public long getNextSeqNum() {
         return nextSeqNum;
     }
@@ -61,9 +61,27 @@ public class Tag implements Serializable {
 		this.description = description;
 	}
 
+	// names are unique, tags not yet stored are equal to stored ones of the same name
 	@Override
 	public int hashCode() {
-		return (int) id;
+		return name == null ? 0 : name.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof Tag)) {
+			return false;
+		}
+		final Tag t = (Tag) o;
+		return name == null ? t.getName() == null : name.equals(t.getName());
+	}
+
+	@Override
+	public String toString() {
+		return name;
 	}
 
 }
@@ -84,6 +84,31 @@ public class User implements UserDetails, Serializable, Comparable<User> {
 		userSpaceRoles.removeAll(toRemove);
 	}
 
+	/**
+	 * a copy that can be changed without affecting this user, used to hand
+	 * out cached principals, the space roles are copied as well but the
+	 * spaces and metadata they point to are shared
+	 */
+	public User copy() {
+		User copy = new User();
+		copy.id = id;
+		copy.type = type;
+		copy.parent = parent;
+		copy.loginName = loginName;
+		copy.name = name;
+		copy.password = password;
+		copy.email = email;
+		copy.metadata = metadata;
+		copy.locale = locale;
+		copy.locked = locked;
+		for (UserSpaceRole usr : userSpaceRoles) {
+			UserSpaceRole usrCopy = new UserSpaceRole(copy, usr.getSpace(), usr.getRoleKey());
+			usrCopy.setId(usr.getId());
+			copy.userSpaceRoles.add(usrCopy);
+		}
+		return copy;
+	}
+
 	/**
 	 * when the passed space is null this has a special significance it will
 	 * return roles that are 'global'
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.job;
+
+import info.jtrac.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * entry point for everything that should not run on a request thread
+ * pools are plain Spring ThreadPoolTaskExecutors with bounded queues,
+ * configured by name in applicationContext.xml, e.g. "index" for Lucene
+ * updates (single threaded so that writers do not contend for the index lock),
+ * "mail" for the outgoing mail queue and "maintenance" for admin jobs
+ *
+ * two styles of work are supported, short fire-and-forget tasks via
+ * execute() and long running, observable, cancellable jobs via submit()
+ * run time of both is recorded in Metrics, queue depth is visible via getPools()
+ */
+public class JobManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(JobManager.class);
+
+	private static final int MAX_HISTORY = 100;
+
+	private Map<String, ThreadPoolTaskExecutor> pools = Collections.emptyMap();
+	private Metrics metrics;
+
+	private final AtomicLong sequence = new AtomicLong();
+	private final Map<Long, JobStatus> jobs = new LinkedHashMap<Long, JobStatus>();
+
+	public void setPools(Map<String, ThreadPoolTaskExecutor> pools) {
+		this.pools = pools;
+	}
+
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public TaskExecutor getExecutor(String pool) {
+		ThreadPoolTaskExecutor executor = pools.get(pool);
+		if (executor == null) {
+			throw new IllegalArgumentException("no such pool: '" + pool + "'");
+		}
+		return executor;
+	}
+
+	/**
+	 * queue a short task, a full queue is logged and reported to the caller
+	 * depending on the rejection policy of the pool (CALLER_RUNS never rejects)
+	 */
+	public void execute(final String pool, final Runnable task) {
+		final long queued = System.currentTimeMillis();
+		try {
+			getExecutor(pool).execute(new Runnable() {
+				public void run() {
+					long start = System.currentTimeMillis();
+					try {
+						task.run();
+					} catch (RuntimeException e) {
+						logger.error("task failed in pool '" + pool + "'", e);
+					} finally {
+						long end = System.currentTimeMillis();
+						record("Pool." + pool, end - start);
+						record("Pool." + pool + ".wait", start - queued);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			logger.error("pool '" + pool + "' is saturated, task rejected");
+			record("Pool." + pool + ".rejected", 0);
+			throw e;
+		}
+	}
+
+	/**
+	 * queue a long running job and return a handle that can be polled and cancelled
+	 * if the pool rejects the job its status is marked FAILED before the exception
+	 * is passed on, so that isActive() does not keep reporting it as queued
+	 */
+	public JobStatus submit(final String pool, final Job job) {
+		ThreadPoolTaskExecutor executor = (ThreadPoolTaskExecutor) getExecutor(pool);
+		final JobStatus status = new JobStatus(sequence.incrementAndGet(), job.getName(), pool);
+		register(status);
+		Runnable task = new Runnable() {
+			public void run() {
+				if (status.isCancelled()) {
+					status.finished(JobStatus.State.CANCELLED, null);
+					return;
+				}
+				logger.info("job started: " + job.getName() + " [" + status.getId() + "]");
+				status.started();
+				try {
+					job.run(status);
+					status.finished(status.isCancelled() ? JobStatus.State.CANCELLED : JobStatus.State.COMPLETED, status.getMessage());
+				} catch (Throwable t) {
+					logger.error("job failed: " + job.getName() + " [" + status.getId() + "]", t);
+					status.finished(JobStatus.State.FAILED, t.getMessage() == null ? t.toString() : t.getMessage());
+				}
+				logger.info("job " + status.getState() + ": " + job.getName() + " [" + status.getId() + "] in "
+						+ status.getDuration() + " ms");
+				record("Job." + job.getName(), status.getDuration());
+			}
+		};
+		try {
+			status.setFuture(executor.submit(task));
+		} catch (RejectedExecutionException e) {
+			logger.error("pool '" + pool + "' is saturated, job rejected: " + job.getName() + " [" + status.getId() + "]");
+			record("Pool." + pool + ".rejected", 0);
+			status.finished(JobStatus.State.FAILED, "pool '" + pool + "' is saturated");
+			throw e;
+		}
+		return status;
+	}
+
+	public boolean cancel(long id) {
+		JobStatus status = getStatus(id);
+		if (status == null) {
+			return false;
+		}
+		logger.info("cancel requested for job: " + status.getName() + " [" + id + "]");
+		return status.cancel();
+	}
+
+	public JobStatus getStatus(long id) {
+		synchronized (jobs) {
+			return jobs.get(id);
+		}
+	}
+
+	/**
+	 * most recently submitted first
+	 */
+	public List<JobStatus> getJobs() {
+		List<JobStatus> list;
+		synchronized (jobs) {
+			list = new ArrayList<JobStatus>(jobs.values());
+		}
+		Collections.reverse(list);
+		return list;
+	}
+
+	/**
+	 * true if a job with the given name is queued or running, used to avoid
+	 * piling up scheduled jobs when a previous run has not finished
+	 */
+	public boolean isActive(String name) {
+		for (JobStatus status : getJobs()) {
+			if (status.getName().equals(name) && !status.isDone()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public List<PoolInfo> getPools() {
+		List<PoolInfo> list = new ArrayList<PoolInfo>();
+		for (Map.Entry<String, ThreadPoolTaskExecutor> entry : pools.entrySet()) {
+			list.add(new PoolInfo(entry.getKey(), entry.getValue().getThreadPoolExecutor()));
+		}
+		return list;
+	}
+
+	/**
+	 * ask running jobs to stop, the pools themselves are shut down by Spring
+	 */
+	public void shutdown() {
+		for (JobStatus status : getJobs()) {
+			status.cancel();
+		}
+	}
+
+	private void register(JobStatus status) {
+		synchronized (jobs) {
+			jobs.put(status.getId(), status);
+			// forget the oldest finished jobs
+			Iterator<JobStatus> i = jobs.values().iterator();
+			while (jobs.size() > MAX_HISTORY && i.hasNext()) {
+				if (i.next().isDone()) {
+					i.remove();
+				}
+			}
+		}
+	}
+
+	private void record(String name, long millis) {
+		if (metrics != null) {
+			metrics.record(name, millis);
+		}
+	}
+
+	/**
+	 * point in time snapshot of a pool for display
+	 */
+	public static class PoolInfo {
+
+		private final String name;
+		private final int poolSize;
+		private final int activeCount;
+		private final int queueSize;
+		private final int remainingCapacity;
+		private final long completedCount;
+
+		PoolInfo(String name, ThreadPoolExecutor executor) {
+			this.name = name;
+			this.poolSize = executor.getMaximumPoolSize();
+			this.activeCount = executor.getActiveCount();
+			this.queueSize = executor.getQueue().size();
+			this.remainingCapacity = executor.getQueue().remainingCapacity();
+			this.completedCount = executor.getCompletedTaskCount();
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getPoolSize() {
+			return poolSize;
+		}
+
+		public int getActiveCount() {
+			return activeCount;
+		}
+
+		public int getQueueSize() {
+			return queueSize;
+		}
+
+		public int getRemainingCapacity() {
+			return remainingCapacity;
+		}
+
+		public long getCompletedCount() {
+			return completedCount;
+		}
+
+	}
+
+}
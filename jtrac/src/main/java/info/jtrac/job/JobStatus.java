@@ -0,0 +1,139 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.job;
+
+import info.jtrac.domain.BatchInfo;
+
+import java.util.Date;
+import java.util.concurrent.Future;
+
+/**
+ * status and progress of a single job submitted to the JobManager
+ * being a BatchInfo, this can be passed straight into service methods
+ * that already report progress that way, like Jtrac.rebuildIndexes()
+ */
+public class JobStatus extends BatchInfo {
+
+	public enum State {
+		QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+	}
+
+	private final long id;
+	private final String name;
+	private final String pool;
+	private final Date submitted = new Date();
+	private volatile Date started;
+	private volatile Date finished;
+	private volatile State state = State.QUEUED;
+	private volatile String message;
+	private transient volatile Future<?> future;
+
+	public JobStatus(long id, String name, String pool) {
+		this.id = id;
+		this.name = name;
+		this.pool = pool;
+	}
+
+	void setFuture(Future<?> future) {
+		this.future = future;
+	}
+
+	void started() {
+		started = new Date();
+		state = State.RUNNING;
+	}
+
+	void finished(State state, String message) {
+		this.finished = new Date();
+		this.state = state;
+		this.message = message;
+	}
+
+	boolean cancel() {
+		if (isDone()) {
+			return false;
+		}
+		setCancelled(true);
+		Future<?> f = future;
+		if (state == State.QUEUED && f != null && f.cancel(false)) {
+			finished(State.CANCELLED, null);
+		}
+		return true;
+	}
+
+	public boolean isDone() {
+		return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+	}
+
+	/**
+	 * elapsed time in milliseconds, up to now if the job is still running
+	 */
+	public long getDuration() {
+		if (started == null) {
+			return 0;
+		}
+		Date end = finished == null ? new Date() : finished;
+		return end.getTime() - started.getTime();
+	}
+
+	public int getPercentComplete() {
+		int total = getTotalSize();
+		if (total == 0) {
+			return isDone() ? 100 : 0;
+		}
+		return (int) (100L * getCurrentPosition() / total);
+	}
+
+	//==========================================================================
+
+	public long getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getPool() {
+		return pool;
+	}
+
+	public Date getSubmitted() {
+		return submitted;
+	}
+
+	public Date getStarted() {
+		return started;
+	}
+
+	public Date getFinished() {
+		return finished;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+}
@@ -17,6 +17,10 @@
 package info.jtrac.lucene;
 
 import info.jtrac.domain.AbstractItem;
+
+import java.util.List;
+
+import org.apache.lucene.document.Document;
 import org.springmodules.lucene.index.support.LuceneIndexSupport;
 
 /**
@@ -29,4 +33,16 @@ public class Indexer extends LuceneIndexSupport {
         getLuceneIndexTemplate().addDocument(item);
     }    
     
+    /**
+     * documents already created from items, so that the index can be
+     * updated on a background thread without touching Hibernate entities
+     */
+    public void index(List<Document> documents) {
+        getLuceneIndexTemplate().addDocuments(documents);
+    }
+    
+    public void optimize() {
+        getLuceneIndexTemplate().optimize();
+    }
+    
 }
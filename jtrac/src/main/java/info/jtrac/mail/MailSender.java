@@ -19,6 +19,7 @@ package info.jtrac.mail;
 import info.jtrac.domain.Item;
 import info.jtrac.domain.ItemUser;
 import info.jtrac.domain.User;
+import info.jtrac.job.JobManager;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -27,6 +28,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.mail.Header;
 import javax.mail.Session;
@@ -53,6 +55,7 @@ public class MailSender {
 	private String url;
 	private MessageSource messageSource;
 	private Locale defaultLocale;
+	private JobManager jobManager;
 
 	public MailSender(Map<String, String> config, MessageSource messageSource,
 			String defaultLocale) {
@@ -79,6 +82,13 @@ public class MailSender {
 		logger.info("email hyperlink base url set to '" + this.url + "'");
 	}
 
+	/**
+	 * see sendInNewThread()
+	 */
+	public void setJobManager(JobManager jobManager) {
+		this.jobManager = jobManager;
+	}
+
 	/**
 	 * we bend the rules a little and fire off a new thread for sending
 	 * an email message.  This has the advantage of not slowing down the item
@@ -87,9 +97,12 @@ public class MailSender {
 	 * (and now I guess in many JTrac installations worldwide)
 	 * for quite a while now, on Tomcat without any problems.  This helps a lot
 	 * especially when the SMTP server is slow to respond, etc.
+	 * The message is now handed over to the "mail" pool of the JobManager so
+	 * that a slow or unreachable SMTP server never holds up the user, with a
+	 * thread per message only if no JobManager has been set.
 	 */
 	private void sendInNewThread(final MimeMessage message) {
-		new Thread() {
+		Runnable task = new Runnable() {
 			@Override
 			public void run() {
 				logger.debug("send mail thread start");
@@ -112,7 +125,16 @@ public class MailSender {
 					throw new RuntimeException(e);
 				}
 			}
-		}.start();
+		};
+		if (jobManager == null) {
+			new Thread(task).start();
+			return;
+		}
+		try {
+			jobManager.execute("mail", task);
+		} catch (RejectedExecutionException e) {
+			logger.error("mail queue is full, notification dropped");
+		}
 	}
 
 	private String fmt(String key, Locale locale) {
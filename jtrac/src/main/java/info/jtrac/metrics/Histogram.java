@@ -0,0 +1,115 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * thread safe, lock free histogram of long values, used for latencies in
+ * milliseconds as well as for things like statements per request
+ * buckets are fixed and roughly exponential which is good enough to
+ * read off percentiles in the admin screen without keeping samples
+ */
+public class Histogram {
+
+	public static final long[] BUCKETS = { 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, Long.MAX_VALUE };
+
+	private final String name;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length);
+
+	public Histogram(String name) {
+		this.name = name;
+	}
+
+	public void record(long value) {
+		count.incrementAndGet();
+		total.addAndGet(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+		for (int i = 0; i < BUCKETS.length; i++) {
+			if (value <= BUCKETS[i]) {
+				buckets.incrementAndGet(i);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * upper bound of the bucket that contains the given percentile
+	 * for e.g. 95 means "95% of all recorded values were less than or equal to"
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0) {
+			return 0;
+		}
+		long threshold = (long) Math.ceil(total * percentile / 100);
+		long running = 0;
+		for (int i = 0; i < BUCKETS.length; i++) {
+			running += buckets.get(i);
+			if (running >= threshold) {
+				return Math.min(BUCKETS[i], getMax());
+			}
+		}
+		return getMax();
+	}
+
+	public void reset() {
+		count.set(0);
+		total.set(0);
+		max.set(0);
+		for (int i = 0; i < BUCKETS.length; i++) {
+			buckets.set(i, 0);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+
+	public long getTotal() {
+		return total.get();
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public long getMean() {
+		long c = count.get();
+		return c == 0 ? 0 : total.get() / c;
+	}
+
+	public long[] getBucketCounts() {
+		long[] result = new long[BUCKETS.length];
+		for (int i = 0; i < BUCKETS.length; i++) {
+			result[i] = buckets.get(i);
+		}
+		return result;
+	}
+
+}
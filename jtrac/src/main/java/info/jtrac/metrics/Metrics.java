@@ -0,0 +1,319 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.metrics;
+
+import info.jtrac.util.XmlUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.hibernate.SessionFactory;
+import org.hibernate.jpa.HibernateEntityManagerFactory;
+import org.hibernate.stat.Statistics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * central registry for all runtime measurements, a singleton Spring bean
+ * fed by the MetricsAspect (service and Lucene timings), the MetricsFilter
+ * (whole HTTP requests) and indirectly by the MetricsDataSource and
+ * MetricsInterceptor through RequestStats
+ *
+ * when a single request executes the same SQL statement more than
+ * "repeatedStatementThreshold" times it is recorded as a suspected N+1
+ * query pattern and logged, so that this can be spotted in production
+ */
+public class Metrics {
+
+	private static final Logger logger = LoggerFactory.getLogger(Metrics.class);
+
+	private static final int MAX_SUSPECTS = 100;
+
+	/**
+	 * request names come partly from client input, e.g. the "method" parameter
+	 * of the REST API, so names beyond this many share a single histogram
+	 */
+	static final int MAX_NAMES = 500;
+	static final String OTHER = "other";
+
+	private final ConcurrentMap<String, Histogram> timers = new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentMap<String, Histogram> requests = new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentMap<String, Histogram> statements = new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentMap<String, Histogram> entities = new ConcurrentHashMap<String, Histogram>();
+	private final ConcurrentMap<String, Suspect> suspects = new ConcurrentHashMap<String, Suspect>();
+
+	private EntityManagerFactory entityManagerFactory;
+	private int repeatedStatementThreshold = 20;
+	private long slowRequestMillis = 5000;
+	private volatile Date resetTime = new Date();
+
+	public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+		this.entityManagerFactory = entityManagerFactory;
+	}
+
+	public void setRepeatedStatementThreshold(int repeatedStatementThreshold) {
+		this.repeatedStatementThreshold = repeatedStatementThreshold;
+	}
+
+	public void setSlowRequestMillis(long slowRequestMillis) {
+		this.slowRequestMillis = slowRequestMillis;
+	}
+
+	/**
+	 * record the time taken for a named operation, e.g. "Jtrac.findItems"
+	 */
+	public void record(String name, long millis) {
+		getOrCreate(timers, name).record(millis);
+	}
+
+	/**
+	 * called once per unit of work when the outermost RequestStats ends
+	 */
+	public void record(RequestStats stats) {
+		long elapsed = stats.getElapsedMillis();
+		String name = stats.getName();
+		getOrCreate(requests, name).record(elapsed);
+		getOrCreate(statements, name).record(stats.getStatements());
+		getOrCreate(entities, name).record(stats.getEntitiesLoaded());
+		for (Map.Entry<String, Integer> entry : stats.getSqlCounts().entrySet()) {
+			int count = entry.getValue();
+			if (count > repeatedStatementThreshold) {
+				recordSuspect(name, entry.getKey(), count);
+			}
+		}
+		if (elapsed > slowRequestMillis) {
+			logger.warn("slow request '" + name + "': " + elapsed + " ms, statements: " + stats.getStatements()
+					+ " (" + stats.getStatementMillis() + " ms), entities loaded: " + stats.getEntitiesLoaded()
+					+ ", search: " + stats.getSearchMillis() + " ms, index: " + stats.getIndexMillis() + " ms");
+		}
+	}
+
+	private void recordSuspect(String requestName, String sql, int count) {
+		String key = requestName + "|" + sql;
+		Suspect suspect = suspects.get(key);
+		if (suspect == null) {
+			if (suspects.size() >= MAX_SUSPECTS) {
+				return;
+			}
+			logger.warn("possible N+1 query pattern in '" + requestName + "', statement executed "
+					+ count + " times: " + sql);
+			suspect = new Suspect(requestName, sql);
+			Suspect existing = suspects.putIfAbsent(key, suspect);
+			if (existing != null) {
+				suspect = existing;
+			}
+		}
+		suspect.record(count);
+	}
+
+	private Histogram getOrCreate(ConcurrentMap<String, Histogram> map, String name) {
+		Histogram histogram = map.get(name);
+		if (histogram == null && map.size() >= MAX_NAMES) {
+			name = OTHER;
+			histogram = map.get(name);
+		}
+		if (histogram == null) {
+			histogram = new Histogram(name);
+			Histogram existing = map.putIfAbsent(name, histogram);
+			if (existing != null) {
+				histogram = existing;
+			}
+		}
+		return histogram;
+	}
+
+	public void reset() {
+		timers.clear();
+		requests.clear();
+		statements.clear();
+		entities.clear();
+		suspects.clear();
+		Statistics statistics = getHibernateStatistics();
+		if (statistics != null) {
+			statistics.clear();
+		}
+		resetTime = new Date();
+	}
+
+	//==========================================================================
+
+	public Date getResetTime() {
+		return resetTime;
+	}
+
+	public List<Histogram> getTimers() {
+		return sorted(timers);
+	}
+
+	public List<Histogram> getRequests() {
+		return sorted(requests);
+	}
+
+	public Histogram getStatements(String requestName) {
+		return statements.get(requestName);
+	}
+
+	public Histogram getEntities(String requestName) {
+		return entities.get(requestName);
+	}
+
+	public List<Suspect> getSuspects() {
+		List<Suspect> list = new ArrayList<Suspect>(suspects.values());
+		Collections.sort(list, new Comparator<Suspect>() {
+			public int compare(Suspect s1, Suspect s2) {
+				return s1.getMaxRepeats() > s2.getMaxRepeats() ? -1 : (s1.getMaxRepeats() == s2.getMaxRepeats() ? 0 : 1);
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * global Hibernate statistics, only populated when
+	 * "hibernate.generate_statistics" is switched on
+	 */
+	public Statistics getHibernateStatistics() {
+		if (entityManagerFactory instanceof HibernateEntityManagerFactory) {
+			SessionFactory sf = ((HibernateEntityManagerFactory) entityManagerFactory).getSessionFactory();
+			return sf.getStatistics();
+		}
+		return null;
+	}
+
+	private List<Histogram> sorted(Map<String, Histogram> map) {
+		List<Histogram> list = new ArrayList<Histogram>(map.values());
+		Collections.sort(list, new Comparator<Histogram>() {
+			public int compare(Histogram h1, Histogram h2) {
+				return h1.getTotal() > h2.getTotal() ? -1 : (h1.getTotal() == h2.getTotal() ? 0 : 1);
+			}
+		});
+		return list;
+	}
+
+	/**
+	 * machine readable form for the REST API and external monitoring
+	 */
+	public Document getAsXml() {
+		Document d = XmlUtils.getNewDocument("metrics");
+		Element root = d.getRootElement();
+		root.addAttribute("since", resetTime.getTime() + "");
+		Element requestsElement = root.addElement("requests");
+		for (Histogram h : getRequests()) {
+			Element e = addHistogram(requestsElement, "request", h);
+			Histogram s = statements.get(h.getName());
+			if (s != null) {
+				e.addAttribute("statementsMean", s.getMean() + "");
+				e.addAttribute("statementsMax", s.getMax() + "");
+			}
+			Histogram en = entities.get(h.getName());
+			if (en != null) {
+				e.addAttribute("entitiesMean", en.getMean() + "");
+				e.addAttribute("entitiesMax", en.getMax() + "");
+			}
+		}
+		Element timersElement = root.addElement("timers");
+		for (Histogram h : getTimers()) {
+			addHistogram(timersElement, "timer", h);
+		}
+		Element suspectsElement = root.addElement("suspects");
+		for (Suspect s : getSuspects()) {
+			Element e = suspectsElement.addElement("suspect");
+			e.addAttribute("request", s.getRequestName());
+			e.addAttribute("occurrences", s.getOccurrences() + "");
+			e.addAttribute("maxRepeats", s.getMaxRepeats() + "");
+			e.addText(s.getSql());
+		}
+		Statistics statistics = getHibernateStatistics();
+		if (statistics != null && statistics.isStatisticsEnabled()) {
+			Element e = root.addElement("hibernate");
+			e.addAttribute("sessionsOpened", statistics.getSessionOpenCount() + "");
+			e.addAttribute("transactions", statistics.getTransactionCount() + "");
+			e.addAttribute("statementsPrepared", statistics.getPrepareStatementCount() + "");
+			e.addAttribute("queries", statistics.getQueryExecutionCount() + "");
+			e.addAttribute("queryMaxMillis", statistics.getQueryExecutionMaxTime() + "");
+			e.addAttribute("entitiesLoaded", statistics.getEntityLoadCount() + "");
+			e.addAttribute("entitiesFetched", statistics.getEntityFetchCount() + "");
+			e.addAttribute("entitiesUpdated", statistics.getEntityUpdateCount() + "");
+			e.addAttribute("collectionsLoaded", statistics.getCollectionLoadCount() + "");
+			e.addAttribute("collectionsFetched", statistics.getCollectionFetchCount() + "");
+			e.addAttribute("flushes", statistics.getFlushCount() + "");
+			e.addAttribute("optimisticFailures", statistics.getOptimisticFailureCount() + "");
+		}
+		return d;
+	}
+
+	private Element addHistogram(Element parent, String elementName, Histogram h) {
+		Element e = parent.addElement(elementName);
+		e.addAttribute("name", h.getName());
+		e.addAttribute("count", h.getCount() + "");
+		e.addAttribute("totalMillis", h.getTotal() + "");
+		e.addAttribute("meanMillis", h.getMean() + "");
+		e.addAttribute("p95Millis", h.getPercentile(95) + "");
+		e.addAttribute("maxMillis", h.getMax() + "");
+		return e;
+	}
+
+	/**
+	 * a statement that was executed repeatedly within a single request
+	 */
+	public static class Suspect {
+
+		private final String requestName;
+		private final String sql;
+		private volatile int occurrences;
+		private volatile int maxRepeats;
+
+		public Suspect(String requestName, String sql) {
+			this.requestName = requestName;
+			this.sql = sql;
+		}
+
+		synchronized void record(int repeats) {
+			occurrences++;
+			if (repeats > maxRepeats) {
+				maxRepeats = repeats;
+			}
+		}
+
+		public String getRequestName() {
+			return requestName;
+		}
+
+		public String getSql() {
+			return sql;
+		}
+
+		public int getOccurrences() {
+			return occurrences;
+		}
+
+		public int getMaxRepeats() {
+			return maxRepeats;
+		}
+
+	}
+
+}
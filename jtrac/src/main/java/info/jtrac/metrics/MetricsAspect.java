@@ -0,0 +1,77 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.metrics;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+
+/**
+ * times every call on the Jtrac service interface and the Lucene
+ * indexer / searcher, if no unit of work is active for the current thread
+ * (e.g. the scheduler) the outermost service call becomes one
+ */
+@Aspect
+public class MetricsAspect {
+
+	private Metrics metrics;
+
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Around("execution(* info.jtrac.service.Jtrac.*(..))")
+	public Object timeServiceMethod(ProceedingJoinPoint pjp) throws Throwable {
+		String name = "Jtrac." + pjp.getSignature().getName();
+		RequestStats.begin(name);
+		long start = System.nanoTime();
+		try {
+			return pjp.proceed();
+		} finally {
+			metrics.record(name, (System.nanoTime() - start) / 1000000);
+			RequestStats stats = RequestStats.end();
+			if (stats != null) {
+				metrics.record(stats);
+			}
+		}
+	}
+
+	@Around("execution(* info.jtrac.lucene.IndexSearcher.findItemIdsContainingText(..))")
+	public Object timeSearch(ProceedingJoinPoint pjp) throws Throwable {
+		long start = System.nanoTime();
+		try {
+			return pjp.proceed();
+		} finally {
+			long nanos = System.nanoTime() - start;
+			RequestStats.searchCompleted(nanos);
+			metrics.record("Lucene.search", nanos / 1000000);
+		}
+	}
+
+	@Around("execution(* info.jtrac.lucene.Indexer.index(..))")
+	public Object timeIndex(ProceedingJoinPoint pjp) throws Throwable {
+		long start = System.nanoTime();
+		try {
+			return pjp.proceed();
+		} finally {
+			long nanos = System.nanoTime() - start;
+			RequestStats.indexCompleted(nanos);
+			metrics.record("Lucene.index", nanos / 1000000);
+		}
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+/**
+ * JDBC proxy that counts and times every statement executed through the
+ * connections handed out, the numbers end up in the RequestStats of the
+ * current thread, so the overhead when nothing is being measured is a
+ * couple of method calls per statement
+ */
+public class MetricsDataSource extends DelegatingDataSource {
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return proxy(getTargetDataSource().getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return proxy(getTargetDataSource().getConnection(username, password));
+	}
+
+	private static Connection proxy(final Connection connection) {
+		return (Connection) Proxy.newProxyInstance(MetricsDataSource.class.getClassLoader(),
+				new Class[] { Connection.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						Object result = invokeTarget(connection, method, args);
+						String name = method.getName();
+						if (result instanceof CallableStatement) {
+							return proxy((Statement) result, CallableStatement.class, (String) args[0]);
+						} else if (result instanceof PreparedStatement) {
+							return proxy((Statement) result, PreparedStatement.class, (String) args[0]);
+						} else if (result instanceof Statement && name.equals("createStatement")) {
+							return proxy((Statement) result, Statement.class, null);
+						}
+						return result;
+					}
+				});
+	}
+
+	private static Statement proxy(final Statement statement, Class<? extends Statement> type, final String preparedSql) {
+		return (Statement) Proxy.newProxyInstance(MetricsDataSource.class.getClassLoader(),
+				new Class[] { type }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (!method.getName().startsWith("execute")) {
+							return invokeTarget(statement, method, args);
+						}
+						String sql = preparedSql;
+						if (sql == null && args != null && args.length > 0 && args[0] instanceof String) {
+							sql = (String) args[0];
+						}
+						long start = System.nanoTime();
+						try {
+							return invokeTarget(statement, method, args);
+						} finally {
+							RequestStats.statementExecuted(sql, System.nanoTime() - start);
+						}
+					}
+				});
+	}
+
+	private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getTargetException();
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.metrics;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * servlet filter that makes one HTTP request one unit of work for the
+ * purposes of RequestStats, configured in web.xml through a Spring
+ * DelegatingFilterProxy so that the Metrics bean can be injected
+ */
+public class MetricsFilter implements Filter {
+
+	private Metrics metrics;
+
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	public void init(FilterConfig filterConfig) throws ServletException {
+		// nothing to do
+	}
+
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		RequestStats.begin(getRequestName((HttpServletRequest) request));
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			RequestStats stats = RequestStats.end();
+			if (stats != null) {
+				metrics.record(stats);
+			}
+		}
+	}
+
+	public void destroy() {
+		// nothing to do
+	}
+
+	/**
+	 * groups requests coarsely so that the number of distinct names stays small
+	 * e.g. "/api item.get" or "/app/item", the parts taken from the request are
+	 * client supplied so Metrics caps the number of names it keeps
+	 */
+	public static String getRequestName(HttpServletRequest request) {
+		String servletPath = request.getServletPath();
+		String method = request.getParameter("method");
+		if (method != null) {
+			return servletPath + " " + method;
+		}
+		String pathInfo = request.getPathInfo();
+		if (pathInfo == null || pathInfo.length() < 2) {
+			return servletPath;
+		}
+		int pos = pathInfo.indexOf('/', 1);
+		return servletPath + (pos == -1 ? pathInfo : pathInfo.substring(0, pos));
+	}
+
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * counters for a single unit of work - normally one HTTP request, or the
+ * outermost service call when running outside the web tier (scheduler, tests)
+ * bound to the current thread, the static accessors are used by the JDBC
+ * proxy and the Hibernate interceptor which are not Spring managed
+ */
+public class RequestStats {
+
+	private static final ThreadLocal<RequestStats> CURRENT = new ThreadLocal<RequestStats>();
+
+	private final String name;
+	private final long startTime = System.nanoTime();
+	private int statements;
+	private long statementNanos;
+	private int entitiesLoaded;
+	private long searchNanos;
+	private long indexNanos;
+	private int depth;
+	private final Map<String, Integer> sqlCounts = new HashMap<String, Integer>();
+
+	private RequestStats(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * starts a new unit of work unless one is already active in which case
+	 * the nesting depth is incremented, returns the active instance
+	 */
+	public static RequestStats begin(String name) {
+		RequestStats stats = CURRENT.get();
+		if (stats == null) {
+			stats = new RequestStats(name);
+			CURRENT.set(stats);
+		}
+		stats.depth++;
+		return stats;
+	}
+
+	/**
+	 * returns the finished stats when the outermost unit of work ends, else null
+	 */
+	public static RequestStats end() {
+		RequestStats stats = CURRENT.get();
+		if (stats == null) {
+			return null;
+		}
+		stats.depth--;
+		if (stats.depth > 0) {
+			return null;
+		}
+		CURRENT.remove();
+		return stats;
+	}
+
+	public static RequestStats current() {
+		return CURRENT.get();
+	}
+
+	public static void statementExecuted(String sql, long nanos) {
+		RequestStats stats = CURRENT.get();
+		if (stats == null) {
+			return;
+		}
+		stats.statements++;
+		stats.statementNanos += nanos;
+		if (sql != null) {
+			Integer count = stats.sqlCounts.get(sql);
+			stats.sqlCounts.put(sql, count == null ? 1 : count + 1);
+		}
+	}
+
+	public static void entityLoaded() {
+		RequestStats stats = CURRENT.get();
+		if (stats != null) {
+			stats.entitiesLoaded++;
+		}
+	}
+
+	public static void searchCompleted(long nanos) {
+		RequestStats stats = CURRENT.get();
+		if (stats != null) {
+			stats.searchNanos += nanos;
+		}
+	}
+
+	public static void indexCompleted(long nanos) {
+		RequestStats stats = CURRENT.get();
+		if (stats != null) {
+			stats.indexNanos += nanos;
+		}
+	}
+
+	//==========================================================================
+
+	public String getName() {
+		return name;
+	}
+
+	public long getElapsedMillis() {
+		return (System.nanoTime() - startTime) / 1000000;
+	}
+
+	public int getStatements() {
+		return statements;
+	}
+
+	public long getStatementMillis() {
+		return statementNanos / 1000000;
+	}
+
+	public int getEntitiesLoaded() {
+		return entitiesLoaded;
+	}
+
+	public long getSearchMillis() {
+		return searchNanos / 1000000;
+	}
+
+	public long getIndexMillis() {
+		return indexNanos / 1000000;
+	}
+
+	/**
+	 * statement text (with bind parameters as "?") mapped to the number of
+	 * times it was executed in this unit of work
+	 */
+	public Map<String, Integer> getSqlCounts() {
+		return sqlCounts;
+	}
+
+}
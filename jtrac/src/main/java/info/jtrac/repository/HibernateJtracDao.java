@@ -17,13 +17,18 @@
 package info.jtrac.repository;
 
 import info.jtrac.domain.Attachment;
+import info.jtrac.domain.BulkOperation;
+import info.jtrac.domain.ClusterEvent;
+import info.jtrac.domain.ClusterNode;
 import info.jtrac.domain.ColumnHeading;
 import info.jtrac.domain.Config;
 import info.jtrac.domain.Counts;
 import info.jtrac.domain.CountsHolder;
 import info.jtrac.domain.Field;
 import info.jtrac.domain.History;
+import info.jtrac.domain.HistoryDelta;
 import info.jtrac.domain.Item;
+import info.jtrac.domain.ItemChange;
 import info.jtrac.domain.ItemItem;
 import info.jtrac.domain.ItemSearch;
 import info.jtrac.domain.ItemUser;
@@ -32,6 +37,7 @@ import info.jtrac.domain.Role;
 import info.jtrac.domain.Space;
 import info.jtrac.domain.SpaceSequence;
 import info.jtrac.domain.State;
+import info.jtrac.domain.Tag;
 import info.jtrac.domain.User;
 import info.jtrac.domain.UserSpaceRole;
 
@@ -39,13 +45,17 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import javax.annotation.PostConstruct;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.TypedQuery;
 import javax.persistence.criteria.CriteriaBuilder;
 import javax.persistence.criteria.CriteriaQuery;
 
@@ -53,14 +63,23 @@ import org.apache.commons.collections.ComparatorUtils;
 import org.apache.log4j.Logger;
 import org.hibernate.CacheMode;
 import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.FetchMode;
+import org.hibernate.Hibernate;
+import org.hibernate.LockOptions;
+import org.hibernate.Query;
 import org.hibernate.Session;
 import org.hibernate.criterion.DetachedCriteria;
 import org.hibernate.criterion.MatchMode;
 import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.enhanced.DatabaseStructure;
 import org.hibernate.jpa.HibernateEntityManager;
+import org.hibernate.persister.entity.EntityPersister;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionDefinition;
@@ -77,6 +96,25 @@ public class HibernateJtracDao implements JtracDao {
 
 	private final Logger logger = Logger.getLogger(getClass());
 
+	// entity names of the archive tables, mapped to read only subclasses of the live classes
+	private static final String ARCHIVED_ITEM = "ArchivedItem";
+	private static final String ARCHIVED_HISTORY = "ArchivedHistory";
+	private static final String ARCHIVED_ATTACHMENT = "ArchivedAttachment";
+
+	private static final String SNAPSHOT_COLUMNS;
+	static {
+		StringBuilder sb = new StringBuilder("logged_by, assigned_to, summary, detail, status");
+		for (Field.Name fieldName : Field.Name.values()) {
+			// cusInt01 -> cus_int_01
+			sb.append(", ").append(fieldName.getText().replaceAll("([A-Z])", "_$1").replaceAll("([a-zA-Z])([0-9])", "$1_$2").toLowerCase());
+		}
+		SNAPSHOT_COLUMNS = sb.toString();
+	}
+	private static final String ITEM_TABLE_COLUMNS = "id, version, type, space_id, sequence_num, parent_id, time_stamp, planned_effort, "
+			+ SNAPSHOT_COLUMNS;
+	private static final String HISTORY_TABLE_COLUMNS = "id, version, type, item_id, actual_effort, attachment_id, comment, changes, time_stamp, "
+			+ SNAPSHOT_COLUMNS;
+
 	private SchemaHelper schemaHelper;
 	@PersistenceContext
 	private EntityManager entityManager;
@@ -90,11 +128,18 @@ public class HibernateJtracDao implements JtracDao {
 	@Override
 	@Transactional(propagation = Propagation.REQUIRED)
 	public Item storeItem(Item item) {
+		// merging a new item copies the collections onto the managed instance
+		// after it has been scheduled for insert, which bumps the version and
+		// updates the row again at flush (HHH-1401)
+		if (item.getId() == 0) {
+			entityManager.persist(item);
+			return item;
+		}
 		return entityManager.merge(item);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Item loadItem(long id) {
 		return entityManager.find(Item.class, id);
 	}
@@ -106,13 +151,168 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public History loadHistory(long id) {
 		return entityManager.find(History.class, id);
 	}
 
+	/**
+	 * the history of an item is lazy, this loads it for items that are about to
+	 * leave the transaction, in batches as configured in the mapping
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public void initializeHistory(Collection<Item> items) {
+		for (Item item : items) {
+			Hibernate.initialize(item.getHistory());
+		}
+	}
+
+	/**
+	 * newest first, by id so that the id of the oldest entry of a page is the
+	 * cursor for the next, only the columns shown in the history timeline are
+	 * selected and the History instances returned are not managed, loading
+	 * entities would load the parent item along with every row
+	 * entries stored as change sets get their field values filled in, starting
+	 * from the nearest full snapshot before the page if need be
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<History> findHistoryForItem(Item item, long beforeId, int maxResults, Collection<Field.Name> fieldNames) {
+		StringBuilder hql = new StringBuilder("select history.id, history.changes, history.status, history.comment, history.timeStamp,"
+				+ " loggedBy.name, assignedTo.name, attachment.id, attachment.fileName, attachment.filePrefix");
+		for (Field.Name fieldName : fieldNames) {
+			hql.append(", history.").append(fieldName.getText());
+		}
+		hql.append(" from ").append(historyEntity(item)).append(" history join history.loggedBy loggedBy"
+				+ " left join history.assignedTo assignedTo left join history.attachment attachment"
+				+ " where history.parent.id = :itemId and history.id < :beforeId order by history.id desc");
+		List<Object[]> rows = entityManager.createQuery(hql.toString(), Object[].class)
+				.setParameter("itemId", item.getId())
+				.setParameter("beforeId", beforeId)
+				.setMaxResults(maxResults)
+				.getResultList();
+		List<History> list = new ArrayList<History>(rows.size());
+		boolean sparse = false;
+		for (Object[] row : rows) {
+			History history = new History();
+			history.setParent(item);
+			history.setId((Long) row[0]);
+			history.setChanges((Long) row[1]);
+			history.setStatus((Integer) row[2]);
+			history.setComment((String) row[3]);
+			history.setTimeStamp((Date) row[4]);
+			User loggedBy = new User();
+			loggedBy.setName((String) row[5]);
+			history.setLoggedBy(loggedBy);
+			if (row[6] != null) {
+				User assignedTo = new User();
+				assignedTo.setName((String) row[6]);
+				history.setAssignedTo(assignedTo);
+			}
+			if (row[7] != null) {
+				Attachment attachment = new Attachment();
+				attachment.setId((Long) row[7]);
+				attachment.setFileName((String) row[8]);
+				attachment.setFilePrefix((Long) row[9]);
+				history.setAttachment(attachment);
+			}
+			int i = 10;
+			for (Field.Name fieldName : fieldNames) {
+				history.setValue(fieldName, row[i++]);
+			}
+			sparse |= history.getChanges() != null;
+			list.add(history);
+		}
+		if (sparse && !fieldNames.isEmpty()) {
+			fillHistoryValues(item, list, fieldNames);
+		}
+		return list;
+	}
+
+	private void fillHistoryValues(Item item, List<History> newestFirst, Collection<Field.Name> fieldNames) {
+		Object[] state = new Object[fieldNames.size()];
+		History oldest = newestFirst.get(newestFirst.size() - 1);
+		if (oldest.getChanges() != null) {
+			StringBuilder hql = new StringBuilder("select history.changes");
+			for (Field.Name fieldName : fieldNames) {
+				hql.append(", history.").append(fieldName.getText());
+			}
+			hql.append(" from ").append(historyEntity(item)).append(" history where history.parent.id = :itemId and history.id < :oldestId"
+					+ " and history.id >= (select max(checkpoint.id) from ").append(historyEntity(item)).append(" checkpoint"
+					+ " where checkpoint.parent.id = :itemId and checkpoint.id < :oldestId and checkpoint.changes is null) order by history.id");
+			List<Object[]> rows = entityManager.createQuery(hql.toString(), Object[].class)
+					.setParameter("itemId", item.getId())
+					.setParameter("oldestId", oldest.getId())
+					.getResultList();
+			for (Object[] row : rows) {
+				int i = 0;
+				for (Field.Name fieldName : fieldNames) {
+					if (HistoryDelta.hasValue((Long) row[0], fieldName)) {
+						state[i] = row[i + 1];
+					}
+					i++;
+				}
+			}
+		}
+		for (int j = newestFirst.size() - 1; j >= 0; j--) {
+			History history = newestFirst.get(j);
+			int i = 0;
+			for (Field.Name fieldName : fieldNames) {
+				if (HistoryDelta.hasValue(history.getChanges(), fieldName)) {
+					state[i] = history.getValue(fieldName);
+				} else {
+					history.setValue(fieldName, state[i]);
+				}
+				i++;
+			}
+			history.setChanges(null);
+		}
+	}
+
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public int loadCountOfHistoryForItem(Item item) {
+		return entityManager.createQuery("select count(history) from " + historyEntity(item) + " history"
+				+ " where history.parent.id = ?", Long.class)
+				.setParameter(1, item.getId())
+				.getSingleResult().intValue();
+	}
+
+	private String historyEntity(Item item) {
+		return item.isArchived() ? ARCHIVED_HISTORY : "History";
+	}
+
+	/**
+	 * the fields out of those given that have a value in at least one history
+	 * entry of the item, in one query as count() skips nulls
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<Field.Name> findFieldNamesUsedInHistory(Item item, Collection<Field.Name> fieldNames) {
+		List<Field.Name> used = new ArrayList<Field.Name>();
+		if (fieldNames.isEmpty()) {
+			return used;
+		}
+		StringBuilder hql = new StringBuilder("select 0");
+		for (Field.Name fieldName : fieldNames) {
+			hql.append(", count(history.").append(fieldName.getText()).append(")");
+		}
+		hql.append(" from ").append(historyEntity(item)).append(" history where history.parent.id = ?");
+		Object[] counts = entityManager.createQuery(hql.toString(), Object[].class)
+				.setParameter(1, item.getId())
+				.getSingleResult();
+		int i = 1;
+		for (Field.Name fieldName : fieldNames) {
+			if (((Number) counts[i++]).longValue() > 0) {
+				used.add(fieldName);
+			}
+		}
+		return used;
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Item> findItems(long sequenceNum, String prefixCode) {
 		return entityManager.createQuery("from Item item where item.sequenceNum = ? and item.space.prefixCode = ?", Item.class)
 				.setParameter(1, sequenceNum)
@@ -121,8 +321,193 @@ public class HibernateJtracDao implements JtracDao {
 				;
 	}
 
+	/**
+	 * id, version, metadata version, latest history id and history count without loading
+	 * the item, adding a comment does not always bump the item version, the history covers
+	 * that, the count also changes when a comment commits after one with a higher id
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public Object[] loadItemVersion(long sequenceNum, String prefixCode) {
+		List<Object[]> list = entityManager.createQuery("select item.id, item.version, metadata.version, max(history.id), count(history.id)"
+				+ " from Item item join item.space space join space.metadata metadata left join item.history history"
+				+ " where item.sequenceNum = ? and space.prefixCode = ?"
+				+ " group by item.id, item.version, metadata.version", Object[].class)
+				.setParameter(1, sequenceNum)
+				.setParameter(2, prefixCode)
+				.getResultList();
+		return list.isEmpty() ? null : list.get(0);
+	}
+
+	/**
+	 * count, max id and sum of versions of all items in the given spaces followed by
+	 * the latest history id and history count, any create, delete, edit or comment
+	 * changes at least one
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public Object[] loadItemsVersionSummary(Collection<Long> spaceIds) {
+		if (spaceIds.isEmpty()) {
+			return new Object[] { 0L, null, null, null, 0L };
+		}
+		Object[] items = entityManager.createQuery("select count(item.id), max(item.id), sum(item.version)"
+				+ " from Item item where item.space.id in (:spaceIds)", Object[].class)
+				.setParameter("spaceIds", spaceIds)
+				.getSingleResult();
+		Object[] history = entityManager.createQuery("select max(history.id), count(history.id) from History history"
+				+ " where history.parent.space.id in (:spaceIds)", Object[].class)
+				.setParameter("spaceIds", spaceIds)
+				.getSingleResult();
+		return new Object[] { items[0], items[1], items[2], history[0], history[1] };
+	}
+
+	/**
+	 * the columns that scrollItems() can select, item fields by name
+	 * plus the login names of the users involved
+	 */
+	private static final Map<String, String> ITEM_COLUMNS;
+
+	static {
+		Map<String, String> map = new LinkedHashMap<String, String>();
+		map.put("summary", "item.summary");
+		map.put("detail", "item.detail");
+		map.put("status", "item.status");
+		map.put("loggedBy", "loggedBy.loginName");
+		map.put("assignedTo", "assignedTo.loginName");
+		map.put("timeStamp", "item.timeStamp");
+		map.put("version", "item.version");
+		map.put("plannedEffort", "item.plannedEffort");
+		for (Field.Name name : Field.Name.values()) {
+			map.put(name.getText(), "item." + name.getText());
+		}
+		ITEM_COLUMNS = Collections.unmodifiableMap(map);
+	}
+
+	@Override
+	public Set<String> getItemColumnNames() {
+		return ITEM_COLUMNS.keySet();
+	}
+
+	/**
+	 * keyset paging in id order over a forward only cursor, each row holds
+	 * id, space id, prefix code and sequence number followed by the requested
+	 * columns, nothing is loaded into the persistence context
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public void scrollItems(Collection<Long> spaceIds, long afterId, int maxResults, List<String> columns, RowCallback callback) {
+		if (spaceIds.isEmpty()) {
+			return;
+		}
+		StringBuilder hql = new StringBuilder("select item.id, space.id, space.prefixCode, item.sequenceNum");
+		for (String column : columns) {
+			String expression = ITEM_COLUMNS.get(column);
+			if (expression == null) {
+				throw new IllegalArgumentException("unknown column: " + column);
+			}
+			hql.append(", ").append(expression);
+		}
+		hql.append(" from Item item join item.space space left join item.loggedBy loggedBy left join item.assignedTo assignedTo"
+				+ " where space.id in (:spaceIds) and item.id > :afterId order by item.id");
+		ScrollableResults results = getSession().createQuery(hql.toString())
+				.setParameterList("spaceIds", spaceIds)
+				.setLong("afterId", afterId)
+				.setMaxResults(maxResults)
+				.setFetchSize(Math.min(maxResults, 500))
+				.setReadOnly(true)
+				.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (results.next()) {
+				callback.processRow(results.get());
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			results.close();
+		}
+	}
+
+	/**
+	 * the id and the given item properties of all items of the space, or only
+	 * of those listed, runs on the primary database as callers keep the rows
+	 * up to date from commits and must not start out behind them
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void scrollItemProperties(long spaceId, Collection<Long> itemIds, List<String> properties, RowCallback callback) {
+		StringBuilder hql = new StringBuilder("select item.id");
+		for (String property : properties) {
+			hql.append(", item.").append(property);
+		}
+		hql.append(" from Item item where item.space.id = :spaceId");
+		if (itemIds != null) {
+			if (itemIds.isEmpty()) {
+				return;
+			}
+			hql.append(" and item.id in (:itemIds)");
+		}
+		Query query = getSession().createQuery(hql.toString())
+				.setLong("spaceId", spaceId)
+				.setFetchSize(500)
+				.setReadOnly(true);
+		if (itemIds != null) {
+			query.setParameterList("itemIds", itemIds);
+		}
+		scroll(query, callback);
+	}
+
+	/**
+	 * item id and tag name for every tag of the items of the space, or only of
+	 * those listed, on the primary database for the same reason as above
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void scrollItemTags(long spaceId, Collection<Long> itemIds, boolean archived, RowCallback callback) {
+		String hql = "select item.id, tag.name from " + (archived ? ARCHIVED_ITEM : "Item") + " item"
+				+ " join item.itemTags itemTag join itemTag.tag tag where item.space.id = :spaceId";
+		if (itemIds != null) {
+			if (itemIds.isEmpty()) {
+				return;
+			}
+			hql += " and item.id in (:itemIds)";
+		}
+		Query query = getSession().createQuery(hql)
+				.setLong("spaceId", spaceId)
+				.setFetchSize(500)
+				.setReadOnly(true);
+		if (itemIds != null) {
+			query.setParameterList("itemIds", itemIds);
+		}
+		scroll(query, callback);
+	}
+
+	private void scroll(Query query, RowCallback callback) {
+		ScrollableResults results = query.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (results.next()) {
+				callback.processRow(results.get());
+			}
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			results.close();
+		}
+	}
+
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<Item> findItemsWhereIdIn(List<Long> ids) {
+		return entityManager.createQuery("from Item item where item.id in (:ids)", Item.class)
+				.setParameter("ids", ids)
+				.getResultList();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Item> findItems(ItemSearch itemSearch) {
 		int pageSize = itemSearch.getPageSize();
 		// TODO: if we are ordering by a custom column, we must load the whole
@@ -181,7 +566,9 @@ public class HibernateJtracDao implements JtracDao {
 		Collection<Long> itemIds = itemSearch.getItemIds();
 		Space space = itemSearch.getSpace();
 
-		DetachedCriteria criteria = DetachedCriteria.forClass(itemSearch.isShowHistory() ? History.class : Item.class);
+		DetachedCriteria criteria = DetachedCriteria.forEntityName(itemSearch.isShowHistory()
+				? (itemSearch.isArchived() ? ARCHIVED_HISTORY : History.class.getName())
+				: (itemSearch.isArchived() ? ARCHIVED_ITEM : Item.class.getName()));
 		DetachedCriteria parentCriteria = itemSearch.isShowHistory() ? criteria.createCriteria("parent") : null;
 		DetachedCriteria criteriaToChange =  parentCriteria == null ? criteria : parentCriteria;
 
@@ -275,16 +662,17 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public int loadCountOfAllItems() {
 		CriteriaBuilder cb = entityManager.getCriteriaBuilder();
 		CriteriaQuery<Long> query = cb.createQuery(Long.class);
+		query.select(cb.count(query.from(Item.class)));
 		return entityManager.createQuery(query).getResultList().get(0).intValue();
 	}
 
 	@SuppressWarnings("unchecked")
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Item> findAllItems(final int firstResult, final int batchSize) {
 		entityManager.clear();
 		Session session = getSession();
@@ -314,7 +702,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<ItemUser> findItemUsersByUser(User user) {
 		return entityManager.createQuery("from " + ItemUser.class.getName() + " iu where iu.user = ?", ItemUser.class).setParameter(1, user).getResultList();
 	}
@@ -327,10 +715,108 @@ public class HibernateJtracDao implements JtracDao {
 		entityManager.remove(itemUser);
 	}
 
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<Tag> findTagsWhereNameIn(Collection<String> names) {
+		if (names.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return entityManager.createQuery("from Tag tag where tag.name in (:names)", Tag.class)
+				.setParameter("names", names)
+				.getResultList();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void storeTag(Tag tag) {
+		entityManager.persist(tag);
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void storeItemChange(ItemChange itemChange) {
+		entityManager.persist(itemChange);
+	}
+
+	/**
+	 * a null spaceIds means all spaces (super user), ordering by id is what
+	 * makes the last id of a page usable as the cursor for the next one
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<ItemChange> findItemChanges(long afterId, Collection<Long> spaceIds, int maxResults) {
+		if (spaceIds != null && spaceIds.isEmpty()) {
+			return Collections.emptyList();
+		}
+		String hql = "from ItemChange change where change.id > :afterId";
+		if (spaceIds != null) {
+			hql += " and change.spaceId in (:spaceIds)";
+		}
+		TypedQuery<ItemChange> query = entityManager.createQuery(hql + " order by change.id", ItemChange.class);
+		query.setParameter("afterId", afterId);
+		if (spaceIds != null) {
+			query.setParameter("spaceIds", spaceIds);
+		}
+		return query.setMaxResults(maxResults).getResultList();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public long loadLastItemChangeId() {
+		Long id = entityManager.createQuery("select max(change.id) from ItemChange change", Long.class).getSingleResult();
+		return id == null ? 0 : id;
+	}
+
+	/**
+	 * null if nothing has been logged since, only used when a remote client
+	 * starts following the change log
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public Long loadFirstItemChangeIdSince(Date timeStamp) {
+		return entityManager.createQuery("select min(change.id) from ItemChange change"
+				+ " where change.timeStamp >= :timeStamp", Long.class)
+				.setParameter("timeStamp", timeStamp)
+				.getSingleResult();
+	}
+
+	/**
+	 * for changes that were still uncommitted when the ones after them were read
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<ItemChange> findItemChangesWhereIdIn(Collection<Long> ids) {
+		if (ids.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return entityManager.createQuery("from ItemChange change where change.id in (:ids)"
+				+ " order by change.id", ItemChange.class)
+				.setParameter("ids", ids)
+				.getResultList();
+	}
+
+	@Override
+	public void flush() {
+		entityManager.flush();
+	}
+
 	@Override
 	@Transactional(propagation = Propagation.REQUIRED)
 	public void storeAttachment(Attachment attachment) {
-		entityManager.merge(attachment);
+		// new attachments need their id straight away, it is also the file prefix
+		if (attachment.getId() == 0) {
+			entityManager.persist(attachment);
+		} else {
+			entityManager.merge(attachment);
+		}
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<Attachment> findAllAttachments() {
+		List<Attachment> list = entityManager.createQuery("from Attachment attachment", Attachment.class).getResultList();
+		list.addAll(entityManager.createQuery("from " + ARCHIVED_ATTACHMENT + " attachment", Attachment.class).getResultList());
+		return list;
 	}
 
 	@Override
@@ -340,7 +826,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Metadata loadMetadata(long id) {
 		return entityManager.find(Metadata.class, id);
 	}
@@ -352,13 +838,13 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Space loadSpace(long id) {
 		return entityManager.find(Space.class, id);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public UserSpaceRole loadUserSpaceRole(long id) {
 		return entityManager.find(UserSpaceRole.class, id);
 	}
@@ -369,13 +855,26 @@ public class HibernateJtracDao implements JtracDao {
 		entityManager.flush();
 		Session session = getSession();
 		session.setCacheMode(CacheMode.IGNORE);
-		SpaceSequence ss = (SpaceSequence) session.get(SpaceSequence.class, spaceSequenceId);
+		// row lock, other nodes of a cluster wait until this transaction is done
+		SpaceSequence ss = (SpaceSequence) session.get(SpaceSequence.class, spaceSequenceId, LockOptions.UPGRADE);
 		long next = ss.getAndIncrement();
 		session.update(ss);
 		session.flush();
 		return next;
 	}
 
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public long loadNextSequenceNums(final long spaceSequenceId, final int count) {
+		Session session = getSession();
+		session.setCacheMode(CacheMode.IGNORE);
+		SpaceSequence ss = (SpaceSequence) session.get(SpaceSequence.class, spaceSequenceId, LockOptions.UPGRADE);
+		long next = ss.getAndAdd(count);
+		session.update(ss);
+		session.flush();
+		return next;
+	}
+
 	@Override
 	@Transactional(propagation = Propagation.REQUIRED)
 	public void storeSpaceSequence(SpaceSequence spaceSequence) {
@@ -383,7 +882,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Space> findSpacesByPrefixCode(String prefixCode) {
 		return entityManager.createQuery("from Space space where space.prefixCode = ?", Space.class)
 				.setParameter(1, prefixCode)
@@ -391,13 +890,13 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Space> findAllSpaces() {
 		return entityManager.createQuery("from Space space order by space.prefixCode", Space.class).getResultList();
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Space> findSpacesNotAllocatedToUser(long userId) {
 		return entityManager.createQuery("from Space space where space not in"
 				+ " (select usr.space from UserSpaceRole usr where usr.user.id = ?) order by space.name", Space.class)
@@ -406,7 +905,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Space> findSpacesWhereIdIn(List<Long> ids) {
 		return entityManager.createQuery("from Space space where space.id in (:ids)", Space.class)
 				.setParameter("ids", ids)
@@ -415,7 +914,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Space> findSpacesWhereGuestAllowed() {
 		return entityManager.createQuery("from Space space join fetch space.metadata where space.guestAllowed = true", Space.class)
 				.getResultList();
@@ -450,13 +949,36 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findAllUsers() {
 		return entityManager.createQuery("from User user order by user.name", User.class).getResultList();
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<User> findUsers(int firstResult, int maxResults) {
+		return entityManager.createQuery("from User user order by user.name, user.id", User.class)
+				.setFirstResult(firstResult)
+				.setMaxResults(maxResults)
+				.getResultList();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public int loadCountOfAllUsers() {
+		return entityManager.createQuery("select count(user) from User user", Long.class)
+				.getSingleResult().intValue();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<Object[]> findUserIndexEntries() {
+		return entityManager.createQuery("select user.id, user.loginName, user.name, user.email from User user", Object[].class)
+				.getResultList();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersWhereIdIn(List<Long> ids) {
 		return entityManager.createQuery("from User user where user.id in (:ids)", User.class)
 				.setParameter("ids", ids)
@@ -466,7 +988,7 @@ public class HibernateJtracDao implements JtracDao {
 
 	@SuppressWarnings("unchecked")
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersMatching(final String searchText, final String searchOn) {
 		Session session = getSession();
 		Criteria criteria = session.createCriteria(User.class);
@@ -476,7 +998,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersByLoginName(String loginName) {
 		return entityManager.createQuery("from User user where user.loginName = ?", User.class)
 				.setParameter(1, loginName)
@@ -484,7 +1006,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersByEmail(String email) {
 		return entityManager.createQuery("from User user where user.email = ?", User.class)
 				.setParameter(1, email)
@@ -492,7 +1014,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersNotAllocatedToSpace(long spaceId) {
 		return entityManager.createQuery("from User user where user not in"
 				+ " (select usr.user from UserSpaceRole usr where usr.space.id = ?) order by user.name", User.class)
@@ -501,7 +1023,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<UserSpaceRole> findUserRolesForSpace(long spaceId) {
 		// join fetch for user object
 		return entityManager.createQuery("select usr from UserSpaceRole usr join fetch usr.user"
@@ -511,7 +1033,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersWithRoleForSpace(long spaceId, String roleKey) {
 		return entityManager.createQuery("from User user"
 				+ " join user.userSpaceRoles as usr where usr.space.id = ?"
@@ -522,7 +1044,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<UserSpaceRole> findSpaceRolesForUser(long userId) {
 		String qlString = "select usr from UserSpaceRole usr"
 				+ " left join fetch usr.space as space"
@@ -534,7 +1056,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findSuperUsers() {
 		return entityManager.createQuery("select usr.user from UserSpaceRole usr"
 				+ " where usr.space is null and usr.roleKey = ?", User.class)
@@ -542,21 +1064,27 @@ public class HibernateJtracDao implements JtracDao {
 				.getResultList();
 	}
 
+	/**
+	 * archived history included, its rows point to the user just the same
+	 */
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public int loadCountOfHistoryInvolvingUser(User user) {
-		Long count = entityManager.createQuery("select count(history) from History history where "
-				+ " history.loggedBy = ? or history.assignedTo = ?", Long.class)
-				.setParameter(1, user)
-				.setParameter(2, user)
-				.getResultList().get(0);
-		return count.intValue();
+		int count = 0;
+		for (String entityName : new String[] { History.class.getName(), ARCHIVED_HISTORY }) {
+			count += entityManager.createQuery("select count(history) from " + entityName + " history where "
+					+ " history.loggedBy = ? or history.assignedTo = ?", Long.class)
+					.setParameter(1, user)
+					.setParameter(2, user)
+					.getResultList().get(0).intValue();
+		}
+		return count;
 	}
 
 	//==========================================================================
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public CountsHolder loadCountsForUser(User user) {
 		Collection<Space> spaces = user.getSpaces();
 		if (spaces.size() == 0) {
@@ -588,7 +1116,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Counts loadCountsForUserSpace(User user, Space space) {
 		List<Object[]> loggedByList = entityManager.createQuery("select status, count(item) from Item item"
 				+ " where item.loggedBy.id = ? and item.space.id = ? group by item.status", Object[].class)
@@ -621,7 +1149,7 @@ public class HibernateJtracDao implements JtracDao {
 	//==========================================================================
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersForSpace(long spaceId) {
 		return entityManager.createQuery("select distinct u from User u join u.userSpaceRoles usr"
 				+ " where usr.space.id = ? order by u.name", User.class)
@@ -630,7 +1158,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersForSpaceSet(Collection<Space> spaces) {
 		return entityManager.createQuery("select u from User u join u.userSpaceRoles usr"
 				+ " where usr.space in (:spaces) order by u.name", User.class)
@@ -647,7 +1175,7 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Config> findAllConfig() {
 		return entityManager.createQuery("FROM " + Config.class.getName(), Config.class).getResultList();
 	}
@@ -659,42 +1187,35 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Config loadConfig(String param) {
 		return entityManager.find(Config.class, param);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void removeConfig(String param) {
+		Config config = entityManager.find(Config.class, param);
+		if (config != null) {
+			entityManager.remove(config);
+		}
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public int loadCountOfRecordsHavingFieldNotNull(Space space, Field field) {
 		Criteria criteria = getSession().createCriteria(Item.class);
 		criteria.add(Restrictions.eq("space", space));
 		criteria.add(Restrictions.isNotNull(field.getName().toString()));
 		criteria.setProjection(Projections.rowCount());
-		int itemCount = (Integer) criteria.list().get(0);
+		int itemCount = ((Number) criteria.list().get(0)).intValue();
 		// even when no item has this field not null currently, items may have history with this field not null
 		// because of the "parent" difference, cannot use AbstractItem and have to do a separate Criteria query
 		criteria = getSession().createCriteria(History.class);
 		criteria.createCriteria("parent").add(Restrictions.eq("space", space));
 		criteria.add(Restrictions.isNotNull(field.getName().toString()));
 		criteria.setProjection(Projections.rowCount());
-		return itemCount + (Integer) criteria.list().get(0);
-	}
-
-	@Override
-	@Transactional(propagation = Propagation.REQUIRED)
-	public int bulkUpdateFieldToNull(Space space, Field field) {
-		int itemCount = entityManager.createQuery("update Item item set item." + field.getName() + " = null"
-				+ " where item.space.id = ?")
-				.setParameter(1, space.getId())
-				.executeUpdate();
-		logger.info("no of Item rows where " + field.getName() + " set to null = " + itemCount);
-		int historyCount = entityManager.createQuery("update History history set history." + field.getName() + " = null"
-				+ " where history.parent in ( from Item item where item.space.id = ? )")
-				.setParameter(1, space.getId())
-				.executeUpdate();
-		logger.info("no of History rows where " + field.getName() + " set to null = " + historyCount);
-		return itemCount;
+		return itemCount + ((Number) criteria.list().get(0)).intValue();
 	}
 
 	Session getSession() {
@@ -702,44 +1223,24 @@ public class HibernateJtracDao implements JtracDao {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public int loadCountOfRecordsHavingFieldWithValue(Space space, Field field, int optionKey) {
 		Criteria criteria = getSession().createCriteria(Item.class);
 		criteria.add(Restrictions.eq("space", space));
 		criteria.add(Restrictions.eq(field.getName().toString(), optionKey));
 		criteria.setProjection(Projections.rowCount());
-		int itemCount = (Integer) criteria.list().get(0);
+		int itemCount = ((Number) criteria.list().get(0)).intValue();
 		// even when no item has this field value currently, items may have history with this field value
 		// because of the "parent" difference, cannot use AbstractItem and have to do a separate Criteria query
 		criteria = getSession().createCriteria(History.class);
 		criteria.createCriteria("parent").add(Restrictions.eq("space", space));
 		criteria.add(Restrictions.eq(field.getName().toString(), optionKey));
 		criteria.setProjection(Projections.rowCount());
-		return itemCount + (Integer) criteria.list().get(0);
-	}
-
-	@Override
-	@Transactional(propagation = Propagation.REQUIRED)
-	public int bulkUpdateFieldToNullForValue(Space space, Field field, int optionKey) {
-		int itemCount = entityManager.createQuery("update Item item set item." + field.getName() + " = null"
-				+ " where item.space.id = ?"
-				+ " and item." + field.getName() + " = ?")
-				.setParameter(1, space.getId())
-				.setParameter(2, optionKey)
-				.executeUpdate();
-		logger.info("no of Item rows where " + field.getName() + " value '" + optionKey + "' replaced with null = " + itemCount);
-		int historyCount = entityManager.createQuery("update History history set history." + field.getName() + " = null"
-				+ " where history." + field.getName() + " = ?"
-				+ " and history.parent in ( from Item item where item.space.id = ? )")
-				.setParameter(1, optionKey)
-				.setParameter(2, space.getId())
-				.executeUpdate();
-		logger.info("no of History rows where " + field.getName() + " value '" + optionKey + "' replaced with null = " + historyCount);
-		return itemCount;
+		return itemCount + ((Number) criteria.list().get(0)).intValue();
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public int loadCountOfRecordsHavingStatus(Space space, int status) {
 		Session session = getSession();
 		Criteria criteria = session.createCriteria(Item.class);
@@ -752,33 +1253,14 @@ public class HibernateJtracDao implements JtracDao {
 		criteria.add(Restrictions.eq("space", space));
 		criteria.add(Restrictions.eq("status", status));
 		criteria.setProjection(Projections.rowCount());
-		int itemCount = (Integer) criteria.list().get(0);
+		int itemCount = ((Number) criteria.list().get(0)).intValue();
 		// even when no item has this status currently, items may have history with this status
 		// because of the "parent" difference, cannot use AbstractItem and have to do a separate Criteria query
 		criteria = getSession().createCriteria(History.class);
 		criteria.createCriteria("parent").add(Restrictions.eq("space", space));
 		criteria.add(Restrictions.eq("status", status));
 		criteria.setProjection(Projections.rowCount());
-		return itemCount + (Integer) criteria.list().get(0);
-	}
-
-	@Override
-	@Transactional(propagation = Propagation.REQUIRED)
-	public int bulkUpdateStatusToOpen(Space space, int status) {
-		int itemCount = entityManager.createQuery("update Item item set item.status = " + State.OPEN
-				+ " where item.status = ? and item.space.id = ?")
-				.setParameter(1, status)
-				.setParameter(2, space.getId())
-				.executeUpdate();
-		logger.info("no of Item rows where status changed from " + status + " to " + State.OPEN + " = " + itemCount);
-		int historyCount = entityManager.createQuery("update History history set history.status = " + State.OPEN
-				+ " where history.status = ?"
-				+ " and history.parent in ( from Item item where item.space.id = ? )")
-				.setParameter(1, status)
-				.setParameter(2, space.getId())
-				.executeUpdate();
-		logger.info("no of History rows where status changed from " + status + " to " + State.OPEN + " = " + historyCount);
-		return itemCount;
+		return itemCount + ((Number) criteria.list().get(0)).intValue();
 	}
 
 	@Override
@@ -808,28 +1290,519 @@ public class HibernateJtracDao implements JtracDao {
 		}
 	}
 
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<Long> findItemIdsForSpace(long spaceId, long afterId, int maxResults) {
+		return entityManager.createQuery("select item.id from Item item"
+				+ " where item.space.id = ? and item.id > ? order by item.id", Long.class)
+				.setParameter(1, spaceId)
+				.setParameter(2, afterId)
+				.setMaxResults(maxResults)
+				.getResultList();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<Long> findItemIds(long afterId, int maxResults) {
+		return entityManager.createQuery("select item.id from Item item where item.id > ? order by item.id", Long.class)
+				.setParameter(1, afterId)
+				.setMaxResults(maxResults)
+				.getResultList();
+	}
+
+	/**
+	 * rewrites the history of the given items in one transaction, see
+	 * HistoryDelta.compact(), the items are fetched together with their history
+	 */
 	@Override
 	@Transactional(propagation = Propagation.REQUIRED)
-	public int bulkUpdateDeleteItemsForSpace(Space space) {
-		int historyCount = entityManager.createQuery("delete History history where history.parent in"
-				+ " ( from Item item where item.space.id = ? )")
-				.setParameter(1, space.getId())
+	public int compactHistory(List<Long> itemIds, int interval) {
+		List<Item> items = entityManager.createQuery("select distinct item from Item item"
+				+ " left join fetch item.history where item.id in (:itemIds)", Item.class)
+				.setParameter("itemIds", itemIds)
+				.getResultList();
+		int count = 0;
+		for (Item item : items) {
+			count += HistoryDelta.compact(item.getHistory(), interval);
+		}
+		return count;
+	}
+
+	/**
+	 * closed items of the space without any history entry since the given date
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<Long> findItemIdsToArchive(long spaceId, Date closedBefore, long afterId, int maxResults) {
+		return entityManager.createQuery("select item.id from Item item where item.space.id = :spaceId"
+				+ " and item.status = :status and item.id > :afterId and not exists (select history.id"
+				+ " from History history where history.parent = item and history.timeStamp >= :closedBefore)"
+				+ " order by item.id", Long.class)
+				.setParameter("spaceId", spaceId)
+				.setParameter("status", State.CLOSED)
+				.setParameter("afterId", afterId)
+				.setParameter("closedBefore", closedBefore)
+				.setMaxResults(maxResults)
+				.getResultList();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public int loadCountOfItemsToArchive(long spaceId, Date closedBefore) {
+		return entityManager.createQuery("select count(item) from Item item where item.space.id = :spaceId"
+				+ " and item.status = :status and not exists (select history.id"
+				+ " from History history where history.parent = item and history.timeStamp >= :closedBefore)", Long.class)
+				.setParameter("spaceId", spaceId)
+				.setParameter("status", State.CLOSED)
+				.setParameter("closedBefore", closedBefore)
+				.getSingleResult().intValue();
+	}
+
+	/**
+	 * moves the given items with their history, users to notify, tags, relations
+	 * and attachment records into the archive tables in one transaction, with
+	 * plain SQL so that nothing is loaded, the attachment files stay where they
+	 * are, relations from live items are moved as well and so drop out of view
+	 * a change log row is written for each item so that remote clients notice
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public int archiveItems(List<Long> itemIds) {
+		if (itemIds.isEmpty()) {
+			return 0;
+		}
+		List<Object[]> rows = entityManager.createQuery("select item.id, item.space.id, item.sequenceNum, item.version"
+				+ " from Item item where item.id in (:ids)", Object[].class)
+				.setParameter("ids", itemIds)
+				.getResultList();
+		copyToArchive("items", ITEM_TABLE_COLUMNS, "id in (:ids)", itemIds);
+		copyToArchive("attachments", "id, previous_id, file_name, file_prefix, item_id", "item_id in (:ids)", itemIds);
+		copyToArchive("history", HISTORY_TABLE_COLUMNS, "item_id in (:ids)", itemIds);
+		copyToArchive("item_users", "id, user_id, type, item_id", "item_id in (:ids)", itemIds);
+		copyToArchive("item_tags", "id, tag_id, type, item_id", "item_id in (:ids)", itemIds);
+		copyToArchive("item_items", "id, item_id, related_item_id, type", "item_id in (:ids) or related_item_id in (:ids)", itemIds);
+		Date now = new Date();
+		for (Object[] row : rows) {
+			ItemChange change = new ItemChange();
+			change.setItemId((Long) row[0]);
+			change.setSpaceId((Long) row[1]);
+			change.setSequenceNum((Long) row[2]);
+			change.setVersion((Integer) row[3]);
+			change.setType(ItemChange.ARCHIVED);
+			change.setTimeStamp(now);
+			entityManager.persist(change);
+		}
+		deleteItems(itemIds);
+		logger.debug("archived items: " + rows.size());
+		return rows.size();
+	}
+
+	private void copyToArchive(String table, String columns, String condition, List<Long> itemIds) {
+		entityManager.createNativeQuery("insert into " + table + "_archive (" + columns + ")"
+				+ " select " + columns + " from " + table + " where " + condition)
+				.setParameter("ids", itemIds)
 				.executeUpdate();
-		logger.debug("deleted " + historyCount + " records from history");
-		int itemItemCount = entityManager.createQuery("delete ItemItem itemItem where itemItem.item in"
-				+ " ( from Item item where item.space.id = ? )")
-				.setParameter(1, space.getId())
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public Item loadArchivedItem(long sequenceNum, String prefixCode) {
+		List<Item> list = entityManager.createQuery("from " + ARCHIVED_ITEM + " item"
+				+ " where item.sequenceNum = ? and item.space.prefixCode = ?", Item.class)
+				.setParameter(1, sequenceNum)
+				.setParameter(2, prefixCode)
+				.getResultList();
+		if (list.isEmpty()) {
+			return null;
+		}
+		return list.get(0);
+	}
+
+	/**
+	 * the first archived items of the space in id order, the caller removes
+	 * them before asking for more
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<Long> findArchivedItemIdsForSpace(long spaceId, int maxResults) {
+		return entityManager.createQuery("select item.id from " + ARCHIVED_ITEM + " item"
+				+ " where item.space.id = ? order by item.id", Long.class)
+				.setParameter(1, spaceId)
+				.setMaxResults(maxResults)
+				.getResultList();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public int loadCountOfArchivedItemsForSpace(long spaceId) {
+		return entityManager.createQuery("select count(item) from " + ARCHIVED_ITEM + " item"
+				+ " where item.space.id = ?", Long.class)
+				.setParameter(1, spaceId)
+				.getSingleResult().intValue();
+	}
+
+	/**
+	 * deletes archived items with everything that was archived along with them,
+	 * with plain SQL like archiveItems(), links between archived attachments
+	 * and to live items have no foreign key so their order does not matter
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void removeArchivedItems(List<Long> itemIds) {
+		if (itemIds.isEmpty()) {
+			return;
+		}
+		for (String table : new String[] { "item_users", "item_tags", "history", "attachments" }) {
+			entityManager.createNativeQuery("delete from " + table + "_archive where item_id in (:ids)")
+					.setParameter("ids", itemIds)
+					.executeUpdate();
+		}
+		entityManager.createNativeQuery("delete from item_items_archive where item_id in (:ids) or related_item_id in (:ids)")
+				.setParameter("ids", itemIds)
 				.executeUpdate();
-		logger.debug("deleted " + itemItemCount + " records from item_items");
-		int itemCount = entityManager.createQuery("delete Item item where item.space.id = ?")
-				.setParameter(1, space.getId())
+		entityManager.createNativeQuery("delete from items_archive where id in (:ids)")
+				.setParameter("ids", itemIds)
+				.executeUpdate();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void removeArchivedItemUsers(User user) {
+		entityManager.createNativeQuery("delete from item_users_archive where user_id = ?")
+				.setParameter(1, user.getId())
+				.executeUpdate();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public int loadCountOfItemsForSpace(long spaceId, long afterId) {
+		return entityManager.createQuery("select count(item) from Item item"
+				+ " where item.space.id = ? and item.id > ?", Long.class)
+				.setParameter(1, spaceId)
+				.setParameter(2, afterId)
+				.getSingleResult().intValue();
+	}
+
+	/**
+	 * takes or renews the lease of the node on the operation, false if another
+	 * node holds a lease that has not run out or the operation is done, the
+	 * progress row is locked so that nodes claiming at the same time take turns
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public boolean claimBulkOperation(BulkOperation operation, String nodeName, long leaseMillis) {
+		Session session = getSession();
+		session.setCacheMode(CacheMode.IGNORE);
+		// row lock, other nodes of a cluster wait until this transaction is done
+		Config progress = (Config) session.get(Config.class, operation.getConfigParam(), LockOptions.UPGRADE);
+		if (progress == null) {
+			return false;
+		}
+		long now = System.currentTimeMillis();
+		String leaseParam = BulkOperation.getLeaseParam(operation.getConfigParam());
+		Config lease = (Config) session.get(Config.class, leaseParam);
+		if (lease != null && BulkOperation.isLeaseHeld(lease.getValue(), now)
+				&& !nodeName.equals(BulkOperation.getLeaseNodeName(lease.getValue()))) {
+			return false;
+		}
+		entityManager.merge(new Config(leaseParam, BulkOperation.getLeaseValue(nodeName, now + leaseMillis)));
+		return true;
+	}
+
+	/**
+	 * applies one chunk of a bulk operation to the given items and their history
+	 * in a single short transaction, every statement is bounded by the id list
+	 * instead of a sub-select over the whole space, the versions of the items
+	 * changed are increased and a change log row is written for each of them
+	 * so that remote clients and entity tags notice
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public int bulkUpdateItems(BulkOperation operation, List<Long> itemIds) {
+		if (itemIds.isEmpty()) {
+			return 0;
+		}
+		String name = operation.getFieldName() == null ? null : operation.getFieldName().getText();
+		String itemCondition;
+		String historyCondition;
+		String assignment;
+		switch (operation.getType()) {
+		case FIELD_TO_NULL:
+			itemCondition = " and item." + name + " is not null";
+			historyCondition = " and history." + name + " is not null";
+			assignment = name + " = null";
+			break;
+		case FIELD_VALUE_TO_NULL:
+			itemCondition = " and item." + name + " = " + operation.getValue();
+			historyCondition = " and history." + name + " = " + operation.getValue();
+			assignment = name + " = null";
+			break;
+		case STATUS_TO_OPEN:
+			itemCondition = " and item.status = " + operation.getValue();
+			historyCondition = " and history.status = " + operation.getValue();
+			assignment = "status = " + State.OPEN;
+			break;
+		case REMOVE_SPACE:
+			itemCondition = "";
+			historyCondition = null;
+			assignment = null;
+			break;
+		default:
+			throw new IllegalArgumentException("unknown bulk operation: " + operation.getType());
+		}
+		List<Object[]> rows = entityManager.createQuery("select item.id, item.sequenceNum, item.version"
+				+ " from Item item where item.id in (:ids)" + itemCondition, Object[].class)
+				.setParameter("ids", itemIds)
+				.getResultList();
+		List<Long> affected = new ArrayList<Long>(rows.size());
+		for (Object[] row : rows) {
+			affected.add((Long) row[0]);
+		}
+		if (assignment != null) {
+			entityManager.createQuery("update History history set history." + assignment
+					+ " where history.parent.id in (:ids)" + historyCondition)
+					.setParameter("ids", itemIds)
+					.executeUpdate();
+			if (!affected.isEmpty()) {
+				entityManager.createQuery("update versioned Item item set item." + assignment
+						+ " where item.id in (:ids)")
+						.setParameter("ids", affected)
+						.executeUpdate();
+			}
+		}
+		Date now = new Date();
+		for (Object[] row : rows) {
+			ItemChange change = new ItemChange();
+			change.setItemId((Long) row[0]);
+			change.setSpaceId(operation.getSpaceId());
+			change.setSequenceNum((Long) row[1]);
+			if (assignment == null) {
+				change.setVersion((Integer) row[2]);
+				change.setType(ItemChange.DELETED);
+			} else {
+				change.setVersion((Integer) row[2] + 1);
+				change.setType(ItemChange.UPDATED);
+			}
+			change.setTimeStamp(now);
+			entityManager.persist(change);
+		}
+		if (assignment == null) {
+			deleteItems(itemIds);
+		}
+		logger.debug("bulk " + operation + ", items affected: " + affected.size());
+		return affected.size();
+	}
+
+	/**
+	 * the collections of Item that are not mapped from the other side
+	 * (users to notify, tags, attachments) are cleared with plain SQL
+	 */
+	private void deleteItems(List<Long> itemIds) {
+		entityManager.createNativeQuery("delete from item_users where item_id in (:ids)")
+				.setParameter("ids", itemIds)
+				.executeUpdate();
+		entityManager.createNativeQuery("delete from item_tags where item_id in (:ids)")
+				.setParameter("ids", itemIds)
+				.executeUpdate();
+		entityManager.createQuery("delete ItemItem itemItem where itemItem.item.id in (:ids)"
+				+ " or itemItem.relatedItem.id in (:ids)")
+				.setParameter("ids", itemIds)
+				.executeUpdate();
+		entityManager.createQuery("delete History history where history.parent.id in (:ids)")
+				.setParameter("ids", itemIds)
+				.executeUpdate();
+		// the files are removed later by the orphaned attachment cleanup
+		entityManager.createNativeQuery("update attachments set previous_id = null where item_id in (:ids)")
+				.setParameter("ids", itemIds)
+				.executeUpdate();
+		entityManager.createNativeQuery("delete from attachments where item_id in (:ids)")
+				.setParameter("ids", itemIds)
+				.executeUpdate();
+		entityManager.createQuery("update Item item set item.parent = null where item.parent.id in (:ids)")
+				.setParameter("ids", itemIds)
+				.executeUpdate();
+		entityManager.createQuery("delete Item item where item.id in (:ids)")
+				.setParameter("ids", itemIds)
+				.executeUpdate();
+	}
+
+	//==========================================================================
+
+	/**
+	 * tables and columns added in later releases, one query touching each of
+	 * them, schema update only ever adds what is missing
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public ClusterNode storeClusterNode(ClusterNode node) {
+		return entityManager.merge(node);
+	}
+
+	/**
+	 * 0 if the node has been removed in the meantime, e.g. after a long pause
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public int updateClusterNodeLastSeen(long id, Date lastSeen) {
+		return entityManager.createQuery("update ClusterNode node set node.lastSeen = :lastSeen where node.id = :id")
+				.setParameter("lastSeen", lastSeen)
+				.setParameter("id", id)
+				.executeUpdate();
+	}
+
+	/**
+	 * in order of registration, the first live node is the leader, read within
+	 * a transaction so that it never comes from a lagging replica
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public List<ClusterNode> findAllClusterNodes() {
+		return entityManager.createQuery("from ClusterNode node order by node.id", ClusterNode.class).getResultList();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public int removeClusterNodesLastSeenBefore(Date date) {
+		return entityManager.createQuery("delete from ClusterNode node where node.lastSeen < :date")
+				.setParameter("date", date)
+				.executeUpdate();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void removeClusterNode(long id) {
+		entityManager.createQuery("delete from ClusterNode node where node.id = :id")
+				.setParameter("id", id)
+				.executeUpdate();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void storeClusterEvent(ClusterEvent event) {
+		entityManager.persist(event);
+	}
+
+	/**
+	 * the events after the given id plus those with the given ids, which were
+	 * not committed yet when events after them were read
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<ClusterEvent> findClusterEvents(long afterId, Collection<Long> ids, int maxResults) {
+		String hql = "from ClusterEvent event where event.id > :afterId";
+		if (!ids.isEmpty()) {
+			hql += " or event.id in (:ids)";
+		}
+		TypedQuery<ClusterEvent> query = entityManager.createQuery(hql + " order by event.id", ClusterEvent.class);
+		query.setParameter("afterId", afterId);
+		if (!ids.isEmpty()) {
+			query.setParameter("ids", ids);
+		}
+		return query.setMaxResults(maxResults).getResultList();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public long loadLastClusterEventId() {
+		Long id = entityManager.createQuery("select max(event.id) from ClusterEvent event", Long.class).getSingleResult();
+		return id == null ? 0 : id;
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public int removeClusterEventsBefore(Date date) {
+		return entityManager.createQuery("delete from ClusterEvent event where event.timeStamp < :date")
+				.setParameter("date", date)
 				.executeUpdate();
-		logger.debug("deleted " + itemCount + " records from items");
-		return historyCount + itemItemCount + itemCount;
 	}
 
 	//==========================================================================
 
+	private static final String[] SCHEMA_PROBES = {
+		"from ClusterEvent event where event.id = 1",
+		"from ItemChange change where change.id = 1",
+		"select history.changes from History history where history.id = 1",
+		"select space.archiveAfterDays from Space space where space.id = 1",
+		"from " + ARCHIVED_ITEM + " item where item.id = 1"
+	};
+
+	private void upgradeSchema() {
+		for (String probe : SCHEMA_PROBES) {
+			try {
+				entityManager.createQuery(probe).getResultList();
+			} catch (Exception e) {
+				logger.warn("database schema is not up to date, will update schema. Error is: " + e.getMessage());
+				schemaHelper.createSchema();
+				return;
+			}
+		}
+		try {
+			loadIdSequenceValues();
+		} catch (Exception e) {
+			logger.warn("id sequences do not exist, will update schema. Error is: " + e.getMessage());
+			schemaHelper.createSchema();
+		}
+	}
+
+	private Map<EntityPersister, Long> loadIdSequenceValues() {
+		SessionFactoryImplementor factory = (SessionFactoryImplementor) getSession().getSessionFactory();
+		Map<EntityPersister, Long> values = new LinkedHashMap<EntityPersister, Long>();
+		for (EntityPersister persister : factory.getEntityPersisters().values()) {
+			if (!(persister.getIdentifierGenerator() instanceof PooledSequenceGenerator)) {
+				continue;
+			}
+			PooledSequenceGenerator generator = (PooledSequenceGenerator) persister.getIdentifierGenerator();
+			DatabaseStructure structure = generator.getDatabaseStructure();
+			String sql = structure.isPhysicalSequence()
+					? factory.getDialect().getSequenceNextValString(structure.getName())
+					: "select " + generator.getValueColumnName() + " from " + structure.getName();
+			// reading a physical sequence uses up one block, which does no harm
+			Number value = (Number) entityManager.createNativeQuery(sql).getSingleResult();
+			values.put(persister, value.longValue());
+		}
+		return values;
+	}
+
+	/**
+	 * sequences of tables that used "native" ids before and of databases where
+	 * rows were inserted behind the back of Hibernate are moved past the
+	 * highest id, the pooled optimizer hands out the block
+	 * (value - increment, value] after reading value from the sequence
+	 */
+	public void checkIdSequences() {
+		Dialect dialect = ((SessionFactoryImplementor) getSession().getSessionFactory()).getDialect();
+		for (Map.Entry<EntityPersister, Long> entry : loadIdSequenceValues().entrySet()) {
+			PooledSequenceGenerator generator = (PooledSequenceGenerator) entry.getKey().getIdentifierGenerator();
+			DatabaseStructure structure = generator.getDatabaseStructure();
+			String name = structure.getName();
+			long value = entry.getValue();
+			Long maxId = entityManager.createQuery("select max(e.id) from " + entry.getKey().getEntityName() + " e", Long.class)
+					.getSingleResult();
+			logger.info("checking id sequence: " + name + ", max id: " + maxId + ", value: " + value);
+			if (maxId == null) {
+				continue;
+			}
+			long required = maxId + structure.getIncrementSize();
+			if (structure.isPhysicalSequence()) {
+				// the value just read is used up, the next block is (value, value + increment]
+				if (value < maxId) {
+					logger.warn("fixing id sequence: " + name + ", was: " + value + ", restarting at: " + required);
+					for (String sql : dialect.getDropSequenceStrings(name)) {
+						entityManager.createNativeQuery(sql).executeUpdate();
+					}
+					for (String sql : dialect.getCreateSequenceStrings(name, (int) required, structure.getIncrementSize())) {
+						entityManager.createNativeQuery(sql).executeUpdate();
+					}
+				}
+			} else if (value < required) {
+				logger.warn("fixing id sequence: " + name + ", was: " + value + ", should be: " + required);
+				entityManager.createNativeQuery("update " + name + " set " + generator.getValueColumnName() + " = ?")
+						.setParameter(1, required)
+						.executeUpdate();
+			}
+		}
+	}
+
 	/**
 	 * note that this is automatically configured to run on startup
 	 * as a spring bean "init-method"
@@ -840,6 +1813,7 @@ public class HibernateJtracDao implements JtracDao {
 		try {
 			entityManager.createQuery("from " + Item.class.getName() + " item where item.id = 1", Item.class).getResultList();
 			logger.info("database schema exists, normal startup");
+			upgradeSchema();
 		} catch (Exception e) {
 			logger.warn("expected database schema does not exist, will create. Error is: " + e.getMessage());
 			schemaHelper.createSchema();
@@ -871,6 +1845,7 @@ public class HibernateJtracDao implements JtracDao {
 				entityManager.merge(ss);
 			}
 		}
+		checkIdSequences();
 		transactionManager.commit(transactionStatus);
 	}
 
@@ -1021,6 +1996,10 @@ public class HibernateJtracDao implements JtracDao {
 					// already handled space as special case, see ItemSearch#getSelectedSpaces()
 					break;
 				}
+				case TAGS: {
+					// do nothing, tags already resolved to item ids, see JtracImpl#findItems()
+					break;
+				}
 				default:
 					throw new RuntimeException("Unknown Column Heading " + columnHeading.getName());
 			}
@@ -17,23 +17,30 @@
 package info.jtrac.repository;
 
 import info.jtrac.domain.Attachment;
+import info.jtrac.domain.BulkOperation;
+import info.jtrac.domain.ClusterEvent;
+import info.jtrac.domain.ClusterNode;
 import info.jtrac.domain.Config;
 import info.jtrac.domain.Counts;
 import info.jtrac.domain.CountsHolder;
 import info.jtrac.domain.Field;
 import info.jtrac.domain.History;
 import info.jtrac.domain.Item;
+import info.jtrac.domain.ItemChange;
 import info.jtrac.domain.ItemItem;
 import info.jtrac.domain.ItemSearch;
 import info.jtrac.domain.ItemUser;
 import info.jtrac.domain.Metadata;
 import info.jtrac.domain.Space;
 import info.jtrac.domain.SpaceSequence;
+import info.jtrac.domain.Tag;
 import info.jtrac.domain.User;
 import info.jtrac.domain.UserSpaceRole;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Jtrac DAO Interface
@@ -44,27 +51,57 @@ public interface JtracDao {
 	Item storeItem(Item item);
 	Item loadItem(long id);
 	History loadHistory(long id);
+	List<History> findHistoryForItem(Item item, long beforeId, int maxResults, Collection<Field.Name> fieldNames);
+	int loadCountOfHistoryForItem(Item item);
+	List<Field.Name> findFieldNamesUsedInHistory(Item item, Collection<Field.Name> fieldNames);
+	void initializeHistory(Collection<Item> items);
 	void storeHistory(History history);
 	List<Item> findItems(long sequenceNum, String prefixCode);
 	List<Item> findItems(ItemSearch itemSearch);
+	Object[] loadItemVersion(long sequenceNum, String prefixCode);
+	Object[] loadItemsVersionSummary(Collection<Long> spaceIds);
+	Set<String> getItemColumnNames();
+	void scrollItems(Collection<Long> spaceIds, long afterId, int maxResults, List<String> columns, RowCallback callback);
+	void scrollItemProperties(long spaceId, Collection<Long> itemIds, List<String> properties, RowCallback callback);
+	void scrollItemTags(long spaceId, Collection<Long> itemIds, boolean archived, RowCallback callback);
+	List<Item> findItemsWhereIdIn(List<Long> ids);
 	int loadCountOfAllItems();
 	List<Item> findAllItems(int firstResult, int batchSize);
 	void removeItem(Item item);
 	void removeItemItem(ItemItem itemItem);
 	List<ItemUser> findItemUsersByUser(User user);
 	void removeItemUser(ItemUser itemUser);
+	List<Tag> findTagsWhereNameIn(Collection<String> names);
+	void storeTag(Tag tag);
+	void storeItemChange(ItemChange itemChange);
+	List<ItemChange> findItemChanges(long afterId, Collection<Long> spaceIds, int maxResults);
+	List<ItemChange> findItemChangesWhereIdIn(Collection<Long> ids);
+	long loadLastItemChangeId();
+	Long loadFirstItemChangeIdSince(Date timeStamp);
+	void flush();
 	//===========================================
 	int loadCountOfRecordsHavingFieldNotNull(Space space, Field field);
-	int bulkUpdateFieldToNull(Space space, Field field);
 	int loadCountOfRecordsHavingFieldWithValue(Space space, Field field, int optionKey);
-	int bulkUpdateFieldToNullForValue(Space space, Field field, int optionKey);
 	int loadCountOfRecordsHavingStatus(Space space, int status);
-	int bulkUpdateStatusToOpen(Space space, int status);
 	int bulkUpdateRenameSpaceRole(Space space, String oldRoleKey, String newRoleKey);
 	int bulkUpdateDeleteSpaceRole(Space space, String roleKey);
-	int bulkUpdateDeleteItemsForSpace(Space space);
+	List<Long> findItemIdsForSpace(long spaceId, long afterId, int maxResults);
+	List<Long> findItemIds(long afterId, int maxResults);
+	int compactHistory(List<Long> itemIds, int interval);
+	int loadCountOfItemsForSpace(long spaceId, long afterId);
+	int bulkUpdateItems(BulkOperation operation, List<Long> itemIds);
+	boolean claimBulkOperation(BulkOperation operation, String nodeName, long leaseMillis);
+	List<Long> findItemIdsToArchive(long spaceId, Date closedBefore, long afterId, int maxResults);
+	int loadCountOfItemsToArchive(long spaceId, Date closedBefore);
+	int archiveItems(List<Long> itemIds);
+	Item loadArchivedItem(long sequenceNum, String prefixCode);
+	List<Long> findArchivedItemIdsForSpace(long spaceId, int maxResults);
+	int loadCountOfArchivedItemsForSpace(long spaceId);
+	void removeArchivedItems(List<Long> itemIds);
+	void removeArchivedItemUsers(User user);
 	//========================================================
 	void storeAttachment(Attachment attachment);
+	List<Attachment> findAllAttachments();
 	//===========================================
 	Metadata storeMetadata(Metadata metadata);
 	Metadata loadMetadata(long id);
@@ -79,12 +116,16 @@ public interface JtracDao {
 	void removeSpace(Space space);
 	//===========================================
 	long loadNextSequenceNum(long spaceSequenceId);
+	long loadNextSequenceNums(long spaceSequenceId, int count);
 	void storeSpaceSequence(SpaceSequence spaceSequence);
 	//===========================================
 	User storeUser(User user);
 	User loadUser(long id);
 	void removeUser(User user);
 	List<User> findAllUsers();
+	List<User> findUsers(int firstResult, int maxResults);
+	int loadCountOfAllUsers();
+	List<Object[]> findUserIndexEntries();
 	List<User> findUsersWhereIdIn(List<Long> ids);
 	List<User> findUsersMatching(String searchText, String searchOn);
 	List<User> findUsersByLoginName(String loginName);
@@ -107,5 +148,16 @@ public interface JtracDao {
 	List<Config> findAllConfig();
 	Config storeConfig(Config config);
 	Config loadConfig(String key);
+	void removeConfig(String key);
+	//===========================================
+	ClusterNode storeClusterNode(ClusterNode node);
+	int updateClusterNodeLastSeen(long id, Date lastSeen);
+	List<ClusterNode> findAllClusterNodes();
+	int removeClusterNodesLastSeenBefore(Date date);
+	void removeClusterNode(long id);
+	void storeClusterEvent(ClusterEvent event);
+	List<ClusterEvent> findClusterEvents(long afterId, Collection<Long> ids, int maxResults);
+	long loadLastClusterEventId();
+	int removeClusterEventsBefore(Date date);
 
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.repository;
+
+import java.util.Properties;
+
+import org.hibernate.MappingException;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.type.Type;
+
+/**
+ * hands out ids in blocks of INCREMENT_SIZE from one sequence per entity,
+ * "Item_seq" etc., or from a single row table of the same name on databases
+ * without sequences.  Unlike "native", which is IDENTITY on HSQLDB,
+ * MySQL and SQL Server, the id is known before the insert, so Hibernate can
+ * hold back inserts until flush and send them as JDBC batches.  Sequences of
+ * tables that already contain data are moved past the highest id on startup,
+ * see HibernateJtracDao.checkIdSequences()
+ *
+ * ids are only unique, not in the order of insert, every cluster node has a
+ * block of its own, so entities whose id order has to be time order, History
+ * and the change and cluster event logs, keep "native" ids
+ */
+public class PooledSequenceGenerator extends SequenceStyleGenerator {
+
+	public static final String SUFFIX = "_seq";
+	public static final int INCREMENT_SIZE = 50;
+
+	private String valueColumnName;
+
+	@Override
+	public void configure(Type type, Properties params, Dialect dialect) throws MappingException {
+		setDefault(params, CONFIG_PREFER_SEQUENCE_PER_ENTITY, "true");
+		setDefault(params, CONFIG_SEQUENCE_PER_ENTITY_SUFFIX, SUFFIX);
+		setDefault(params, INCREMENT_PARAM, INCREMENT_SIZE + "");
+		setDefault(params, OPT_PARAM, "pooled");
+		super.configure(type, params, dialect);
+		valueColumnName = determineValueColumnName(params, dialect);
+	}
+
+	/**
+	 * the column holding the next value when there is no physical sequence
+	 */
+	public String getValueColumnName() {
+		return valueColumnName;
+	}
+
+	private static void setDefault(Properties params, String key, String value) {
+		if (params.getProperty(key) == null) {
+			params.setProperty(key, value);
+		}
+	}
+
+}
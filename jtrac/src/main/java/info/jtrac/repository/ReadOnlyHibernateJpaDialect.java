@@ -0,0 +1,71 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.repository;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.Session;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+
+/**
+ * Spring already switches the session to FlushMode.MANUAL for read only
+ * transactions, including the non transactional SUPPORTS + readOnly scopes
+ * the read paths of JtracImpl and the DAO run in.  This also makes every
+ * entity loaded in such a scope read only, so Hibernate does not keep a
+ * snapshot of its state for dirty checking and never dirty checks it on
+ * flush.  The previous setting of the session is restored when the
+ * transaction or scope ends.
+ */
+public class ReadOnlyHibernateJpaDialect extends HibernateJpaDialect {
+
+	@Override
+	public Object prepareTransaction(EntityManager entityManager, boolean readOnly, String name) {
+		Session session = getSession(entityManager);
+		boolean previousReadOnly = session.isDefaultReadOnly();
+		Object transactionData = super.prepareTransaction(entityManager, readOnly, name);
+		session.setDefaultReadOnly(readOnly);
+		return new ReadOnlyTransactionData(session, previousReadOnly, transactionData);
+	}
+
+	@Override
+	public void cleanupTransaction(Object transactionData) {
+		if (transactionData instanceof ReadOnlyTransactionData) {
+			ReadOnlyTransactionData data = (ReadOnlyTransactionData) transactionData;
+			super.cleanupTransaction(data.transactionData);
+			if (data.session.isOpen()) {
+				data.session.setDefaultReadOnly(data.previousReadOnly);
+			}
+		} else {
+			super.cleanupTransaction(transactionData);
+		}
+	}
+
+	private static class ReadOnlyTransactionData {
+
+		private final Session session;
+		private final boolean previousReadOnly;
+		private final Object transactionData;
+
+		public ReadOnlyTransactionData(Session session, boolean previousReadOnly, Object transactionData) {
+			this.session = session;
+			this.previousReadOnly = previousReadOnly;
+			this.transactionData = transactionData;
+		}
+
+	}
+
+}
@@ -35,6 +35,7 @@ import org.apache.poi.hssf.usermodel.HSSFFont;
 import org.apache.poi.hssf.usermodel.HSSFRow;
 import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.springframework.util.StringUtils;
 
 /**
  * Excel Sheet generation helper utility
@@ -182,6 +183,9 @@ public class ExcelUtils {
 						case SPACE:
 							setText(row, col++, item.getSpace().getName());
 							break;
+						case TAGS:
+							setText(row, col++, StringUtils.collectionToDelimitedString(item.getTagNames(), " "));
+							break;
 						default:
 							throw new RuntimeException("Unexpected name: '" + ch.getName() + "'");
 					}
@@ -0,0 +1,825 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.service;
+
+import info.jtrac.domain.ColumnHeading;
+import info.jtrac.domain.Field;
+import info.jtrac.domain.FilterCriteria;
+import info.jtrac.domain.Item;
+import info.jtrac.domain.ItemSearch;
+import info.jtrac.domain.Space;
+import info.jtrac.domain.User;
+import info.jtrac.repository.RowCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * in-memory column store of the item fields that ItemSearch can filter on,
+ * one segment per space, so that filtering and paging through a large space
+ * needs no query at all, only the page of items found is loaded afterwards
+ *
+ * status, drop downs and users are dictionary encoded into an int per item,
+ * status and drop downs also keep a bitmap of items per value so that "in"
+ * filters are the union of a few bitmaps, numbers and dates are held in
+ * double and long arrays and only compared for items still matching
+ *
+ * a space is loaded on first search once it has at least "minItems" items,
+ * then kept up to date by put() and remove() as items are committed, like
+ * UserIndex a load that races with an update is discarded, searches that the
+ * index cannot answer exactly like the database (text filters, history, the
+ * archive) are left to the database, see isSupported()
+ */
+public class ItemFilterIndex {
+
+	/**
+	 * the item properties held, in the order of the values that follow the
+	 * item id in every row passed to put() or to a Loader
+	 */
+	public static final List<String> PROPERTIES;
+
+	private static final String STATUS = "status";
+	private static final String ASSIGNED_TO = "assignedTo";
+	private static final String LOGGED_BY = "loggedBy";
+	private static final String TIME_STAMP = "timeStamp";
+	// a space found too small is looked at again after this long
+	private static final long RECHECK_INTERVAL = 10 * 60 * 1000L;
+	private static final Map<String, Integer> COLUMNS_BY_NAME;
+
+	static {
+		List<String> properties = new ArrayList<String>();
+		properties.add(STATUS);
+		for (Field.Name name : Field.Name.values()) {
+			if (name.getType() != 5) { // free text
+				properties.add(name.getText());
+			}
+		}
+		properties.add(ASSIGNED_TO + ".id");
+		properties.add(LOGGED_BY + ".id");
+		properties.add(TIME_STAMP);
+		PROPERTIES = Collections.unmodifiableList(properties);
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		for (int i = 0; i < properties.size(); i++) {
+			map.put(properties.get(i).replace(".id", ""), i);
+		}
+		COLUMNS_BY_NAME = Collections.unmodifiableMap(map);
+	}
+
+	private final ConcurrentMap<Long, Segment> segments = new ConcurrentHashMap<Long, Segment>();
+	private int minItems = -1;
+
+	private static class Segment {
+
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+		private final AtomicLong version = new AtomicLong();
+		// null until loaded, guarded by the lock
+		private volatile Rows rows;
+		private long checkedAt;
+
+	}
+
+	/**
+	 * collects the rows of one space, see load()
+	 */
+	public static class Loader implements RowCallback {
+
+		private final long spaceId;
+		private final long version;
+		private final Rows rows = new Rows();
+
+		private Loader(long spaceId, long version) {
+			this.spaceId = spaceId;
+			this.version = version;
+		}
+
+		@Override
+		public void processRow(Object[] row) {
+			rows.put(row);
+		}
+
+	}
+
+	/**
+	 * decides the order of the results, ties are broken on the item id
+	 */
+	private interface RowOrder {
+
+		int compare(int row1, int row2);
+
+	}
+
+	//==========================================================================
+
+	/**
+	 * spaces with fewer items than this are always searched in the database,
+	 * -1 switches the index off
+	 */
+	public void setMinItems(int minItems) {
+		this.minItems = minItems;
+	}
+
+	public boolean isEnabled() {
+		return minItems >= 0;
+	}
+
+	public boolean isLoaded(long spaceId) {
+		Segment segment = segments.get(spaceId);
+		return segment != null && segment.rows != null;
+	}
+
+	/**
+	 * true if the space should be loaded now, i.e. it is not loaded and was
+	 * not found to be too small a short while ago
+	 */
+	public boolean isLoadDue(long spaceId) {
+		if (!isEnabled()) {
+			return false;
+		}
+		Segment segment = getSegment(spaceId);
+		return segment.rows == null && System.currentTimeMillis() - segment.checkedAt > RECHECK_INTERVAL;
+	}
+
+	/**
+	 * to be given the rows of all items of the space, in any order, and then
+	 * passed to load(), remembers the version of the space to detect races
+	 */
+	public Loader newLoader(long spaceId) {
+		return new Loader(spaceId, getSegment(spaceId).version.get());
+	}
+
+	public void load(Loader loader) {
+		Segment segment = getSegment(loader.spaceId);
+		segment.lock.writeLock().lock();
+		try {
+			if (loader.version != segment.version.get()) {
+				return;
+			}
+			segment.checkedAt = System.currentTimeMillis();
+			if (isEnabled() && loader.rows.size() >= minItems) {
+				segment.rows = loader.rows;
+			}
+		} finally {
+			segment.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @param row the item id followed by the values of PROPERTIES, see getRow()
+	 */
+	public void put(long spaceId, Object[] row) {
+		update(spaceId, Collections.singletonList(row), Collections.<Long> emptyList());
+	}
+
+	public void remove(long spaceId, long itemId) {
+		update(spaceId, Collections.<Object[]> emptyList(), Collections.singletonList(itemId));
+	}
+
+	/**
+	 * replaces the given items with the rows given, items that have no row
+	 * no longer exist and are removed
+	 */
+	public void update(long spaceId, List<Object[]> rows, Collection<Long> itemIds) {
+		Segment segment = getSegment(spaceId);
+		segment.lock.writeLock().lock();
+		try {
+			segment.version.incrementAndGet();
+			if (segment.rows == null) {
+				return;
+			}
+			Set<Long> removed = new HashSet<Long>(itemIds);
+			for (Object[] row : rows) {
+				segment.rows.put(row);
+				removed.remove(toLong(row[0]));
+			}
+			for (Long itemId : removed) {
+				segment.rows.remove(itemId);
+			}
+		} finally {
+			segment.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * forces a reload of the space on next use
+	 */
+	public void invalidate(long spaceId) {
+		Segment segment = getSegment(spaceId);
+		segment.lock.writeLock().lock();
+		try {
+			segment.version.incrementAndGet();
+			segment.rows = null;
+			segment.checkedAt = 0;
+		} finally {
+			segment.lock.writeLock().unlock();
+		}
+	}
+
+	public void invalidate() {
+		for (Long spaceId : segments.keySet()) {
+			invalidate(spaceId);
+		}
+	}
+
+	/**
+	 * true if the search is within one space and filters and sorts only on
+	 * what the index holds, text searches are fine once their hits are known
+	 */
+	public static boolean isSupported(ItemSearch itemSearch) {
+		if (itemSearch.getSpace() == null || itemSearch.isShowHistory() || itemSearch.isArchived()
+				|| itemSearch.isBatchMode() || itemSearch.getPageSize() < 1) {
+			return false;
+		}
+		String sortFieldName = itemSearch.getSortFieldName();
+		if (sortFieldName != null && !sortFieldName.equals("id") && !sortFieldName.equals("space")
+				&& !COLUMNS_BY_NAME.containsKey(sortFieldName)) {
+			return false;
+		}
+		for (ColumnHeading ch : itemSearch.getColumnHeadings()) {
+			// tags are resolved to item ids like text searches
+			if (COLUMNS_BY_NAME.containsKey(ch.getNameText()) || ch.getName() == ColumnHeading.Name.DETAIL
+					|| ch.getName() == ColumnHeading.Name.SPACE || ch.getName() == ColumnHeading.Name.TAGS) {
+				continue;
+			}
+			// id, summary and free text fields
+			if (ch.filterHasValue() || ch.filterHasValueList()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * the ids of the page of items asked for in the order asked for, the result
+	 * count is set on the search like the database search does, null if the
+	 * space is not loaded or the search is not supported
+	 */
+	public List<Long> find(ItemSearch itemSearch) {
+		if (!isSupported(itemSearch)) {
+			return null;
+		}
+		Segment segment = segments.get(itemSearch.getSpace().getId());
+		if (segment == null) {
+			return null;
+		}
+		segment.lock.readLock().lock();
+		try {
+			Rows rows = segment.rows;
+			if (rows == null) {
+				return null;
+			}
+			BitSet matches = rows.filter(itemSearch);
+			int count = matches.cardinality();
+			itemSearch.setResultCount(count);
+			int firstResult = itemSearch.getPageSize() * itemSearch.getCurrentPage();
+			if (firstResult >= count) {
+				return new ArrayList<Long>();
+			}
+			int[] top = rows.top(matches, Math.min(count, firstResult + itemSearch.getPageSize()), getOrder(rows, itemSearch));
+			List<Long> ids = new ArrayList<Long>(top.length - firstResult);
+			for (int i = firstResult; i < top.length; i++) {
+				ids.add(rows.ids[top[i]]);
+			}
+			return ids;
+		} finally {
+			segment.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * the row to put() for an item, in the order of PROPERTIES
+	 */
+	public static Object[] getRow(Item item) {
+		List<Object> row = new ArrayList<Object>(PROPERTIES.size() + 1);
+		row.add(item.getId());
+		row.add(item.getStatus());
+		for (Field.Name name : Field.Name.values()) {
+			if (name.getType() != 5) {
+				row.add(item.getValue(name));
+			}
+		}
+		row.add(item.getAssignedTo() == null ? null : item.getAssignedTo().getId());
+		row.add(item.getLoggedBy() == null ? null : item.getLoggedBy().getId());
+		row.add(item.getTimeStamp());
+		return row.toArray();
+	}
+
+	//==========================================================================
+
+	private Segment getSegment(long spaceId) {
+		Segment segment = segments.get(spaceId);
+		if (segment == null) {
+			segment = new Segment();
+			Segment existing = segments.putIfAbsent(spaceId, segment);
+			if (existing != null) {
+				segment = existing;
+			}
+		}
+		return segment;
+	}
+
+	/**
+	 * same order as the database search, drop downs in the order of their options
+	 * and everything else by value, nulls first when ascending
+	 */
+	private static RowOrder getOrder(final Rows rows, ItemSearch itemSearch) {
+		String sortFieldName = itemSearch.getSortFieldName();
+		final boolean descending = itemSearch.isSortDescending();
+		final Column column = sortFieldName == null ? null : rows.getColumn(sortFieldName);
+		final CodedColumn coded = column instanceof CodedColumn ? (CodedColumn) column : null;
+		final RangeColumn range = column instanceof RangeColumn ? (RangeColumn) column : null;
+		final int[] ranks = coded == null ? null : coded.getRanks(getOptionKeys(itemSearch.getSpace(), sortFieldName));
+		return new RowOrder() {
+			@Override
+			public int compare(int row1, int row2) {
+				int result = 0;
+				if (coded != null) {
+					result = compareInts(ranks[coded.codes[row1]], ranks[coded.codes[row2]]);
+				} else if (range != null) {
+					double value1 = range.get(row1);
+					double value2 = range.get(row2);
+					if (Double.isNaN(value1) || Double.isNaN(value2)) {
+						result = Double.isNaN(value1) ? (Double.isNaN(value2) ? 0 : -1) : 1;
+					} else {
+						result = Double.compare(value1, value2);
+					}
+				}
+				if (result == 0) {
+					long id1 = rows.ids[row1];
+					long id2 = rows.ids[row2];
+					result = id1 < id2 ? -1 : (id1 == id2 ? 0 : 1);
+				}
+				return descending ? -result : result;
+			}
+		};
+	}
+
+	private static List<String> getOptionKeys(Space space, String name) {
+		if (!Field.isValidName(name) || space.getMetadata() == null) {
+			return null;
+		}
+		Field field = space.getMetadata().getField(name);
+		if (field == null || !field.isDropDownType() || field.getOptions() == null) {
+			return null;
+		}
+		return new ArrayList<String>(field.getOptions().keySet());
+	}
+
+	private static int compareInts(int i1, int i2) {
+		return i1 < i2 ? -1 : (i1 == i2 ? 0 : 1);
+	}
+
+	private static long toLong(Object o) {
+		if (o instanceof User) {
+			return ((User) o).getId();
+		}
+		if (o instanceof Number) {
+			return ((Number) o).longValue();
+		}
+		return Long.parseLong(o.toString().trim());
+	}
+
+	private static double toDouble(Object o) {
+		if (o instanceof Date) {
+			return ((Date) o).getTime();
+		}
+		if (o instanceof Number) {
+			return ((Number) o).doubleValue();
+		}
+		return Double.NaN;
+	}
+
+	//==========================================================================
+
+	/**
+	 * the columns of one space, the row of a removed item is reused
+	 */
+	private static class Rows {
+
+		private long[] ids = new long[64];
+		private int size;
+		private final Map<Long, Integer> rowsById = new HashMap<Long, Integer>();
+		private final BitSet live = new BitSet();
+		private int[] free = new int[16];
+		private int freeCount;
+		private final Column[] columns = new Column[PROPERTIES.size()];
+
+		Rows() {
+			for (int i = 0; i < columns.length; i++) {
+				String property = PROPERTIES.get(i);
+				Field.Name fieldName = Field.isValidName(property) ? Field.convertToName(property) : null;
+				if (property.equals(TIME_STAMP) || (fieldName != null && fieldName.getType() == 6)) {
+					columns[i] = new TimeColumn(ids.length);
+				} else if (fieldName != null && fieldName.getType() == 4) {
+					columns[i] = new NumberColumn(ids.length);
+				} else {
+					// too many users for a bitmap each
+					columns[i] = new CodedColumn(ids.length, fieldName != null || property.equals(STATUS));
+				}
+			}
+		}
+
+		int size() {
+			return rowsById.size();
+		}
+
+		Column getColumn(String name) {
+			Integer index = COLUMNS_BY_NAME.get(name);
+			return index == null ? null : columns[index];
+		}
+
+		void put(Object[] values) {
+			long id = toLong(values[0]);
+			Integer row = rowsById.get(id);
+			if (row == null) {
+				row = allocate();
+				ids[row] = id;
+				rowsById.put(id, row);
+				live.set(row);
+			}
+			for (int i = 0; i < columns.length; i++) {
+				columns[i].set(row, values[i + 1]);
+			}
+		}
+
+		void remove(long id) {
+			Integer row = rowsById.remove(id);
+			if (row == null) {
+				return;
+			}
+			live.clear(row);
+			for (Column column : columns) {
+				column.clear(row);
+			}
+			if (freeCount == free.length) {
+				free = Arrays.copyOf(free, freeCount * 2);
+			}
+			free[freeCount++] = row;
+		}
+
+		private int allocate() {
+			if (freeCount > 0) {
+				return free[--freeCount];
+			}
+			if (size == ids.length) {
+				int capacity = size * 2;
+				ids = Arrays.copyOf(ids, capacity);
+				for (Column column : columns) {
+					column.grow(capacity);
+				}
+			}
+			return size++;
+		}
+
+		BitSet filter(ItemSearch itemSearch) {
+			BitSet matches = (BitSet) live.clone();
+			Collection<Long> itemIds = itemSearch.getItemIds();
+			if (itemIds != null) {
+				BitSet hits = new BitSet();
+				for (Long id : itemIds) {
+					Integer row = rowsById.get(id);
+					if (row != null) {
+						hits.set(row);
+					}
+				}
+				matches.and(hits);
+			}
+			for (ColumnHeading ch : itemSearch.getColumnHeadings()) {
+				Column column = getColumn(ch.getNameText());
+				FilterCriteria filterCriteria = ch.getFilterCriteria();
+				if (column instanceof CodedColumn && ch.filterHasValueList()) {
+					Set<Long> values = new HashSet<Long>();
+					for (Object o : filterCriteria.getValues()) {
+						values.add(toLong(o));
+					}
+					((CodedColumn) column).retain(matches, values);
+				} else if (column instanceof RangeColumn && ch.filterHasValue()) {
+					FilterCriteria.Expression expression = filterCriteria.getExpression();
+					if (!ch.isField() && (expression == FilterCriteria.Expression.EQ || expression == FilterCriteria.Expression.NOT_EQ)) {
+						// not offered for the time stamp, ignored by the database search too
+						continue;
+					}
+					((RangeColumn) column).retain(matches, expression, toDouble(filterCriteria.getValue()), toDouble(filterCriteria.getValue2()));
+				}
+			}
+			return matches;
+		}
+
+		/**
+		 * the first k of the matching rows in the given order using a bounded
+		 * heap, so the first pages of a large result cost one pass over it
+		 */
+		int[] top(BitSet matches, int k, RowOrder order) {
+			// the root is the row that would be dropped next
+			int[] heap = new int[k];
+			int heapSize = 0;
+			for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+				if (heapSize < k) {
+					heap[heapSize] = row;
+					siftUp(heap, heapSize++, order);
+				} else if (order.compare(row, heap[0]) < 0) {
+					heap[0] = row;
+					siftDown(heap, 0, heapSize, order);
+				}
+			}
+			for (int end = heapSize - 1; end > 0; end--) {
+				int root = heap[0];
+				heap[0] = heap[end];
+				heap[end] = root;
+				siftDown(heap, 0, end, order);
+			}
+			return heap;
+		}
+
+		private static void siftUp(int[] heap, int i, RowOrder order) {
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (order.compare(heap[i], heap[parent]) <= 0) {
+					return;
+				}
+				int temp = heap[i];
+				heap[i] = heap[parent];
+				heap[parent] = temp;
+				i = parent;
+			}
+		}
+
+		private static void siftDown(int[] heap, int i, int heapSize, RowOrder order) {
+			while (true) {
+				int largest = i;
+				int left = 2 * i + 1;
+				int right = left + 1;
+				if (left < heapSize && order.compare(heap[left], heap[largest]) > 0) {
+					largest = left;
+				}
+				if (right < heapSize && order.compare(heap[right], heap[largest]) > 0) {
+					largest = right;
+				}
+				if (largest == i) {
+					return;
+				}
+				int temp = heap[i];
+				heap[i] = heap[largest];
+				heap[largest] = temp;
+				i = largest;
+			}
+		}
+
+	}
+
+	private abstract static class Column {
+
+		abstract void grow(int capacity);
+
+		abstract void set(int row, Object value);
+
+		abstract void clear(int row);
+
+	}
+
+	/**
+	 * one int code per row standing for the value, code 0 is null, optionally
+	 * with a bitmap of the rows per code
+	 */
+	private static class CodedColumn extends Column {
+
+		private int[] codes;
+		private final List<Long> values = new ArrayList<Long>();
+		private final Map<Long, Integer> codesByValue = new HashMap<Long, Integer>();
+		private final List<BitSet> postings;
+
+		CodedColumn(int capacity, boolean bitmaps) {
+			codes = new int[capacity];
+			values.add(null);
+			postings = bitmaps ? new ArrayList<BitSet>() : null;
+			if (postings != null) {
+				postings.add(new BitSet());
+			}
+		}
+
+		@Override
+		void grow(int capacity) {
+			codes = Arrays.copyOf(codes, capacity);
+		}
+
+		@Override
+		void set(int row, Object value) {
+			int code = 0;
+			if (value != null) {
+				Long key = toLong(value);
+				Integer existing = codesByValue.get(key);
+				if (existing == null) {
+					code = values.size();
+					values.add(key);
+					codesByValue.put(key, code);
+					if (postings != null) {
+						postings.add(new BitSet());
+					}
+				} else {
+					code = existing;
+				}
+			}
+			if (postings != null) {
+				postings.get(codes[row]).clear(row);
+				postings.get(code).set(row);
+			}
+			codes[row] = code;
+		}
+
+		@Override
+		void clear(int row) {
+			if (postings != null) {
+				postings.get(codes[row]).clear(row);
+			}
+			codes[row] = 0;
+		}
+
+		/**
+		 * keeps the rows having one of the values, like "in" nulls never match
+		 */
+		void retain(BitSet matches, Set<Long> wanted) {
+			if (postings != null) {
+				BitSet union = new BitSet();
+				for (Long value : wanted) {
+					Integer code = codesByValue.get(value);
+					if (code != null) {
+						union.or(postings.get(code));
+					}
+				}
+				matches.and(union);
+				return;
+			}
+			boolean[] wantedCodes = new boolean[values.size()];
+			for (Long value : wanted) {
+				Integer code = codesByValue.get(value);
+				if (code != null) {
+					wantedCodes[code] = true;
+				}
+			}
+			for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+				if (!wantedCodes[codes[row]]) {
+					matches.clear(row);
+				}
+			}
+		}
+
+		/**
+		 * the sort position of every code, by position in the option keys given
+		 * or else by value, null and unknown options come first
+		 */
+		int[] getRanks(List<String> optionKeys) {
+			int[] ranks = new int[values.size()];
+			if (optionKeys != null) {
+				for (int code = 1; code < ranks.length; code++) {
+					ranks[code] = optionKeys.indexOf(values.get(code).toString()) + 1;
+				}
+				return ranks;
+			}
+			Integer[] order = new Integer[ranks.length];
+			for (int code = 0; code < order.length; code++) {
+				order[code] = code;
+			}
+			Arrays.sort(order, 1, order.length, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer code1, Integer code2) {
+					return values.get(code1).compareTo(values.get(code2));
+				}
+			});
+			for (int i = 0; i < order.length; i++) {
+				ranks[order[i]] = i;
+			}
+			return ranks;
+		}
+
+	}
+
+	/**
+	 * numbers and dates, null is NaN, comparisons with null are false like in SQL
+	 */
+	private abstract static class RangeColumn extends Column {
+
+		abstract double get(int row);
+
+		void retain(BitSet matches, FilterCriteria.Expression expression, double value, double value2) {
+			for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+				double v = get(row);
+				boolean match;
+				switch (expression) {
+					case EQ:
+						match = v == value;
+						break;
+					case NOT_EQ:
+						match = !Double.isNaN(v) && !Double.isNaN(value) && v != value;
+						break;
+					case GT:
+						match = v > value;
+						break;
+					case LT:
+						match = v < value;
+						break;
+					case BETWEEN:
+						match = v > value && v < value2;
+						break;
+					default:
+						match = true;
+				}
+				if (!match) {
+					matches.clear(row);
+				}
+			}
+		}
+
+	}
+
+	private static class NumberColumn extends RangeColumn {
+
+		private double[] values;
+
+		NumberColumn(int capacity) {
+			values = new double[capacity];
+		}
+
+		@Override
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		void set(int row, Object value) {
+			values[row] = toDouble(value);
+		}
+
+		@Override
+		void clear(int row) {
+			values[row] = Double.NaN;
+		}
+
+		@Override
+		double get(int row) {
+			return values[row];
+		}
+
+	}
+
+	/**
+	 * milliseconds, Long.MIN_VALUE is null
+	 */
+	private static class TimeColumn extends RangeColumn {
+
+		private long[] values;
+
+		TimeColumn(int capacity) {
+			values = new long[capacity];
+		}
+
+		@Override
+		void grow(int capacity) {
+			values = Arrays.copyOf(values, capacity);
+		}
+
+		@Override
+		void set(int row, Object value) {
+			values[row] = value == null ? Long.MIN_VALUE : ((Date) value).getTime();
+		}
+
+		@Override
+		void clear(int row) {
+			values[row] = Long.MIN_VALUE;
+		}
+
+		@Override
+		double get(int row) {
+			return values[row] == Long.MIN_VALUE ? Double.NaN : values[row];
+		}
+
+	}
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.service;
+
+import info.jtrac.repository.RowCallback;
+import info.jtrac.util.IdBitmap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * postings of the tags used in each space, per tag a compressed bitmap of the
+ * ids of the items carrying it, so that a filter on several tags is a few and /
+ * or operations on bitmaps instead of one join per tag, and the tag cloud of a
+ * space is the cardinality of each bitmap
+ *
+ * a space is loaded on first use and then kept up to date by update() as tag
+ * changes are committed, like ItemFilterIndex a load that races with an update
+ * is discarded, only tagged items take up memory
+ */
+public class ItemTagIndex {
+
+	private final ConcurrentMap<Long, Segment> segments = new ConcurrentHashMap<Long, Segment>();
+
+	private static class Segment {
+
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+		private final AtomicLong version = new AtomicLong();
+		// null until loaded, guarded by the lock
+		private volatile Postings postings;
+
+	}
+
+	/**
+	 * the items of every tag of a space, built from rows of item id and tag
+	 * name, also used on its own for the archive which is not kept in memory
+	 */
+	public static class Postings implements RowCallback {
+
+		private final Map<String, IdBitmap> itemsByTag = new HashMap<String, IdBitmap>();
+		// to find the bitmaps to take an item out of when its tags change
+		private final Map<Long, Set<String>> tagsByItem = new HashMap<Long, Set<String>>();
+
+		@Override
+		public void processRow(Object[] row) {
+			add(((Number) row[0]).longValue(), (String) row[1]);
+		}
+
+		private void add(long itemId, String tagName) {
+			IdBitmap items = itemsByTag.get(tagName);
+			if (items == null) {
+				items = new IdBitmap();
+				itemsByTag.put(tagName, items);
+			}
+			items.add(itemId);
+			Set<String> tagNames = tagsByItem.get(itemId);
+			if (tagNames == null) {
+				tagNames = new HashSet<String>(4);
+				tagsByItem.put(itemId, tagNames);
+			}
+			tagNames.add(tagName);
+		}
+
+		private void set(long itemId, Collection<String> tagNames) {
+			Set<String> previous = tagsByItem.remove(itemId);
+			if (previous != null) {
+				for (String tagName : previous) {
+					IdBitmap items = itemsByTag.get(tagName);
+					items.remove(itemId);
+					if (items.isEmpty()) {
+						itemsByTag.remove(tagName);
+					}
+				}
+			}
+			for (String tagName : tagNames) {
+				add(itemId, tagName);
+			}
+		}
+
+		/**
+		 * the ids of the items having all or any of the tags, ascending
+		 */
+		public List<Long> find(Collection<String> tagNames, boolean all) {
+			IdBitmap result = null;
+			for (String tagName : tagNames) {
+				IdBitmap items = itemsByTag.get(tagName);
+				if (items == null) {
+					if (all) {
+						return new ArrayList<Long>();
+					}
+					continue;
+				}
+				if (result == null) {
+					result = items;
+				} else {
+					result = all ? result.and(items) : result.or(items);
+				}
+			}
+			return result == null ? new ArrayList<Long>() : result.toList();
+		}
+
+		/**
+		 * the number of items per tag in alphabetical order of the tags, only
+		 * the most used ones if there are more than maxTags (when positive)
+		 */
+		public Map<String, Integer> getCounts(int maxTags) {
+			List<Map.Entry<String, IdBitmap>> entries = new ArrayList<Map.Entry<String, IdBitmap>>(itemsByTag.entrySet());
+			if (maxTags > 0 && entries.size() > maxTags) {
+				Collections.sort(entries, new Comparator<Map.Entry<String, IdBitmap>>() {
+					@Override
+					public int compare(Map.Entry<String, IdBitmap> e1, Map.Entry<String, IdBitmap> e2) {
+						int c1 = e1.getValue().getCardinality();
+						int c2 = e2.getValue().getCardinality();
+						if (c1 != c2) {
+							return c1 > c2 ? -1 : 1;
+						}
+						return e1.getKey().compareTo(e2.getKey());
+					}
+				});
+				entries = entries.subList(0, maxTags);
+			}
+			Map<String, Integer> counts = new TreeMap<String, Integer>();
+			for (Map.Entry<String, IdBitmap> entry : entries) {
+				counts.put(entry.getKey(), entry.getValue().getCardinality());
+			}
+			return new LinkedHashMap<String, Integer>(counts);
+		}
+
+	}
+
+	/**
+	 * collects the tags of one space, see load()
+	 */
+	public static class Loader extends Postings {
+
+		private final long spaceId;
+		private final long version;
+
+		private Loader(long spaceId, long version) {
+			this.spaceId = spaceId;
+			this.version = version;
+		}
+
+	}
+
+	//==========================================================================
+
+	public boolean isLoaded(long spaceId) {
+		Segment segment = segments.get(spaceId);
+		return segment != null && segment.postings != null;
+	}
+
+	/**
+	 * to be given the tags of all items of the space and then passed to
+	 * load(), remembers the version of the space to detect races
+	 */
+	public Loader newLoader(long spaceId) {
+		return new Loader(spaceId, getSegment(spaceId).version.get());
+	}
+
+	public void load(Loader loader) {
+		Segment segment = getSegment(loader.spaceId);
+		segment.lock.writeLock().lock();
+		try {
+			if (loader.version == segment.version.get()) {
+				segment.postings = loader;
+			}
+		} finally {
+			segment.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * replaces the tags of the given items, items of the space that no longer
+	 * exist or have lost all their tags are mapped to an empty collection
+	 */
+	public void update(long spaceId, Map<Long, ? extends Collection<String>> tagsByItem) {
+		Segment segment = getSegment(spaceId);
+		segment.lock.writeLock().lock();
+		try {
+			segment.version.incrementAndGet();
+			if (segment.postings == null) {
+				return;
+			}
+			for (Map.Entry<Long, ? extends Collection<String>> entry : tagsByItem.entrySet()) {
+				segment.postings.set(entry.getKey(), entry.getValue());
+			}
+		} finally {
+			segment.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * forces a reload of the space on next use
+	 */
+	public void invalidate(long spaceId) {
+		Segment segment = getSegment(spaceId);
+		segment.lock.writeLock().lock();
+		try {
+			segment.version.incrementAndGet();
+			segment.postings = null;
+		} finally {
+			segment.lock.writeLock().unlock();
+		}
+	}
+
+	public void invalidate() {
+		for (Long spaceId : segments.keySet()) {
+			invalidate(spaceId);
+		}
+	}
+
+	/**
+	 * see Postings.find(), null if the space is not loaded
+	 */
+	public List<Long> find(long spaceId, Collection<String> tagNames, boolean all) {
+		Segment segment = segments.get(spaceId);
+		if (segment == null) {
+			return null;
+		}
+		segment.lock.readLock().lock();
+		try {
+			return segment.postings == null ? null : segment.postings.find(tagNames, all);
+		} finally {
+			segment.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * see Postings.getCounts(), null if the space is not loaded
+	 */
+	public Map<String, Integer> getCounts(long spaceId, int maxTags) {
+		Segment segment = segments.get(spaceId);
+		if (segment == null) {
+			return null;
+		}
+		segment.lock.readLock().lock();
+		try {
+			return segment.postings == null ? null : segment.postings.getCounts(maxTags);
+		} finally {
+			segment.lock.readLock().unlock();
+		}
+	}
+
+	//==========================================================================
+
+	private Segment getSegment(long spaceId) {
+		Segment segment = segments.get(spaceId);
+		if (segment == null) {
+			segment = new Segment();
+			Segment existing = segments.putIfAbsent(spaceId, segment);
+			if (existing != null) {
+				segment = existing;
+			}
+		}
+		return segment;
+	}
+
+}
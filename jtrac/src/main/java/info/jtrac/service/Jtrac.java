@@ -17,12 +17,15 @@
 package info.jtrac.service;
 
 import info.jtrac.domain.BatchInfo;
+import info.jtrac.domain.BulkOperation;
+import info.jtrac.domain.BulkRecord;
 import info.jtrac.domain.Config;
 import info.jtrac.domain.Counts;
 import info.jtrac.domain.CountsHolder;
 import info.jtrac.domain.Field;
 import info.jtrac.domain.History;
 import info.jtrac.domain.Item;
+import info.jtrac.domain.ItemChange;
 import info.jtrac.domain.ItemItem;
 import info.jtrac.domain.ItemSearch;
 import info.jtrac.domain.Metadata;
@@ -30,11 +33,15 @@ import info.jtrac.domain.Space;
 import info.jtrac.domain.UploadedFile;
 import info.jtrac.domain.User;
 import info.jtrac.domain.UserSpaceRole;
+import info.jtrac.job.JobStatus;
+import info.jtrac.repository.RowCallback;
 
 import java.io.File;
 import java.io.Writer;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.acegisecurity.userdetails.UserDetailsService;
 
@@ -47,14 +54,29 @@ public interface Jtrac extends UserDetailsService {
 	void storeItems(List<Item> items);
 	Item updateItem(Item item, User user);
 	void storeHistoryForItem(long itemId, History history, UploadedFile uploadedFile);
+	void storeBulkRecords(User user, List<BulkRecord> records);
 	Item loadItem(long id);
 	Item loadItemByRefId(String refId);
+	Item loadItemWithHistoryByRefId(String refId);
+	Item loadArchivedItemByRefId(String refId);
 	History loadHistory(long id);
+	List<History> findHistoryForItem(Item item, long beforeId, int maxResults, Collection<Field.Name> fieldNames);
+	int loadCountOfHistoryForItem(Item item);
+	List<Field.Name> findFieldNamesUsedInHistory(Item item, Collection<Field.Name> fieldNames);
 	List<Item> findItems(ItemSearch itemSearch);
+	Set<String> getItemColumnNames();
+	void scrollItems(User user, Space space, long afterId, int maxResults, List<String> columns, RowCallback callback);
+	String loadItemVersionTag(String refId);
+	String loadItemSearchVersionTag(User user, ItemSearch itemSearch);
 	int loadCountOfAllItems();
 	List<Item> findAllItems(int firstResult, int batchSize);
 	void removeItem(Item item);
 	void removeItemItem(ItemItem itemItem);
+	void addItemTags(Item item, Collection<String> tagNames);
+	void removeItemTag(Item item, String tagName);
+	Map<String, Integer> loadTagCloud(long spaceId, int maxTags);
+	List<ItemChange> findItemChanges(User user, long afterId, int maxResults);
+	long loadLastItemChangeId();
 	//========================================================
 	int loadCountOfRecordsHavingFieldNotNull(Space space, Field field);
 	int bulkUpdateFieldToNull(Space space, Field field);
@@ -64,6 +86,9 @@ public interface Jtrac extends UserDetailsService {
 	int bulkUpdateStatusToOpen(Space space, int status);
 	int bulkUpdateRenameSpaceRole(Space space, String oldRoleKey, String newRoleKey);
 	int bulkUpdateDeleteSpaceRole(Space space, String roleKey);
+	JobStatus submitBulkOperation(BulkOperation operation);
+	int runBulkOperation(BulkOperation operation, BatchInfo batchInfo);
+	List<BulkOperation> findPendingBulkOperations(Space space);
 	//========================================================
 	User storeUser(User user);
 	void storeUser(User user, String password, boolean sendNotifications);
@@ -71,8 +96,12 @@ public interface Jtrac extends UserDetailsService {
 	User loadUser(long id);
 	User loadUser(String loginName);
 	List<User> findAllUsers();
+	List<User> findUsers(int firstResult, int maxResults);
+	int loadCountOfAllUsers();
 	List<User> findUsersWhereIdIn(List<Long> ids);
 	List<User> findUsersMatching(String searchText, String searchOn);
+	List<User> findUsersMatching(String searchText, String searchOn, int firstResult, int maxResults);
+	int loadCountOfUsersMatching(String searchText, String searchOn);
 	List<User> findUsersForSpace(long spaceId);
 	List<UserSpaceRole> findUserRolesForSpace(long spaceId);
 	Map<Long, List<UserSpaceRole>> loadUserRolesMapForSpace(long spaceId);
@@ -80,6 +109,7 @@ public interface Jtrac extends UserDetailsService {
 	List<User> findUsersWithRoleForSpace(long spaceId, String roleKey);
 	List<User> findUsersForUser(User user);
 	List<User> findUsersNotFullyAllocatedToSpace(long spaceId);
+	List<User> findUsersNotFullyAllocatedToSpace(long spaceId, String searchText, int maxResults);
 	int loadCountOfHistoryInvolvingUser(User user);
 	//========================================================
 	CountsHolder loadCountsForUser(User user);
@@ -114,9 +144,14 @@ public interface Jtrac extends UserDetailsService {
 	String loadConfig(String param);
 	//========================================================
 	void rebuildIndexes(BatchInfo batchInfo);
+	JobStatus submitHistoryCompaction();
+	int compactHistory(BatchInfo batchInfo);
+	int archiveItems(BatchInfo batchInfo);
 	boolean validateTextSearchQuery(String text);
 	//========================================================
 	void executeHourlyTask();
+	void executeArchivingTask();
+	void executeClusterTask();
 	void executePollingTask();
 	//========================================================
 	String getReleaseVersion();
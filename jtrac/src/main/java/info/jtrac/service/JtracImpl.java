@@ -17,8 +17,14 @@
 package info.jtrac.service;
 
 import static info.jtrac.domain.ColumnHeading.*;
+import info.jtrac.cluster.ClusterManager;
+import info.jtrac.cluster.LogCursor;
+import info.jtrac.domain.AbstractItem;
 import info.jtrac.domain.Attachment;
 import info.jtrac.domain.BatchInfo;
+import info.jtrac.domain.BulkOperation;
+import info.jtrac.domain.BulkRecord;
+import info.jtrac.domain.ClusterEvent;
 import info.jtrac.domain.ColumnHeading;
 import info.jtrac.domain.ColumnHeading.Tokens;
 import info.jtrac.domain.Config;
@@ -27,7 +33,10 @@ import info.jtrac.domain.CountsHolder;
 import info.jtrac.domain.Field;
 import info.jtrac.domain.FilterCriteria;
 import info.jtrac.domain.History;
+import info.jtrac.domain.HistoryDelta;
+import info.jtrac.domain.InvalidRefIdException;
 import info.jtrac.domain.Item;
+import info.jtrac.domain.ItemChange;
 import info.jtrac.domain.ItemItem;
 import info.jtrac.domain.ItemRefId;
 import info.jtrac.domain.ItemSearch;
@@ -37,18 +46,26 @@ import info.jtrac.domain.Role;
 import info.jtrac.domain.Space;
 import info.jtrac.domain.SpaceSequence;
 import info.jtrac.domain.State;
+import info.jtrac.domain.Tag;
 import info.jtrac.domain.UploadedFile;
 import info.jtrac.domain.User;
 import info.jtrac.domain.UserSpaceRole;
+import info.jtrac.job.Job;
+import info.jtrac.job.JobManager;
+import info.jtrac.job.JobStatus;
 import info.jtrac.lucene.IndexSearcher;
 import info.jtrac.lucene.Indexer;
 import info.jtrac.mail.MailSender;
 import info.jtrac.repository.JtracDao;
+import info.jtrac.repository.RowCallback;
+import info.jtrac.util.IdBitmap;
+import info.jtrac.util.ValidationUtils;
 
 import java.io.File;
 import java.io.InputStream;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
@@ -61,18 +78,23 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.PostConstruct;
 
 import org.acegisecurity.providers.encoding.PasswordEncoder;
 import org.acegisecurity.userdetails.UserDetails;
 import org.acegisecurity.userdetails.UsernameNotFoundException;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.lucene.document.Document;
 import org.apache.wicket.util.file.Files;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.context.MessageSource;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.StringUtils;
 //import info.jtrac.wicket.Processor;
 
@@ -119,12 +141,31 @@ public class JtracImpl implements Jtrac {
 
 	private static final Logger logger = LoggerFactory.getLogger(JtracImpl.class);
 
+	private static final String ATTACHMENT_CLEANUP = "attachment-cleanup";
+	private static final String INDEX_OPTIMIZE = "index-optimize";
+	private static final String ITEM_ARCHIVE = "item-archive";
+	private static final int INDEX_CHANGES_BATCH_SIZE = 500;
+	// ids of the change log are handed out at insert, a change not committed
+	// within this time after it was logged is taken as rolled back, and is
+	// missed by change feed clients if it commits later, see findItemChanges()
+	private static final long ITEM_CHANGE_SETTLE_MILLIS = 60 * 1000L;
+	private static final String BULK_POOL = "maintenance";
+
 	private JtracDao dao;
 	private PasswordEncoder passwordEncoder;
 	private MailSender mailSender;
 	private Indexer indexer;
 	private IndexSearcher indexSearcher;
 	private MessageSource messageSource;
+	private JobManager jobManager;
+	private PrincipalCache principalCache = new PrincipalCache();
+	private UserIndex userIndex = new UserIndex();
+	private ItemFilterIndex itemFilterIndex = new ItemFilterIndex();
+	private ItemTagIndex itemTagIndex = new ItemTagIndex();
+	private ClusterManager cluster = new ClusterManager();
+	// how far the local index has been brought up to date from the item change log
+	private LogCursor indexCursor;
+	private final AtomicBoolean indexingChanges = new AtomicBoolean();
 
 	private Map<String, String> locales;
 	private String defaultLocale = "en";
@@ -133,6 +174,7 @@ public class JtracImpl implements Jtrac {
 	private File jtracHome;
 	private int attachmentMaxSizeInMb = 5;
 	private int sessionTimeoutInMinutes = 30;
+	private int historyCheckpointInterval;
 
 	public void setLocaleList(String[] array) {
 		locales = new LinkedHashMap<String, String>();
@@ -163,6 +205,30 @@ public class JtracImpl implements Jtrac {
 		this.messageSource = messageSource;
 	}
 
+	public void setJobManager(JobManager jobManager) {
+		this.jobManager = jobManager;
+	}
+
+	public void setPrincipalCache(PrincipalCache principalCache) {
+		this.principalCache = principalCache;
+	}
+
+	public void setUserIndex(UserIndex userIndex) {
+		this.userIndex = userIndex;
+	}
+
+	public void setItemFilterIndex(ItemFilterIndex itemFilterIndex) {
+		this.itemFilterIndex = itemFilterIndex;
+	}
+
+	public void setItemTagIndex(ItemTagIndex itemTagIndex) {
+		this.itemTagIndex = itemTagIndex;
+	}
+
+	public void setCluster(ClusterManager cluster) {
+		this.cluster = cluster;
+	}
+
 	public void setReleaseTimestamp(String releaseTimestamp) {
 		this.releaseTimestamp = releaseTimestamp;
 	}
@@ -195,7 +261,7 @@ public class JtracImpl implements Jtrac {
 	 * it depends on the PasswordEncoder configured
 	 */
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public String generatePassword() {
 		byte[] ab = new byte[1];
 		Random r = new Random();
@@ -230,14 +296,51 @@ public class JtracImpl implements Jtrac {
 	 */
 	public void init() {
 		Map<String, String> config = loadAllConfig();
+		initConfig(config);
+		if (cluster.isEnabled()) {
+			// bulk operations are resumed by whichever node becomes leader
+			initIndexCursor(config.get(getIndexPositionParam()));
+		} else {
+			resumeBulkOperations(config, false);
+		}
+	}
+
+	private void initConfig(Map<String, String> config) {
 		initDefaultLocale(config.get("locale.default"));
 		initMailSender(config);
 		initAttachmentMaxSize(config.get("attachment.maxsize"));
 		initSessionTimeout(config.get("session.timeout"));
+		initHistoryCheckpointInterval(config.get("history.checkpoint.interval"));
+	}
+
+	/**
+	 * bulk operations that were running when the application was stopped are
+	 * picked up again from the last chunk that was committed, when clustered
+	 * operations another node holds the lease of are left alone, a leader that
+	 * is already running only picks up those whose lease ran out as the node
+	 * running them went away
+	 */
+	private void resumeBulkOperations(Map<String, String> config, boolean orphanedOnly) {
+		if (jobManager == null) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		for (Map.Entry<String, String> entry : config.entrySet()) {
+			if (BulkOperation.isConfigParam(entry.getKey()) && !jobManager.isActive(entry.getKey())) {
+				String lease = config.get(BulkOperation.getLeaseParam(entry.getKey()));
+				if (lease == null ? orphanedOnly : BulkOperation.isLeaseHeld(lease, now)) {
+					continue;
+				}
+				BulkOperation operation = BulkOperation.fromConfig(entry.getKey(), entry.getValue());
+				logger.info("resuming bulk operation: " + operation);
+				submitBulkOperation(operation);
+			}
+		}
 	}
 
 	private void initMailSender(Map<String, String> config) {
 		this.mailSender = new MailSender(config, messageSource, defaultLocale);
+		mailSender.setJobManager(jobManager);
 	}
 
 	private void initDefaultLocale(String localeString) {
@@ -258,6 +361,19 @@ public class JtracImpl implements Jtrac {
 		logger.info("attachment max size set to " + this.attachmentMaxSizeInMb + " MB");
 	}
 
+	private void initHistoryCheckpointInterval(String s) {
+		if (s == null) {
+			this.historyCheckpointInterval = 0;
+		} else {
+			try {
+				this.historyCheckpointInterval = Integer.parseInt(s.trim());
+			} catch (Exception e) {
+				logger.warn("invalid history checkpoint interval '" + s + "', using " + historyCheckpointInterval);
+			}
+		}
+		logger.info("history checkpoint interval set to " + this.historyCheckpointInterval);
+	}
+
 	private void initSessionTimeout(String s) {
 		try {
 			this.sessionTimeoutInMinutes = Integer.parseInt(s);
@@ -290,14 +406,10 @@ public class JtracImpl implements Jtrac {
 		history.setTimeStamp(now);
 		item.add(history);
 		item.setSequenceNum(dao.loadNextSequenceNum(item.getSpace().getId()));//FIXME saki
-		// this will at the moment execute unnecessary updates (bug in Hibernate handling of "version" property)
-		// see http://opensource.atlassian.com/projects/hibernate/browse/HHH-1401
-		// TODO confirm if above does not happen anymore
 		item = dao.storeItem(item);
-		if (indexer != null) {
-			indexer.index(item);
-			indexer.index(history);
-		}
+		History latest = getLatestHistory(item);
+		storeItemChange(item, latest, ItemChange.CREATED);
+		indexAfterCommit(item, latest);
 		if (item.isSendNotifications()) {
 			mailSender.send(item);
 		}
@@ -331,16 +443,22 @@ public class JtracImpl implements Jtrac {
 	}
 
 	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
 	public synchronized Item updateItem(Item item, User user) {
 		logger.debug("update item called");
+		String editReason = item.getEditReason();
+		// merge edits first, the history of a detached item has not been loaded
+		item = dao.storeItem(item);
 		History history = new History(item);
 		history.setAssignedTo(null);
 		history.setStatus(null);
 		history.setLoggedBy(user);
-		history.setComment(item.getEditReason());
+		history.setComment(editReason);
 		history.setTimeStamp(new Date());
+		storeChangesOnly(item, history);
 		item.add(history);
-		item = dao.storeItem(item); // merge edits + history
+		item = dao.storeItem(item); // history
+		storeItemChange(item, getLatestHistory(item), ItemChange.UPDATED);
 		// TODO index?
 		if (item.isSendNotifications()) {
 			mailSender.send(item);
@@ -352,6 +470,24 @@ public class JtracImpl implements Jtrac {
 	@Transactional(propagation = Propagation.REQUIRED)
 	public synchronized void storeHistoryForItem(long itemId, History history, UploadedFile uploadedFile) {
 		Item item = dao.loadItem(itemId);
+		applyHistory(item, history);
+		Attachment attachment = new AttachmentFactory(jtracHome, dao).getAttachment(uploadedFile);
+		if (attachment != null) {
+			item.add(attachment);
+			history.setAttachment(attachment);
+		}
+		storeChangesOnly(item, history);
+		item.add(history);
+		item = dao.storeItem(item);
+		History latest = getLatestHistory(item);
+		storeItemChange(item, latest, ItemChange.UPDATED);
+		indexAfterCommit(latest);
+		if (history.isSendNotifications()) {
+			mailSender.send(item);
+		}
+	}
+
+	private void applyHistory(Item item, History history) {
 		// first apply edits onto item record before we change the item status
 		// the item.getEditableFieldList routine depends on the current State of the item
 		for (Field field : item.getEditableFieldList(history.getLoggedBy())) {
@@ -364,153 +500,909 @@ public class JtracImpl implements Jtrac {
 			item.setStatus(history.getStatus());
 			item.setAssignedTo(history.getAssignedTo()); // this may be null, when closing
 		}
-		item.setItemUsers(history.getItemUsers());
+		updateItemUsers(item, history.getItemUsers());
 		// may have been set if this is an import
 		if (history.getTimeStamp() == null) {
 			history.setTimeStamp(new Date());
 		}
-		Attachment attachment = new AttachmentFactory(jtracHome, dao).getAttachment(uploadedFile);
-		if (attachment != null) {
-			item.add(attachment);
-			history.setAttachment(attachment);
+	}
+
+	/**
+	 * changes the watchers of the item in place, unchanged watchers cause no
+	 * SQL and removed ones are deleted as orphans, see the "itemUsers" mapping
+	 */
+	private void updateItemUsers(Item item, Set<ItemUser> itemUsers) {
+		if (item.getItemUsers() == null) {
+			item.setItemUsers(itemUsers);
+		} else if (item.getItemUsers() != itemUsers) {
+			Set<ItemUser> wanted = itemUsers == null ? new HashSet<ItemUser>() : new HashSet<ItemUser>(itemUsers);
+			item.getItemUsers().retainAll(wanted);
+			wanted.removeAll(item.getItemUsers());
+			item.getItemUsers().addAll(wanted);
+		}
+	}
+
+	/**
+	 * one chunk of a bulk upload in one transaction, records that fail validation
+	 * get an error message and are skipped, everything else is stored
+	 * sequence numbers are reserved per space in one go, change log rows are
+	 * written after a single flush and the index is updated once after commit
+	 * no notifications are sent for bulk uploads
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public synchronized void storeBulkRecords(User user, List<BulkRecord> records) {
+		Map<String, Space> spaces = new HashMap<String, Space>();
+		Map<String, User> users = new HashMap<String, User>();
+		Map<BulkRecord, Item> newItems = new LinkedHashMap<BulkRecord, Item>();
+		Map<Long, Integer> counts = new HashMap<Long, Integer>();
+		for (BulkRecord record : records) {
+			if (record.isHistory()) {
+				continue;
+			}
+			try {
+				Item item = getBulkItem(user, record, spaces, users);
+				newItems.put(record, item);
+				Integer count = counts.get(item.getSpace().getId());
+				counts.put(item.getSpace().getId(), count == null ? 1 : count + 1);
+			} catch (IllegalArgumentException e) {
+				record.setError(e.getMessage());
+			}
 		}
+		Map<Long, Long> sequenceNums = new HashMap<Long, Long>(counts.size());
+		for (Map.Entry<Long, Integer> entry : counts.entrySet()) {
+			sequenceNums.put(entry.getKey(), dao.loadNextSequenceNums(entry.getKey(), entry.getValue()));
+		}
+		List<ItemChange> changes = new ArrayList<ItemChange>();
+		List<AbstractItem> documents = new ArrayList<AbstractItem>();
+		List<Item> items = new ArrayList<Item>();
+		for (BulkRecord record : records) {
+			if (record.getError() != null) {
+				continue;
+			}
+			Item item;
+			if (record.isHistory()) {
+				try {
+					item = storeBulkHistory(user, record, users);
+				} catch (IllegalArgumentException e) {
+					record.setError(e.getMessage());
+					continue;
+				}
+			} else {
+				item = newItems.get(record);
+				long spaceId = item.getSpace().getId();
+				long sequenceNum = sequenceNums.get(spaceId);
+				sequenceNums.put(spaceId, sequenceNum + 1);
+				item.setSequenceNum(sequenceNum);
+				History history = new History(item);
+				history.setTimeStamp(item.getTimeStamp());
+				item.add(history);
+				item = dao.storeItem(item);
+				documents.add(item);
+			}
+			History latest = getLatestHistory(item);
+			changes.add(new ItemChange(item, latest, record.isHistory() ? ItemChange.UPDATED : ItemChange.CREATED));
+			items.add(item);
+			documents.add(latest);
+			record.setRefId(item.getRefId());
+		}
+		// one flush for the whole chunk, then the change log gets the final versions
+		dao.flush();
+		for (int i = 0; i < changes.size(); i++) {
+			ItemChange change = changes.get(i);
+			change.setVersion(items.get(i).getVersion());
+			dao.storeItemChange(change);
+		}
+		updateItemFilterIndex(items, false);
+		indexAfterCommit(documents.toArray(new AbstractItem[documents.size()]));
+	}
+
+	private Item getBulkItem(User user, BulkRecord record, Map<String, Space> spaces, Map<String, User> users) {
+		if (record.getKey() == null) {
+			throw new IllegalArgumentException("space is required");
+		}
+		Space space = spaces.get(record.getKey());
+		if (space == null) {
+			space = loadSpace(record.getKey());
+			if (space == null) {
+				throw new IllegalArgumentException("space not found: " + record.getKey());
+			}
+			spaces.put(record.getKey(), space);
+		}
+		if (!user.isSuperUser() && !user.isAllocatedToSpace(space.getId())) {
+			throw new IllegalArgumentException("not allocated to space: " + record.getKey());
+		}
+		if (!record.has("summary")) {
+			throw new IllegalArgumentException("summary is required");
+		}
+		Item item = new Item();
+		item.setSpace(space);
+		item.setSummary(record.get("summary"));
+		item.setDetail(record.get("detail"));
+		item.setLoggedBy(user);
+		if (record.has("loggedBy")) {
+			if (!user.isSuperUser() && !user.isAdminForSpace(space.getId())) {
+				throw new IllegalArgumentException("only admins may set loggedBy");
+			}
+			item.setLoggedBy(getBulkUser(record.get("loggedBy"), space, users));
+		}
+		if (record.has("assignedTo")) {
+			item.setAssignedTo(getBulkUser(record.get("assignedTo"), space, users));
+		}
+		item.setStatus(State.OPEN);
+		if (record.has("status")) {
+			item.setStatus(getBulkStatus(record, user.getPermittedTransitions(space, State.NEW)));
+		}
+		setBulkFieldValues(record, item, user.getEditableFieldList(space, State.NEW), space, true);
+		item.setTimeStamp(new Date());
+		item.setSendNotifications(false);
+		return item;
+	}
+
+	private Item storeBulkHistory(User user, BulkRecord record, Map<String, User> users) {
+		if (record.getKey() == null) {
+			throw new IllegalArgumentException("refId is required");
+		}
+		Item item;
+		try {
+			item = loadItemByRefId(record.getKey());
+		} catch (InvalidRefIdException e) {
+			throw new IllegalArgumentException("invalid refId: " + record.getKey());
+		}
+		if (item == null) {
+			throw new IllegalArgumentException("item not found: " + record.getKey());
+		}
+		Space space = item.getSpace();
+		if (!user.isSuperUser() && !user.isAllocatedToSpace(space.getId())) {
+			throw new IllegalArgumentException("not allocated to space: " + space.getPrefixCode());
+		}
+		if (!record.has("comment")) {
+			throw new IllegalArgumentException("comment is required");
+		}
+		History history = new History();
+		history.setLoggedBy(user);
+		history.setComment(record.get("comment"));
+		if (record.has("status")) {
+			history.setStatus(getBulkStatus(record, user.getPermittedTransitions(space, item.getStatus())));
+			if (record.has("assignedTo")) {
+				history.setAssignedTo(getBulkUser(record.get("assignedTo"), space, users));
+			} else if (history.getStatus() != State.CLOSED) {
+				history.setAssignedTo(item.getAssignedTo());
+			}
+		} else if (record.has("assignedTo")) {
+			throw new IllegalArgumentException("status is required when changing assignedTo");
+		}
+		setBulkFieldValues(record, history, item.getEditableFieldList(user), space, false);
+		history.setItemUsers(item.getItemUsers());
+		history.setSendNotifications(false);
+		applyHistory(item, history);
+		storeChangesOnly(item, history);
 		item.add(history);
-		dao.storeItem(item);
-		if (indexer != null) {
-			indexer.index(history);
+		return dao.storeItem(item);
+	}
+
+	private void setBulkFieldValues(BulkRecord record, AbstractItem target, List<Field> editable, Space space, boolean checkRequired) {
+		for (Field field : space.getMetadata().getFieldList()) {
+			boolean canEdit = editable.contains(field);
+			Object value = record.getValue(field);
+			if (value == null) {
+				if (checkRequired && canEdit && !field.isOptional()) {
+					throw new IllegalArgumentException(field.getName().getText() + " is required");
+				}
+				continue;
+			}
+			if (!canEdit) {
+				throw new IllegalArgumentException(field.getName().getText() + " cannot be edited");
+			}
+			target.setValue(field.getName(), value);
 		}
-		if (history.isSendNotifications()) {
-			mailSender.send(item);
+	}
+
+	private int getBulkStatus(BulkRecord record, Map<Integer, String> permitted) {
+		String status = record.get("status");
+		for (Map.Entry<Integer, String> entry : permitted.entrySet()) {
+			if (entry.getValue().equalsIgnoreCase(status)) {
+				return entry.getKey();
+			}
+		}
+		throw new IllegalArgumentException("status not permitted: " + status);
+	}
+
+	private User getBulkUser(String loginName, Space space, Map<String, User> users) {
+		User user = users.get(loginName);
+		if (user == null) {
+			user = loadUser(loginName);
+			if (user == null) {
+				throw new IllegalArgumentException("user not found: " + loginName);
+			}
+			users.put(loginName, user);
+		}
+		if (!user.isAllocatedToSpace(space.getId())) {
+			throw new IllegalArgumentException("user not allocated to space: " + loginName);
+		}
+		return user;
+	}
+
+	/**
+	 * with a checkpoint interval configured a new history entry only keeps the
+	 * fields that differ from the entry before, unless it is due to be a full
+	 * snapshot, the item must already hold the state after the change
+	 */
+	private void storeChangesOnly(Item item, History history) {
+		if (historyCheckpointInterval < 2 || item.getHistory() == null || item.getHistory().isEmpty()) {
+			return;
+		}
+		HistoryDelta.copyState(item, history);
+		if (HistoryDelta.countSinceCheckpoint(item.getHistory()) >= historyCheckpointInterval) {
+			return;
+		}
+		List<History> states = HistoryDelta.expand(item.getHistory());
+		HistoryDelta.strip(history, states.get(states.size() - 1));
+	}
+
+	private History getLatestHistory(Item item) {
+		History latest = null;
+		for (History h : item.getHistory()) {
+			if (latest == null || h.getId() > latest.getId()) {
+				latest = h;
+			}
 		}
+		return latest;
+	}
+
+	/**
+	 * the flush makes sure the recorded version and history id are the ones
+	 * that will be committed, the change row then goes in with the same transaction
+	 */
+	private void storeItemChange(Item item, History history, int type) {
+		dao.flush();
+		dao.storeItemChange(new ItemChange(item, history, type));
+		updateItemFilterIndex(Collections.singletonList(item), false);
+	}
+
+	/**
+	 * the Lucene documents are created right away while the entities are still
+	 * attached, but the index is only updated once the transaction has committed
+	 * and then on the single threaded "index" pool, so users do not wait for
+	 * the index writer and nothing gets indexed for a rolled back transaction
+	 */
+	private void indexAfterCommit(AbstractItem... items) {
+		if (indexer == null || cluster.isEnabled()) {
+			// when clustered every node indexes from the item change log
+			return;
+		}
+		final List<Document> documents = new ArrayList<Document>(items.length);
+		try {
+			for (AbstractItem item : items) {
+				documents.add(item.createDocument());
+			}
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+		if (jobManager == null || !TransactionSynchronizationManager.isSynchronizationActive()) {
+			indexer.index(documents);
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				jobManager.execute("index", new Runnable() {
+					@Override
+					public void run() {
+						indexer.index(documents);
+					}
+				});
+			}
+		});
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Item loadItem(long id) {
 		return dao.loadItem(id);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Item loadItemByRefId(String refId) {
 		ItemRefId itemRefId = new ItemRefId(refId); // throws runtime exception if invalid id
 		List<Item> items = dao.findItems(itemRefId.getSequenceNum(), itemRefId.getPrefixCode());
 		if (items.size() == 0) {
 			return null;
 		}
-		return items.get(0);
+		return items.get(0);
+	}
+
+	/**
+	 * for the XML representation, other loads leave the history of the item
+	 * unloaded, the item view pages through it with findHistoryForItem()
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+	public Item loadItemWithHistoryByRefId(String refId) {
+		Item item = loadItemByRefId(refId);
+		if (item != null) {
+			dao.initializeHistory(Collections.singletonList(item));
+		}
+		return item;
+	}
+
+	/**
+	 * looks in the archive only, for items no longer found by loadItemByRefId
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public Item loadArchivedItemByRefId(String refId) {
+		ItemRefId itemRefId = new ItemRefId(refId); // throws runtime exception if invalid id
+		return dao.loadArchivedItem(itemRefId.getSequenceNum(), itemRefId.getPrefixCode());
+	}
+
+	/**
+	 * a value that changes whenever the item or its rendering changes, null if there
+	 * is no such item, used as HTTP entity tag so that unchanged items need not be loaded
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public String loadItemVersionTag(String refId) {
+		ItemRefId itemRefId = new ItemRefId(refId); // throws runtime exception if invalid id
+		Object[] version = dao.loadItemVersion(itemRefId.getSequenceNum(), itemRefId.getPrefixCode());
+		if (version == null) {
+			return null;
+		}
+		return version[0] + "-" + version[1] + "-" + version[2] + "-" + version[3] + "-" + version[4];
+	}
+
+	/**
+	 * as above for search results, covers every item in the spaces searched, so
+	 * any change there means a new tag even if it does not affect the result
+	 * text searches are answered from the index which is updated after commit
+	 * and so have no tag
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public String loadItemSearchVersionTag(User user, ItemSearch itemSearch) {
+		if (itemSearch.getSearchText() != null) {
+			return null;
+		}
+		List<Long> spaceIds = new ArrayList<Long>();
+		StringBuilder sb = new StringBuilder();
+		sb.append(user.getId());
+		if (itemSearch.getSpace() != null) {
+			spaceIds.add(itemSearch.getSpace().getId());
+			sb.append('-').append(itemSearch.getSpace().getMetadata().getVersion());
+		} else {
+			for (Space space : user.getSpaces()) {
+				spaceIds.add(space.getId());
+			}
+		}
+		for (Object o : dao.loadItemsVersionSummary(spaceIds)) {
+			sb.append('-').append(o);
+		}
+		return DigestUtils.md5Hex(sb.toString());
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public History loadHistory(long id) {
+		return dao.loadHistory(id);
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<History> findHistoryForItem(Item item, long beforeId, int maxResults, Collection<Field.Name> fieldNames) {
+		return dao.findHistoryForItem(item, beforeId, maxResults, fieldNames);
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public int loadCountOfHistoryForItem(Item item) {
+		return dao.loadCountOfHistoryForItem(item);
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<Field.Name> findFieldNamesUsedInHistory(Item item, Collection<Field.Name> fieldNames) {
+		return dao.findFieldNamesUsedInHistory(item, fieldNames);
+	}
+
+	/**
+	 * in a transaction of its own so that the history needed by the results
+	 * can be loaded, XML exports run in batch mode and include it
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+	public List<Item> findItems(ItemSearch itemSearch) {
+		String searchText = itemSearch.getSearchText();
+		if (searchText != null) {
+			List<Long> hits = indexSearcher.findItemIdsContainingText(searchText);
+			if (hits.size() == 0) {
+				itemSearch.setResultCount(0);
+				return Collections.<Item> emptyList();
+			}
+			itemSearch.setItemIds(hits);
+		}
+		Collection<Long> itemIds = itemSearch.getItemIds();
+		List<Long> tagged = findItemIdsForTags(itemSearch);
+		if (tagged != null) {
+			if (itemIds != null) {
+				tagged = IdBitmap.of(tagged).and(IdBitmap.of(itemIds)).toList();
+			}
+			if (tagged.isEmpty()) {
+				itemSearch.setResultCount(0);
+				return Collections.<Item> emptyList();
+			}
+			itemSearch.setItemIds(tagged);
+		}
+		try {
+			List<Item> list = findItemsInFilterIndex(itemSearch);
+			if (list == null) {
+				list = dao.findItems(itemSearch);
+			}
+			if (itemSearch.isShowHistory()) {
+				expandHistory(list);
+			} else if (itemSearch.isBatchMode()) {
+				dao.initializeHistory(list);
+			}
+			return list;
+		} finally {
+			// tags are resolved again for the next page, they may have changed
+			itemSearch.setItemIds(itemIds);
+		}
+	}
+
+	/**
+	 * the ids of the items having all or any of the tags filtered on in
+	 * ascending order, null if the search does not filter on tags
+	 */
+	private List<Long> findItemIdsForTags(ItemSearch itemSearch) {
+		List<String> tagNames = itemSearch.getTagNames();
+		if (tagNames == null) {
+			return null;
+		}
+		long spaceId = itemSearch.getSpace().getId();
+		boolean all = itemSearch.isAllTagsRequired();
+		if (itemSearch.isArchived()) {
+			// the archive is not kept in memory
+			return scrollItemTags(spaceId, true).find(tagNames, all);
+		}
+		loadItemTagIndex(spaceId);
+		List<Long> ids = itemTagIndex.find(spaceId, tagNames, all);
+		if (ids == null) {
+			ids = scrollItemTags(spaceId, false).find(tagNames, all);
+		}
+		return ids;
+	}
+
+	/**
+	 * answers the search from the in-memory index of the space if it has one,
+	 * loading it on first use, null if the database has to be asked instead
+	 * one space is loaded at a time so that concurrent first searches do not
+	 * all read the whole space
+	 */
+	private List<Item> findItemsInFilterIndex(ItemSearch itemSearch) {
+		if (!itemFilterIndex.isEnabled() || !ItemFilterIndex.isSupported(itemSearch)) {
+			return null;
+		}
+		long spaceId = itemSearch.getSpace().getId();
+		if (itemFilterIndex.isLoadDue(spaceId)) {
+			synchronized (itemFilterIndex) {
+				if (itemFilterIndex.isLoadDue(spaceId)) {
+					ItemFilterIndex.Loader loader = itemFilterIndex.newLoader(spaceId);
+					dao.scrollItemProperties(spaceId, null, ItemFilterIndex.PROPERTIES, loader);
+					itemFilterIndex.load(loader);
+				}
+			}
+		}
+		List<Long> ids = itemFilterIndex.find(itemSearch);
+		if (ids == null) {
+			return null;
+		}
+		Map<Long, Item> map = new HashMap<Long, Item>(ids.size());
+		if (!ids.isEmpty()) {
+			for (Item item : dao.findItemsWhereIdIn(ids)) {
+				map.put(item.getId(), item);
+			}
+		}
+		List<Item> items = new ArrayList<Item>(ids.size());
+		for (Long id : ids) {
+			Item item = map.get(id);
+			// may have been removed since the index was read
+			if (item != null) {
+				items.add(item);
+			}
+		}
+		return items;
+	}
+
+	/**
+	 * the rows are taken while the items are attached and applied to the
+	 * filter index once the transaction has committed
+	 */
+	private void updateItemFilterIndex(List<Item> items, boolean removed) {
+		if (!itemFilterIndex.isEnabled()) {
+			return;
+		}
+		final Map<Long, List<Object[]>> rows = new HashMap<Long, List<Object[]>>();
+		final Map<Long, List<Long>> itemIds = new HashMap<Long, List<Long>>();
+		for (Item item : items) {
+			long spaceId = item.getSpace().getId();
+			if (!itemIds.containsKey(spaceId)) {
+				rows.put(spaceId, new ArrayList<Object[]>());
+				itemIds.put(spaceId, new ArrayList<Long>());
+			}
+			if (!removed) {
+				rows.get(spaceId).add(ItemFilterIndex.getRow(item));
+			}
+			itemIds.get(spaceId).add(item.getId());
+		}
+		runAfterCommit(new Runnable() {
+			@Override
+			public void run() {
+				for (Map.Entry<Long, List<Long>> entry : itemIds.entrySet()) {
+					itemFilterIndex.update(entry.getKey(), rows.get(entry.getKey()), entry.getValue());
+				}
+			}
+		});
+	}
+
+	/**
+	 * the tags are taken while the item is attached and applied to the tag
+	 * index once the transaction has committed, none if the item is removed
+	 */
+	private void updateItemTagIndex(Item item, boolean removed) {
+		final long spaceId = item.getSpace().getId();
+		final Map<Long, List<String>> tagsByItem = Collections.singletonMap(item.getId(),
+				removed ? Collections.<String> emptyList() : item.getTagNames());
+		runAfterCommit(new Runnable() {
+			@Override
+			public void run() {
+				itemTagIndex.update(spaceId, tagsByItem);
+			}
+		});
+	}
+
+	/**
+	 * in-memory state must not see changes that may still roll back
+	 */
+	private void runAfterCommit(final Runnable update) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			update.run();
+			return;
+		}
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				update.run();
+			}
+		});
+	}
+
+	/**
+	 * reads the given items of a loaded space again, after bulk statements
+	 * or changes made by other cluster nodes, items no longer found are removed
+	 */
+	private void refreshItemFilterIndex(long spaceId, Collection<Long> itemIds) {
+		if (!itemFilterIndex.isLoaded(spaceId)) {
+			return;
+		}
+		final List<Object[]> rows = new ArrayList<Object[]>();
+		dao.scrollItemProperties(spaceId, itemIds, ItemFilterIndex.PROPERTIES, new RowCallback() {
+			@Override
+			public void processRow(Object[] row) {
+				rows.add(row);
+			}
+		});
+		itemFilterIndex.update(spaceId, rows, itemIds);
+	}
+
+	/**
+	 * reads the tags of the given items of a loaded space again, like
+	 * refreshItemFilterIndex(), items no longer found lose their tags
+	 */
+	private void refreshItemTagIndex(long spaceId, Collection<Long> itemIds) {
+		if (!itemTagIndex.isLoaded(spaceId)) {
+			return;
+		}
+		final Map<Long, List<String>> tagsByItem = new HashMap<Long, List<String>>();
+		for (Long itemId : itemIds) {
+			tagsByItem.put(itemId, new ArrayList<String>());
+		}
+		dao.scrollItemTags(spaceId, itemIds, false, new RowCallback() {
+			@Override
+			public void processRow(Object[] row) {
+				tagsByItem.get(((Number) row[0]).longValue()).add((String) row[1]);
+			}
+		});
+		itemTagIndex.update(spaceId, tagsByItem);
+	}
+
+	/**
+	 * the tag index of a space is loaded on first use, one space at a time
+	 * like the filter index
+	 */
+	private void loadItemTagIndex(long spaceId) {
+		if (itemTagIndex.isLoaded(spaceId)) {
+			return;
+		}
+		synchronized (itemTagIndex) {
+			if (!itemTagIndex.isLoaded(spaceId)) {
+				ItemTagIndex.Loader loader = itemTagIndex.newLoader(spaceId);
+				dao.scrollItemTags(spaceId, null, false, loader);
+				itemTagIndex.load(loader);
+			}
+		}
+	}
+
+	/**
+	 * the tags of a space read without keeping them, for the archive and for
+	 * the rare load of the tag index that lost a race with a tag change
+	 */
+	private ItemTagIndex.Postings scrollItemTags(long spaceId, boolean archived) {
+		ItemTagIndex.Postings postings = new ItemTagIndex.Postings();
+		dao.scrollItemTags(spaceId, null, archived, postings);
+		return postings;
+	}
+
+	/**
+	 * history search results stored as change sets are replaced by copies
+	 * holding the full snapshot, the history of the parent items is loaded as
+	 * the index of each entry is shown along with it
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void expandHistory(List list) {
+		Set<Item> parents = new LinkedHashSet<Item>();
+		for (Object o : list) {
+			parents.add(((History) o).getParent());
+		}
+		dao.initializeHistory(parents);
+		Map<Long, History> expanded = new HashMap<Long, History>();
+		for (int i = 0; i < list.size(); i++) {
+			History history = (History) list.get(i);
+			if (history.getChanges() == null) {
+				continue;
+			}
+			if (!expanded.containsKey(history.getId())) {
+				for (History h : HistoryDelta.expand(history.getParent().getHistory())) {
+					expanded.put(h.getId(), h);
+				}
+			}
+			list.set(i, expanded.get(history.getId()));
+		}
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public int loadCountOfAllItems() {
+		return dao.loadCountOfAllItems();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<Item> findAllItems(int firstResult, int batchSize) {
+		return dao.findAllItems(firstResult, batchSize);
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void removeItem(Item item) {
+		if (item.getRelatingItems() != null) {
+			for (ItemItem itemItem : item.getRelatingItems()) {
+				removeItemItem(itemItem);
+			}
+		}
+		if (item.getRelatedItems() != null) {
+			for (ItemItem itemItem : item.getRelatedItems()) {
+				removeItemItem(itemItem);
+			}
+		}
+		dao.storeItemChange(new ItemChange(item, null, ItemChange.DELETED));
+		dao.removeItem(item);
+		updateItemFilterIndex(Collections.singletonList(item), true);
+		updateItemTagIndex(item, true);
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void removeItemItem(ItemItem itemItem) {
+		dao.removeItemItem(itemItem);
+	}
+
+	/**
+	 * tags not used before are created, tags are shared by all spaces, the
+	 * change is logged without history so that other nodes pick it up
+	 */
+	@Override
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void addItemTags(Item item, Collection<String> tagNames) {
+		Map<String, Tag> tags = new HashMap<String, Tag>();
+		for (Tag tag : dao.findTagsWhereNameIn(tagNames)) {
+			tags.put(tag.getName(), tag);
+		}
+		item = dao.loadItem(item.getId());
+		boolean changed = false;
+		for (String tagName : tagNames) {
+			if (!ValidationUtils.isValidTagName(tagName)) {
+				throw new IllegalArgumentException("invalid tag name: " + tagName);
+			}
+			Tag tag = tags.get(tagName);
+			if (tag == null) {
+				tag = new Tag();
+				tag.setName(tagName);
+				dao.storeTag(tag);
+				tags.put(tagName, tag);
+			}
+			changed |= item.addTag(tag);
+		}
+		if (changed) {
+			storeItemTags(item);
+		}
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
-	public History loadHistory(long id) {
-		return dao.loadHistory(id);
+	@Transactional(propagation = Propagation.REQUIRED)
+	public void removeItemTag(Item item, String tagName) {
+		item = dao.loadItem(item.getId());
+		if (item.removeTag(tagName)) {
+			storeItemTags(item);
+		}
+	}
+
+	/**
+	 * the tags are not versioned, the item row itself is not written, the
+	 * item is managed and the cascade persists new tags at flush, merging it
+	 * would swap its tags for copies and lose later removals
+	 */
+	private void storeItemTags(Item item) {
+		dao.storeItemChange(new ItemChange(item, null, ItemChange.UPDATED));
+		updateItemTagIndex(item, false);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
-	public List<Item> findItems(ItemSearch itemSearch) {
-		String searchText = itemSearch.getSearchText();
-		if (searchText != null) {
-			List<Long> hits = indexSearcher.findItemIdsContainingText(searchText);
-			if (hits.size() == 0) {
-				itemSearch.setResultCount(0);
-				return Collections.<Item> emptyList();
-			}
-			itemSearch.setItemIds(hits);
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public Map<String, Integer> loadTagCloud(long spaceId, int maxTags) {
+		loadItemTagIndex(spaceId);
+		Map<String, Integer> counts = itemTagIndex.getCounts(spaceId, maxTags);
+		if (counts == null) {
+			counts = scrollItemTags(spaceId, false).getCounts(maxTags);
 		}
-		return dao.findItems(itemSearch);
+		return counts;
 	}
 
+	/**
+	 * the names of the columns scrollItems() can select
+	 */
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
-	public int loadCountOfAllItems() {
-		return dao.loadCountOfAllItems();
+	public Set<String> getItemColumnNames() {
+		return dao.getItemColumnNames();
 	}
 
+	/**
+	 * the transaction keeps the session and cursor open while the callback
+	 * writes out each row, when space is null all spaces visible to the user
+	 * are included, super users see all spaces like findItemChanges()
+	 */
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
-	public List<Item> findAllItems(int firstResult, int batchSize) {
-		return dao.findAllItems(firstResult, batchSize);
+	@Transactional(propagation = Propagation.REQUIRED, readOnly = true)
+	public void scrollItems(User user, Space space, long afterId, int maxResults, List<String> columns, RowCallback callback) {
+		List<Long> spaceIds = new ArrayList<Long>();
+		if (space != null) {
+			spaceIds.add(space.getId());
+		} else {
+			Collection<Space> spaces = user.isSuperUser() ? dao.findAllSpaces() : user.getSpaces();
+			for (Space s : spaces) {
+				spaceIds.add(s.getId());
+			}
+		}
+		dao.scrollItems(spaceIds, afterId, maxResults, columns, callback);
 	}
 
+	/**
+	 * super users see changes in all spaces, everyone else only in
+	 * the spaces they are allocated to
+	 *
+	 * a change with a lower id can still be uncommitted when a higher one is
+	 * visible and remote clients have no way to come back for it, so only
+	 * changes that have settled are returned, the list ends before the first
+	 * change logged less than ITEM_CHANGE_SETTLE_MILLIS ago
+	 *
+	 * this assumes that every writing transaction commits within that time of
+	 * logging its change, a change from a longer transaction, e.g. a large bulk
+	 * upload chunk or a slow bulk operation, can become visible below a cursor
+	 * that clients have already passed and is then never returned to them,
+	 * clients that cannot miss a change should run a full query from time to
+	 * time, the cluster indexer tracks such gaps itself, see LogCursor
+	 */
 	@Override
-	@Transactional(propagation = Propagation.REQUIRED)
-	public void removeItem(Item item) {
-		if (item.getRelatingItems() != null) {
-			for (ItemItem itemItem : item.getRelatingItems()) {
-				removeItemItem(itemItem);
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<ItemChange> findItemChanges(User user, long afterId, int maxResults) {
+		List<Long> spaceIds = null;
+		if (!user.isSuperUser()) {
+			spaceIds = new ArrayList<Long>();
+			for (Space space : user.getSpaces()) {
+				spaceIds.add(space.getId());
 			}
 		}
-		if (item.getRelatedItems() != null) {
-			for (ItemItem itemItem : item.getRelatedItems()) {
-				removeItemItem(itemItem);
+		List<ItemChange> changes = dao.findItemChanges(afterId, spaceIds, maxResults);
+		Date settled = new Date(System.currentTimeMillis() - ITEM_CHANGE_SETTLE_MILLIS);
+		for (int i = 0; i < changes.size(); i++) {
+			if (!changes.get(i).getTimeStamp().before(settled)) {
+				return changes.subList(0, i);
 			}
 		}
-		dao.removeItem(item);
+		return changes;
 	}
 
+	/**
+	 * the position before the changes that have not settled yet, see
+	 * findItemChanges(), a client starting from here may see some changes
+	 * again that it has already seen in a full query
+	 */
 	@Override
-	@Transactional(propagation = Propagation.REQUIRED)
-	public void removeItemItem(ItemItem itemItem) {
-		dao.removeItemItem(itemItem);
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public long loadLastItemChangeId() {
+		Long firstUnsettled = dao.loadFirstItemChangeIdSince(new Date(System.currentTimeMillis() - ITEM_CHANGE_SETTLE_MILLIS));
+		return firstUnsettled == null ? dao.loadLastItemChangeId() : firstUnsettled - 1;
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public int loadCountOfRecordsHavingFieldNotNull(Space space, Field field) {
 		return dao.loadCountOfRecordsHavingFieldNotNull(space, field);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.REQUIRED)
 	public int bulkUpdateFieldToNull(Space space, Field field) {
-		return dao.bulkUpdateFieldToNull(space, field);
+		return runBulkOperationNow(BulkOperation.fieldToNull(space, field));
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public int loadCountOfRecordsHavingFieldWithValue(Space space, Field field,
 			int optionKey) {
 		return dao.loadCountOfRecordsHavingFieldWithValue(space, field, optionKey);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.REQUIRED)
 	public int bulkUpdateFieldToNullForValue(Space space, Field field,
 			int optionKey) {
-		return dao.bulkUpdateFieldToNullForValue(space, field, optionKey);
+		return runBulkOperationNow(BulkOperation.fieldValueToNull(space, field, optionKey));
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public int loadCountOfRecordsHavingStatus(Space space, int status) {
 		return dao.loadCountOfRecordsHavingStatus(space, status);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.REQUIRED)
 	public int bulkUpdateStatusToOpen(Space space, int status) {
-		return dao.bulkUpdateStatusToOpen(space, status);
+		return runBulkOperationNow(BulkOperation.statusToOpen(space, status));
 	}
 
 	@Override
 	@Transactional(propagation = Propagation.REQUIRED)
 	public int bulkUpdateRenameSpaceRole(Space space, String oldRoleKey,
 			String newRoleKey) {
+		invalidatePrincipals();
 		return dao.bulkUpdateRenameSpaceRole(space, oldRoleKey, newRoleKey);
 	}
 
 	@Override
 	@Transactional(propagation = Propagation.REQUIRED)
 	public int bulkUpdateDeleteSpaceRole(Space space, String roleKey) {
+		invalidatePrincipals();
 		return dao.bulkUpdateDeleteSpaceRole(space, roleKey);
 	}
 
 	// =========  Acegi UserDetailsService implementation ==========
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public UserDetails loadUserByUsername(String loginName) {
+		long version = principalCache.getVersion();
+		User cached = principalCache.get(loginName);
+		if (cached != null) {
+			return cached;
+		}
 		List<User> users = null;
 		if (loginName.indexOf("@") != -1) {
 			users = dao.findUsersByEmail(loginName);
@@ -539,17 +1431,100 @@ public class JtracImpl implements Jtrac {
 			// as there are spaces allocated for the user.  Hibernate caching should alleviate this
 			usr.isAbleToCreateNewItem();
 		}
+		principalCache.put(loginName, user, version);
 		return user;
 	}
 
+	/**
+	 * called by everything that changes users, roles or spaces, the cache is
+	 * cleared right away and once more after the transaction has completed
+	 * so that a principal loaded from not yet committed data is not kept
+	 */
+	private void invalidatePrincipals() {
+		principalCache.invalidate();
+		cluster.publish(ClusterEvent.PRINCIPALS);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					principalCache.invalidate();
+				}
+			});
+		}
+	}
+
+	/**
+	 * the user index is changed right away so that the changing transaction
+	 * sees its own users, if that transaction does not commit the index is
+	 * thrown away and loaded again on next use
+	 *
+	 * a lazy load running in another thread may have read the version after
+	 * the change but the rows from before the commit, so the change is applied
+	 * again after the commit, which also discards such a load if still running
+	 */
+	private void updateUserIndex(final User user, final boolean removed) {
+		applyUserIndexChange(user, removed);
+		cluster.publish(ClusterEvent.USERS);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					if (status == STATUS_COMMITTED) {
+						applyUserIndexChange(user, removed);
+					} else {
+						userIndex.invalidate();
+					}
+				}
+			});
+		}
+	}
+
+	private void applyUserIndexChange(User user, boolean removed) {
+		if (removed) {
+			userIndex.remove(user.getId());
+		} else {
+			userIndex.put(user);
+		}
+	}
+
+	private UserIndex getUserIndex() {
+		if (!userIndex.isLoaded()) {
+			long version = userIndex.getVersion();
+			userIndex.load(dao.findUserIndexEntries(), version);
+		}
+		return userIndex;
+	}
+
+	/**
+	 * loads users in the order of the given ids
+	 */
+	private List<User> findUsersInOrder(List<Long> ids) {
+		if (ids.isEmpty()) {
+			return new ArrayList<User>();
+		}
+		Map<Long, User> map = new HashMap<Long, User>(ids.size());
+		for (User user : dao.findUsersWhereIdIn(ids)) {
+			map.put(user.getId(), user);
+		}
+		List<User> users = new ArrayList<User>(ids.size());
+		for (Long id : ids) {
+			User user = map.get(id);
+			// may have been removed since the index was read
+			if (user != null) {
+				users.add(user);
+			}
+		}
+		return users;
+	}
+
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public User loadUser(long id) {
 		return dao.loadUser(id);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public User loadUser(String loginName) {
 		List<User> users = dao.findUsersByLoginName(loginName);
 		if (users.size() == 0) {
@@ -562,7 +1537,10 @@ public class JtracImpl implements Jtrac {
 	@Transactional(propagation = Propagation.REQUIRED)
 	public User storeUser(User user) {
 		user.clearNonPersistentRoles();
-		return dao.storeUser(user);
+		invalidatePrincipals();
+		User stored = dao.storeUser(user);
+		updateUserIndex(stored, false);
+		return stored;
 	}
 
 	@Override
@@ -584,41 +1562,72 @@ public class JtracImpl implements Jtrac {
 		for (ItemUser iu : dao.findItemUsersByUser(user)) {
 			dao.removeItemUser(iu);
 		}
+		dao.removeArchivedItemUsers(user);
 		dao.removeUser(user);
+		invalidatePrincipals();
+		updateUserIndex(user, true);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findAllUsers() {
 		return dao.findAllUsers();
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<User> findUsers(int firstResult, int maxResults) {
+		return dao.findUsers(firstResult, maxResults);
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public int loadCountOfAllUsers() {
+		return dao.loadCountOfAllUsers();
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersWhereIdIn(List<Long> ids) {
 		return dao.findUsersWhereIdIn(ids);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersMatching(String searchText, String searchOn) {
-		return dao.findUsersMatching(searchText, searchOn);
+		return findUsersInOrder(getUserIndex().find(searchText, searchOn));
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<User> findUsersMatching(String searchText, String searchOn, int firstResult, int maxResults) {
+		List<Long> ids = getUserIndex().find(searchText, searchOn);
+		if (firstResult >= ids.size()) {
+			return new ArrayList<User>();
+		}
+		return findUsersInOrder(ids.subList(firstResult, Math.min(ids.size(), firstResult + maxResults)));
+	}
+
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public int loadCountOfUsersMatching(String searchText, String searchOn) {
+		return getUserIndex().find(searchText, searchOn).size();
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersForSpace(long spaceId) {
 		return dao.findUsersForSpace(spaceId);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<UserSpaceRole> findUserRolesForSpace(long spaceId) {
 		return dao.findUserRolesForSpace(spaceId);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Map<Long, List<UserSpaceRole>> loadUserRolesMapForSpace(long spaceId) {
 		List<UserSpaceRole> list = dao.findUserRolesForSpace(spaceId);
 		Map<Long, List<UserSpaceRole>> map = new LinkedHashMap<Long, List<UserSpaceRole>>();
@@ -635,7 +1644,7 @@ public class JtracImpl implements Jtrac {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Map<Long, List<UserSpaceRole>> loadSpaceRolesMapForUser(long userId) {
 		List<UserSpaceRole> list = dao.findSpaceRolesForUser(userId);
 		Map<Long, List<UserSpaceRole>> map = new LinkedHashMap<Long, List<UserSpaceRole>>();
@@ -652,13 +1661,13 @@ public class JtracImpl implements Jtrac {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersWithRoleForSpace(long spaceId, String roleKey) {
 		return dao.findUsersWithRoleForSpace(spaceId, roleKey);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersForUser(User user) {
 		Set<Space> spaces = user.getSpaces();
 		if (spaces.size() == 0) {
@@ -672,7 +1681,7 @@ public class JtracImpl implements Jtrac {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<User> findUsersNotFullyAllocatedToSpace(long spaceId) {
 		// trying to reduce database hits and lazy loading as far as possible
 		List<User> notAtAllAllocated = dao.findUsersNotAllocatedToSpace(spaceId);
@@ -709,8 +1718,64 @@ public class JtracImpl implements Jtrac {
 		return notFullyAllocated;
 	}
 
+	/**
+	 * for the allocation autocomplete, matching users come from the user index
+	 * in name order and only users that already have every role in the space
+	 * are dropped, so only a handful of users are ever loaded
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<User> findUsersNotFullyAllocatedToSpace(long spaceId, String searchText, int maxResults) {
+		List<Long> candidates = getUserIndex().find(searchText, null);
+		if (candidates.isEmpty()) {
+			return new ArrayList<User>();
+		}
+		Set<Long> fullyAllocated = new HashSet<Long>();
+		List<UserSpaceRole> usrs = dao.findUserRolesForSpace(spaceId);
+		if (usrs.size() > 0) {
+			Space space = usrs.get(0).getSpace();
+			Set<String> roleKeys = new HashSet<>(space.getMetadata().getAllRoleKeys());
+			Set<User> superUsers = new HashSet<>(dao.findSuperUsers());
+			Map<Long, Set<String>> allocated = new HashMap<Long, Set<String>>();
+			Map<Long, User> users = new HashMap<Long, User>();
+			for (UserSpaceRole usr : usrs) {
+				long userId = usr.getUser().getId();
+				Set<String> keys = allocated.get(userId);
+				if (keys == null) {
+					keys = new HashSet<String>();
+					allocated.put(userId, keys);
+					users.put(userId, usr.getUser());
+				}
+				keys.add(usr.getRoleKey());
+			}
+			for (Map.Entry<Long, Set<String>> entry : allocated.entrySet()) {
+				boolean isSuperUser = superUsers.contains(users.get(entry.getKey()));
+				boolean full = true;
+				for (String roleKey : roleKeys) {
+					if (!(isSuperUser && Role.isAdmin(roleKey)) && !entry.getValue().contains(roleKey)) {
+						full = false;
+						break;
+					}
+				}
+				if (full) {
+					fullyAllocated.add(entry.getKey());
+				}
+			}
+		}
+		List<Long> ids = new ArrayList<Long>(maxResults);
+		for (Long id : candidates) {
+			if (!fullyAllocated.contains(id)) {
+				ids.add(id);
+				if (ids.size() == maxResults) {
+					break;
+				}
+			}
+		}
+		return findUsersInOrder(ids);
+	}
+
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public int loadCountOfHistoryInvolvingUser(User user) {
 		return dao.loadCountOfHistoryInvolvingUser(user);
 	}
@@ -718,13 +1783,13 @@ public class JtracImpl implements Jtrac {
 	//==========================================================================
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public CountsHolder loadCountsForUser(User user) {
 		return dao.loadCountsForUser(user);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Counts loadCountsForUserSpace(User user, Space space) {
 		return dao.loadCountsForUserSpace(user, space);
 	}
@@ -745,11 +1810,12 @@ public class JtracImpl implements Jtrac {
 		user.removeSpaceWithRole(userSpaceRole.getSpace(), userSpaceRole.getRoleKey());
 		// dao.storeUser(user);
 		dao.removeUserSpaceRole(userSpaceRole);
+		invalidatePrincipals();
 		return user;
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public UserSpaceRole loadUserSpaceRole(long id) {
 		return dao.loadUserSpaceRole(id);
 	}
@@ -757,13 +1823,13 @@ public class JtracImpl implements Jtrac {
 	//==========================================================================
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Space loadSpace(long id) {
 		return dao.loadSpace(id);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Space loadSpace(String prefixCode) {
 		List<Space> spaces = dao.findSpacesByPrefixCode(prefixCode);
 		if (spaces.size() == 0) {
@@ -782,17 +1848,18 @@ public class JtracImpl implements Jtrac {
 			ss.setId(space.getId());
 			dao.storeSpaceSequence(ss);
 		}
+		invalidatePrincipals();
 		return space;
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Space> findAllSpaces() {
 		return dao.findAllSpaces();
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Space> findSpacesOfUserWhereIdIn(User user, List<Long> ids) {
 		List<Space> spaces = dao.findSpacesWhereIdIn(ids);
 		// for security, prevent URL spoofing to show spaces not allocated to user
@@ -806,13 +1873,13 @@ public class JtracImpl implements Jtrac {
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Space> findSpacesWhereGuestAllowed() {
 		return dao.findSpacesWhereGuestAllowed();
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public List<Space> findSpacesNotFullyAllocatedToUser(long userId) {
 		// trying to reduce database hits and lazy loading as far as possible
 		List<Space> notAtAllAllocated = dao.findSpacesNotAllocatedToUser(userId);
@@ -848,22 +1915,180 @@ public class JtracImpl implements Jtrac {
 
 	@Override
 	public void removeSpace(Space space) {
-		logger.info("proceeding to delete space: " + space);
-		dao.bulkUpdateDeleteSpaceRole(space, null);
-		dao.bulkUpdateDeleteItemsForSpace(space);
-		dao.removeSpace(space);
-		logger.info("successfully deleted space");
+		runBulkOperationNow(BulkOperation.removeSpace(space));
+	}
+
+	/**
+	 * queues the operation on the maintenance pool, the UI only waits for the
+	 * first progress record to be saved, an operation that is already queued
+	 * or running is not submitted twice
+	 */
+	@Override
+	public JobStatus submitBulkOperation(final BulkOperation operation) {
+		String param = operation.getConfigParam();
+		if (jobManager == null) {
+			runBulkOperationNow(operation);
+			return null;
+		}
+		for (JobStatus status : jobManager.getJobs()) {
+			if (status.getName().equals(param) && !status.isDone()) {
+				return status;
+			}
+		}
+		Config progress = dao.loadConfig(param);
+		if (progress == null) {
+			dao.storeConfig(new Config(param, operation.getLastItemId() + ""));
+		} else if (progress.getValue() != null) {
+			operation.setLastItemId(Long.parseLong(progress.getValue()));
+		}
+		return jobManager.submit(BULK_POOL, new Job(param) {
+			@Override
+			public void run(JobStatus status) {
+				runBulkOperation(operation, status);
+			}
+		});
+	}
+
+	/**
+	 * operations on the space that have been submitted but have not completed,
+	 * whether queued, running or waiting to be resumed, the fields, options and
+	 * states they clear must not be reused until they are done
+	 */
+	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+	public List<BulkOperation> findPendingBulkOperations(Space space) {
+		List<BulkOperation> operations = new ArrayList<BulkOperation>();
+		if (space.getId() == 0) {
+			return operations;
+		}
+		for (Config config : dao.findAllConfig()) {
+			if (BulkOperation.isConfigParam(config.getParam())) {
+				BulkOperation operation = BulkOperation.fromConfig(config.getParam(), config.getValue());
+				if (operation.getSpaceId() == space.getId()) {
+					operations.add(operation);
+				}
+			}
+		}
+		return operations;
+	}
+
+	/**
+	 * works through the items of the space in ascending id order, one chunk of
+	 * batch size items per transaction, so that no statement touches more than
+	 * a chunk of items and history rows and no lock is held for long
+	 * the id of the last item done is saved after every chunk, a cancelled or
+	 * interrupted operation keeps its progress record and is resumed on restart
+	 * when clustered the lease on the operation is taken first and renewed after
+	 * every chunk, an operation that another node holds is not run
+	 * must not be called within a transaction, or the chunks would share it
+	 */
+	@Override
+	public int runBulkOperation(BulkOperation operation, BatchInfo batchInfo) {
+		String param = operation.getConfigParam();
+		if (!claimBulkOperation(operation)) {
+			logger.info("bulk operation is being run by another node: " + operation);
+			return 0;
+		}
+		Space space = dao.loadSpace(operation.getSpaceId());
+		if (space == null) {
+			logger.warn("space no longer exists, dropping bulk operation: " + operation);
+			dao.removeConfig(param);
+			dao.removeConfig(BulkOperation.getLeaseParam(param));
+			return 0;
+		}
+		logger.info("starting bulk operation: " + operation);
+		boolean removeSpace = operation.getType() == BulkOperation.Type.REMOVE_SPACE;
+		int archivedCount = removeSpace ? dao.loadCountOfArchivedItemsForSpace(space.getId()) : 0;
+		batchInfo.setTotalSize(dao.loadCountOfItemsForSpace(space.getId(), operation.getLastItemId()) + archivedCount);
+		int count = 0;
+		while (!batchInfo.isCancelled()) {
+			List<Long> itemIds = dao.findItemIdsForSpace(space.getId(), operation.getLastItemId(), batchInfo.getBatchSize());
+			if (itemIds.isEmpty()) {
+				break;
+			}
+			count += dao.bulkUpdateItems(operation, itemIds);
+			refreshItemFilterIndex(space.getId(), itemIds);
+			refreshItemTagIndex(space.getId(), itemIds);
+			operation.setLastItemId(itemIds.get(itemIds.size() - 1));
+			dao.storeConfig(new Config(param, operation.getLastItemId() + ""));
+			batchInfo.setCurrentPosition(batchInfo.getCurrentPosition() + itemIds.size());
+			if (!claimBulkOperation(operation)) {
+				logger.warn("bulk operation taken over by another node: " + operation);
+				return count;
+			}
+		}
+		// archived items refer to the space and its users too, they have already
+		// left the change log and the indexes so they are only deleted, always the
+		// first chunk left, which needs no progress record
+		while (removeSpace && !batchInfo.isCancelled()) {
+			List<Long> itemIds = dao.findArchivedItemIdsForSpace(space.getId(), batchInfo.getBatchSize());
+			if (itemIds.isEmpty()) {
+				break;
+			}
+			dao.removeArchivedItems(itemIds);
+			count += itemIds.size();
+			batchInfo.setCurrentPosition(batchInfo.getCurrentPosition() + itemIds.size());
+			if (!claimBulkOperation(operation)) {
+				logger.warn("bulk operation taken over by another node: " + operation);
+				return count;
+			}
+		}
+		if (batchInfo.isCancelled()) {
+			// without a lease the leader leaves it alone until it takes over again
+			dao.removeConfig(BulkOperation.getLeaseParam(param));
+			logger.info("bulk operation cancelled, will resume on restart: " + operation);
+			return count;
+		}
+		if (removeSpace) {
+			dao.bulkUpdateDeleteSpaceRole(space, null);
+			dao.removeSpace(space);
+			itemFilterIndex.invalidate(space.getId());
+			itemTagIndex.invalidate(space.getId());
+		}
+		dao.removeConfig(param);
+		dao.removeConfig(BulkOperation.getLeaseParam(param));
+		// cached principals hold spaces and metadata, item versions have already been
+		// increased so HTTP entity tags change, text in the search index is not affected
+		// and hits for deleted items are dropped when they are looked up
+		invalidatePrincipals();
+		logger.info("bulk operation completed: " + operation + ", items affected: " + count);
+		return count;
+	}
+
+	/**
+	 * see JtracDao.claimBulkOperation(), the lease lasts as long as a node has
+	 * to send its heartbeat, only needed when clustered
+	 */
+	private boolean claimBulkOperation(BulkOperation operation) {
+		if (!cluster.isEnabled()) {
+			return true;
+		}
+		return dao.claimBulkOperation(operation, cluster.getNodeName(), cluster.getNodeTimeoutSeconds() * 1000L);
+	}
+
+	/**
+	 * in the calling thread, the progress record is stored first as it is for
+	 * submitted operations, other nodes only see the operation through it
+	 */
+	private int runBulkOperationNow(BulkOperation operation) {
+		String param = operation.getConfigParam();
+		if (dao.loadConfig(param) == null) {
+			dao.storeConfig(new Config(param, operation.getLastItemId() + ""));
+		}
+		return runBulkOperation(operation, new BatchInfo());
 	}
 
 	//==========================================================================
 
 	@Override
 	public Metadata storeMetadata(Metadata metadata) {
+		// cached principals hold the metadata of their spaces
+		invalidatePrincipals();
 		return dao.storeMetadata(metadata);
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Metadata loadMetadata(long id) {
 		return dao.loadMetadata(id);
 	}
@@ -871,7 +2096,7 @@ public class JtracImpl implements Jtrac {
 	//==========================================================================
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public Map<String, String> loadAllConfig() {
 		List<Config> list = dao.findAllConfig();
 		Map<String, String> allConfig = new HashMap<String, String>(list.size());
@@ -893,12 +2118,15 @@ public class JtracImpl implements Jtrac {
 			initAttachmentMaxSize(config.getValue());
 		} else if (config.isSessionTimeoutConfig()) {
 			initSessionTimeout(config.getValue());
+		} else if (config.isHistoryConfig()) {
+			initHistoryCheckpointInterval(config.getValue());
 		}
+		cluster.publish(ClusterEvent.CONFIG);
 		return config;
 	}
 
 	@Override
-	@Transactional(propagation = Propagation.SUPPORTS)
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public String loadConfig(String param) {
 		Config config = dao.loadConfig(param);
 		if (config == null) {
@@ -915,6 +2143,11 @@ public class JtracImpl implements Jtrac {
 
 	@Override
 	public void rebuildIndexes(BatchInfo batchInfo) {
+		cluster.publish(ClusterEvent.INDEX_REBUILD);
+		rebuildLocalIndex(batchInfo);
+	}
+
+	private void rebuildLocalIndex(BatchInfo batchInfo) {
 		File file = new File(jtracHome + "/indexes");
 		for (File f : file.listFiles()) {
 			logger.debug("deleting file: " + f);
@@ -948,6 +2181,10 @@ public class JtracImpl implements Jtrac {
 				batchInfo.incrementPosition();
 				lastFetchedId = item.getId();
 			}
+			if (batchInfo.isCancelled()) {
+				logger.info("rebuild cancelled at position: " + batchInfo.getCurrentPosition());
+				break;
+			}
 			if (logger.isDebugEnabled()) {
 				logger.debug("size of current batch: " + items.size());
 				logger.debug("last fetched Id: " + lastFetchedId);
@@ -956,7 +2193,7 @@ public class JtracImpl implements Jtrac {
 			if (logger.isDebugEnabled()) {
 				logger.debug("setting firstResult to: " + firstResult);
 			}
-			if (batchInfo.isComplete()) {
+			if (batchInfo.isComplete() || items.isEmpty()) {
 				logger.info("batch completed at position: " + batchInfo.getCurrentPosition());
 				break;
 			}
@@ -964,6 +2201,90 @@ public class JtracImpl implements Jtrac {
 
 	}
 
+	@Override
+	public JobStatus submitHistoryCompaction() {
+		if (jobManager == null) {
+			compactHistory(new BatchInfo());
+			return null;
+		}
+		return jobManager.submit(BULK_POOL, new Job("history-compaction") {
+			@Override
+			public void run(JobStatus status) {
+				compactHistory(status);
+			}
+		});
+	}
+
+	/**
+	 * brings existing history in line with the configured checkpoint interval,
+	 * one chunk of items per transaction, the state of every entry stays the
+	 * same so this can be stopped and run again at any time
+	 * must not be called within a transaction, or the chunks would share it
+	 */
+	@Override
+	public int compactHistory(BatchInfo batchInfo) {
+		int interval = historyCheckpointInterval;
+		logger.info("compacting history, checkpoint interval: " + interval);
+		batchInfo.setTotalSize(dao.loadCountOfAllItems());
+		long lastItemId = 0;
+		int count = 0;
+		while (!batchInfo.isCancelled()) {
+			List<Long> itemIds = dao.findItemIds(lastItemId, batchInfo.getBatchSize());
+			if (itemIds.isEmpty()) {
+				break;
+			}
+			count += dao.compactHistory(itemIds, interval);
+			lastItemId = itemIds.get(itemIds.size() - 1);
+			batchInfo.setCurrentPosition(batchInfo.getCurrentPosition() + itemIds.size());
+		}
+		logger.info("history compaction " + (batchInfo.isCancelled() ? "cancelled" : "completed")
+				+ ", entries rewritten: " + count);
+		return count;
+	}
+
+	/**
+	 * moves closed items that have not changed for the archive period of their
+	 * space into the archive tables, one chunk per transaction so that the live
+	 * tables are never locked for long, can be stopped and run again at any time
+	 * the items stay in the text index, hits for them simply no longer match
+	 * must not be called within a transaction, or the chunks would share it
+	 */
+	@Override
+	public int archiveItems(BatchInfo batchInfo) {
+		Map<Space, Date> cutOffs = new LinkedHashMap<Space, Date>();
+		int totalSize = 0;
+		for (Space space : dao.findAllSpaces()) {
+			Integer days = space.getArchiveAfterDays();
+			if (days == null || days < 1) {
+				continue;
+			}
+			Date closedBefore = new Date(System.currentTimeMillis() - days * 24 * 60 * 60 * 1000L);
+			cutOffs.put(space, closedBefore);
+			totalSize += dao.loadCountOfItemsToArchive(space.getId(), closedBefore);
+		}
+		batchInfo.setTotalSize(totalSize);
+		int count = 0;
+		for (Map.Entry<Space, Date> entry : cutOffs.entrySet()) {
+			long spaceId = entry.getKey().getId();
+			long lastItemId = 0;
+			while (!batchInfo.isCancelled()) {
+				List<Long> itemIds = dao.findItemIdsToArchive(spaceId, entry.getValue(), lastItemId, batchInfo.getBatchSize());
+				if (itemIds.isEmpty()) {
+					break;
+				}
+				count += dao.archiveItems(itemIds);
+				refreshItemFilterIndex(spaceId, itemIds);
+				refreshItemTagIndex(spaceId, itemIds);
+				lastItemId = itemIds.get(itemIds.size() - 1);
+				batchInfo.setCurrentPosition(batchInfo.getCurrentPosition() + itemIds.size());
+			}
+			logger.info("archived items up to id " + lastItemId + " in space: " + entry.getKey().getPrefixCode());
+		}
+		logger.info("item archiving " + (batchInfo.isCancelled() ? "cancelled" : "completed")
+				+ ", items archived: " + count);
+		return count;
+	}
+
 	@Override
 	public boolean validateTextSearchQuery(String text) {
 		return indexSearcher.validateQuery(text);
@@ -974,6 +2295,218 @@ public class JtracImpl implements Jtrac {
 	@Override
 	public void executeHourlyTask() {
 		logger.debug("hourly task called");
+		if (jobManager == null) {
+			return;
+		}
+		// runs on the maintenance pool, the scheduler thread only queues the work
+		// and a run that is still going is not queued a second time
+		// the attachments folder is shared by all nodes of a cluster
+		if (cluster.isLeader() && !jobManager.isActive(ATTACHMENT_CLEANUP)) {
+			jobManager.submit("maintenance", new Job(ATTACHMENT_CLEANUP) {
+				@Override
+				public void run(JobStatus status) {
+					removeOrphanedAttachments(status);
+				}
+			});
+		}
+		if (indexer != null && !jobManager.isActive(INDEX_OPTIMIZE)) {
+			jobManager.submit("maintenance", new Job(INDEX_OPTIMIZE) {
+				@Override
+				public void run(JobStatus status) {
+					indexer.optimize();
+				}
+			});
+		}
+	}
+
+	/* configured to be called every night */
+	@Override
+	public void executeArchivingTask() {
+		logger.debug("archiving task called");
+		if (jobManager == null || !cluster.isLeader() || jobManager.isActive(ITEM_ARCHIVE)) {
+			return;
+		}
+		jobManager.submit(BULK_POOL, new Job(ITEM_ARCHIVE) {
+			@Override
+			public void run(JobStatus status) {
+				archiveItems(status);
+			}
+		});
+	}
+
+	/**
+	 * files in the attachments folder that no attachment record points to,
+	 * for example left behind when an upload was rolled back, are deleted
+	 * once they are more than a day old
+	 */
+	private void removeOrphanedAttachments(BatchInfo batchInfo) {
+		File dir = new File(jtracHome, "attachments");
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+		Set<String> fileNames = new HashSet<String>();
+		for (Attachment attachment : dao.findAllAttachments()) {
+			fileNames.add(attachment.getFile(jtracHome).getName());
+		}
+		batchInfo.setTotalSize(files.length);
+		long cutOff = System.currentTimeMillis() - 24 * 60 * 60 * 1000L;
+		int count = 0;
+		for (File file : files) {
+			if (batchInfo.isCancelled()) {
+				break;
+			}
+			if (file.isFile() && !fileNames.contains(file.getName()) && file.lastModified() < cutOff) {
+				logger.info("deleting orphaned attachment file: " + file);
+				if (file.delete()) {
+					count++;
+				}
+			}
+			batchInfo.incrementPosition();
+		}
+		logger.info("orphaned attachment files deleted: " + count);
+	}
+
+	/**
+	 * configured to be called every few seconds, does nothing unless clustered
+	 * runs on the scheduler thread so that a busy job pool never holds up the
+	 * heartbeat, the index is updated on the "index" pool
+	 */
+	@Override
+	public void executeClusterTask() {
+		if (!cluster.isEnabled()) {
+			return;
+		}
+		boolean wasLeader = cluster.isLeader();
+		cluster.heartbeat();
+		if (cluster.isLeader()) {
+			resumeBulkOperations(loadAllConfig(), wasLeader);
+		}
+		// the cursor has already moved past these events, so a failure is
+		// logged rather than allowed to drop the rest of the batch
+		for (ClusterEvent event : cluster.receive()) {
+			logger.debug("cluster event received: " + event);
+			try {
+				applyClusterEvent(event.getType());
+			} catch (RuntimeException e) {
+				logger.error("failed to apply cluster event: " + event, e);
+			}
+		}
+		if (indexer != null && jobManager != null && indexingChanges.compareAndSet(false, true)) {
+			jobManager.execute("index", new Runnable() {
+				@Override
+				public void run() {
+					try {
+						indexItemChanges();
+					} finally {
+						indexingChanges.set(false);
+					}
+				}
+			});
+		}
+	}
+
+	private void applyClusterEvent(String type) {
+		if (ClusterEvent.PRINCIPALS.equals(type)) {
+			principalCache.invalidate();
+		} else if (ClusterEvent.USERS.equals(type)) {
+			userIndex.invalidate();
+		} else if (ClusterEvent.CONFIG.equals(type)) {
+			initConfig(loadAllConfig());
+		} else if (ClusterEvent.INDEX_REBUILD.equals(type) && jobManager != null) {
+			jobManager.submit(BULK_POOL, new Job("index-rebuild") {
+				@Override
+				public void run(JobStatus status) {
+					rebuildLocalIndex(status);
+				}
+			});
+		}
+	}
+
+	private String getIndexPositionParam() {
+		return "cluster.index." + cluster.getNodeName();
+	}
+
+	/**
+	 * a node that has not indexed from the change log before starts from the
+	 * latest change, its index is expected to be a copy or to be rebuilt
+	 */
+	private void initIndexCursor(String position) {
+		long lastId;
+		if (position == null) {
+			lastId = dao.loadLastItemChangeId();
+			logger.warn("no index position known for cluster node '" + cluster.getNodeName()
+					+ "', indexing changes after " + lastId + ", rebuild the index if it is not up to date");
+		} else {
+			lastId = Long.parseLong(position);
+		}
+		indexCursor = new LogCursor(lastId, ITEM_CHANGE_SETTLE_MILLIS);
+	}
+
+	/**
+	 * indexes what has been created or commented on by any node since the last
+	 * call, the same documents that indexAfterCommit() adds when not clustered,
+	 * and brings the item filter and tag indexes up to date with the changes
+	 */
+	void indexItemChanges() {
+		int count = 0;
+		while (true) {
+			long lastId = indexCursor.getLastId();
+			List<ItemChange> changes = new ArrayList<ItemChange>(dao.findItemChangesWhereIdIn(indexCursor.getGaps()));
+			changes.addAll(dao.findItemChanges(lastId, null, INDEX_CHANGES_BATCH_SIZE));
+			List<Document> documents = new ArrayList<Document>();
+			// changes made by other nodes reach the filter and tag indexes only through the log
+			Map<Long, Set<Long>> changedItemIds = new HashMap<Long, Set<Long>>();
+			for (ItemChange change : changes) {
+				if (!indexCursor.add(change.getId())) {
+					continue;
+				}
+				if (!changedItemIds.containsKey(change.getSpaceId())) {
+					changedItemIds.put(change.getSpaceId(), new HashSet<Long>());
+				}
+				changedItemIds.get(change.getSpaceId()).add(change.getItemId());
+				try {
+					addDocuments(change, documents);
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+				count++;
+			}
+			if (!documents.isEmpty()) {
+				indexer.index(documents);
+			}
+			for (Map.Entry<Long, Set<Long>> entry : changedItemIds.entrySet()) {
+				refreshItemFilterIndex(entry.getKey(), entry.getValue());
+				refreshItemTagIndex(entry.getKey(), entry.getValue());
+			}
+			if (indexCursor.getLastId() != lastId) {
+				dao.storeConfig(new Config(getIndexPositionParam(), indexCursor.getLastId() + ""));
+			}
+			if (changes.size() < INDEX_CHANGES_BATCH_SIZE) {
+				break;
+			}
+		}
+		if (count > 0) {
+			logger.debug("item changes indexed: " + count);
+		}
+	}
+
+	private void addDocuments(ItemChange change, List<Document> documents) throws Exception {
+		if (change.getType() == ItemChange.CREATED) {
+			Item item = dao.loadItem(change.getItemId());
+			if (item == null) {
+				return;
+			}
+			documents.add(item.createDocument());
+		} else if (change.getType() != ItemChange.UPDATED) {
+			return;
+		}
+		if (change.getHistoryId() != null) {
+			History history = dao.loadHistory(change.getHistoryId());
+			if (history != null) {
+				documents.add(history.createDocument());
+			}
+		}
 	}
 
 	/* configured to be called every five minutes */
@@ -1061,6 +2594,10 @@ public class JtracImpl implements Jtrac {
 					columnHeading.setValueFromQueryString(s, Date.class);
 					break;
 				}
+				case TAGS: {
+					columnHeading.setValueListFromQueryString(s);
+					break;
+				}
 				case SPACE: {
 					Tokens tokens = ColumnHeading.convertStringToTokens(s);
 					columnHeading.getFilterCriteria().setExpression(FilterCriteria.convertToExpression(tokens.firstToken));
@@ -1076,6 +2613,7 @@ public class JtracImpl implements Jtrac {
 	}
 
 	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public void writeAsXml(ItemSearch itemSearch, Writer writer) {
 		final int batchSize = 500;
 		int originalPageSize = itemSearch.getPageSize();
@@ -1122,6 +2660,7 @@ public class JtracImpl implements Jtrac {
 	}
 
 	@Override
+	@Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
 	public void writeAsXml(Writer writer) {
 		final int batchSize = 500;
 		int totalSize = loadCountOfAllItems();
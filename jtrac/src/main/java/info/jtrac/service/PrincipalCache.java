@@ -0,0 +1,109 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.service;
+
+import info.jtrac.domain.User;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * shared cache of fully prepared security principals (user with space roles,
+ * spaces and metadata loaded) keyed by the name used to log in
+ *
+ * instead of working out which entries a change affects (a space that becomes
+ * guest accessible affects every user) any change to users, roles or spaces
+ * bumps a version number, entries loaded under an older version are ignored
+ * the version is read before loading so that a load that races with an
+ * update can never put stale data into the cache
+ *
+ * callers change their principal (locale, guest roles) so every caller gets
+ * its own copy, the cached instance itself is never handed out
+ */
+public class PrincipalCache {
+
+	private static final int DEFAULT_MAX_SIZE = 5000;
+
+	private final AtomicLong version = new AtomicLong();
+	private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private int maxSize = DEFAULT_MAX_SIZE;
+
+	private static class Entry {
+
+		private final User user;
+		private final long version;
+
+		Entry(User user, long version) {
+			this.user = user;
+			this.version = version;
+		}
+
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public long getVersion() {
+		return version.get();
+	}
+
+	public User get(String loginName) {
+		Entry entry = entries.get(loginName);
+		if (entry != null && entry.version == version.get()) {
+			hits.incrementAndGet();
+			return entry.user.copy();
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * @param loadedVersion the result of getVersion() read before the user was loaded
+	 */
+	public void put(String loginName, User user, long loadedVersion) {
+		if (loadedVersion != version.get()) {
+			return;
+		}
+		if (entries.size() >= maxSize) {
+			// crude but enough, a full cache means a lot of distinct logins since the last change
+			entries.clear();
+		}
+		entries.put(loginName, new Entry(user.copy(), loadedVersion));
+	}
+
+	public void invalidate() {
+		version.incrementAndGet();
+		entries.clear();
+	}
+
+	public int getSize() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+}
@@ -0,0 +1,392 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.service;
+
+import info.jtrac.domain.User;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * in-memory search index over the name, login name and e-mail of all users
+ * so that user lookups do not need a leading wildcard scan of the users table
+ *
+ * searches of three characters or more work like the "contains" search they
+ * replace, using the trigrams of every value to find candidates which are
+ * then checked, shorter searches match the start of any word in the values
+ *
+ * postings hold internal document numbers in ascending order, an update or
+ * removal only marks the old document deleted and the index is compacted
+ * once enough of them have piled up, like PrincipalCache the index is loaded
+ * lazily and a load that races with an update is discarded
+ */
+public class UserIndex {
+
+	public static final String NAME = "name";
+	public static final String LOGIN_NAME = "loginName";
+	public static final String EMAIL = "email";
+
+	private static final String[] FIELDS = { NAME, LOGIN_NAME, EMAIL };
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final AtomicLong version = new AtomicLong();
+	private final List<Entry> documents = new ArrayList<Entry>();
+	private final Map<Long, Integer> documentIds = new HashMap<Long, Integer>();
+	private final Map<String, Postings> trigrams = new HashMap<String, Postings>();
+	private final TreeMap<String, Postings> words = new TreeMap<String, Postings>();
+	private int deleted;
+	private volatile boolean loaded;
+
+	private static class Entry {
+
+		private final long id;
+		// lower case, in the order of FIELDS
+		private final String[] values;
+		private final String sortKey;
+
+		Entry(long id, String loginName, String name, String email) {
+			this.id = id;
+			this.values = new String[] { lower(name), lower(loginName), lower(email) };
+			this.sortKey = values[0];
+		}
+
+		boolean contains(int field, String text) {
+			if (field != -1) {
+				return values[field].contains(text);
+			}
+			for (String value : values) {
+				if (value.contains(text)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean hasWordStartingWith(int field, String text) {
+			for (int i = 0; i < values.length; i++) {
+				if (field != -1 && field != i) {
+					continue;
+				}
+				for (String word : getWords(values[i])) {
+					if (word.startsWith(text)) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+	}
+
+	private static final Comparator<Entry> BY_NAME = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry e1, Entry e2) {
+			int result = e1.sortKey.compareTo(e2.sortKey);
+			if (result != 0) {
+				return result;
+			}
+			return e1.id < e2.id ? -1 : (e1.id == e2.id ? 0 : 1);
+		}
+	};
+
+	/**
+	 * growable array of ascending document numbers
+	 */
+	private static class Postings {
+
+		private int[] docs = new int[4];
+		private int size;
+
+		void add(int doc) {
+			if (size > 0 && docs[size - 1] == doc) {
+				return;
+			}
+			if (size == docs.length) {
+				docs = Arrays.copyOf(docs, size * 2);
+			}
+			docs[size++] = doc;
+		}
+
+		boolean contains(int doc) {
+			return Arrays.binarySearch(docs, 0, size, doc) >= 0;
+		}
+
+	}
+
+	//==========================================================================
+
+	public long getVersion() {
+		return version.get();
+	}
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * @param rows id, login name, name and e-mail of every user
+	 * @param loadedVersion the result of getVersion() read before the rows were queried
+	 */
+	public void load(Collection<Object[]> rows, long loadedVersion) {
+		lock.writeLock().lock();
+		try {
+			if (loadedVersion != version.get()) {
+				return;
+			}
+			clear();
+			for (Object[] row : rows) {
+				add(new Entry((Long) row[0], (String) row[1], (String) row[2], (String) row[3]));
+			}
+			loaded = true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void put(User user) {
+		put(user.getId(), user.getLoginName(), user.getName(), user.getEmail());
+	}
+
+	public void put(long id, String loginName, String name, String email) {
+		lock.writeLock().lock();
+		try {
+			version.incrementAndGet();
+			if (!loaded) {
+				return;
+			}
+			delete(id);
+			add(new Entry(id, loginName, name, email));
+			compactIfNeeded();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public void remove(long id) {
+		lock.writeLock().lock();
+		try {
+			version.incrementAndGet();
+			if (!loaded) {
+				return;
+			}
+			delete(id);
+			compactIfNeeded();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * forces a reload on next use, e.g. when a transaction that updated the
+	 * index has been rolled back
+	 */
+	public void invalidate() {
+		lock.writeLock().lock();
+		try {
+			version.incrementAndGet();
+			loaded = false;
+			clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return documentIds.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * the ids of all matching users ordered by name
+	 *
+	 * @param searchOn "name", "loginName", "email" or null for any of them
+	 */
+	public List<Long> find(String text, String searchOn) {
+		int field = searchOn == null ? -1 : Arrays.asList(FIELDS).indexOf(searchOn);
+		if (searchOn != null && field == -1) {
+			throw new IllegalArgumentException("unknown field: " + searchOn);
+		}
+		text = lower(text).trim();
+		List<Entry> matches = new ArrayList<Entry>();
+		lock.readLock().lock();
+		try {
+			if (text.length() == 0) {
+				for (Entry entry : documents) {
+					if (entry != null) {
+						matches.add(entry);
+					}
+				}
+			} else if (text.length() < 3) {
+				Set<Integer> candidates = new LinkedHashSet<Integer>();
+				SortedMap<String, Postings> tail = words.subMap(text, text + Character.MAX_VALUE);
+				for (Postings postings : tail.values()) {
+					for (int i = 0; i < postings.size; i++) {
+						candidates.add(postings.docs[i]);
+					}
+				}
+				for (int doc : candidates) {
+					Entry entry = documents.get(doc);
+					if (entry != null && entry.hasWordStartingWith(field, text)) {
+						matches.add(entry);
+					}
+				}
+			} else {
+				List<Postings> lists = new ArrayList<Postings>();
+				for (String trigram : getTrigrams(text)) {
+					Postings postings = trigrams.get(trigram);
+					if (postings == null) {
+						return Collections.emptyList();
+					}
+					lists.add(postings);
+				}
+				Postings smallest = lists.get(0);
+				for (Postings postings : lists) {
+					if (postings.size < smallest.size) {
+						smallest = postings;
+					}
+				}
+				for (int i = 0; i < smallest.size; i++) {
+					int doc = smallest.docs[i];
+					boolean all = true;
+					for (Postings postings : lists) {
+						if (postings != smallest && !postings.contains(doc)) {
+							all = false;
+							break;
+						}
+					}
+					Entry entry = documents.get(doc);
+					if (all && entry != null && entry.contains(field, text)) {
+						matches.add(entry);
+					}
+				}
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		Collections.sort(matches, BY_NAME);
+		List<Long> ids = new ArrayList<Long>(matches.size());
+		for (Entry entry : matches) {
+			ids.add(entry.id);
+		}
+		return ids;
+	}
+
+	//==========================================================================
+
+	private void clear() {
+		documents.clear();
+		documentIds.clear();
+		trigrams.clear();
+		words.clear();
+		deleted = 0;
+	}
+
+	private void add(Entry entry) {
+		int doc = documents.size();
+		documents.add(entry);
+		documentIds.put(entry.id, doc);
+		for (String value : entry.values) {
+			for (String trigram : getTrigrams(value)) {
+				getPostings(trigrams, trigram).add(doc);
+			}
+			for (String word : getWords(value)) {
+				getPostings(words, word).add(doc);
+			}
+		}
+	}
+
+	private void delete(long id) {
+		Integer doc = documentIds.remove(id);
+		if (doc != null) {
+			documents.set(doc, null);
+			deleted++;
+		}
+	}
+
+	private void compactIfNeeded() {
+		if (deleted < 1000 || deleted < documents.size() / 4) {
+			return;
+		}
+		List<Entry> live = new ArrayList<Entry>(documentIds.size());
+		for (Entry entry : documents) {
+			if (entry != null) {
+				live.add(entry);
+			}
+		}
+		clear();
+		for (Entry entry : live) {
+			add(entry);
+		}
+	}
+
+	private static Postings getPostings(Map<String, Postings> map, String key) {
+		Postings postings = map.get(key);
+		if (postings == null) {
+			postings = new Postings();
+			map.put(key, postings);
+		}
+		return postings;
+	}
+
+	private static String lower(String s) {
+		return s == null ? "" : s.toLowerCase();
+	}
+
+	private static Set<String> getTrigrams(String value) {
+		Set<String> set = new LinkedHashSet<String>();
+		for (int i = 0; i + 3 <= value.length(); i++) {
+			set.add(value.substring(i, i + 3));
+		}
+		return set;
+	}
+
+	/**
+	 * the whole value plus every part of it separated by spaces or punctuation
+	 * so that "john.smith@example.com" can be found by "jo", "sm" or "ex"
+	 */
+	private static Set<String> getWords(String value) {
+		Set<String> set = new LinkedHashSet<String>();
+		if (value.length() == 0) {
+			return set;
+		}
+		set.add(value);
+		for (String word : value.split("[^\\p{L}\\p{N}]+")) {
+			if (word.length() > 0) {
+				set.add(word);
+			}
+		}
+		return set;
+	}
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.util;
+
+import info.jtrac.domain.BulkRecord;
+
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * pull parser for bulk item uploads, only one record is held in memory at a time
+ * so the size of an upload is not limited by the heap
+ *
+ * <pre>
+ * &lt;items space="PREFIX"&gt;
+ *   &lt;item&gt;&lt;summary&gt;...&lt;/summary&gt;&lt;detail&gt;...&lt;/detail&gt;&lt;cusInt01&gt;label&lt;/cusInt01&gt;&lt;/item&gt;
+ *   &lt;item space="OTHER"&gt;...&lt;/item&gt;
+ *   &lt;history refId="PREFIX-12"&gt;&lt;comment&gt;...&lt;/comment&gt;&lt;status&gt;Closed&lt;/status&gt;&lt;/history&gt;
+ * &lt;/items&gt;
+ * </pre>
+ *
+ * a single &lt;item&gt; root element is also accepted for compatibility with
+ * clients that create one item per request
+ */
+public class BulkRecordReader {
+
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+	static {
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	private final XMLStreamReader reader;
+	private final boolean bulk;
+	private final String defaultSpace;
+	private boolean singleRead;
+	private int index;
+
+	public BulkRecordReader(InputStream is) throws XMLStreamException {
+		reader = FACTORY.createXMLStreamReader(is);
+		reader.nextTag();
+		String root = reader.getLocalName();
+		if (root.equals("items")) {
+			bulk = true;
+		} else if (root.equals("item")) {
+			bulk = false;
+		} else {
+			throw new XMLStreamException("expected <items> or <item> but found <" + root + ">", reader.getLocation());
+		}
+		defaultSpace = reader.getAttributeValue(null, "space");
+	}
+
+	public boolean isBulk() {
+		return bulk;
+	}
+
+	/**
+	 * @return the next record or null when there are no more
+	 */
+	public BulkRecord next() throws XMLStreamException {
+		if (!bulk) {
+			if (singleRead) {
+				return null;
+			}
+			singleRead = true;
+			return readRecord(BulkRecord.Type.ITEM, defaultSpace);
+		}
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				// end of <items>
+				return null;
+			}
+			if (event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+			String name = reader.getLocalName();
+			if (name.equals("item")) {
+				String space = reader.getAttributeValue(null, "space");
+				return readRecord(BulkRecord.Type.ITEM, space == null ? defaultSpace : space);
+			} else if (name.equals("history")) {
+				return readRecord(BulkRecord.Type.HISTORY, reader.getAttributeValue(null, "refId"));
+			} else {
+				throw new XMLStreamException("expected <item> or <history> but found <" + name + ">", reader.getLocation());
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * positioned on the start of the record, returns positioned on its end
+	 */
+	private BulkRecord readRecord(BulkRecord.Type type, String key) throws XMLStreamException {
+		BulkRecord record = new BulkRecord(index++, type, key);
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			String name = reader.getLocalName();
+			record.put(name, readText());
+		}
+		return record;
+	}
+
+	/**
+	 * like getElementText() but skips nested elements (e.g. the related items
+	 * in the XML returned by item.get) instead of failing
+	 */
+	private String readText() throws XMLStreamException {
+		StringBuilder sb = new StringBuilder();
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (depth == 1 && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+				sb.append(reader.getText());
+			}
+		}
+		return sb.toString();
+	}
+
+	public void close() throws XMLStreamException {
+		reader.close();
+	}
+
+}
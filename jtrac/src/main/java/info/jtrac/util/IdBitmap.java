@@ -0,0 +1,396 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * compressed set of (positive) ids for postings lists, e.g. the items carrying
+ * a tag, that are combined with and() / or() instead of joins in the database
+ *
+ * the high bits of an id select a container from a sorted array of keys, the
+ * low 16 bits are held by the container as a sorted array of chars while it has
+ * at most 4096 of them and as a bitmap of 2^16 bits (8 KB) beyond that, where the
+ * bitmap becomes the smaller of the two, so sparse and dense runs of ids are both
+ * cheap and and / or work a container at a time without looking at single ids
+ *
+ * not thread safe, results of and() / or() share nothing with their operands
+ */
+public class IdBitmap implements Serializable {
+
+	private static final int MAX_ARRAY_SIZE = 4096;
+	private static final int WORDS = 1 << 10;
+
+	private long[] keys = new long[4];
+	private Container[] containers = new Container[4];
+	private int size;
+
+	public static IdBitmap of(Collection<Long> ids) {
+		IdBitmap bitmap = new IdBitmap();
+		for (Long id : ids) {
+			bitmap.add(id);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * @return false if the id was there already
+	 */
+	public boolean add(long id) {
+		long key = id >>> 16;
+		int i = Arrays.binarySearch(keys, 0, size, key);
+		if (i < 0) {
+			i = -i - 1;
+			insert(i, key, new Container());
+		}
+		return containers[i].add((char) id);
+	}
+
+	/**
+	 * @return false if the id was not there
+	 */
+	public boolean remove(long id) {
+		int i = Arrays.binarySearch(keys, 0, size, id >>> 16);
+		if (i < 0 || !containers[i].remove((char) id)) {
+			return false;
+		}
+		if (containers[i].cardinality == 0) {
+			System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+			System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+			size--;
+			containers[size] = null;
+		}
+		return true;
+	}
+
+	public boolean contains(long id) {
+		int i = Arrays.binarySearch(keys, 0, size, id >>> 16);
+		return i >= 0 && containers[i].contains((char) id);
+	}
+
+	public int getCardinality() {
+		int cardinality = 0;
+		for (int i = 0; i < size; i++) {
+			cardinality += containers[i].cardinality;
+		}
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * the ids in both, only keys present on both sides are looked at
+	 */
+	public IdBitmap and(IdBitmap other) {
+		IdBitmap result = new IdBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < size && j < other.size) {
+			if (keys[i] < other.keys[j]) {
+				i++;
+			} else if (keys[i] > other.keys[j]) {
+				j++;
+			} else {
+				Container c = containers[i].and(other.containers[j]);
+				if (c.cardinality > 0) {
+					result.insert(result.size, keys[i], c);
+				}
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * the ids in either
+	 */
+	public IdBitmap or(IdBitmap other) {
+		IdBitmap result = new IdBitmap();
+		int i = 0;
+		int j = 0;
+		while (i < size || j < other.size) {
+			if (j == other.size || (i < size && keys[i] < other.keys[j])) {
+				result.insert(result.size, keys[i], containers[i].copy());
+				i++;
+			} else if (i == size || keys[i] > other.keys[j]) {
+				result.insert(result.size, other.keys[j], other.containers[j].copy());
+				j++;
+			} else {
+				result.insert(result.size, keys[i], containers[i].or(other.containers[j]));
+				i++;
+				j++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * the ids in ascending order
+	 */
+	public List<Long> toList() {
+		List<Long> list = new ArrayList<Long>(getCardinality());
+		for (int i = 0; i < size; i++) {
+			containers[i].addTo(keys[i] << 16, list);
+		}
+		return list;
+	}
+
+	private void insert(int i, long key, Container container) {
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = key;
+		containers[i] = container;
+		size++;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof IdBitmap)) {
+			return false;
+		}
+		return toList().equals(((IdBitmap) o).toList());
+	}
+
+	@Override
+	public int hashCode() {
+		return toList().hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return toList().toString();
+	}
+
+	//==========================================================================
+
+	/**
+	 * the low 16 bits of the ids under one key, either values or words is set
+	 */
+	private static final class Container implements Serializable {
+
+		private char[] values;
+		private long[] words;
+		private int cardinality;
+
+		private Container() {
+			values = new char[4];
+		}
+
+		private Container(char[] values, long[] words, int cardinality) {
+			this.values = values;
+			this.words = words;
+			this.cardinality = cardinality;
+		}
+
+		private boolean contains(char value) {
+			if (words != null) {
+				return (words[value >>> 6] & (1L << value)) != 0;
+			}
+			return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+		}
+
+		private boolean add(char value) {
+			if (words == null) {
+				int i = Arrays.binarySearch(values, 0, cardinality, value);
+				if (i >= 0) {
+					return false;
+				}
+				if (cardinality < MAX_ARRAY_SIZE) {
+					i = -i - 1;
+					if (cardinality == values.length) {
+						values = Arrays.copyOf(values, Math.min(Math.max(cardinality * 2, 4), MAX_ARRAY_SIZE));
+					}
+					System.arraycopy(values, i, values, i + 1, cardinality - i);
+					values[i] = value;
+					cardinality++;
+					return true;
+				}
+				toWords();
+			}
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) != 0) {
+				return false;
+			}
+			words[value >>> 6] |= bit;
+			cardinality++;
+			return true;
+		}
+
+		private boolean remove(char value) {
+			if (words == null) {
+				int i = Arrays.binarySearch(values, 0, cardinality, value);
+				if (i < 0) {
+					return false;
+				}
+				System.arraycopy(values, i + 1, values, i, cardinality - i - 1);
+				cardinality--;
+				return true;
+			}
+			long bit = 1L << value;
+			if ((words[value >>> 6] & bit) == 0) {
+				return false;
+			}
+			words[value >>> 6] &= ~bit;
+			cardinality--;
+			if (cardinality <= MAX_ARRAY_SIZE) {
+				toValues();
+			}
+			return true;
+		}
+
+		private Container and(Container other) {
+			if (words != null && other.words != null) {
+				long[] result = new long[WORDS];
+				int count = 0;
+				for (int i = 0; i < WORDS; i++) {
+					result[i] = words[i] & other.words[i];
+					count += Long.bitCount(result[i]);
+				}
+				Container c = new Container(null, result, count);
+				if (count <= MAX_ARRAY_SIZE) {
+					c.toValues();
+				}
+				return c;
+			}
+			if (words != null) {
+				return other.and(this);
+			}
+			char[] result = new char[Math.min(cardinality, other.cardinality)];
+			int count = 0;
+			if (other.words != null) {
+				for (int i = 0; i < cardinality; i++) {
+					if (other.contains(values[i])) {
+						result[count++] = values[i];
+					}
+				}
+			} else {
+				int i = 0;
+				int j = 0;
+				while (i < cardinality && j < other.cardinality) {
+					if (values[i] < other.values[j]) {
+						i++;
+					} else if (values[i] > other.values[j]) {
+						j++;
+					} else {
+						result[count++] = values[i];
+						i++;
+						j++;
+					}
+				}
+			}
+			return new Container(result, null, count);
+		}
+
+		private Container or(Container other) {
+			if (words == null && other.words == null && cardinality + other.cardinality <= MAX_ARRAY_SIZE) {
+				char[] result = new char[cardinality + other.cardinality];
+				int count = 0;
+				int i = 0;
+				int j = 0;
+				while (i < cardinality || j < other.cardinality) {
+					if (j == other.cardinality || (i < cardinality && values[i] < other.values[j])) {
+						result[count++] = values[i++];
+					} else if (i == cardinality || values[i] > other.values[j]) {
+						result[count++] = other.values[j++];
+					} else {
+						result[count++] = values[i];
+						i++;
+						j++;
+					}
+				}
+				return new Container(result, null, count);
+			}
+			Container c = copy();
+			if (c.words == null) {
+				c.toWords();
+			}
+			if (other.words != null) {
+				c.cardinality = 0;
+				for (int i = 0; i < WORDS; i++) {
+					c.words[i] |= other.words[i];
+					c.cardinality += Long.bitCount(c.words[i]);
+				}
+			} else {
+				for (int i = 0; i < other.cardinality; i++) {
+					c.add(other.values[i]);
+				}
+			}
+			if (c.cardinality <= MAX_ARRAY_SIZE) {
+				c.toValues();
+			}
+			return c;
+		}
+
+		private Container copy() {
+			return new Container(values == null ? null : Arrays.copyOf(values, cardinality),
+					words == null ? null : words.clone(), cardinality);
+		}
+
+		private void toWords() {
+			words = new long[WORDS];
+			for (int i = 0; i < cardinality; i++) {
+				words[values[i] >>> 6] |= 1L << values[i];
+			}
+			values = null;
+		}
+
+		private void toValues() {
+			values = new char[Math.max(cardinality, 4)];
+			int count = 0;
+			for (int i = 0; i < WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					values[count++] = (char) (i * 64 + Long.numberOfTrailingZeros(word));
+					word &= word - 1;
+				}
+			}
+			words = null;
+		}
+
+		private void addTo(long high, List<Long> list) {
+			if (words == null) {
+				for (int i = 0; i < cardinality; i++) {
+					list.add(high | values[i]);
+				}
+				return;
+			}
+			for (int i = 0; i < WORDS; i++) {
+				long word = words[i];
+				while (word != 0) {
+					list.add(high | (i * 64 + Long.numberOfTrailingZeros(word)));
+					word &= word - 1;
+				}
+			}
+		}
+
+	}
+
+}
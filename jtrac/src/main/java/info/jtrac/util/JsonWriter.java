@@ -0,0 +1,178 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Date;
+
+/**
+ * minimal streaming JSON generator, values are written straight to the
+ * underlying Writer so nothing is built up in memory, takes care of commas
+ * and string escaping, nesting is tracked only as deep as needed for commas
+ */
+public class JsonWriter {
+
+	private static final int MAX_DEPTH = 32;
+
+	private final Writer writer;
+	// per nesting level, true when the next value needs a comma in front
+	private final boolean[] separate = new boolean[MAX_DEPTH];
+	private int depth;
+	private boolean afterName;
+
+	public JsonWriter(Writer writer) {
+		this.writer = writer;
+	}
+
+	public JsonWriter beginObject() throws IOException {
+		return begin('{');
+	}
+
+	public JsonWriter endObject() throws IOException {
+		return end('}');
+	}
+
+	public JsonWriter beginArray() throws IOException {
+		return begin('[');
+	}
+
+	public JsonWriter endArray() throws IOException {
+		return end(']');
+	}
+
+	public JsonWriter name(String name) throws IOException {
+		beforeValue();
+		writeString(name);
+		writer.write(':');
+		afterName = true;
+		return this;
+	}
+
+	public JsonWriter value(String value) throws IOException {
+		beforeValue();
+		if (value == null) {
+			writer.write("null");
+		} else {
+			writeString(value);
+		}
+		return this;
+	}
+
+	public JsonWriter value(long value) throws IOException {
+		beforeValue();
+		writer.write(Long.toString(value));
+		return this;
+	}
+
+	public JsonWriter value(boolean value) throws IOException {
+		beforeValue();
+		writer.write(value ? "true" : "false");
+		return this;
+	}
+
+	/**
+	 * numbers and booleans as is, dates in the same format as the XML API, anything else as string
+	 */
+	public JsonWriter value(Object value) throws IOException {
+		if (value == null) {
+			return value((String) null);
+		}
+		if (value instanceof Double || value instanceof Float) {
+			double d = ((Number) value).doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d)) {
+				return value((String) null);
+			}
+			beforeValue();
+			writer.write(value.toString());
+			return this;
+		}
+		if (value instanceof Number) {
+			return value(((Number) value).longValue());
+		}
+		if (value instanceof Boolean) {
+			return value(((Boolean) value).booleanValue());
+		}
+		if (value instanceof Date) {
+			return value(DateUtils.formatTimeStamp((Date) value));
+		}
+		return value(value.toString());
+	}
+
+	public JsonWriter property(String name, Object value) throws IOException {
+		return name(name).value(value);
+	}
+
+	public void flush() throws IOException {
+		writer.flush();
+	}
+
+	//==========================================================================
+
+	private JsonWriter begin(char c) throws IOException {
+		beforeValue();
+		writer.write(c);
+		depth++;
+		separate[depth] = false;
+		return this;
+	}
+
+	private JsonWriter end(char c) throws IOException {
+		writer.write(c);
+		depth--;
+		return this;
+	}
+
+	private void beforeValue() throws IOException {
+		if (afterName) {
+			afterName = false;
+			return;
+		}
+		if (separate[depth]) {
+			writer.write(',');
+		}
+		separate[depth] = true;
+	}
+
+	private void writeString(String s) throws IOException {
+		writer.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': writer.write("\\\""); break;
+				case '\\': writer.write("\\\\"); break;
+				case '\n': writer.write("\\n"); break;
+				case '\r': writer.write("\\r"); break;
+				case '\t': writer.write("\\t"); break;
+				default:
+					// also escapes characters that break a script context
+					if (c < 0x20 || c == '<' || c == '>' || c == '&' || c == '\u2028' || c == '\u2029') {
+						String hex = Integer.toHexString(c);
+						writer.write("\\u");
+						for (int j = hex.length(); j < 4; j++) {
+							writer.write('0');
+						}
+						writer.write(hex);
+					} else {
+						writer.write(c);
+					}
+			}
+		}
+		writer.write('"');
+	}
+
+}
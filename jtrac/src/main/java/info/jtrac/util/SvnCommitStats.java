@@ -0,0 +1,171 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.tmatesoft.svn.core.ISVNLogEntryHandler;
+import org.tmatesoft.svn.core.SVNLogEntry;
+
+/**
+ * commit counts per committer for one location in a Subversion repository,
+ * identified by a key made from the UUID of the repository and the path
+ * within it, along with the last revision that has been counted
+ *
+ * log entries are fed in one at a time as an ISVNLogEntryHandler so that the
+ * history never has to be held in memory, and the counts are saved to a
+ * properties file so that the next update only needs the newer revisions
+ */
+public class SvnCommitStats implements ISVNLogEntryHandler {
+
+	private static final String COMMITS_PREFIX = "commits.";
+	// the key ends up in file names
+	private static final Pattern KEY_PATTERN = Pattern.compile("[0-9a-zA-Z]+");
+
+	private final String key;
+	private long lastRevision = -1;
+	private final Map<String, Integer> commitsPerCommitter = new TreeMap<String, Integer>();
+
+	public SvnCommitStats(String key) {
+		if (!KEY_PATTERN.matcher(key).matches()) {
+			throw new IllegalArgumentException("invalid key: " + key);
+		}
+		this.key = key;
+	}
+
+	/**
+	 * the UUID is reported by the server so it is hashed rather than trusted
+	 * as a file name, and the log of a path only has the commits below it so
+	 * the path is part of the key
+	 */
+	public static String getKey(String uuid, String repositoryPath) {
+		return DigestUtils.md5Hex(uuid + ":" + repositoryPath);
+	}
+
+	public void handleLogEntry(SVNLogEntry entry) {
+		if (entry.getRevision() <= lastRevision) {
+			return;
+		}
+		lastRevision = entry.getRevision();
+		if (entry.getAuthor() == null || entry.getDate() == null) {
+			// skip invalid log entry
+			return;
+		}
+		String committer = trimName(entry.getAuthor());
+		Integer commitsByThisCommitter = commitsPerCommitter.get(committer);
+		commitsPerCommitter.put(committer, (commitsByThisCommitter == null) ? 1 : commitsByThisCommitter + 1);
+	}
+
+	private static String trimName(String in) {
+		int pos = in.indexOf('\\');
+		if (pos != -1) {
+			return in.substring(pos + 1).toLowerCase();
+		}
+		return in.toLowerCase();
+	}
+
+	public static File getFile(File dir, String key) {
+		return new File(dir, key + ".properties");
+	}
+
+	/**
+	 * returns empty stats if nothing has been saved for this repository yet
+	 */
+	public static SvnCommitStats load(File dir, String key) throws IOException {
+		SvnCommitStats stats = new SvnCommitStats(key);
+		File file = getFile(dir, key);
+		if (!file.exists()) {
+			return stats;
+		}
+		Properties props = new Properties();
+		InputStream is = new FileInputStream(file);
+		try {
+			props.load(is);
+		} finally {
+			is.close();
+		}
+		stats.lastRevision = Long.parseLong(props.getProperty("lastRevision", "-1"));
+		for (String name : props.stringPropertyNames()) {
+			if (name.startsWith(COMMITS_PREFIX)) {
+				stats.commitsPerCommitter.put(name.substring(COMMITS_PREFIX.length()), Integer.parseInt(props.getProperty(name)));
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * written to a temporary file first so that a crash never leaves a half written file
+	 */
+	public void store(File dir) throws IOException {
+		dir.mkdirs();
+		Properties props = new Properties();
+		props.setProperty("key", key);
+		props.setProperty("lastRevision", lastRevision + "");
+		for (Map.Entry<String, Integer> entry : commitsPerCommitter.entrySet()) {
+			props.setProperty(COMMITS_PREFIX + entry.getKey(), entry.getValue() + "");
+		}
+		File temp = new File(dir, key + ".tmp");
+		OutputStream os = new FileOutputStream(temp);
+		try {
+			props.store(os, "svn commit statistics");
+		} finally {
+			os.close();
+		}
+		File file = getFile(dir, key);
+		if (!temp.renameTo(file)) {
+			file.delete();
+			if (!temp.renameTo(file)) {
+				throw new IOException("could not rename '" + temp + "' to '" + file + "'");
+			}
+		}
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public long getLastRevision() {
+		return lastRevision;
+	}
+
+	/**
+	 * the log only has entries for revisions that touched the path, so once
+	 * it has been read up to a revision that is recorded here even if the
+	 * last entry seen is older
+	 */
+	public void setLastRevision(long lastRevision) {
+		if (lastRevision > this.lastRevision) {
+			this.lastRevision = lastRevision;
+		}
+	}
+
+	public Map<String, Integer> getCommitsPerCommitter() {
+		return Collections.unmodifiableMap(commitsPerCommitter);
+	}
+
+}
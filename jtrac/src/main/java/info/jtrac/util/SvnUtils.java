@@ -16,12 +16,22 @@
 
 package info.jtrac.util;
 
-import java.util.Collection;
-import java.util.Date;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.tmatesoft.svn.core.SVNLogEntry;
+import org.jfree.chart.ChartFactory;
+import org.jfree.chart.ChartUtilities;
+import org.jfree.chart.JFreeChart;
+import org.jfree.chart.plot.PlotOrientation;
+import org.jfree.data.category.DefaultCategoryDataset;
+import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNNodeKind;
 import org.tmatesoft.svn.core.SVNURL;
 import org.tmatesoft.svn.core.auth.ISVNAuthenticationManager;
@@ -37,6 +47,8 @@ import org.tmatesoft.svn.core.wc.SVNWCUtil;
  */
 public class SvnUtils {
 
+	private static final ConcurrentMap<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
 	public static SVNRepository getRepository(String url, String username, String password) {
 		DAVRepositoryFactory.setup();
 		SVNRepositoryFactoryImpl.setup();
@@ -58,42 +70,121 @@ public class SvnUtils {
 		return repository;
 	}
 
-	@SuppressWarnings("unchecked")
+	/**
+	 * counts the complete history every time, see getCommitStats() for the
+	 * version that only fetches revisions it has not seen before
+	 */
 	public static Map<String, Integer> getCommitsPerCommitter(SVNRepository repository) {
-		Collection<SVNLogEntry> svnLogEntries = null;
+		SvnCommitStats stats;
 		try {
-			svnLogEntries = repository.log(new String[] {""}, null, 0, repository.getLatestRevision(), true, true);
+			stats = new SvnCommitStats(getStatsKey(repository));
+			repository.log(new String[] {""}, 0, repository.getLatestRevision(), false, true, stats);
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
-		Date createdDate = null;
-		//		long now = new Date().getTime();
-		//		long commits = 0;
-		Map<String, Integer> commitsPerCommitter = new TreeMap<String, Integer>();
-		//		Map<String, Integer> commitsPerFile = new TreeMap<String, Integer>();
-		for (SVNLogEntry entry : svnLogEntries) {
-			if(entry.getAuthor() == null || entry.getDate() == null) {
-				// skip invalid log entry
-				continue;
+		return stats.getCommitsPerCommitter();
+	}
+
+	/**
+	 * the statistics saved in "dir" for this repository, brought up to date by
+	 * streaming only the log entries after the last revision counted, without
+	 * changed paths, concurrent updates of the same repository are serialized
+	 */
+	public static SvnCommitStats getCommitStats(SVNRepository repository, File dir) {
+		String key;
+		try {
+			key = getStatsKey(repository);
+		} catch (SVNException e) {
+			throw new RuntimeException(e);
+		}
+		synchronized (getLock(key)) {
+			try {
+				SvnCommitStats stats = SvnCommitStats.load(dir, key);
+				long latestRevision = repository.getLatestRevision();
+				if (latestRevision > stats.getLastRevision()) {
+					try {
+						repository.log(new String[] {""}, stats.getLastRevision() + 1, latestRevision, false, true, stats);
+						stats.setLastRevision(latestRevision);
+					} finally {
+						// whatever was counted before a failure is kept, the next update continues from there
+						stats.store(dir);
+					}
+				}
+				return stats;
+			} catch (Exception e) {
+				throw new RuntimeException(e);
 			}
-			if (createdDate == null) {
-				createdDate = entry.getDate();
+		}
+	}
+
+	/**
+	 * bar chart of commits per committer as PNG, rendered once per repository
+	 * and revision and then served from "dir" until new revisions are counted
+	 */
+	public static byte[] getCommitsChartPng(SvnCommitStats stats, File dir, int width, int height) {
+		String prefix = stats.getKey() + "-";
+		File file = new File(dir, prefix + stats.getLastRevision() + "-" + width + "x" + height + ".png");
+		synchronized (getLock(stats.getKey())) {
+			try {
+				if (!file.exists()) {
+					DefaultCategoryDataset dataset = new DefaultCategoryDataset();
+					for (Map.Entry<String, Integer> entry : stats.getCommitsPerCommitter().entrySet()) {
+						dataset.addValue(entry.getValue(), "Commits", entry.getKey());
+					}
+					JFreeChart chart = ChartFactory.createBarChart(null, null, null, dataset, PlotOrientation.VERTICAL, false, false, false);
+					dir.mkdirs();
+					for (File f : dir.listFiles()) {
+						if (f.getName().startsWith(prefix) && f.getName().endsWith(".png")) {
+							f.delete();
+						}
+					}
+					OutputStream os = new FileOutputStream(file);
+					try {
+						ChartUtilities.writeChartAsPNG(os, chart, width, height);
+					} finally {
+						os.close();
+					}
+				}
+				return readFile(file);
+			} catch (IOException e) {
+				throw new RuntimeException(e);
 			}
-			//			commits++;
-			//			long age = now - entry.getDate().getTime();
-			String committer = trimName(entry.getAuthor());
-			Integer commitsByThisCommitter = commitsPerCommitter.get(committer);
-			commitsPerCommitter.put(committer, (commitsByThisCommitter == null) ? 1 : commitsByThisCommitter + 1);
 		}
-		return commitsPerCommitter;
 	}
 
-	private static String trimName(String in) {
-		int pos = in.indexOf('\\');
-		if (pos != -1) {
-			return in.substring(pos + 1).toLowerCase();
+	private static byte[] readFile(File file) throws IOException {
+		byte[] bytes = new byte[(int) file.length()];
+		DataInputStream is = new DataInputStream(new FileInputStream(file));
+		try {
+			is.readFully(bytes);
+		} finally {
+			is.close();
+		}
+		return bytes;
+	}
+
+	/**
+	 * see SvnCommitStats.getKey(), falls back to the URL for servers that do
+	 * not report a UUID
+	 */
+	private static String getStatsKey(SVNRepository repository) throws SVNException {
+		String uuid = repository.getRepositoryUUID(true);
+		if (uuid == null) {
+			uuid = repository.getLocation().toString();
+		}
+		return SvnCommitStats.getKey(uuid, repository.getRepositoryPath(""));
+	}
+
+	private static Object getLock(String key) {
+		Object lock = LOCKS.get(key);
+		if (lock == null) {
+			Object temp = new Object();
+			lock = LOCKS.putIfAbsent(key, temp);
+			if (lock == null) {
+				lock = temp;
+			}
 		}
-		return in.toLowerCase();
+		return lock;
 	}
 
 }
@@ -57,5 +57,16 @@ public class ValidationUtils {
         return input.matches("[A-Z][a-z]+(-[A-Z][a-z]+)*");
     }
     
+    /**
+     * lower case letters, digits and a few punctuation characters, no
+     * underscore as that separates values in search query strings
+     */
+    public static boolean isValidTagName(String input) {
+        if (input == null) {
+            return false;
+        }
+        return input.length() <= 50 && input.matches("[\\p{Ll}\\p{Nd}][\\p{Ll}\\p{Nd}.+#-]*");
+    }
+    
     
 }
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.web;
+
+import info.jtrac.acegi.ApiTokenService;
+import info.jtrac.domain.User;
+
+import java.util.StringTokenizer;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.acegisecurity.userdetails.UsernameNotFoundException;
+import org.apache.commons.codec.binary.Base64;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * base class for the remote API controllers, every request is authenticated
+ * here and the User is made available as the "user" request attribute
+ */
+public abstract class AbstractApiController extends AbstractMultiActionController {
+
+	protected ApiTokenService apiTokenService;
+
+	public void setApiTokenService(ApiTokenService apiTokenService) {
+		this.apiTokenService = apiTokenService;
+	}
+
+	/**
+	 * override Spring template method as a crude interceptor
+	 * here we are doing HTTP basic authentication or accepting a "Bearer" token
+	 * obtained earlier from "token.get", which avoids hashing the password per request
+	 */
+	@Override
+	protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if(!authenticate(request)) {
+			String title = "Basic realm=\"JTrac Remote API\"";
+			response.setHeader("WWW-Authenticate", title);
+			response.setStatus(401);
+			return null;
+		} else {
+			return super.handleRequestInternal(request, response);
+		}
+	}
+
+	private boolean authenticate(HttpServletRequest request) {
+		String authHeader = request.getHeader("Authorization");
+		logger.debug("auth header: " + authHeader);
+		if (authHeader == null) {
+			return false;
+		}
+		StringTokenizer st = new StringTokenizer(authHeader);
+		if (st.hasMoreTokens()) {
+			String basic = st.nextToken();
+			if (basic.equalsIgnoreCase("Bearer") && st.hasMoreTokens()) {
+				User user = apiTokenService.getUser(st.nextToken());
+				if (user == null) {
+					return false;
+				}
+				request.setAttribute("user", user);
+				request.setAttribute("token", Boolean.TRUE);
+				return true;
+			}
+			if (basic.equalsIgnoreCase("Basic") && st.hasMoreTokens()) {
+				String credentials = st.nextToken();
+				Base64 decoder = new Base64();
+				String userPass = new String(decoder.decode(credentials.getBytes()));
+				int p = userPass.indexOf(":");
+				if (p == -1) {
+					return false;
+				}
+				String loginName = userPass.substring(0, p);
+				String password = userPass.substring(p + 1);
+				// served from the shared principal cache once warm
+				User user;
+				try {
+					user = (User) jtrac.loadUserByUsername(loginName);
+				} catch (UsernameNotFoundException e) {
+					return false;
+				}
+				String encoded = jtrac.encodeClearText(password);
+				if(user.getPassword().equals(encoded)) {
+					request.setAttribute("user", user);
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * gzip compression for dynamic responses (Wicket pages, Ajax responses, the
+ * remote API), configured in web.xml
+ *
+ * the first "minSize" bytes are held back, only when the response grows beyond
+ * that and the content type is one of "mimeTypes" is the rest compressed,
+ * after that flush() goes through so that streamed responses keep streaming
+ * static files under /resources are handled by StaticResourceServlet instead
+ */
+public class CompressionFilter implements Filter {
+
+	public static final int DEFAULT_MIN_SIZE = 1024;
+	public static final String DEFAULT_MIME_TYPES = "text/html,text/xml,text/plain,text/css,text/csv,"
+			+ "text/javascript,application/javascript,application/x-javascript,application/xml,application/json";
+
+	private int minSize = DEFAULT_MIN_SIZE;
+	private Set<String> mimeTypes = parseMimeTypes(DEFAULT_MIME_TYPES);
+
+	public void init(FilterConfig filterConfig) throws ServletException {
+		String temp = filterConfig.getInitParameter("minSize");
+		if (temp != null) {
+			minSize = Integer.parseInt(temp.trim());
+		}
+		temp = filterConfig.getInitParameter("mimeTypes");
+		if (temp != null) {
+			mimeTypes = parseMimeTypes(temp);
+		}
+	}
+
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		HttpServletRequest req = (HttpServletRequest) request;
+		HttpServletResponse res = (HttpServletResponse) response;
+		if (!acceptsGzip(req) || "HEAD".equals(req.getMethod())) {
+			chain.doFilter(request, response);
+			return;
+		}
+		CompressionResponseWrapper wrapper = new CompressionResponseWrapper(res);
+		chain.doFilter(request, wrapper);
+		wrapper.finish();
+	}
+
+	public void destroy() {
+		// nothing to do
+	}
+
+	public void setMinSize(int minSize) {
+		this.minSize = minSize;
+	}
+
+	public void setMimeTypes(String mimeTypes) {
+		this.mimeTypes = parseMimeTypes(mimeTypes);
+	}
+
+	private static Set<String> parseMimeTypes(String s) {
+		Set<String> set = new HashSet<String>();
+		for (String type : s.split(",")) {
+			type = type.trim();
+			if (type.length() > 0) {
+				set.add(type);
+			}
+		}
+		return set;
+	}
+
+	/**
+	 * true if the client lists "gzip" (or "*") in Accept-Encoding without q=0
+	 */
+	public static boolean acceptsGzip(HttpServletRequest request) {
+		String header = request.getHeader("Accept-Encoding");
+		if (header == null) {
+			return false;
+		}
+		StringTokenizer st = new StringTokenizer(header, ",");
+		while (st.hasMoreTokens()) {
+			String token = st.nextToken().trim();
+			String coding = token;
+			String q = null;
+			int pos = token.indexOf(';');
+			if (pos != -1) {
+				coding = token.substring(0, pos).trim();
+				int eq = token.indexOf("q=", pos);
+				if (eq != -1) {
+					q = token.substring(eq + 2).trim();
+				}
+			}
+			if (coding.equalsIgnoreCase("gzip") || coding.equals("*")) {
+				try {
+					return q == null || Double.parseDouble(q) > 0;
+				} catch (NumberFormatException e) {
+					return false;
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean isCompressible(String contentType) {
+		if (contentType == null) {
+			return false;
+		}
+		int pos = contentType.indexOf(';');
+		if (pos != -1) {
+			contentType = contentType.substring(0, pos);
+		}
+		return mimeTypes.contains(contentType.trim().toLowerCase());
+	}
+
+	//==========================================================================
+
+	/**
+	 * holds on to the content length, and an explicit Content-Encoding set by the
+	 * application switches compression off
+	 */
+	private class CompressionResponseWrapper extends HttpServletResponseWrapper {
+
+		private final HttpServletResponse response;
+		private ThresholdOutputStream stream;
+		private PrintWriter writer;
+		private int contentLength = -1;
+		private boolean disabled;
+
+		CompressionResponseWrapper(HttpServletResponse response) {
+			super(response);
+			this.response = response;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			if (writer != null) {
+				throw new IllegalStateException("getWriter() has already been called");
+			}
+			return getStream();
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if (writer == null) {
+				if (stream != null) {
+					throw new IllegalStateException("getOutputStream() has already been called");
+				}
+				writer = new PrintWriter(new OutputStreamWriter(getStream(), response.getCharacterEncoding()));
+			}
+			return writer;
+		}
+
+		private ThresholdOutputStream getStream() {
+			if (stream == null) {
+				stream = new ThresholdOutputStream(this);
+			}
+			return stream;
+		}
+
+		@Override
+		public void setContentLength(int len) {
+			if (len < minSize) {
+				disabled = true;
+			}
+			if (disabled) {
+				response.setContentLength(len);
+			} else {
+				contentLength = len;
+			}
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+			if (!intercept(name, value)) {
+				super.setHeader(name, value);
+			}
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			if (!intercept(name, value)) {
+				super.addHeader(name, value);
+			}
+		}
+
+		private boolean intercept(String name, String value) {
+			if (name.equalsIgnoreCase("Content-Length")) {
+				setContentLength(Integer.parseInt(value));
+				return true;
+			}
+			if (name.equalsIgnoreCase("Content-Encoding")) {
+				disabled = true;
+			}
+			return false;
+		}
+
+		@Override
+		public void setStatus(int sc) {
+			if (sc == SC_NO_CONTENT || sc == SC_NOT_MODIFIED) {
+				disabled = true;
+			}
+			super.setStatus(sc);
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException {
+			disabled = true;
+			super.sendError(sc);
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			disabled = true;
+			super.sendError(sc, msg);
+		}
+
+		@Override
+		public void sendRedirect(String location) throws IOException {
+			disabled = true;
+			super.sendRedirect(location);
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			if (writer != null) {
+				writer.flush();
+			} else if (stream != null) {
+				stream.flush();
+			}
+			// committing the response now would make it too late to add Content-Encoding
+			if (stream == null || stream.buffer == null) {
+				super.flushBuffer();
+			}
+		}
+
+		@Override
+		public void reset() {
+			super.reset();
+			resetBuffer();
+			contentLength = -1;
+			disabled = false;
+		}
+
+		@Override
+		public void resetBuffer() {
+			super.resetBuffer();
+			if (stream != null) {
+				stream.resetBuffer();
+			}
+		}
+
+		/**
+		 * called by the stream once it has to decide, returns null to write through
+		 */
+		OutputStream startCompression() throws IOException {
+			if (disabled || !isCompressible(response.getContentType())) {
+				if (contentLength != -1) {
+					response.setContentLength(contentLength);
+				}
+				return null;
+			}
+			response.setHeader("Content-Encoding", "gzip");
+			response.addHeader("Vary", "Accept-Encoding");
+			return new GZIPOutputStream(response.getOutputStream(), 8192, true);
+		}
+
+		void finish() throws IOException {
+			if (writer != null) {
+				writer.flush();
+			}
+			if (stream != null) {
+				stream.close();
+			}
+		}
+
+	}
+
+	/**
+	 * buffers up to minSize bytes before deciding whether to compress
+	 */
+	private class ThresholdOutputStream extends ServletOutputStream {
+
+		private final CompressionResponseWrapper wrapper;
+		private ByteArrayOutputStream buffer = new ByteArrayOutputStream(minSize);
+		private OutputStream out;
+		private boolean closed;
+
+		ThresholdOutputStream(CompressionResponseWrapper wrapper) {
+			this.wrapper = wrapper;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (closed) {
+				throw new IOException("stream closed");
+			}
+			if (buffer != null) {
+				if (buffer.size() + len <= minSize) {
+					buffer.write(b, off, len);
+					return;
+				}
+				decide();
+			}
+			out.write(b, off, len);
+		}
+
+		private void decide() throws IOException {
+			out = wrapper.startCompression();
+			if (out == null) {
+				out = wrapper.response.getOutputStream();
+			}
+			buffer.writeTo(out);
+			buffer = null;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			// below the threshold nothing is sent until close() or more data arrives
+			if (closed || buffer != null) {
+				return;
+			}
+			out.flush();
+		}
+
+		void resetBuffer() {
+			if (buffer != null) {
+				buffer.reset();
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (buffer != null) {
+				// never got past the threshold, send as is
+				if (!wrapper.disabled) {
+					wrapper.response.setContentLength(buffer.size());
+				}
+				OutputStream os = wrapper.response.getOutputStream();
+				buffer.writeTo(os);
+				buffer = null;
+				os.close();
+				return;
+			}
+			out.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.web;
+
+import info.jtrac.domain.Counts;
+import info.jtrac.domain.CountsHolder;
+import info.jtrac.domain.Field;
+import info.jtrac.domain.InvalidRefIdException;
+import info.jtrac.domain.Item;
+import info.jtrac.domain.ItemSearch;
+import info.jtrac.domain.Space;
+import info.jtrac.domain.User;
+import info.jtrac.repository.RowCallback;
+import info.jtrac.service.JtracSecurityException;
+import info.jtrac.util.JsonWriter;
+import info.jtrac.wicket.ItemListPage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.wicket.PageParameters;
+import org.apache.wicket.protocol.http.RequestUtils;
+import org.apache.wicket.util.value.ValueMap;
+import org.springframework.web.servlet.mvc.multiaction.MethodNameResolver;
+import org.springframework.web.servlet.mvc.multiaction.NoSuchRequestHandlingMethodException;
+
+/**
+ * Spring MultiActionController that handles the JSON flavor of the remote API
+ * under /api/v1, authentication is the same as for the XML API
+ *
+ * responses are streamed with JsonWriter while the results are being read,
+ * "fields" selects the item properties to return and long lists are paged with
+ * the opaque "next" value that goes back in as "after" (items) or "page" (search)
+ */
+public class JsonMultiActionController extends AbstractApiController {
+
+	public static final String PATH_PREFIX = "/api/v1/";
+
+	private static final int DEFAULT_LIMIT = 100;
+	private static final int MAX_LIMIT = 1000;
+	private static final List<String> DEFAULT_FIELDS = Arrays.asList("summary", "status", "loggedBy", "assignedTo", "timeStamp");
+
+	/**
+	 * "/api/v1/items/FOO-12" resolves to "itemsGet" with "FOO-12" as the
+	 * "id" request attribute, only GET is supported for now
+	 */
+	public JsonMultiActionController() {
+		setMethodNameResolver(new MethodNameResolver() {
+			@Override
+			public String getHandlerMethodName(HttpServletRequest request) throws NoSuchRequestHandlingMethodException {
+				String path = request.getRequestURI().substring(request.getContextPath().length());
+				int start = path.indexOf(PATH_PREFIX);
+				if (start == -1) {
+					throw new NoSuchRequestHandlingMethodException(request);
+				}
+				path = path.substring(start + PATH_PREFIX.length());
+				int slash = path.indexOf('/');
+				if (slash != -1) {
+					String id = path.substring(slash + 1);
+					if (id.length() > 0) {
+						request.setAttribute("id", id);
+					}
+					path = path.substring(0, slash);
+				}
+				if (path.length() == 0 || !"GET".equals(request.getMethod())) {
+					throw new NoSuchRequestHandlingMethodException(request);
+				}
+				return path + "Get";
+			}
+		});
+	}
+
+	private JsonWriter initJsonResponse(HttpServletResponse response) throws IOException {
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		return new JsonWriter(response.getWriter());
+	}
+
+	private void writeError(HttpServletResponse response, int status, String message) throws IOException {
+		response.setStatus(status);
+		JsonWriter json = initJsonResponse(response);
+		json.beginObject().property("error", message).endObject();
+		json.flush();
+	}
+
+	/**
+	 * a malformed number results in a NumberFormatException
+	 */
+	private int getLimit(HttpServletRequest request) {
+		String temp = request.getParameter("limit");
+		if (temp == null) {
+			return DEFAULT_LIMIT;
+		}
+		return Math.max(1, Math.min(Integer.parseInt(temp), MAX_LIMIT));
+	}
+
+	/**
+	 * validated against the columns the item queries support, unknown names
+	 * result in an IllegalArgumentException
+	 */
+	private List<String> getFields(HttpServletRequest request) {
+		String temp = request.getParameter("fields");
+		if (temp == null) {
+			return DEFAULT_FIELDS;
+		}
+		List<String> fields = new ArrayList<String>();
+		for (String s : temp.split(",")) {
+			s = s.trim();
+			if (s.length() == 0 || fields.contains(s)) {
+				continue;
+			}
+			if (!jtrac.getItemColumnNames().contains(s)) {
+				throw new IllegalArgumentException("unknown field: " + s);
+			}
+			fields.add(s);
+		}
+		return fields;
+	}
+
+	private boolean isAllowed(User user, Space space) {
+		return user.isSuperUser() || user.isAllocatedToSpace(space.getId());
+	}
+
+	/**
+	 * status and drop down values are written as their labels for the space
+	 * just like in the XML API, everything else as is
+	 */
+	private Object getDisplayValue(Space space, String field, Object value) {
+		if (value == null) {
+			return null;
+		}
+		if (field.equals("status")) {
+			return space.getMetadata().getStatusValue((Integer) value);
+		}
+		if (Field.isValidName(field)) {
+			Field.Name name = Field.convertToName(field);
+			if (name.getType() <= 3) {
+				return space.getMetadata().getCustomValue(name, (Integer) value);
+			}
+		}
+		return value;
+	}
+
+	private Object getValue(Item item, String field) {
+		if (field.equals("summary")) {
+			return item.getSummary();
+		} else if (field.equals("detail")) {
+			return item.getDetail();
+		} else if (field.equals("status")) {
+			return item.getStatus();
+		} else if (field.equals("loggedBy")) {
+			return item.getLoggedBy() == null ? null : item.getLoggedBy().getLoginName();
+		} else if (field.equals("assignedTo")) {
+			return item.getAssignedTo() == null ? null : item.getAssignedTo().getLoginName();
+		} else if (field.equals("timeStamp")) {
+			return item.getTimeStamp();
+		} else if (field.equals("version")) {
+			return item.getVersion();
+		} else if (field.equals("plannedEffort")) {
+			return item.getPlannedEffort();
+		}
+		return item.getValue(Field.convertToName(field));
+	}
+
+	private void writeItem(JsonWriter json, Item item, List<String> fields) throws IOException {
+		json.beginObject();
+		json.property("id", item.getId());
+		json.property("refId", item.getRefId());
+		for (String field : fields) {
+			json.property(field, getDisplayValue(item.getSpace(), field, getValue(item, field)));
+		}
+		json.endObject();
+	}
+
+	//==========================================================================
+
+	/**
+	 * without an id, all items visible to the user (or in "space") in id order
+	 * straight off a database cursor, "next" is the id to pass as "after" for
+	 * the next page and is null after the last page
+	 */
+	public void itemsGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		final User user = (User) request.getAttribute("user");
+		final List<String> fields;
+		try {
+			fields = getFields(request);
+		} catch (IllegalArgumentException e) {
+			writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		String id = (String) request.getAttribute("id");
+		if (id != null) {
+			Item item;
+			try {
+				item = jtrac.loadItemByRefId(id);
+			} catch (InvalidRefIdException e) {
+				writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+				return;
+			}
+			if (item == null || !isAllowed(user, item.getSpace())) {
+				writeError(response, HttpServletResponse.SC_NOT_FOUND, "item not found: " + id);
+				return;
+			}
+			JsonWriter json = initJsonResponse(response);
+			writeItem(json, item, fields);
+			json.flush();
+			return;
+		}
+		Space space = null;
+		String prefixCode = request.getParameter("space");
+		if (prefixCode != null) {
+			space = jtrac.loadSpace(prefixCode);
+			if (space == null || !isAllowed(user, space)) {
+				writeError(response, HttpServletResponse.SC_NOT_FOUND, "space not found: " + prefixCode);
+				return;
+			}
+		}
+		String after = request.getParameter("after");
+		final long afterId;
+		final int limit;
+		try {
+			afterId = after == null ? 0 : Long.parseLong(after);
+			limit = getLimit(request);
+		} catch (NumberFormatException e) {
+			writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		final Map<Long, Space> spaces = new HashMap<Long, Space>();
+		for (Space s : user.getSpaces()) {
+			spaces.put(s.getId(), s);
+		}
+		final JsonWriter json = initJsonResponse(response);
+		json.beginObject().name("items").beginArray();
+		final long[] last = new long[2];
+		// one extra row tells us if there is a next page
+		jtrac.scrollItems(user, space, afterId, limit + 1, fields, new RowCallback() {
+			public void processRow(Object[] row) throws Exception {
+				if (++last[1] > limit) {
+					return;
+				}
+				long spaceId = (Long) row[1];
+				if (!spaces.containsKey(spaceId)) {
+					// super user not allocated to this space
+					spaces.put(spaceId, jtrac.loadSpace(spaceId));
+				}
+				Space s = spaces.get(spaceId);
+				if (s == null) {
+					// space removed while reading, its items are going as well
+					last[0] = (Long) row[0];
+					return;
+				}
+				json.beginObject();
+				json.property("id", row[0]);
+				json.property("refId", row[2] + "-" + row[3]);
+				for (int i = 0; i < fields.size(); i++) {
+					String field = fields.get(i);
+					json.property(field, getDisplayValue(s, field, row[i + 4]));
+				}
+				json.endObject();
+				last[0] = (Long) row[0];
+			}
+		});
+		json.endArray();
+		json.property("next", last[1] > limit ? last[0] : null);
+		json.endObject();
+		json.flush();
+	}
+
+	/**
+	 * same query parameters as "item.search.get" of the XML API plus "page"
+	 * (zero based) and "limit", "next" is the next page number or null
+	 */
+	public void searchGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		User user = (User) request.getAttribute("user");
+		List<String> fields;
+		try {
+			fields = getFields(request);
+		} catch (IllegalArgumentException e) {
+			writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		ValueMap map = new ValueMap();
+		RequestUtils.decodeParameters(request.getQueryString(), map);
+		ItemSearch itemSearch;
+		try {
+			itemSearch = ItemListPage.getItemSearch(jtrac, user, new PageParameters(map));
+		} catch (JtracSecurityException e) {
+			writeError(response, HttpServletResponse.SC_FORBIDDEN, e.getMessage());
+			return;
+		}
+		String page = request.getParameter("page");
+		try {
+			itemSearch.setPageSize(getLimit(request));
+			itemSearch.setCurrentPage(page == null ? 0 : Integer.parseInt(page));
+		} catch (NumberFormatException e) {
+			writeError(response, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		if (itemSearch.getCurrentPage() < 0) {
+			writeError(response, HttpServletResponse.SC_BAD_REQUEST, "invalid page: " + page);
+			return;
+		}
+		List<Item> items = jtrac.findItems(itemSearch);
+		JsonWriter json = initJsonResponse(response);
+		json.beginObject();
+		json.property("total", itemSearch.getResultCount());
+		json.name("items").beginArray();
+		for (Item item : items) {
+			writeItem(json, item, fields);
+		}
+		json.endArray();
+		long shown = (long) (itemSearch.getCurrentPage() + 1) * itemSearch.getPageSize();
+		json.property("next", shown < itemSearch.getResultCount() ? itemSearch.getCurrentPage() + 1 : null);
+		json.endObject();
+		json.flush();
+	}
+
+	public void spacesGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		User user = (User) request.getAttribute("user");
+		Collection<Space> spaces = user.isSuperUser() ? jtrac.findAllSpaces() : user.getSpaces();
+		JsonWriter json = initJsonResponse(response);
+		json.beginObject().name("spaces").beginArray();
+		for (Space space : spaces) {
+			json.beginObject();
+			json.property("id", space.getId());
+			json.property("prefixCode", space.getPrefixCode());
+			json.property("name", space.getName());
+			json.property("description", space.getDescription());
+			json.endObject();
+		}
+		json.endArray().endObject();
+		json.flush();
+	}
+
+	/**
+	 * the users allocated to "space" or else all the users that share a space
+	 * with the caller, super users get everyone
+	 */
+	public void usersGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		User user = (User) request.getAttribute("user");
+		List<User> users;
+		String prefixCode = request.getParameter("space");
+		if (prefixCode != null) {
+			Space space = jtrac.loadSpace(prefixCode);
+			if (space == null || !isAllowed(user, space)) {
+				writeError(response, HttpServletResponse.SC_NOT_FOUND, "space not found: " + prefixCode);
+				return;
+			}
+			users = jtrac.findUsersForSpace(space.getId());
+		} else if (user.isSuperUser()) {
+			users = jtrac.findAllUsers();
+		} else {
+			users = jtrac.findUsersForUser(user);
+		}
+		JsonWriter json = initJsonResponse(response);
+		json.beginObject().name("users").beginArray();
+		for (User u : users) {
+			json.beginObject();
+			json.property("loginName", u.getLoginName());
+			json.property("name", u.getName());
+			json.endObject();
+		}
+		json.endArray().endObject();
+		json.flush();
+	}
+
+	/**
+	 * the dashboard numbers, per space and in total
+	 */
+	public void countsGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		User user = (User) request.getAttribute("user");
+		CountsHolder holder = jtrac.loadCountsForUser(user);
+		JsonWriter json = initJsonResponse(response);
+		json.beginObject();
+		json.property("loggedByMe", holder.getTotalLoggedByMe());
+		json.property("assignedToMe", holder.getTotalAssignedToMe());
+		json.property("total", holder.getTotalTotal());
+		json.name("spaces").beginArray();
+		for (Space space : user.getSpaces()) {
+			Counts counts = holder.getCounts().get(space.getId());
+			if (counts == null) {
+				continue;
+			}
+			json.beginObject();
+			json.property("prefixCode", space.getPrefixCode());
+			json.property("loggedByMe", counts.getLoggedByMe());
+			json.property("assignedToMe", counts.getAssignedToMe());
+			json.property("total", counts.getTotal());
+			json.endObject();
+		}
+		json.endArray().endObject();
+		json.flush();
+	}
+
+}
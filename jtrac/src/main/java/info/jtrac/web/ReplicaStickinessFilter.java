@@ -0,0 +1,76 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.web;
+
+import info.jtrac.config.ReplicaRoutingDataSource;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+
+/**
+ * makes the time of the last write of the web session known to the
+ * ReplicaRoutingDataSource, so that users never read from a replica that
+ * has not caught up with their own changes yet, configured in web.xml
+ *
+ * requests without a session (remote API calls) only see their own writes
+ */
+public class ReplicaStickinessFilter implements Filter {
+
+	private static final String LAST_WRITE = ReplicaStickinessFilter.class.getName() + ".lastWrite";
+
+	public void init(FilterConfig filterConfig) throws ServletException {
+		// nothing to configure
+	}
+
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		HttpServletRequest req = (HttpServletRequest) request;
+		HttpSession session = req.getSession(false);
+		AtomicLong lastWrite = session == null ? null : (AtomicLong) session.getAttribute(LAST_WRITE);
+		if (lastWrite == null) {
+			lastWrite = new AtomicLong();
+		}
+		ReplicaRoutingDataSource.bindLastWrite(lastWrite);
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			ReplicaRoutingDataSource.unbindLastWrite();
+			// also covers the session created by this request, e.g. on login
+			session = req.getSession(false);
+			if (session != null && lastWrite.get() > 0) {
+				try {
+					session.setAttribute(LAST_WRITE, lastWrite);
+				} catch (IllegalStateException e) {
+					// invalidated on logout
+				}
+			}
+		}
+	}
+
+	public void destroy() {
+		// nothing to clean up
+	}
+
+}
@@ -16,29 +16,36 @@
 
 package info.jtrac.web;
 
+import info.jtrac.domain.BulkRecord;
 import info.jtrac.domain.InvalidRefIdException;
 import info.jtrac.domain.Item;
+import info.jtrac.domain.ItemChange;
 import info.jtrac.domain.ItemSearch;
 import info.jtrac.domain.Space;
 import info.jtrac.domain.User;
+import info.jtrac.metrics.Metrics;
+import info.jtrac.util.BulkRecordReader;
+import info.jtrac.util.DateUtils;
 import info.jtrac.util.XmlUtils;
 import info.jtrac.wicket.ItemListPage;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.StringTokenizer;
+import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
-import org.apache.commons.codec.binary.Base64;
 import org.apache.wicket.PageParameters;
 import org.apache.wicket.protocol.http.RequestUtils;
 import org.apache.wicket.util.value.ValueMap;
 import org.dom4j.Document;
 import org.dom4j.Element;
-import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.multiaction.MethodNameResolver;
 import org.springframework.web.servlet.mvc.multiaction.NoSuchRequestHandlingMethodException;
 
@@ -46,7 +53,16 @@ import org.springframework.web.servlet.mvc.multiaction.NoSuchRequestHandlingMeth
  * Spring MultiActionController that handles REST requests
  * returns XML messages
  */
-public class RestMultiActionController extends AbstractMultiActionController {
+public class RestMultiActionController extends AbstractApiController {
+
+	private static final int MAX_CHANGES = 500;
+	private static final int BULK_CHUNK_SIZE = 100;
+
+	private Metrics metrics;
+
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
 
 	/**
 	 * custom MethodNameResolver is configured that checks the value of an expected
@@ -78,77 +94,100 @@ public class RestMultiActionController extends AbstractMultiActionController {
 		});
 	}
 
+	private void writeXml(Document document, HttpServletResponse response) throws Exception {
+		writeXml(document.getRootElement(), response);
+	}
+
+	private void writeXml(Element element, HttpServletResponse response) throws Exception {
+		writeXml(element, response, null);
+	}
+
+	private void writeXml(Element element, HttpServletResponse response, String etag) throws Exception {
+		initXmlResponse(response, etag);
+		element.write(response.getWriter());
+	}
+
+	private void initXmlResponse(HttpServletResponse response) {
+		initXmlResponse(response, null);
+	}
+
 	/**
-	 * override Spring template method as a crude interceptor
-	 * here we are doing HTTP basic authentication TODO better security
+	 * responses with an entity tag may be kept by the client but must be
+	 * revalidated every time, see checkNotModified()
 	 */
-	@Override
-	protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response) throws Exception {
-		if(!authenticate(request)) {
-			String title = "Basic realm=\"JTrac Remote API\"";
-			response.setHeader("WWW-Authenticate", title);
-			response.setStatus(401);
-			return null;
+	private void initXmlResponse(HttpServletResponse response, String etag) {
+		if (etag == null) {
+			applyCacheSeconds(response, 0, true);
 		} else {
-			return super.handleRequestInternal(request, response);
+			setETag(response, etag);
 		}
+		response.setContentType("text/xml");
 	}
 
-	private boolean authenticate(HttpServletRequest request) {
-		String authHeader = request.getHeader("Authorization");
-		logger.debug("auth header: " + authHeader);
-		if (authHeader == null) {
+	private void setETag(HttpServletResponse response, String etag) {
+		response.setHeader("ETag", "\"" + etag + "\"");
+		response.setHeader("Cache-Control", "private, no-cache");
+	}
+
+	/**
+	 * the version tag is loaded with a cheap aggregate query, if the client already
+	 * holds the current representation we answer 304 before the entity is loaded
+	 * or any XML is written
+	 */
+	private boolean checkNotModified(HttpServletRequest request, HttpServletResponse response, String etag) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (etag == null || ifNoneMatch == null) {
 			return false;
 		}
-		StringTokenizer st = new StringTokenizer(authHeader);
-		if (st.hasMoreTokens()) {
-			String basic = st.nextToken();
-			if (basic.equalsIgnoreCase("Basic")) {
-				String credentials = st.nextToken();
-				Base64 decoder = new Base64();
-				String userPass = new String(decoder.decode(credentials.getBytes()));
-				int p = userPass.indexOf(":");
-				if (p == -1) {
-					return false;
-				}
-				String loginName = userPass.substring(0, p);
-				String password = userPass.substring(p + 1);
-				User user = jtrac.loadUser(loginName);
-				if(user == null) {
-					return false;
-				}
-				String encoded = jtrac.encodeClearText(password);
-				if(user.getPassword().equals(encoded)) {
-					request.setAttribute("user", user);
-					return true;
-				}
+		String quoted = "\"" + etag + "\"";
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if (candidate.equals(quoted) || candidate.equals("*")) {
+				setETag(response, etag);
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return true;
 			}
 		}
 		return false;
 	}
 
-	private void writeXml(Document document, HttpServletResponse response) throws Exception {
-		writeXml(document.getRootElement(), response);
-	}
-
-	private void writeXml(Element element, HttpServletResponse response) throws Exception {
-		initXmlResponse(response);
-		element.write(response.getWriter());
-	}
-
-	private void initXmlResponse(HttpServletResponse response) {
-		applyCacheSeconds(response, 0, true);
-		response.setContentType("text/xml");
+	/**
+	 * a chunk that fails as a whole (e.g. constraint violation) is rolled back,
+	 * its records are reported as failed and the upload continues
+	 */
+	private void storeBulkRecords(User user, List<BulkRecord> records) {
+		try {
+			jtrac.storeBulkRecords(user, records);
+		} catch (Exception e) {
+			logger.error("bulk upload chunk rolled back", e);
+			for (BulkRecord record : records) {
+				if (record.getError() == null) {
+					record.setRefId(null);
+					record.setError("rolled back: " + e.getMessage());
+				}
+			}
+		}
 	}
 
-	private String getContent(HttpServletRequest request) throws Exception {
-		InputStream is = request.getInputStream();
-		int ch;
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		while ((ch = is.read()) != -1) {
-			baos.write((byte) ch);
+	private void writeResults(XMLStreamWriter writer, List<BulkRecord> records, int[] counts) throws XMLStreamException {
+		for (BulkRecord record : records) {
+			writer.writeStartElement("result");
+			writer.writeAttribute("index", record.getIndex() + "");
+			if (record.isSuccess()) {
+				writer.writeAttribute("refId", record.getRefId());
+				writer.writeAttribute("status", record.isHistory() ? "updated" : "created");
+				counts[record.isHistory() ? 1 : 0]++;
+			} else {
+				writer.writeAttribute("status", "failed");
+				writer.writeCharacters(record.getError());
+				counts[2]++;
+			}
+			writer.writeEndElement();
 		}
-		return new String(baos.toByteArray());
+		writer.flush();
 	}
 
 	//============================ REQUEST HANDLERS ============================
@@ -161,11 +200,34 @@ public class RestMultiActionController extends AbstractMultiActionController {
 		writeXml(d, response);
 	}
 
+	/**
+	 * exchanges basic authentication credentials for a signed api token
+	 * that can be sent as "Authorization: Bearer <token>" until it expires
+	 */
+	public void tokenGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		if (request.getAttribute("token") != null) {
+			// a token cannot be used to extend its own lifetime indefinitely
+			response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+		User user = (User) request.getAttribute("user");
+		Document d = XmlUtils.getNewDocument("token");
+		Element root = d.getRootElement();
+		root.addAttribute("expiresIn", apiTokenService.getTimeoutMinutes() * 60 + "");
+		root.addText(apiTokenService.createToken(user));
+		writeXml(d, response);
+	}
+
 	public void itemGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
 		String refId = request.getParameter("refId");
 		Item item = null;
+		String etag = null;
 		try {
-			item = jtrac.loadItemByRefId(refId);
+			etag = jtrac.loadItemVersionTag(refId);
+			if (checkNotModified(request, response, etag)) {
+				return;
+			}
+			item = jtrac.loadItemWithHistoryByRefId(refId);
 		} catch (InvalidRefIdException e) {
 			// TODO
 		}
@@ -174,14 +236,143 @@ public class RestMultiActionController extends AbstractMultiActionController {
 			return;
 		}
 		Element e = item.getAsXml();
-		writeXml(e, response);
+		writeXml(e, response, etag);
 	}
 
+	/**
+	 * creates items and adds history entries from a streamed upload, see BulkRecordReader
+	 * for the format, records are stored in chunks with one transaction each and the
+	 * result for every record is streamed back as soon as its chunk is done
+	 * a single &lt;item&gt; gets the &lt;success&gt; response as before
+	 */
 	public void itemPut(HttpServletRequest request, HttpServletResponse response) throws Exception {
-		logger.debug(getContent(request));
-		Document d = XmlUtils.getNewDocument("success");
+		User user = (User) request.getAttribute("user");
+		BulkRecordReader reader;
+		try {
+			reader = new BulkRecordReader(request.getInputStream());
+		} catch (XMLStreamException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		if (!reader.isBulk()) {
+			List<BulkRecord> records;
+			try {
+				records = Collections.singletonList(reader.next());
+			} catch (XMLStreamException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+				return;
+			}
+			storeBulkRecords(user, records);
+			BulkRecord record = records.get(0);
+			Document d;
+			if (record.isSuccess()) {
+				d = XmlUtils.getNewDocument("success");
+				d.getRootElement().addElement("refId").addText(record.getRefId());
+			} else {
+				d = XmlUtils.getNewDocument("error");
+				d.getRootElement().addText(record.getError());
+				response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+			}
+			writeXml(d, response);
+			return;
+		}
+		initXmlResponse(response);
+		XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(response.getWriter());
+		writer.writeStartElement("results");
+		// created, updated, failed
+		int[] counts = new int[3];
+		List<BulkRecord> chunk = new ArrayList<BulkRecord>(BULK_CHUNK_SIZE);
+		try {
+			BulkRecord record;
+			do {
+				record = reader.next();
+				if (record != null) {
+					chunk.add(record);
+				}
+				if (chunk.size() == BULK_CHUNK_SIZE || (record == null && !chunk.isEmpty())) {
+					storeBulkRecords(user, chunk);
+					writeResults(writer, chunk, counts);
+					chunk.clear();
+				}
+			} while (record != null);
+		} catch (XMLStreamException e) {
+			// everything before the error has been stored and reported
+			writer.writeStartElement("error");
+			writer.writeCharacters(e.getMessage());
+			writer.writeEndElement();
+		}
+		writer.writeStartElement("summary");
+		writer.writeAttribute("created", counts[0] + "");
+		writer.writeAttribute("updated", counts[1] + "");
+		writer.writeAttribute("failed", counts[2] + "");
+		writer.writeEndElement();
+		writer.writeEndElement();
+		writer.close();
+	}
+
+	/**
+	 * the change log after the given "cursor", at most "max" entries in id order
+	 * the returned cursor is to be passed in on the next call, when no cursor is
+	 * given only the current position is returned so that a client can start
+	 * from "now" after its initial full query, changes are only returned once
+	 * they are a minute old, a change made in a transaction that takes longer
+	 * than that to commit can be missed, see JtracImpl.findItemChanges()
+	 */
+	public void itemChangesGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		User user = (User) request.getAttribute("user");
+		Document d = XmlUtils.getNewDocument("changes");
 		Element root = d.getRootElement();
-		root.addElement("refId").addText("FOOBAR-123");
+		String cursor = request.getParameter("cursor");
+		if (cursor == null) {
+			root.addAttribute("cursor", jtrac.loadLastItemChangeId() + "");
+			root.addAttribute("more", "false");
+			writeXml(d, response);
+			return;
+		}
+		int max = MAX_CHANGES;
+		long afterId;
+		try {
+			if (request.getParameter("max") != null) {
+				max = Math.max(1, Math.min(Integer.parseInt(request.getParameter("max")), MAX_CHANGES));
+			}
+			afterId = Long.parseLong(cursor);
+		} catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+			return;
+		}
+		// one extra to find out if there is another page without a count query
+		List<ItemChange> changes = jtrac.findItemChanges(user, afterId, max + 1);
+		boolean more = changes.size() > max;
+		if (more) {
+			changes = changes.subList(0, max);
+		}
+		Map<Long, String> prefixCodes = new HashMap<Long, String>();
+		for (Space space : user.getSpaces()) {
+			prefixCodes.put(space.getId(), space.getPrefixCode());
+		}
+		for (ItemChange change : changes) {
+			afterId = change.getId();
+			if (!prefixCodes.containsKey(change.getSpaceId())) {
+				// super user not allocated to this space, or the space has been deleted
+				Space space = jtrac.loadSpace(change.getSpaceId());
+				prefixCodes.put(change.getSpaceId(), space == null ? null : space.getPrefixCode());
+			}
+			String prefixCode = prefixCodes.get(change.getSpaceId());
+			if (prefixCode == null) {
+				continue;
+			}
+			Element e = root.addElement("change");
+			e.addAttribute("id", change.getId() + "");
+			e.addAttribute("type", change.getTypeName());
+			e.addAttribute("refId", prefixCode + "-" + change.getSequenceNum());
+			e.addAttribute("version", change.getVersion() + "");
+			if (change.getHistoryId() != null) {
+				e.addAttribute("historyId", change.getHistoryId() + "");
+			}
+			e.addAttribute("timeStamp", DateUtils.formatTimeStamp(change.getTimeStamp()));
+		}
+		root.addAttribute("cursor", afterId + "");
+		root.addAttribute("more", more + "");
 		writeXml(d, response);
 	}
 
@@ -207,7 +398,11 @@ public class RestMultiActionController extends AbstractMultiActionController {
 		User user = (User) request.getAttribute("user");
 		PageParameters params = new PageParameters(map);
 		ItemSearch itemSearch = ItemListPage.getItemSearch(jtrac, user, params);
-		initXmlResponse(response);
+		String etag = jtrac.loadItemSearchVersionTag(user, itemSearch);
+		if (checkNotModified(request, response, etag)) {
+			return;
+		}
+		initXmlResponse(response, etag);
 		jtrac.writeAsXml(itemSearch, response.getWriter());
 	}
 
@@ -222,4 +417,13 @@ public class RestMultiActionController extends AbstractMultiActionController {
 		jtrac.writeAsXml(response.getWriter());
 	}
 
+	public void metricsGet(HttpServletRequest request, HttpServletResponse response) throws Exception {
+		User user = (User) request.getAttribute("user");
+		if(!user.isSuperUser()) {
+			response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+			return;
+		}
+		writeXml(metrics.getAsXml(), response);
+	}
+
 }
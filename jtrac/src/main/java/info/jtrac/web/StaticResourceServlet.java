@@ -0,0 +1,273 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * serves the static files under /resources (images, CSS and the YUI scripts)
+ * from memory, with a pre-compressed gzip copy where that helps
+ *
+ * a file "foo.js.gz" next to "foo.js" is used as is, otherwise the gzip copy
+ * is created on first access, every file gets an ETag from its content hash
+ *
+ * a URL of the form "resources/v-{hash}/path" (see getUrl()) is cached by
+ * browsers and proxies for a year, when the hash no longer matches the file
+ * it is served with the normal "maxAge" like any other unversioned URL
+ */
+public class StaticResourceServlet extends HttpServlet {
+
+	private static final Logger logger = LoggerFactory.getLogger(StaticResourceServlet.class);
+
+	public static final String CONTEXT_ATTRIBUTE = StaticResourceServlet.class.getName();
+
+	private static final String BASE_PATH = "/resources/";
+	private static final String VERSION_PREFIX = "v-";
+	private static final long FAR_FUTURE_SECONDS = 365L * 24 * 60 * 60;
+	private static final int MIN_COMPRESS_SIZE = 256;
+
+	private static final Map<String, String> MIME_TYPES = new HashMap<String, String>();
+
+	static {
+		MIME_TYPES.put("js", "application/javascript");
+		MIME_TYPES.put("css", "text/css");
+		MIME_TYPES.put("html", "text/html");
+		MIME_TYPES.put("gif", "image/gif");
+		MIME_TYPES.put("png", "image/png");
+		MIME_TYPES.put("ico", "image/x-icon");
+	}
+
+	private final Map<String, StaticResource> cache = new ConcurrentHashMap<String, StaticResource>();
+	private int maxAge = 3600;
+
+	@Override
+	public void init() throws ServletException {
+		String temp = getInitParameter("maxAge");
+		if (temp != null) {
+			maxAge = Integer.parseInt(temp.trim());
+		}
+		getServletContext().setAttribute(CONTEXT_ATTRIBUTE, this);
+	}
+
+	@Override
+	public void destroy() {
+		getServletContext().removeAttribute(CONTEXT_ATTRIBUTE);
+		cache.clear();
+	}
+
+	public void setMaxAge(int maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * the context relative URL for a file under /resources, fingerprinted when
+	 * the servlet is deployed and the file exists, e.g. "yui/dom/dom-min.js"
+	 * becomes "resources/v-0123456789ab/yui/dom/dom-min.js"
+	 */
+	public static String getUrl(ServletContext servletContext, String path) {
+		StaticResourceServlet servlet = (StaticResourceServlet) servletContext.getAttribute(CONTEXT_ATTRIBUTE);
+		if (servlet != null) {
+			StaticResource resource = servlet.getResource(path);
+			if (resource != null) {
+				return BASE_PATH.substring(1) + VERSION_PREFIX + resource.fingerprint + "/" + path;
+			}
+		}
+		return BASE_PATH.substring(1) + path;
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		String path = request.getPathInfo();
+		if (path == null || path.length() < 2) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		path = path.substring(1);
+		String version = null;
+		if (path.startsWith(VERSION_PREFIX)) {
+			int pos = path.indexOf('/');
+			if (pos != -1) {
+				version = path.substring(VERSION_PREFIX.length(), pos);
+				path = path.substring(pos + 1);
+			}
+		}
+		StaticResource resource = getResource(path);
+		if (resource == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+		String etag = "\"" + resource.fingerprint + "\"";
+		response.setHeader("ETag", etag);
+		response.setDateHeader("Last-Modified", resource.lastModified);
+		if (resource.fingerprint.equals(version)) {
+			response.setHeader("Cache-Control", "public, max-age=" + FAR_FUTURE_SECONDS);
+			response.setDateHeader("Expires", System.currentTimeMillis() + FAR_FUTURE_SECONDS * 1000);
+		} else {
+			response.setHeader("Cache-Control", "public, max-age=" + maxAge);
+		}
+		if (resource.gzipped != null) {
+			response.setHeader("Vary", "Accept-Encoding");
+		}
+		if (isNotModified(request, etag, resource.lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		if (resource.contentType != null) {
+			response.setContentType(resource.contentType);
+		}
+		byte[] bytes = resource.bytes;
+		if (resource.gzipped != null && CompressionFilter.acceptsGzip(request)) {
+			response.setHeader("Content-Encoding", "gzip");
+			bytes = resource.gzipped;
+		}
+		response.setContentLength(bytes.length);
+		OutputStream os = response.getOutputStream();
+		os.write(bytes);
+		os.close();
+	}
+
+	private boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			return ifNoneMatch.equals("*") || ifNoneMatch.contains(etag);
+		}
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+		// HTTP dates have a resolution of one second
+		return ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000;
+	}
+
+	//==========================================================================
+
+	StaticResource getResource(String path) {
+		StaticResource resource = cache.get(path);
+		if (resource == null) {
+			if (path.contains("..") || path.contains("\\") || path.endsWith("/")) {
+				return null;
+			}
+			try {
+				resource = load(path);
+			} catch (IOException e) {
+				logger.warn("failed to load resource '" + path + "': " + e);
+				return null;
+			}
+			if (resource == null) {
+				return null;
+			}
+			// racing threads load the same bytes, last one wins
+			cache.put(path, resource);
+		}
+		return resource;
+	}
+
+	private StaticResource load(String path) throws IOException {
+		ServletContext servletContext = getServletContext();
+		URL url = servletContext.getResource(BASE_PATH + path);
+		if (url == null) {
+			return null;
+		}
+		StaticResource resource = new StaticResource();
+		resource.bytes = read(servletContext.getResourceAsStream(BASE_PATH + path));
+		if (resource.bytes == null) {
+			return null;
+		}
+		resource.fingerprint = DigestUtils.md5Hex(resource.bytes).substring(0, 12);
+		long lastModified = url.openConnection().getLastModified();
+		resource.lastModified = lastModified > 0 ? lastModified : System.currentTimeMillis();
+		resource.contentType = getContentType(path);
+		resource.gzipped = read(servletContext.getResourceAsStream(BASE_PATH + path + ".gz"));
+		if (resource.gzipped == null && resource.bytes.length >= MIN_COMPRESS_SIZE && isCompressible(resource.contentType)) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(resource.bytes.length / 2);
+			GZIPOutputStream gzip = new GZIPOutputStream(baos);
+			gzip.write(resource.bytes);
+			gzip.close();
+			if (baos.size() < resource.bytes.length) {
+				resource.gzipped = baos.toByteArray();
+			}
+		}
+		return resource;
+	}
+
+	private String getContentType(String path) {
+		String contentType = getServletContext().getMimeType(path);
+		if (contentType == null || contentType.equals("application/octet-stream")) {
+			int pos = path.lastIndexOf('.');
+			String extension = pos == -1 ? "" : path.substring(pos + 1).toLowerCase();
+			String temp = MIME_TYPES.get(extension);
+			if (temp != null) {
+				contentType = temp;
+			}
+		}
+		return contentType;
+	}
+
+	private boolean isCompressible(String contentType) {
+		return contentType != null && (contentType.startsWith("text/") || contentType.contains("javascript")
+				|| contentType.contains("xml") || contentType.contains("json"));
+	}
+
+	private byte[] read(InputStream is) throws IOException {
+		if (is == null) {
+			return null;
+		}
+		try {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int n;
+			while ((n = is.read(buffer)) != -1) {
+				baos.write(buffer, 0, n);
+			}
+			return baos.toByteArray();
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * everything needed to answer a request without touching the file again
+	 */
+	static class StaticResource {
+		byte[] bytes;
+		byte[] gzipped;
+		String fingerprint;
+		String contentType;
+		long lastModified;
+	}
+
+}
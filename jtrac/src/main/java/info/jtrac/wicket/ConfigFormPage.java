@@ -77,7 +77,13 @@ public class ConfigFormPage extends BasePage {
 
 		@Override
 		protected void onSubmit() {
-			getJtrac().storeConfig(new Config(param, value));
+			Config config = getJtrac().storeConfig(new Config(param, value));
+			if (config.isHistoryConfig()) {
+				// existing history is rewritten to match in the background
+				getJtrac().submitHistoryCompaction();
+				setResponsePage(new JobListPage());
+				return;
+			}
 			setResponsePage(new ConfigListPage(param));
 		}
 	}
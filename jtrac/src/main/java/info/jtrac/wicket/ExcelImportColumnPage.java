@@ -80,6 +80,7 @@ public class ExcelImportColumnPage extends BasePage {
 				List<ColumnHeading> list = ColumnHeading.getColumnHeadings(s);
 				list.remove(new ColumnHeading(Name.ID));
 				list.remove(new ColumnHeading(Name.SPACE));
+				list.remove(new ColumnHeading(Name.TAGS));
 				return list;
 			}
 		});
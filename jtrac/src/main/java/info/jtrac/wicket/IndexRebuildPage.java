@@ -16,7 +16,8 @@
 
 package info.jtrac.wicket;
 
-import info.jtrac.domain.BatchInfo;
+import info.jtrac.job.Job;
+import info.jtrac.job.JobStatus;
 import info.jtrac.service.Jtrac;
 
 import org.apache.wicket.ajax.AjaxSelfUpdatingTimerBehavior;
@@ -49,9 +50,8 @@ public class IndexRebuildPage extends BasePage {
      */    
     private class RebuildIndexesForm extends Form {
         
-        private BatchInfo batchInfo = new BatchInfo();
-        private String errorMessage;
-        private boolean complete;
+        // the job runs on the maintenance pool, only the id is kept in the session
+        private long jobId;
         
         public RebuildIndexesForm(String id) {
             
@@ -60,41 +60,46 @@ public class IndexRebuildPage extends BasePage {
             final Label progress = new Label("progress");
             progress.setOutputMarkupId(true);               
             
+            final Link stop = new Link("stop") {
+                public void onClick() {
+                    JtracApplication.get().getJobManager().cancel(jobId);
+                    setResponsePage(OptionsPage.class);
+                }
+            };
+            stop.setVisible(false);
+            
             Button button = new Button("start") {
                 @Override
                 public void onSubmit() {
                     // hide the button
                     this.setVisible(false);                                        
-                    // long running process, use thread
-                    new Thread() {   
+                    stop.setVisible(true);
+                    // long running process, hand over to the job manager
+                    JobStatus status = JtracApplication.get().getJobManager().submit("maintenance", new Job("index-rebuild") {
                         private transient Jtrac jtrac = getJtrac();
-                        public void run() {                            
-                            try {                                
-                                jtrac.rebuildIndexes(batchInfo);                                
-                            } catch (Exception e) { 
-                                logger.error("indexing error", e);
-                                errorMessage = e.getMessage();                                
-                            }
-                            complete = true;
-                        }                    
-                    }.start();
+                        public void run(JobStatus status) {
+                            jtrac.rebuildIndexes(status);
+                        }
+                    });
+                    jobId = status.getId();
                     
                     // poll and update the progress every 5 seconds
                     progress.add(new AjaxSelfUpdatingTimerBehavior(Duration.seconds(5)));
                     IModel model = new AbstractReadOnlyModel() {
                         public Object getObject() {
-                            if(complete) {
-                                if(errorMessage != null) {
-                                    setResponsePage(new ErrorPage(errorMessage));
-                                } else {
-                                    // reshow the page, with success message
-                                    setResponsePage(new IndexRebuildPage(true));
-                                }
+                            JobStatus status = JtracApplication.get().getJobManager().getStatus(jobId);
+                            if(status == null || status.getState() == JobStatus.State.CANCELLED) {
+                                setResponsePage(OptionsPage.class);
+                                return "";
+                            }
+                            if(status.getState() == JobStatus.State.FAILED) {
+                                setResponsePage(new ErrorPage(status.getMessage()));
+                            } else if(status.getState() == JobStatus.State.COMPLETED) {
+                                // reshow the page, with success message
+                                setResponsePage(new IndexRebuildPage(true));
                             }
-                            int total = batchInfo.getTotalSize();
-                            int current = batchInfo.getCurrentPosition();
-                            int percent = total == 0 ? 0 : 100 * current / total;
-                            return percent + "% [" + current + " / " + total + "]";
+                            return status.getPercentComplete() + "% [" + status.getCurrentPosition() 
+                                    + " / " + status.getTotalSize() + "]";
                         };
                     };
                     progress.setModel(model);             
@@ -111,6 +116,7 @@ public class IndexRebuildPage extends BasePage {
             });
 
             add(progress);            
+            add(stop);
         }
         
     }
@@ -29,6 +29,7 @@ import java.util.Map;
 import java.util.Set;
 
 import org.apache.wicket.PageParameters;
+import org.apache.wicket.markup.html.WebMarkupContainer;
 
 /**
  * item list page
@@ -42,12 +43,20 @@ public class ItemListPage extends BasePage {
 	}
 
 	public ItemListPage(ItemSearch itemSearch) {
+		// keep the session in step with paging and sorting
+		JtracSession.get().setItemSearch(itemSearch);
 		addComponents(itemSearch);
 	}
 
 	private void addComponents(ItemSearch itemSearch) {
 		add(new ItemListPanel("panel", itemSearch));
 		add(new ItemRelatePanel("relate", false, itemSearch));
+		// tags are per space, the archive is not counted
+		if (itemSearch.getSpace() != null && !itemSearch.isArchived()) {
+			add(new TagCloudPanel("tagCloud", itemSearch.getSpace()));
+		} else {
+			add(new WebMarkupContainer("tagCloud").setVisible(false));
+		}
 	}
 
 	public static ItemSearch getItemSearch(Jtrac jtrac, User user, PageParameters params) throws JtracSecurityException {
@@ -73,6 +82,7 @@ public class ItemListPage extends BasePage {
 	private static void setPagingRelatedParameters(ItemSearch itemSearch,
 			PageParameters params) {
 		itemSearch.setShowHistory(params.getBoolean("showHistory"));
+		itemSearch.setArchived(params.getBoolean("archived"));
 		itemSearch.setPageSize(params.getInt("pageSize", 25));
 		itemSearch.setSortDescending(!params.getBoolean("sortAscending"));
 		itemSearch.setSortFieldName(params.getString("sortFieldName", "id"));
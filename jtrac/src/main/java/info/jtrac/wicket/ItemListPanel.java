@@ -46,6 +46,7 @@ import org.apache.wicket.model.LoadableDetachableModel;
 import org.apache.wicket.model.Model;
 import org.apache.wicket.model.PropertyModel;
 import org.apache.wicket.protocol.http.WebResponse;
+import org.springframework.util.StringUtils;
 
 /**
  * item list panel
@@ -240,6 +241,8 @@ public class ItemListPanel extends BasePanel {
 						doSort(ch.getNameText());
 					}
 				};
+				// tags have no column to sort on
+				headingLink.setEnabled(ch.getName() != Name.TAGS);
 				listItem.add(headingLink);
 				String label = ch.isField() ? ch.getLabel() : localize("item_list." + ch.getName());
 				headingLink.add(new Label("heading", label));
@@ -341,6 +344,9 @@ public class ItemListPanel extends BasePanel {
 										value = new PropertyModel(item, "space.name");
 									}
 									break;
+								case TAGS:
+									value = new Model(StringUtils.collectionToDelimitedString(item.getTagNames(), " "));
+									break;
 								default:
 									throw new RuntimeException("Unexpected name: '" + ch.getName() + "'");
 							}
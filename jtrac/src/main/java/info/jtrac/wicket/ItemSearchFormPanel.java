@@ -96,6 +96,7 @@ public class ItemSearchFormPanel extends BasePanel {
 		});
 		form.add(pageSizeChoice);
 		form.add(new CheckBox("showHistory"));
+		form.add(new CheckBox("archived"));
 		form.add(new Button("search") {
 			@Override
 			public void onSubmit() {
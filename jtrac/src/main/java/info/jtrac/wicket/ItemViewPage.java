@@ -50,6 +50,10 @@ public class ItemViewPage extends BasePage {
 				?	getJtrac().loadItemByRefId(refId) // this in the form SPACE-123
 						:	getJtrac().loadItem(Long.parseLong(refId)) // internal id of type long
 				);
+		if (item == null && refId.indexOf('-') != -1) {
+			// closed items are moved to the archive after a while, see Space.archiveAfterDays
+			item = getJtrac().loadArchivedItemByRefId(refId);
+		}
 		setItem(item);
 		addComponents();
 	}
@@ -88,18 +92,20 @@ public class ItemViewPage extends BasePage {
 		boolean hasHistory = getItem().hasHistory();
 
 		// Edit: Also the owner of the item should change it.
-		boolean canBeEdited = (getItem().wasLoggedBy(user) && getJtrac().isItemEditAllowed() && !hasHistory)
+		// archived items are read only
+		boolean archived = getItem().isArchived();
+		boolean canBeEdited = !archived && ((getItem().wasLoggedBy(user) && getJtrac().isItemEditAllowed() && !hasHistory)
 				|| user.isSuperUser()
-				|| user.isAdminForSpace(getItem().getSpace().getId());
+				|| user.isAdminForSpace(getItem().getSpace().getId()));
 		add(new Link("edit") {
 			@Override
 			public void onClick() {
 				setResponsePage(new ItemFormPage(getItem().getId()));
 			}
 		}.setVisible(canBeEdited));
-		add(new ItemViewPanel("itemViewPanel", createItemModel(), isRelate || user.getId() == 0));
+		add(new ItemViewPanel("itemViewPanel", createItemModel(), isRelate || archived || user.getId() == 0));
 
-		if(user.isGuestForSpace(getItem().getSpace()) || isRelate) {
+		if(user.isGuestForSpace(getItem().getSpace()) || isRelate || archived) {
 			add(new WebMarkupContainer("itemViewFormPanel").setVisible(false));
 		} else {
 			add(new ItemViewFormPanel("itemViewFormPanel", getItem()));
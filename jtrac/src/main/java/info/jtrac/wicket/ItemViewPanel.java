@@ -23,31 +23,56 @@ import info.jtrac.domain.Item;
 import info.jtrac.domain.ItemItem;
 import info.jtrac.domain.ItemSearch;
 import info.jtrac.util.DateUtils;
+import info.jtrac.util.ValidationUtils;
+import info.jtrac.wicket.behavior.ErrorHighlighter;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.wicket.PageParameters;
+import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.behavior.SimpleAttributeModifier;
+import org.apache.wicket.extensions.ajax.markup.html.IndicatingAjaxLink;
 import org.apache.wicket.markup.html.WebMarkupContainer;
 import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.html.form.TextField;
+import org.apache.wicket.markup.html.link.BookmarkablePageLink;
 import org.apache.wicket.markup.html.link.Link;
 import org.apache.wicket.markup.html.list.ListItem;
 import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.AbstractReadOnlyModel;
 import org.apache.wicket.model.IModel;
 import org.apache.wicket.model.PropertyModel;
+import org.apache.wicket.validation.IValidatable;
+import org.apache.wicket.validation.validator.AbstractValidator;
 
 /**
  * This class is responsible the panel showing the item
  * read-only view.
  */
 public class ItemViewPanel extends BasePanel {
+
+	private static final int HISTORY_PAGE_SIZE = 25;
+
 	/**
 	 * Boolean flags to hide links.
 	 */
 	private boolean hideLinks;
 
+	/**
+	 * the history entries loaded so far, oldest first, always the newest ones
+	 * of the item, older pages are added to the front on request
+	 */
+	private final List<History> history = new ArrayList<History>();
+	private List<Field.Name> historyFieldNames;
+	private int historyCount;
+
 	/**
 	 * Constructor
 	 *
@@ -205,9 +230,46 @@ public class ItemViewPanel extends BasePanel {
 			}
 		});
 
-		final List<Field> editable = item.getSpace().getMetadata().getEditableFields();
+		// guests may look but not tag, same as for comments
+		final boolean hideTagLinks = hideLinks || getPrincipal().isGuestForSpace(item.getSpace());
+		add(new ListView("tags", item.getTagNames()) {
+			/* (non-Javadoc)
+			 * @see org.apache.wicket.markup.html.list.ListView#populateItem(org.apache.wicket.markup.html.list.ListItem)
+			 */
+			@Override
+			protected void populateItem(ListItem listItem) {
+				final String tagName = (String) listItem.getModelObject();
+				Link link = new BookmarkablePageLink("link", ItemListPage.class,
+						TagCloudPanel.getTagSearchParameters(item.getSpace(), tagName));
+				link.add(new Label("name", tagName));
+				link.setEnabled(!hideLinks);
+				listItem.add(link);
+				listItem.add(new Link("remove") {
+					@Override
+					public void onClick() {
+						getJtrac().removeItemTag(item, tagName);
+						setResponsePage(ItemViewPage.class, new PageParameters("0=" + item.getRefId()));
+					}
+				}.setVisible(!hideTagLinks));
+			}
+		});
+		add(new TagForm("tagForm", item).setVisible(!hideTagLinks));
 
-		add(new ListView("labels", editable) {
+		// custom field columns that are empty for the whole history are left out
+		List<Field> editable = item.getSpace().getMetadata().getEditableFields();
+		List<Field.Name> editableNames = new ArrayList<Field.Name>();
+		for (Field field : editable) {
+			editableNames.add(field.getName());
+		}
+		historyFieldNames = getJtrac().findFieldNamesUsedInHistory(item, editableNames);
+		final List<Field> columns = new ArrayList<Field>();
+		for (Field field : editable) {
+			if (historyFieldNames.contains(field.getName())) {
+				columns.add(field);
+			}
+		}
+
+		add(new ListView("labels", columns) {
 			/* (non-Javadoc)
 			 * @see org.apache.wicket.markup.html.list.ListView#populateItem(org.apache.wicket.markup.html.list.ListItem)
 			 */
@@ -218,42 +280,145 @@ public class ItemViewPanel extends BasePanel {
 			}
 		});
 
-		if (item.getHistory() != null) {
-			List<History> history = new ArrayList<History>(item.getHistory());
-			add(new ListView("history", history) {
-				/* (non-Javadoc)
-				 * @see org.apache.wicket.markup.html.list.ListView#populateItem(org.apache.wicket.markup.html.list.ListItem)
-				 */
-				@Override
-				protected void populateItem(ListItem listItem) {
-					if (listItem.getIndex() % 2 != 0) {
-						listItem.add(sam);
+		historyCount = getJtrac().loadCountOfHistoryForItem(item);
+		loadOlderHistory(item);
+
+		final WebMarkupContainer timeline = new WebMarkupContainer("timeline");
+		timeline.setOutputMarkupId(true);
+		add(timeline);
+
+		WebMarkupContainer older = new WebMarkupContainer("older") {
+			@Override
+			public boolean isVisible() {
+				return history.size() < historyCount;
+			}
+		};
+		WebMarkupContainer cell = new WebMarkupContainer("cell");
+		cell.add(new SimpleAttributeModifier("colspan", (5 + columns.size()) + ""));
+		older.add(cell);
+		IndicatingAjaxLink olderLink = new IndicatingAjaxLink("link") {
+			@Override
+			public void onClick(AjaxRequestTarget target) {
+				loadOlderHistory(item);
+				target.addComponent(timeline);
+			}
+		};
+		olderLink.add(new Label("label", new AbstractReadOnlyModel() {
+			@Override
+			public Object getObject() {
+				return localize("item_view.showOlder", Math.min(HISTORY_PAGE_SIZE, historyCount - history.size()));
+			}
+		}));
+		cell.add(olderLink);
+		timeline.add(older);
+
+		timeline.add(new ListView("history", history) {
+			/* (non-Javadoc)
+			 * @see org.apache.wicket.markup.html.list.ListView#populateItem(org.apache.wicket.markup.html.list.ListItem)
+			 */
+			@Override
+			protected void populateItem(ListItem listItem) {
+				if (listItem.getIndex() % 2 != 0) {
+					listItem.add(sam);
+				}
+
+				final History h = (History) listItem.getModelObject();
+				listItem.add(new Label("loggedBy", new PropertyModel(h, "loggedBy.name")));
+				listItem.add(new Label("status", new PropertyModel(h, "statusValue")));
+				listItem.add(new Label("assignedTo", new PropertyModel(h, "assignedTo.name")));
+
+				WebMarkupContainer comment = new WebMarkupContainer("comment");
+				comment.add(new AttachmentLinkPanel("attachment", h.getAttachment()));
+				comment.add(new Label("comment", Item.fixWhiteSpace(h.getComment())).setEscapeModelStrings(false));
+				listItem.add(comment);
+
+				listItem.add(new Label("timeStamp", DateUtils.formatTimeStamp(h.getTimeStamp())));
+				listItem.add(new ListView("fields", columns) {
+					/* (non-Javadoc)
+					 * @see org.apache.wicket.markup.html.list.ListView#populateItem(org.apache.wicket.markup.html.list.ListItem)
+					 */
+					@Override
+					protected void populateItem(ListItem listItem) {
+						Field field = (Field) listItem.getModelObject();
+						listItem.add(new Label("field", h.getCustomValue(field.getName())));
 					}
+				});
+			}
+		});
 
-					final History h = (History) listItem.getModelObject();
-					listItem.add(new Label("loggedBy", new PropertyModel(h, "loggedBy.name")));
-					listItem.add(new Label("status", new PropertyModel(h, "statusValue")));
-					listItem.add(new Label("assignedTo", new PropertyModel(h, "assignedTo.name")));
-
-					WebMarkupContainer comment = new WebMarkupContainer("comment");
-					comment.add(new AttachmentLinkPanel("attachment", h.getAttachment()));
-					comment.add(new Label("comment", Item.fixWhiteSpace(h.getComment())).setEscapeModelStrings(false));
-					listItem.add(comment);
-
-					listItem.add(new Label("timeStamp", DateUtils.formatTimeStamp(h.getTimeStamp())));
-					listItem.add(new ListView("fields", editable) {
-						/* (non-Javadoc)
-						 * @see org.apache.wicket.markup.html.list.ListView#populateItem(org.apache.wicket.markup.html.list.ListItem)
-						 */
-						@Override
-						protected void populateItem(ListItem listItem) {
-							Field field = (Field) listItem.getModelObject();
-							listItem.add(new Label("field", h.getCustomValue(field.getName())));
+	} // end method addComponents(Item)
+
+	/**
+	 * the page of history before the oldest entry loaded so far, by keyset
+	 * so the cost does not grow with the number of entries already shown
+	 */
+	private void loadOlderHistory(Item item) {
+		long beforeId = history.isEmpty() ? Long.MAX_VALUE : history.get(0).getId();
+		List<History> page = getJtrac().findHistoryForItem(item, beforeId, HISTORY_PAGE_SIZE, historyFieldNames);
+		Collections.reverse(page);
+		history.addAll(0, page);
+	}
+
+	/**
+	 * tag names as typed, separated by white space or commas, tags are
+	 * always lower case so "Ui" and "ui" do not end up as two tags
+	 */
+	private static Set<String> parseTagNames(String text) {
+		Set<String> tagNames = new LinkedHashSet<String>();
+		if (text != null) {
+			for (String s : text.trim().toLowerCase(Locale.ROOT).split("[\\s,]+")) {
+				if (s.length() > 0) {
+					tagNames.add(s);
+				}
+			}
+		}
+		return tagNames;
+	}
+
+	/**
+	 * wicket form, errors end up in the feedback panel of the item view form
+	 */
+	private class TagForm extends Form {
+
+		private final Item item;
+		private String tagNames;
+
+		public TagForm(String id, Item item) {
+			super(id);
+			this.item = item;
+			TextField field = new TextField("tagNames", new PropertyModel(this, "tagNames"));
+			field.setRequired(true);
+			field.add(new AbstractValidator() {
+				@Override
+				protected void onValidate(IValidatable v) {
+					for (String tagName : parseTagNames((String) v.getValue())) {
+						if (!ValidationUtils.isValidTagName(tagName)) {
+							error(v);
+							return;
 						}
-					});
+					}
+				}
+				@Override
+				protected String resourceKey() {
+					return "item_view.error.tagName";
 				}
 			});
+			field.add(new ErrorHighlighter());
+			add(field);
 		}
 
-	} // end method addComponents(Item)
+		public String getTagNames() {
+			return tagNames;
+		}
+
+		public void setTagNames(String tagNames) {
+			this.tagNames = tagNames;
+		}
+
+		@Override
+		protected void onSubmit() {
+			getJtrac().addItemTags(item, parseTagNames(tagNames));
+			setResponsePage(ItemViewPage.class, new PageParameters("0=" + item.getRefId()));
+		}
+	}
 }
\ No newline at end of file
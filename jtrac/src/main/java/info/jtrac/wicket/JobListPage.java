@@ -0,0 +1,101 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.wicket;
+
+import info.jtrac.job.JobManager;
+import info.jtrac.job.JobManager.PoolInfo;
+import info.jtrac.job.JobStatus;
+
+import org.apache.wicket.behavior.SimpleAttributeModifier;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.LoadableDetachableModel;
+
+/**
+ * background jobs admin option, shows the state of the thread pools
+ * and the most recent jobs, running or queued jobs can be cancelled
+ */
+public class JobListPage extends BasePage {
+
+    public JobListPage() {
+
+        setVersioned(false);
+
+        add(new Link("refresh") {
+            public void onClick() {
+                setResponsePage(new JobListPage());
+            }
+        });
+
+        final SimpleAttributeModifier sam = new SimpleAttributeModifier("class", "alt");
+
+        add(new ListView("pools", new LoadableDetachableModel() {
+            protected Object load() {
+                return getJobManager().getPools();
+            }
+        }) {
+            protected void populateItem(ListItem listItem) {
+                PoolInfo pool = (PoolInfo) listItem.getModelObject();
+                if(listItem.getIndex() % 2 == 1) {
+                    listItem.add(sam);
+                }
+                listItem.add(new Label("name", pool.getName()));
+                listItem.add(new Label("poolSize", pool.getPoolSize() + ""));
+                listItem.add(new Label("activeCount", pool.getActiveCount() + ""));
+                listItem.add(new Label("queueSize", pool.getQueueSize() + ""));
+                listItem.add(new Label("remainingCapacity", pool.getRemainingCapacity() + ""));
+                listItem.add(new Label("completedCount", pool.getCompletedCount() + ""));
+            }
+        });
+
+        add(new ListView("jobs", new LoadableDetachableModel() {
+            protected Object load() {
+                return getJobManager().getJobs();
+            }
+        }) {
+            protected void populateItem(ListItem listItem) {
+                final JobStatus status = (JobStatus) listItem.getModelObject();
+                if(listItem.getIndex() % 2 == 1) {
+                    listItem.add(sam);
+                }
+                listItem.add(new Label("id", status.getId() + ""));
+                listItem.add(new Label("name", status.getName()));
+                listItem.add(new Label("pool", status.getPool()));
+                listItem.add(new Label("submitted", status.getSubmitted().toString()));
+                listItem.add(new Label("state", status.getState().toString()));
+                listItem.add(new Label("progress", status.getPercentComplete() + "%"));
+                listItem.add(new Label("duration", status.getDuration() + ""));
+                listItem.add(new Label("message", status.getMessage() == null ? "" : status.getMessage()));
+                final long id = status.getId();
+                listItem.add(new Link("cancel") {
+                    public void onClick() {
+                        getJobManager().cancel(id);
+                        setResponsePage(new JobListPage());
+                    }
+                }.setVisible(!status.isDone() && !status.isCancelled()));
+            }
+        });
+
+    }
+
+    private static JobManager getJobManager() {
+        return JtracApplication.get().getJobManager();
+    }
+
+}
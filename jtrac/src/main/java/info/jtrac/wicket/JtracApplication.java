@@ -20,6 +20,8 @@ import info.jtrac.acegi.JtracCasProxyTicketValidator;
 import info.jtrac.domain.Role;
 import info.jtrac.domain.Space;
 import info.jtrac.domain.User;
+import info.jtrac.job.JobManager;
+import info.jtrac.metrics.Metrics;
 import info.jtrac.service.Jtrac;
 import info.jtrac.util.WebUtils;
 import info.jtrac.wicket.devmode.DebugHttpSessionStore;
@@ -73,6 +75,8 @@ public class JtracApplication extends WebApplication {
 	private final static Logger logger = LoggerFactory.getLogger(JtracApplication.class);
 
 	private Jtrac jtrac;
+	private Metrics metrics;
+	private JobManager jobManager;
 	private ApplicationContext applicationContext;
 	private JtracCasProxyTicketValidator jtracCasProxyTicketValidator;
 
@@ -80,6 +84,14 @@ public class JtracApplication extends WebApplication {
 		return jtrac;
 	}
 
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	public JobManager getJobManager() {
+		return jobManager;
+	}
+
 	public ApplicationContext getApplicationContext() {
 		return applicationContext;
 	}
@@ -133,6 +145,8 @@ public class JtracApplication extends WebApplication {
 		applicationContext = WebApplicationContextUtils
 				.getWebApplicationContext(sc);
 		jtrac = (Jtrac) applicationContext.getBean("jtrac");
+		metrics = (Metrics) applicationContext.getBean("metrics");
+		jobManager = (JobManager) applicationContext.getBean("jobManager");
 
 		/*
 		 * Check if acegi-cas authentication is being used, get reference to
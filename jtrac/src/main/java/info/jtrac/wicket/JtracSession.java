@@ -20,6 +20,7 @@ import info.jtrac.domain.ItemSearch;
 import info.jtrac.domain.Space;
 import info.jtrac.domain.User;
 import info.jtrac.service.Jtrac;
+import info.jtrac.service.JtracSecurityException;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -28,6 +29,11 @@ import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.wicket.PageParameters;
 import org.apache.wicket.protocol.http.servlet.ServletWebRequest;
 import org.springframework.util.StringUtils;
 import org.apache.wicket.Request;
@@ -39,14 +45,26 @@ import org.slf4j.LoggerFactory;
 
 /**
  * custom wicket session for JTrac
+ *
+ * wicket keeps the session in the HttpSession and serializes it for
+ * replication and passivation, so only ids and a compact description of
+ * the current search are kept here, the user (with its spaces and metadata),
+ * the current space and the item search are resolved when first needed
+ * and held in transient fields, the item search is dropped at the end of
+ * every request because it can hold large lists of users and spaces
  */
 public class JtracSession extends WebSession {   
     
     private static final Logger logger = LoggerFactory.getLogger(JtracSession.class);   
     
-    private User user;
-    private Space currentSpace;
-    private ItemSearch itemSearch;
+    private long userId;
+    private String loginName;
+    private long currentSpaceId;
+    private SearchSpec searchSpec;
+    
+    private transient User user;
+    private transient Space currentSpace;
+    private transient ItemSearch itemSearch;
     
     public static JtracSession get() {        
         Session session = Session.get();
@@ -69,9 +87,10 @@ public class JtracSession extends WebSession {
                 Object oldSession = oi.readObject();                
                 JtracSession oldJtracSession = (JtracSession) oldSession;                
                 JtracSession newJtracSession = JtracApplication.get().newSession(RequestCycle.get().getRequest(), null);                
-                newJtracSession.setCurrentSpace(oldJtracSession.getCurrentSpace());
-                newJtracSession.setUser(oldJtracSession.getUser());
-                newJtracSession.setItemSearch(oldJtracSession.getItemSearch());
+                newJtracSession.userId = oldJtracSession.userId;
+                newJtracSession.loginName = oldJtracSession.loginName;
+                newJtracSession.currentSpaceId = oldJtracSession.currentSpaceId;
+                newJtracSession.searchSpec = oldJtracSession.searchSpec;
                 Session.set(newJtracSession);                 
                 return newJtracSession;
             } catch(Exception e) {
@@ -90,6 +109,8 @@ public class JtracSession extends WebSession {
     
     public void setUser(User user) {
         this.user = user;
+        this.userId = user.getId();
+        this.loginName = user.getLoginName();
         if (user.getLocale() == null) {
             // for downward compatibility, may be null in old JTrac versions
             user.setLocale(JtracApplication.get().getJtrac().getDefaultLocale());
@@ -98,6 +119,7 @@ public class JtracSession extends WebSession {
         if (!getLocale().getDisplayName().equals(user.getLocale())) {
             setLocale(StringUtils.parseLocaleString(user.getLocale()));
         }
+        dirty();
     }
     
     private Jtrac getJtrac() {
@@ -107,44 +129,130 @@ public class JtracSession extends WebSession {
     /* reload user details from database */
     public void refreshPrincipal() {
         // who knows, loginName could have changed, use id to get latest
-        User temp = getJtrac().loadUser(getUser().getId());        
-        // loadUserByUsername forces hibernate eager load
-        // TODO make this suck less
+        User temp = getJtrac().loadUser(userId);        
+        // loadUserByUsername returns the fully loaded principal, shared with
+        // other sessions and only reloaded after users, roles or spaces changed
         setUser((User) getJtrac().loadUserByUsername(temp.getLoginName())); 
     }
     
     /* only reload if passed in user is same as session user */
     public void refreshPrincipalIfSameAs(User temp) {
-        if(user.getId() == temp.getId()) {
+        if(userId == temp.getId()) {
             refreshPrincipal();
         }
     }
     
     public User getUser() {
+        if (user == null && loginName != null) {
+            // session was deserialized, e.g. after a restart or fail over
+            logger.debug("resolving session user: " + loginName);
+            user = (User) getJtrac().loadUserByUsername(loginName);
+        }
         return user;
     }
     
     public boolean isAuthenticated() {
-        return user != null;
+        return loginName != null;
     }
 
     public Space getCurrentSpace() {
+        if (currentSpace == null && currentSpaceId > 0) {
+            currentSpace = resolveSpace(currentSpaceId);
+        }
         return currentSpace;
     }
 
     public void setCurrentSpace(Space currentSpace) {
         this.currentSpace = currentSpace;
+        this.currentSpaceId = currentSpace == null ? 0 : currentSpace.getId();
+        dirty();
     }    
 
+    /**
+     * the user already holds the spaces it is allocated to (with metadata),
+     * reuse those instead of loading the space again
+     */
+    private Space resolveSpace(long spaceId) {
+        User u = getUser();
+        if (u != null) {
+            for (Space space : u.getSpaces()) {
+                if (space != null && space.getId() == spaceId) {
+                    return space;
+                }
+            }
+        }
+        return getJtrac().loadSpace(spaceId);
+    }
+
     public ItemSearch getItemSearch() {
+        if (itemSearch == null && searchSpec != null) {
+            itemSearch = searchSpec.toItemSearch(getJtrac(), getUser());
+            if (itemSearch == null) {
+                searchSpec = null;
+            }
+        }
         return itemSearch;
     }
 
     public void setItemSearch(ItemSearch itemSearch) {
         if(itemSearch != null) {
-            this.currentSpace = itemSearch.getSpace();
+            setCurrentSpace(itemSearch.getSpace());
         }        
         this.itemSearch = itemSearch;
+        this.searchSpec = itemSearch == null ? null : new SearchSpec(itemSearch);
+        dirty();
+    }
+    
+    @Override
+    protected void detach() {
+        super.detach();
+        if (itemSearch != null) {
+            // pick up changes made during the request, e.g. paging
+            searchSpec = new SearchSpec(itemSearch);
+            itemSearch = null;
+        }
+    }
+    
+    /**
+     * the item search reduced to the query string that is also used for
+     * bookmarkable item list urls, plus the paging state, a version is
+     * recorded so that a spec written by an older release is simply dropped
+     */
+    static class SearchSpec implements Serializable {
+        
+        private static final int CURRENT_VERSION = 1;
+        
+        private final int version = CURRENT_VERSION;
+        private final HashMap<String, String> params;
+        private final int currentPage;
+        private final long selectedItemId;
+        
+        SearchSpec(ItemSearch itemSearch) {
+            this.params = new HashMap<String, String>(Processor.getAsQueryString(itemSearch));
+            this.currentPage = itemSearch.getCurrentPage();
+            this.selectedItemId = itemSearch.getSelectedItemId();
+        }
+        
+        Map<String, String> getParams() {
+            return params;
+        }
+        
+        ItemSearch toItemSearch(Jtrac jtrac, User user) {
+            if (version != CURRENT_VERSION || user == null) {
+                return null;
+            }
+            try {
+                ItemSearch itemSearch = ItemListPage.getItemSearch(jtrac, user, new PageParameters(params));
+                itemSearch.setCurrentPage(currentPage);
+                itemSearch.setSelectedItemId(selectedItemId);
+                return itemSearch;
+            } catch (JtracSecurityException e) {
+                // e.g. the user has since been removed from the space
+                logger.debug("stored search no longer valid: " + e.getMessage());
+                return null;
+            }
+        }
+        
     }
     
 }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package info.jtrac.wicket;
+
+import info.jtrac.metrics.Histogram;
+import info.jtrac.metrics.Metrics;
+
+import java.util.List;
+
+import org.apache.wicket.behavior.SimpleAttributeModifier;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.hibernate.stat.Statistics;
+
+/**
+ * runtime metrics admin option, shows request and service method timings,
+ * statements and entities per request and suspected N+1 query patterns
+ */
+public class MetricsPage extends BasePage {
+
+    public MetricsPage() {
+
+        setVersioned(false);
+
+        final Metrics metrics = JtracApplication.get().getMetrics();
+
+        add(new Label("since", metrics.getResetTime().toString()));
+
+        add(new Link("reset") {
+            public void onClick() {
+                metrics.reset();
+                setResponsePage(new MetricsPage());
+            }
+        });
+
+        final SimpleAttributeModifier sam = new SimpleAttributeModifier("class", "alt");
+
+        add(new ListView("requests", new LoadableDetachableModel() {
+            protected Object load() {
+                return metrics.getRequests();
+            }
+        }) {
+            protected void populateItem(ListItem listItem) {
+                Histogram h = (Histogram) listItem.getModelObject();
+                if(listItem.getIndex() % 2 == 1) {
+                    listItem.add(sam);
+                }
+                addHistogram(listItem, h);
+                Histogram statements = metrics.getStatements(h.getName());
+                listItem.add(new Label("statementsMean", statements == null ? "" : statements.getMean() + ""));
+                listItem.add(new Label("statementsMax", statements == null ? "" : statements.getMax() + ""));
+                Histogram entities = metrics.getEntities(h.getName());
+                listItem.add(new Label("entitiesMean", entities == null ? "" : entities.getMean() + ""));
+                listItem.add(new Label("entitiesMax", entities == null ? "" : entities.getMax() + ""));
+            }
+        });
+
+        add(new ListView("timers", new LoadableDetachableModel() {
+            protected Object load() {
+                return metrics.getTimers();
+            }
+        }) {
+            protected void populateItem(ListItem listItem) {
+                if(listItem.getIndex() % 2 == 1) {
+                    listItem.add(sam);
+                }
+                addHistogram(listItem, (Histogram) listItem.getModelObject());
+            }
+        });
+
+        List<Metrics.Suspect> suspects = metrics.getSuspects();
+        WebMarkupContainer suspectsContainer = new WebMarkupContainer("suspectsContainer");
+        add(suspectsContainer.setVisible(suspects.size() > 0));
+        suspectsContainer.add(new ListView("suspects", new LoadableDetachableModel() {
+            protected Object load() {
+                return metrics.getSuspects();
+            }
+        }) {
+            protected void populateItem(ListItem listItem) {
+                Metrics.Suspect s = (Metrics.Suspect) listItem.getModelObject();
+                if(listItem.getIndex() % 2 == 1) {
+                    listItem.add(sam);
+                }
+                listItem.add(new Label("request", s.getRequestName()));
+                listItem.add(new Label("maxRepeats", s.getMaxRepeats() + ""));
+                listItem.add(new Label("occurrences", s.getOccurrences() + ""));
+                listItem.add(new Label("sql", s.getSql()));
+            }
+        });
+
+        Statistics statistics = metrics.getHibernateStatistics();
+        boolean statisticsEnabled = statistics != null && statistics.isStatisticsEnabled();
+        WebMarkupContainer hibernate = new WebMarkupContainer("hibernate");
+        add(hibernate.setVisible(statisticsEnabled));
+        hibernate.add(new Label("queries", statisticsEnabled ? statistics.getQueryExecutionCount() + "" : ""));
+        hibernate.add(new Label("queryMax", statisticsEnabled ? statistics.getQueryExecutionMaxTime() + "" : ""));
+        hibernate.add(new Label("statementsPrepared", statisticsEnabled ? statistics.getPrepareStatementCount() + "" : ""));
+        hibernate.add(new Label("entitiesLoaded", statisticsEnabled ? statistics.getEntityLoadCount() + "" : ""));
+        hibernate.add(new Label("entitiesUpdated", statisticsEnabled ? statistics.getEntityUpdateCount() + "" : ""));
+        hibernate.add(new Label("collectionsLoaded", statisticsEnabled ? statistics.getCollectionLoadCount() + "" : ""));
+        hibernate.add(new Label("flushes", statisticsEnabled ? statistics.getFlushCount() + "" : ""));
+        hibernate.add(new Label("transactions", statisticsEnabled ? statistics.getTransactionCount() + "" : ""));
+
+    }
+
+    private void addHistogram(ListItem listItem, Histogram h) {
+        listItem.add(new Label("name", h.getName()));
+        listItem.add(new Label("count", h.getCount() + ""));
+        listItem.add(new Label("mean", h.getMean() + ""));
+        listItem.add(new Label("p95", h.getPercentile(95) + ""));
+        listItem.add(new Label("max", h.getMax() + ""));
+        listItem.add(new Label("total", h.getTotal() + ""));
+    }
+
+}
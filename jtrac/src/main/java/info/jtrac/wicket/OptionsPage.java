@@ -65,6 +65,18 @@ public class OptionsPage extends BasePage {
             }            
         }.setVisible(isSuperUser));        
         
+        add(new Link("metrics") {
+            public void onClick() {
+                setResponsePage(new MetricsPage());
+            }            
+        }.setVisible(isSuperUser));        
+        
+        add(new Link("jobs") {
+            public void onClick() {
+                setResponsePage(new JobListPage());
+            }            
+        }.setVisible(isSuperUser));        
+        
         // for the future
         add(new Link("import") {
             public void onClick() {
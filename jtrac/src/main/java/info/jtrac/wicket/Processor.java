@@ -340,6 +340,38 @@ public abstract class Processor implements Serializable {
 						}
 					};
 					//==============================================================
+				case TAGS:
+					return new Processor() {
+						@Override
+						public List<Expression> getValidFilterExpressions() {
+							return columnHeading.getAsList(IN, ALL);
+						}
+						@Override
+						public Fragment getFilterUiFragment(MarkupContainer container,
+								User user, Space space, Jtrac jtrac) {
+							Fragment fragment = new Fragment("fragParent", "multiSelect", container);
+							// tags selectable only when context space is not null
+							List<String> tagNames = new ArrayList<>(jtrac.loadTagCloud(space.getId(), 0).keySet());
+							JtracCheckBoxMultipleChoice choice = new JtracCheckBoxMultipleChoice("values", tagNames, new IChoiceRenderer() {
+								@Override
+								public Object getDisplayValue(Object o) {
+									return o;
+								}
+								@Override
+								public String getIdValue(Object o, int i) {
+									return o.toString();
+								}
+							});
+							fragment.add(choice);
+							choice.setModel(new PropertyModel(columnHeading.getFilterCriteria(), "values"));
+							return fragment;
+						}
+						@Override
+						public String getAsQueryString() {
+							return columnHeading.getQueryStringFromValueList();
+						}
+					};
+					//==============================================================
 				default:
 					throw new RuntimeException("Unknown Column Heading " + columnHeading.getName());
 			}
@@ -364,6 +396,9 @@ public abstract class Processor implements Serializable {
 		if (itemSearch.isShowHistory()) {
 			map.put("showHistory", "true");
 		}
+		if (itemSearch.isArchived()) {
+			map.put("archived", "true");
+		}
 		if (itemSearch.getPageSize() != 25) {
 			map.put("pageSize", itemSearch.getPageSize() + "");
 		}
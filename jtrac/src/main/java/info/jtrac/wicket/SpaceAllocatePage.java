@@ -21,28 +21,34 @@ import info.jtrac.domain.Space;
 import info.jtrac.domain.User;
 import info.jtrac.domain.UserSpaceRole;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import org.apache.wicket.Response;
 import org.apache.wicket.ajax.AjaxRequestTarget;
 import org.apache.wicket.ajax.form.AjaxFormComponentUpdatingBehavior;
 import org.apache.wicket.behavior.SimpleAttributeModifier;
+import org.apache.wicket.extensions.ajax.markup.html.autocomplete.AbstractAutoCompleteRenderer;
+import org.apache.wicket.extensions.ajax.markup.html.autocomplete.AutoCompleteTextField;
 import org.apache.wicket.markup.html.WebPage;
 import org.apache.wicket.markup.html.basic.Label;
 import org.apache.wicket.markup.html.form.Button;
-import org.apache.wicket.markup.html.form.DropDownChoice;
 import org.apache.wicket.markup.html.form.Form;
-import org.apache.wicket.markup.html.form.IChoiceRenderer;
 import org.apache.wicket.markup.html.link.Link;
 import org.apache.wicket.markup.html.list.ListItem;
 import org.apache.wicket.markup.html.list.ListView;
 import org.apache.wicket.model.BoundCompoundPropertyModel;
 import org.apache.wicket.model.PropertyModel;
+import org.apache.wicket.util.string.Strings;
 
 /**
  * space allocate page
  */
 public class SpaceAllocatePage extends BasePage {
     
+    private static final int MAX_USER_CHOICES = 10;
+    
     private WebPage previous;
     private long spaceId;
     private long selectedUserId;
@@ -79,6 +85,7 @@ public class SpaceAllocatePage extends BasePage {
                 
         private Space space;
         private User user;        
+        private String loginName;
                              
         private RoleAllocatePanel roleAllocatePanel;
         private Button allocateButton;  
@@ -152,31 +159,40 @@ public class SpaceAllocatePage extends BasePage {
                 }
             });
             
-            List<User> users = getJtrac().findUsersNotFullyAllocatedToSpace(spaceId);                      
+            if(user != null) {
+                loginName = user.getLoginName();
+            }
             
-            DropDownChoice userChoice = new DropDownChoice("user", users, new IChoiceRenderer() {
-                public Object getDisplayValue(Object o) {
+            // users are looked up as the login name or name is typed instead of
+            // listing every user not yet fully allocated in a drop down
+            AutoCompleteTextField userField = new AutoCompleteTextField("user", new PropertyModel(this, "loginName"), new AbstractAutoCompleteRenderer() {
+                protected void renderChoice(Object o, Response response, String criteria) {
                     User u = (User) o;
-                    return u.getName() + " (" + u.getLoginName() + ")";
+                    response.write(Strings.escapeMarkup(u.getName() + " (" + u.getLoginName() + ")"));
                 }
-                public String getIdValue(Object o, int i) {
-                    return ((User) o).getId() + "";
+                protected String getTextValue(Object o) {
+                    return ((User) o).getLoginName();
                 }
-            });
-            userChoice.setNullValid(true);
+            }) {
+                protected Iterator getChoices(String input) {
+                    if(Strings.isEmpty(input)) {
+                        return Collections.EMPTY_LIST.iterator();
+                    }
+                    return getJtrac().findUsersNotFullyAllocatedToSpace(spaceId, input, MAX_USER_CHOICES).iterator();
+                }
+            };
 
-            add(userChoice);
+            add(userField);
                         
-            userChoice.add(new AjaxFormComponentUpdatingBehavior("onChange") {
+            userField.add(new AjaxFormComponentUpdatingBehavior("onchange") {
                 protected void onUpdate(AjaxRequestTarget target) {
-                    User u = (User) getFormComponent().getConvertedInput();
-                    if (u == null) {              
+                    user = loginName == null ? null : getJtrac().loadUser(loginName);
+                    if (user == null) {              
                         roleAllocatePanel.setChoices(new ArrayList<String>());
                         allocateButton.setEnabled(false);
                     } else {
-                        User temp = getJtrac().loadUser(u.getId());
                         // populate choice, enable button etc
-                        initRoleChoice(temp);
+                        initRoleChoice(user);
                     }
                     target.addComponent(roleAllocatePanel);
                     target.addComponent(allocateButton);
@@ -191,16 +207,16 @@ public class SpaceAllocatePage extends BasePage {
                 @Override
                 public void onSubmit() {    
                     List<String> roleKeys = roleAllocatePanel.getSelected();
-                    if(user == null || roleKeys.size() == 0) {
+                    // avoid lazy init problem, and the text may have been typed without choosing
+                    User temp = loginName == null ? null : getJtrac().loadUser(loginName);
+                    if(temp == null || roleKeys.size() == 0) {
                         return;
                     }
-                    // avoid lazy init problem
-                    User temp = getJtrac().loadUser(user.getId());
                     for(String roleKey : roleKeys) {
                         getJtrac().storeUserSpaceRole(temp, space, roleKey);
                     }                                         
                     JtracSession.get().refreshPrincipalIfSameAs(temp);
-                    setResponsePage(new SpaceAllocatePage(spaceId, previous, user.getId()));
+                    setResponsePage(new SpaceAllocatePage(spaceId, previous, temp.getId()));
                 }
             };
             
@@ -208,11 +224,6 @@ public class SpaceAllocatePage extends BasePage {
             allocateButton.setEnabled(false);
             add(allocateButton);    
             
-            if(users.size() == 1) {
-                // pre select the user for convenience
-                user = users.get(0);                
-            }              
-            
             if(user != null) {
                 initRoleChoice(user);
             }
@@ -16,6 +16,7 @@
 
 package info.jtrac.wicket;
 
+import info.jtrac.domain.BulkOperation;
 import info.jtrac.domain.Field;
 import info.jtrac.domain.Space;
 import info.jtrac.wicket.behavior.ErrorHighlighter;
@@ -121,7 +122,8 @@ public class SpaceFieldFormPage extends BasePage {
 						public void onConfirm() {
 							// database will be updated, if we don't do this
 							// user may leave without committing metadata change
-							getJtrac().bulkUpdateFieldToNull(space, field);
+							// items are cleared in the background, chunk by chunk
+							getJtrac().submitBulkOperation(BulkOperation.fieldToNull(space, field));
 							space.getMetadata().removeField(field.getName().getText());
 							space = getJtrac().storeSpace(space);
 							// synchronize metadata version or else if we save again we get Stale Object Exception
@@ -246,7 +248,7 @@ public class SpaceFieldFormPage extends BasePage {
 					@Override
 					public void onSubmit() {
 						if(option != null) {
-							field.addOption(option);
+							addOption();
 						}
 						setResponsePage(new SpaceFieldFormPage(space, field, previous));
 					}
@@ -260,7 +262,7 @@ public class SpaceFieldFormPage extends BasePage {
 				@Override
 				public void onSubmit() {
 					if(option != null) {
-						field.addOption(option);
+						addOption();
 					}
 					// may be clone, overwrite anyway
 					space.getMetadata().add(field);
@@ -282,6 +284,14 @@ public class SpaceFieldFormPage extends BasePage {
 			super.validate();
 		}
 
+		/**
+		 * keys still being cleared by a pending bulk operation are skipped
+		 */
+		private void addOption() {
+			List<BulkOperation> pending = getJtrac().findPendingBulkOperations(space);
+			field.addOption(option, BulkOperation.getOptionKeys(pending, field.getName()));
+		}
+
 	}
 
 }
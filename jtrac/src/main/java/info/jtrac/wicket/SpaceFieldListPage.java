@@ -16,6 +16,7 @@
 
 package info.jtrac.wicket;
 
+import info.jtrac.domain.BulkOperation;
 import info.jtrac.domain.Field;
 import info.jtrac.domain.Space;
 
@@ -23,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.wicket.behavior.SimpleAttributeModifier;
 import org.apache.wicket.markup.html.WebPage;
@@ -152,7 +154,9 @@ public class SpaceFieldListPage extends BasePage {
 			};
 			add(listView);
 
-			final Map<String, String> types = space.getMetadata().getAvailableFieldTypes();
+			// columns still being cleared by a pending bulk operation are not offered
+			final Set<Field.Name> reserved = BulkOperation.getFieldNames(getJtrac().findPendingBulkOperations(space));
+			final Map<String, String> types = space.getMetadata().getAvailableFieldTypes(reserved);
 			List<String> typesList = new ArrayList<String>(types.keySet());
 			// pre-select the drop down for convenience
 			if(typesList.size() > 0) {
@@ -178,7 +182,7 @@ public class SpaceFieldListPage extends BasePage {
 					if(type == null) {
 						return;
 					}
-					Field field = space.getMetadata().getNextAvailableField(Integer.parseInt(type));
+					Field field = space.getMetadata().getNextAvailableField(Integer.parseInt(type), reserved);
 					field.initOptions();
 					setResponsePage(new SpaceFieldFormPage(space, field, previous));
 				}
@@ -16,6 +16,7 @@
 
 package info.jtrac.wicket;
 
+import info.jtrac.domain.BulkOperation;
 import info.jtrac.domain.Field;
 import info.jtrac.domain.Space;
 import info.jtrac.wicket.behavior.ErrorHighlighter;
@@ -88,9 +89,10 @@ public class SpaceFieldOptionPage extends BasePage {
 							@Override
 							public void onConfirm() {
 								field.getOptions().remove(key);
-								getJtrac().bulkUpdateFieldToNullForValue(space, field, Integer.parseInt(key));
-								// database has been updated, if we don't do this
-								// user may leave without committing metadata change
+								// items are cleared in the background, chunk by chunk
+								getJtrac().submitBulkOperation(BulkOperation.fieldValueToNull(space, field, Integer.parseInt(key)));
+								// the key stays reserved until the items are cleared, if we
+								// don't do this user may leave without committing metadata change
 								space = getJtrac().storeSpace(space);
 								// synchronize metadata else when we save again we get Stale Object Exception
 								space.setMetadata(getJtrac().loadMetadata(space.getMetadata().getId()));
@@ -16,6 +16,7 @@
 
 package info.jtrac.wicket;
 
+import info.jtrac.domain.BulkOperation;
 import info.jtrac.domain.Space;
 import info.jtrac.util.ValidationUtils;
 import info.jtrac.wicket.behavior.ErrorHighlighter;
@@ -39,6 +40,7 @@ import org.apache.wicket.markup.html.panel.FeedbackPanel;
 import org.apache.wicket.model.BoundCompoundPropertyModel;
 import org.apache.wicket.validation.IValidatable;
 import org.apache.wicket.validation.validator.AbstractValidator;
+import org.apache.wicket.validation.validator.NumberValidator;
 
 /**
  * space edit form
@@ -108,10 +110,10 @@ public class SpaceFormPage extends BasePage {
 					ConfirmPage confirm = new ConfirmPage(SpaceFormPage.this, heading, warning, new String[] {line1, line2}) {
 						@Override
 						public void onConfirm() {
-							getJtrac().removeSpace(space);
-							// logged in user may have been allocated to this space
-							JtracSession.get().refreshPrincipal();
-							setResponsePage(new SpaceListPage());
+							// items are deleted in the background, the space itself once
+							// the last chunk is done, progress is shown on the jobs page
+							getJtrac().submitBulkOperation(BulkOperation.removeSpace(space));
+							setResponsePage(new JobListPage());
 						}
 					};
 					setResponsePage(confirm);
@@ -199,6 +201,11 @@ public class SpaceFormPage extends BasePage {
 					add(new TextArea("space.description"));
 					// guest allowed ===================================================
 					add(new CheckBox("space.guestAllowed"));
+					// archive period, empty means items are never archived =========
+					TextField archiveAfterDays = new TextField("space.archiveAfterDays", Integer.class);
+					archiveAfterDays.add(NumberValidator.minimum(1));
+					archiveAfterDays.add(new ErrorHighlighter());
+					add(archiveAfterDays);
 					// hide copy from option if edit ===================================
 					WebMarkupContainer hide = new WebMarkupContainer("hide");
 					if(space.getId() > 0) {
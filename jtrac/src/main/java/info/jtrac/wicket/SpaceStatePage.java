@@ -16,6 +16,7 @@
 
 package info.jtrac.wicket;
 
+import info.jtrac.domain.BulkOperation;
 import info.jtrac.domain.Space;
 import info.jtrac.domain.State;
 import info.jtrac.util.ValidationUtils;
@@ -83,7 +84,8 @@ public class SpaceStatePage extends BasePage {
 						ConfirmPage confirm = new ConfirmPage(SpaceStatePage.this, heading, warning, new String[] {line1, line2}) {
 							@Override
 							public void onConfirm() {
-								getJtrac().bulkUpdateStatusToOpen(space, stateKey);
+								// items are moved in the background, chunk by chunk
+								getJtrac().submitBulkOperation(BulkOperation.statusToOpen(space, stateKey));
 								space.getMetadata().removeState(stateKey);
 								space = getJtrac().storeSpace(space);
 								// synchronize metadata else when we save again we get Stale Object Exception
@@ -150,7 +152,9 @@ public class SpaceStatePage extends BasePage {
 		protected void onSubmit() {
 			SpaceStateModel model = (SpaceStateModel) getModelObject();
 			if (stateKey == -1) {
-				space.getMetadata().addState(model.getStateName());
+				// states still being cleared by a pending bulk operation are skipped
+				space.getMetadata().addState(model.getStateName(),
+						BulkOperation.getStates(getJtrac().findPendingBulkOperations(space)));
 			} else {
 				space.getMetadata().getStatesMap().put(stateKey, model.getStateName());
 			}
@@ -16,8 +16,10 @@
 
 package info.jtrac.wicket;
 
+import info.jtrac.util.SvnCommitStats;
 import info.jtrac.util.SvnUtils;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -29,14 +31,10 @@ import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.form.PasswordTextField;
 import org.apache.wicket.markup.html.form.TextField;
 import org.apache.wicket.markup.html.image.Image;
-import org.apache.wicket.markup.html.image.resource.BufferedDynamicImageResource;
 import org.apache.wicket.markup.html.list.ListItem;
 import org.apache.wicket.markup.html.list.ListView;
 import org.apache.wicket.model.BoundCompoundPropertyModel;
-import org.jfree.chart.ChartFactory;
-import org.jfree.chart.JFreeChart;
-import org.jfree.chart.plot.PlotOrientation;
-import org.jfree.data.category.DefaultCategoryDataset;
+import org.apache.wicket.resource.ByteArrayResource;
 
 /**
  * subversion statistics chart
@@ -95,12 +93,9 @@ public class SvnStatsPage extends BasePage {
 
 		@Override
 		protected void onSubmit() {
-			final Map<String, Integer> commitsPerCommitter =
-					SvnUtils.getCommitsPerCommitter(SvnUtils.getRepository(url, loginName, password));
-			DefaultCategoryDataset dataset = new DefaultCategoryDataset();
-			for (Map.Entry<String, Integer> entry : commitsPerCommitter.entrySet()) {
-				dataset.addValue(entry.getValue(), "Commits", entry.getKey());
-			}
+			File dir = new File(getJtrac().getJtracHome(), "svn");
+			SvnCommitStats stats = SvnUtils.getCommitStats(SvnUtils.getRepository(url, loginName, password), dir);
+			final Map<String, Integer> commitsPerCommitter = stats.getCommitsPerCommitter();
 			List<String> users = new ArrayList<String>(commitsPerCommitter.keySet());
 			final SimpleAttributeModifier sam = new SimpleAttributeModifier("class", "alt");
 			hide.add(new ListView("users", users) {
@@ -115,10 +110,8 @@ public class SvnStatsPage extends BasePage {
 
 				}
 			});
-			JFreeChart chart = ChartFactory.createBarChart(null, null, null, dataset, PlotOrientation.VERTICAL, false, false, false);
-			BufferedDynamicImageResource resource = new BufferedDynamicImageResource();
-			resource.setImage(chart.createBufferedImage(600, 300));
-			hide.add(new Image("chart", resource));
+			byte[] png = SvnUtils.getCommitsChartPng(stats, dir, 600, 300);
+			hide.add(new Image("chart", new ByteArrayResource("image/png", png)));
 			hide.setVisible(true);
 			form.setVisible(false);
 		}
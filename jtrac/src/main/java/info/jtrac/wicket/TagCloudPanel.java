@@ -0,0 +1,84 @@
+/*
+ * Copyright 2002-2005 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package info.jtrac.wicket;
+
+import info.jtrac.domain.ItemSearch;
+import info.jtrac.domain.Space;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+
+import org.apache.wicket.PageParameters;
+import org.apache.wicket.behavior.SimpleAttributeModifier;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.link.BookmarkablePageLink;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+
+/**
+ * the most used tags of a space, the more items carry a tag the
+ * larger it is shown, each tag links to the items carrying it
+ */
+public class TagCloudPanel extends BasePanel {
+
+	private static final int MAX_TAGS = 50;
+
+	public TagCloudPanel(String id, final Space space) {
+		super(id);
+		final Map<String, Integer> counts = getJtrac().loadTagCloud(space.getId(), MAX_TAGS);
+		setVisible(!counts.isEmpty());
+		final int max = counts.isEmpty() ? 1 : Collections.max(counts.values());
+		add(new ListView("tags", new ArrayList<String>(counts.keySet())) {
+			/* (non-Javadoc)
+			 * @see org.apache.wicket.markup.html.list.ListView#populateItem(org.apache.wicket.markup.html.list.ListItem)
+			 */
+			@Override
+			protected void populateItem(ListItem listItem) {
+				String tagName = (String) listItem.getModelObject();
+				int count = counts.get(tagName);
+				Link link = new BookmarkablePageLink("link", ItemListPage.class, getTagSearchParameters(space, tagName));
+				link.add(new Label("name", tagName));
+				link.add(new SimpleAttributeModifier("style", "font-size:" + getFontSize(count, max) + "%"));
+				link.add(new SimpleAttributeModifier("title", count + ""));
+				listItem.add(link);
+			}
+		});
+	}
+
+	/**
+	 * logarithmic so that a few very common tags do not shrink all others
+	 * to the same size, between 80% and 180%
+	 */
+	static int getFontSize(int count, int max) {
+		if (max <= 1) {
+			return 100;
+		}
+		return 80 + (int) Math.round(100 * Math.log(count) / Math.log(max));
+	}
+
+	/**
+	 * parameters of the bookmarkable list page showing the items of the
+	 * space carrying the tag
+	 */
+	static PageParameters getTagSearchParameters(Space space, String tagName) {
+		ItemSearch itemSearch = new ItemSearch(space);
+		itemSearch.setTagName(tagName);
+		return new PageParameters(Processor.getAsQueryString(itemSearch));
+	}
+
+}
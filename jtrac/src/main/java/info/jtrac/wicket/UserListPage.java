@@ -19,6 +19,8 @@ package info.jtrac.wicket;
 import info.jtrac.domain.User;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
 import org.apache.wicket.behavior.HeaderContributor;
@@ -32,10 +34,13 @@ import org.apache.wicket.markup.html.form.Form;
 import org.apache.wicket.markup.html.form.IChoiceRenderer;
 import org.apache.wicket.markup.html.form.TextField;
 import org.apache.wicket.markup.html.link.Link;
-import org.apache.wicket.markup.html.list.ListItem;
-import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.markup.html.navigation.paging.PagingNavigator;
+import org.apache.wicket.markup.repeater.Item;
+import org.apache.wicket.markup.repeater.data.DataView;
+import org.apache.wicket.markup.repeater.data.IDataProvider;
 import org.apache.wicket.model.CompoundPropertyModel;
-import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.Model;
 import org.apache.wicket.model.PropertyModel;
 
 /**
@@ -43,6 +48,8 @@ import org.apache.wicket.model.PropertyModel;
  */
 public class UserListPage extends BasePage {
 
+	private static final int USERS_PER_PAGE = 25;
+
 	private long selectedUserId;
 
 	private String searchText = "";
@@ -64,25 +71,45 @@ public class UserListPage extends BasePage {
 
 		add(new SearchForm("form"));
 
-		LoadableDetachableModel userListModel = new LoadableDetachableModel() {
+		// only the users on the current page are loaded, the count and the
+		// matching of the search text come from the user index or a count query
+		IDataProvider userDataProvider = new IDataProvider() {
 			@Override
-			protected Object load() {
+			public Iterator iterator(int first, int count) {
 				if(searchText == null) {
-					return getJtrac().findAllUsers();
+					return getJtrac().findUsers(first, count).iterator();
 				} else if(searchText.equals("")) {
 					// first time page loaded, don't query
-					return null;
+					return Collections.EMPTY_LIST.iterator();
+				} else {
+					return getJtrac().findUsersMatching(searchText, searchOn, first, count).iterator();
+				}
+			}
+			@Override
+			public int size() {
+				if(searchText == null) {
+					return getJtrac().loadCountOfAllUsers();
+				} else if(searchText.equals("")) {
+					return 0;
 				} else {
-					return getJtrac().findUsersMatching(searchText, searchOn);
+					return getJtrac().loadCountOfUsersMatching(searchText, searchOn);
 				}
 			}
+			@Override
+			public IModel model(Object o) {
+				return new Model((User) o);
+			}
+			@Override
+			public void detach() {
+				// nothing held
+			}
 		};
 
 		final SimpleAttributeModifier sam = new SimpleAttributeModifier("class", "alt");
 
-		ListView listView = new ListView("users", userListModel) {
+		DataView dataView = new DataView("users", userDataProvider) {
 			@Override
-			protected void populateItem(ListItem listItem) {
+			protected void populateItem(Item listItem) {
 				final User user = (User) listItem.getModelObject();
 				if (selectedUserId == user.getId()) {
 					listItem.add(new SimpleAttributeModifier("class", "selected"));
@@ -110,8 +137,15 @@ public class UserListPage extends BasePage {
 				});
 			}
 		};
+		dataView.setItemsPerPage(USERS_PER_PAGE);
 
-		add(listView);
+		add(dataView);
+		add(new PagingNavigator("navigator", dataView) {
+			@Override
+			public boolean isVisible() {
+				return getPageable().getPageCount() > 1;
+			}
+		});
 
 	}
 
@@ -165,7 +199,8 @@ public class UserListPage extends BasePage {
 
 		@Override
 		protected void onSubmit() {
-			// setResponsePage(UserListPage.this);
+			// a new search starts on the first page
+			((DataView) UserListPage.this.get("users")).setCurrentPage(0);
 		}
 
 	}
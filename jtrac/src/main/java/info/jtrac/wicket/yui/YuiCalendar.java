@@ -48,12 +48,12 @@ public class YuiCalendar extends FormComponentPanel implements IHeaderContributo
 
 		super(id, null);
 
-		add(HeaderContributor.forJavaScript("resources/yui/yahoo/yahoo-min.js"));
-		add(HeaderContributor.forJavaScript("resources/yui/event/event-min.js"));
-		add(HeaderContributor.forJavaScript("resources/yui/dom/dom-min.js"));
-		add(HeaderContributor.forJavaScript("resources/yui/calendar/calendar-min.js"));
-		add(HeaderContributor.forJavaScript("resources/yui/calendar/calendar-utils.js"));
-		add(HeaderContributor.forCss("resources/yui/calendar/assets/calendar.css"));
+		add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/yahoo/yahoo-min.js")));
+		add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/event/event-min.js")));
+		add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/dom/dom-min.js")));
+		add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/calendar/calendar-min.js")));
+		add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/calendar/calendar-utils.js")));
+		add(HeaderContributor.forCss(YuiUtils.getResourceUrl("yui/calendar/assets/calendar.css")));
 
 		dateField = new TextField("field", model, Date.class) {
 			@Override
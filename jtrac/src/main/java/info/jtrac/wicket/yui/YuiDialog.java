@@ -46,13 +46,13 @@ public class YuiDialog extends Panel {
     public YuiDialog(String id) {
         super(id);         
         
-        add(HeaderContributor.forJavaScript("resources/yui/yahoo/yahoo-min.js"));
-        add(HeaderContributor.forJavaScript("resources/yui/event/event-min.js"));
-        add(HeaderContributor.forJavaScript("resources/yui/dom/dom-min.js"));  
-        add(HeaderContributor.forJavaScript("resources/yui/dragdrop/dragdrop-min.js"));
-        add(HeaderContributor.forJavaScript("resources/yui/container/container-min.js"));
-        add(HeaderContributor.forJavaScript("resources/yui/container/resize-dialog.js"));
-        add(HeaderContributor.forCss("resources/yui/container/assets/container.css")); 
+        add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/yahoo/yahoo-min.js")));
+        add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/event/event-min.js")));
+        add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/dom/dom-min.js")));  
+        add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/dragdrop/dragdrop-min.js")));
+        add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/container/container-min.js")));
+        add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/container/resize-dialog.js")));
+        add(HeaderContributor.forCss(YuiUtils.getResourceUrl("yui/container/assets/container.css"))); 
         
         setOutputMarkupId(true);  // for Wicket Ajax
         dialog = new WebMarkupContainer("dialog"); 
@@ -48,12 +48,12 @@ public class YuiPanel extends Panel {
         if(customConfig != null) {
             config.putAll(customConfig);
         }
-        add(HeaderContributor.forJavaScript("resources/yui/yahoo/yahoo-min.js"));
-        add(HeaderContributor.forJavaScript("resources/yui/event/event-min.js"));
-        add(HeaderContributor.forJavaScript("resources/yui/dom/dom-min.js"));  
-        add(HeaderContributor.forJavaScript("resources/yui/dragdrop/dragdrop-min.js"));
-        add(HeaderContributor.forJavaScript("resources/yui/container/container-min.js"));        
-        add(HeaderContributor.forCss("resources/yui/container/assets/container.css")); 
+        add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/yahoo/yahoo-min.js")));
+        add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/event/event-min.js")));
+        add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/dom/dom-min.js")));  
+        add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/dragdrop/dragdrop-min.js")));
+        add(HeaderContributor.forJavaScript(YuiUtils.getResourceUrl("yui/container/container-min.js")));        
+        add(HeaderContributor.forCss(YuiUtils.getResourceUrl("yui/container/assets/container.css"))); 
                 
         dialog = new WebMarkupContainer("dialog"); 
         dialog.setOutputMarkupId(true);       
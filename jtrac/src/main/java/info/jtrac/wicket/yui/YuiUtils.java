@@ -16,13 +16,25 @@
 
 package info.jtrac.wicket.yui;
 
+import info.jtrac.web.StaticResourceServlet;
+
 import java.util.Map;
 
+import org.apache.wicket.protocol.http.WebApplication;
+
 /**
  * utilities for doing some javascript stuff e.g. basic JSON serialization
  */
 public class YuiUtils {
 
+	/**
+	 * fingerprinted URL for a file under "resources/" so that browsers can
+	 * cache it for good, e.g. getResourceUrl("yui/dom/dom-min.js")
+	 */
+	public static String getResourceUrl(String path) {
+		return StaticResourceServlet.getUrl(((WebApplication) WebApplication.get()).getServletContext(), path);
+	}
+
 	/**
 	 * custom Map to JSON converter
 	 * TODO support values that should not be treated like strings (quoted)
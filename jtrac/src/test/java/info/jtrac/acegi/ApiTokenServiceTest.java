@@ -0,0 +1,60 @@
+package info.jtrac.acegi;
+
+import static org.junit.Assert.*;
+import info.jtrac.JtracTestBase;
+import info.jtrac.domain.User;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ApiTokenServiceTest extends JtracTestBase {
+
+	private ApiTokenService service;
+	private User user;
+
+	@Before
+	public void setUp() {
+		service = new ApiTokenService();
+		service.setJtrac(jtrac);
+		user = new User();
+		user.setLoginName("tokenuser");
+		user.setName("Token User");
+		user.setEmail("tokenuser@localhost");
+		user.setPassword(jtrac.encodeClearText("secret"));
+		user = jtrac.storeUser(user);
+	}
+
+	@Test
+	public void testTokenResolvesToUser() {
+		String token = service.createToken(user);
+		User resolved = service.getUser(token);
+		assertNotNull(resolved);
+		assertEquals("tokenuser", resolved.getLoginName());
+		assertNotNull(jtrac.loadConfig("api.token.key"));
+	}
+
+	@Test
+	public void testTamperedTokenIsRejected() {
+		String token = service.createToken(user);
+		char last = token.charAt(token.length() - 1);
+		String tampered = token.substring(0, token.length() - 1) + (last == '0' ? '1' : '0');
+		assertNull(service.getUser(tampered));
+		assertNull(service.getUser("garbage"));
+		assertNull(service.getUser("garbage.zz"));
+	}
+
+	@Test
+	public void testExpiredTokenIsRejected() {
+		service.setTimeoutMinutes(-1);
+		assertNull(service.getUser(service.createToken(user)));
+	}
+
+	@Test
+	public void testPasswordChangeRevokesToken() {
+		String token = service.createToken(user);
+		user.setPassword(jtrac.encodeClearText("changed"));
+		jtrac.storeUser(user);
+		assertNull(service.getUser(token));
+	}
+
+}
@@ -0,0 +1,294 @@
+package info.jtrac.acegi;
+
+import static org.junit.Assert.*;
+import info.jtrac.domain.User;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.LdapContext;
+import javax.naming.spi.InitialContextFactory;
+
+import org.acegisecurity.Authentication;
+import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
+import org.acegisecurity.userdetails.UserDetails;
+import org.acegisecurity.userdetails.UserDetailsService;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * there is no directory server available to the build, so the LDAP
+ * round trip is replaced either by counting calls to bind() or by a
+ * JNDI factory that hands out in-memory contexts (MockContextFactory)
+ */
+public class JtracLdapAuthenticationProviderTest {
+
+	private static final List<MockContext> contexts = Collections.synchronizedList(new ArrayList<MockContext>());
+
+	/**
+	 * records the environment each context was created with, whether it was
+	 * searched and whether it was closed, only "secret" is a valid password
+	 */
+	public static class MockContextFactory implements InitialContextFactory {
+
+		@Override
+		public Context getInitialContext(Hashtable<?, ?> env) throws NamingException {
+			if (!"secret".equals(env.get(Context.SECURITY_CREDENTIALS))) {
+				throw new AuthenticationException("invalid credentials");
+			}
+			MockContext handler = new MockContext(env);
+			contexts.add(handler);
+			return (Context) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { LdapContext.class }, handler);
+		}
+
+	}
+
+	private static class MockContext implements InvocationHandler {
+
+		private final Hashtable<?, ?> env;
+		private boolean searched;
+		private boolean closed;
+
+		MockContext(Hashtable<?, ?> env) {
+			this.env = new Hashtable<Object, Object>(env);
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			if (method.getName().equals("close")) {
+				closed = true;
+			} else if (method.getName().equals("search")) {
+				searched = true;
+				if ("nobody".equals(((Object[]) args[2])[0])) {
+					return getResults(Collections.<SearchResult> emptyList());
+				}
+				BasicAttributes attributes = new BasicAttributes();
+				attributes.put("mail", "test@jtrac.info");
+				attributes.put("cn", "Test User");
+				return getResults(Collections.singletonList(new SearchResult("uid=test", null, attributes)));
+			}
+			return null;
+		}
+
+		String getPrincipal() {
+			return (String) env.get(Context.SECURITY_PRINCIPAL);
+		}
+
+		boolean isPooled() {
+			return "true".equals(env.get("com.sun.jndi.ldap.connect.pool"));
+		}
+
+		@SuppressWarnings("unchecked")
+		private NamingEnumeration<SearchResult> getResults(List<SearchResult> list) {
+			final Iterator<SearchResult> i = list.iterator();
+			return (NamingEnumeration<SearchResult>) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { NamingEnumeration.class }, new InvocationHandler() {
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					if (method.getName().startsWith("has")) {
+						return i.hasNext();
+					} else if (method.getName().startsWith("next")) {
+						return i.next();
+					}
+					return null;
+				}
+			});
+		}
+
+	}
+
+	@Before
+	public void clearContexts() {
+		contexts.clear();
+	}
+
+	private static class CountingProvider extends JtracLdapAuthenticationProvider {
+
+		private int binds;
+
+		@Override
+		public Map<String, String> bind(String loginName, String password) throws Exception {
+			binds++;
+			if (!"secret".equals(password)) {
+				throw new Exception("invalid credentials");
+			}
+			return new HashMap<String, String>();
+		}
+
+	}
+
+	private CountingProvider getProvider(int cacheSeconds) {
+		CountingProvider provider = new CountingProvider();
+		provider.setLdapUrl("ldap://localhost");
+		provider.setSearchBase("dc=jtrac,dc=info");
+		provider.setCredentialCacheSeconds(cacheSeconds);
+		provider.setUserDetailsService(new UserDetailsService() {
+			@Override
+			public UserDetails loadUserByUsername(String loginName) {
+				User user = new User();
+				user.setLoginName(loginName);
+				return user;
+			}
+		});
+		provider.afterPropertiesSet();
+		return provider;
+	}
+
+	private Authentication authenticate(CountingProvider provider, String password) {
+		return provider.authenticate(new UsernamePasswordAuthenticationToken("test", password));
+	}
+
+	@Test
+	public void testRepeatedLoginSkipsDirectoryWhenCached() {
+		CountingProvider provider = getProvider(300);
+		assertNotNull(authenticate(provider, "secret"));
+		assertNotNull(authenticate(provider, "secret"));
+		assertNotNull(authenticate(provider, "secret"));
+		assertEquals(1, provider.binds);
+	}
+
+	@Test
+	public void testWrongPasswordIsNeverServedFromCache() {
+		CountingProvider provider = getProvider(300);
+		assertNotNull(authenticate(provider, "secret"));
+		assertNull(authenticate(provider, "wrong"));
+		assertEquals(2, provider.binds);
+		// the failed attempt also drops the cached entry
+		assertNotNull(authenticate(provider, "secret"));
+		assertEquals(3, provider.binds);
+	}
+
+	@Test
+	public void testCacheIsOffByDefault() {
+		CountingProvider provider = getProvider(0);
+		assertNotNull(authenticate(provider, "secret"));
+		assertNotNull(authenticate(provider, "secret"));
+		assertEquals(2, provider.binds);
+	}
+
+	@Test
+	public void testCredentialCacheExpiresAndEvicts() throws Exception {
+		LdapCredentialCache cache = new LdapCredentialCache(0, 2);
+		cache.put("a", "x");
+		Thread.sleep(5);
+		assertFalse(cache.isValid("a", "x"));
+		cache = new LdapCredentialCache(300, 2);
+		cache.put("a", "x");
+		cache.put("b", "y");
+		cache.put("c", "z");
+		assertEquals(2, cache.getSize());
+		assertFalse(cache.isValid("a", "x"));
+		assertTrue(cache.isValid("c", "z"));
+		assertFalse(cache.isValid("c", "x"));
+	}
+
+	private JtracLdapAuthenticationProvider getMockProvider(String managerDn) {
+		JtracLdapAuthenticationProvider provider = new JtracLdapAuthenticationProvider();
+		provider.setInitialContextFactory(MockContextFactory.class.getName());
+		provider.setLdapUrl("ldap://localhost");
+		provider.setSearchBase("dc=jtrac,dc=info");
+		provider.setManagerDn(managerDn);
+		provider.setManagerPassword("secret");
+		provider.setCredentialCacheSeconds(300);
+		provider.setUserDetailsService(new UserDetailsService() {
+			@Override
+			public UserDetails loadUserByUsername(String loginName) {
+				User user = new User();
+				user.setLoginName(loginName);
+				return user;
+			}
+		});
+		provider.afterPropertiesSet();
+		return provider;
+	}
+
+	@Test
+	public void testBindUsesPooledContextsAndClosesThem() throws Exception {
+		JtracLdapAuthenticationProvider provider = getMockProvider(null);
+		Map<String, String> map = provider.bind("test", "secret");
+		assertEquals("test@jtrac.info", map.get("mail"));
+		assertEquals("Test User", map.get("cn"));
+		assertEquals(1, contexts.size());
+		MockContext ctx = contexts.get(0);
+		assertEquals("uid=test,dc=jtrac,dc=info", ctx.getPrincipal());
+		assertTrue(ctx.isPooled());
+		assertTrue(ctx.searched);
+		assertTrue(ctx.closed);
+	}
+
+	@Test
+	public void testManagerContextIsUsedForSearch() throws Exception {
+		JtracLdapAuthenticationProvider provider = getMockProvider("cn=manager,dc=jtrac,dc=info");
+		provider.bind("test", "secret");
+		assertEquals(2, contexts.size());
+		MockContext userCtx = contexts.get(0);
+		MockContext managerCtx = contexts.get(1);
+		assertEquals("uid=test,dc=jtrac,dc=info", userCtx.getPrincipal());
+		assertEquals("cn=manager,dc=jtrac,dc=info", managerCtx.getPrincipal());
+		assertTrue(managerCtx.isPooled());
+		assertFalse(userCtx.searched);
+		assertTrue(managerCtx.searched);
+		assertTrue(userCtx.closed);
+		assertTrue(managerCtx.closed);
+	}
+
+	@Test
+	public void testContextsAreClosedWhenSearchFails() {
+		JtracLdapAuthenticationProvider provider = getMockProvider("cn=manager,dc=jtrac,dc=info");
+		try {
+			provider.bind("nobody", "secret");
+			fail("no search result expected");
+		} catch (Exception e) {
+			assertEquals("no results returned from ldap", e.getMessage());
+		}
+		assertEquals(2, contexts.size());
+		assertTrue(contexts.get(0).closed);
+		assertTrue(contexts.get(1).closed);
+	}
+
+	@Test
+	public void testCachedCredentialSkipsBind() {
+		JtracLdapAuthenticationProvider provider = getMockProvider("cn=manager,dc=jtrac,dc=info");
+		assertNull(provider.authenticate(new UsernamePasswordAuthenticationToken("test", "wrong")));
+		assertTrue(contexts.isEmpty());
+		assertNotNull(provider.authenticate(new UsernamePasswordAuthenticationToken("test", "secret")));
+		assertEquals(2, contexts.size());
+		assertNotNull(provider.authenticate(new UsernamePasswordAuthenticationToken("test", "secret")));
+		assertEquals(2, contexts.size());
+	}
+
+	@Test
+	public void testLdapsConnectionsArePooled() {
+		String property = "com.sun.jndi.ldap.connect.pool.protocol";
+		String previous = System.clearProperty(property);
+		try {
+			getProvider(0);
+			assertNull(System.getProperty(property));
+			CountingProvider provider = new CountingProvider();
+			provider.setLdapUrl("ldaps://localhost:636");
+			provider.afterPropertiesSet();
+			assertEquals("plain ssl", System.getProperty(property));
+		} finally {
+			if (previous == null) {
+				System.clearProperty(property);
+			} else {
+				System.setProperty(property, previous);
+			}
+		}
+	}
+
+}
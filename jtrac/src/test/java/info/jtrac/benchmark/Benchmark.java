@@ -0,0 +1,419 @@
+package info.jtrac.benchmark;
+
+import info.jtrac.domain.ColumnHeading;
+import info.jtrac.domain.Config;
+import info.jtrac.domain.Field;
+import info.jtrac.domain.FilterCriteria;
+import info.jtrac.domain.History;
+import info.jtrac.domain.Item;
+import info.jtrac.domain.ItemSearch;
+import info.jtrac.domain.State;
+import info.jtrac.domain.User;
+import info.jtrac.service.Jtrac;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.springframework.context.support.FileSystemXmlApplicationContext;
+
+/**
+ * stand alone benchmark that boots the real application context against an
+ * embedded database in <code>target/benchmark</code>, generates data through
+ * {@link DataGenerator} and then runs a fixed set of multi threaded scenarios
+ * that correspond to the most common things users do
+ *
+ * the results are written to <code>target/reports/benchmark.txt</code> (human readable)
+ * and <code>target/reports/benchmark.properties</code> (machine readable), if the
+ * <code>benchmark.baseline</code> system property points to a properties file from an
+ * earlier run, the report includes the relative change per scenario
+ *
+ * run using "ant benchmark", all sizes can be tuned with system properties, see
+ * the constants below, a warm up phase precedes every measured phase so that
+ * JIT compilation and Hibernate / Lucene caches do not distort the numbers
+ *
+ * the bytes allocated per operation are reported as well where the JVM can
+ * measure them per thread, compare them across runs for changes that are
+ * meant to reduce garbage rather than latency
+ *
+ * <code>benchmark.history.checkpoint</code> sets the history checkpoint interval
+ * before the data is generated, compare the database size in the report header
+ * and the "timeline" scenario across runs with 0 (full snapshots) and e.g. 10
+ */
+public class Benchmark {
+
+	private static final Logger logger = Logger.getLogger(Benchmark.class);
+
+	private static final String HOME = "target/benchmark";
+	private static final String REPORT_DIR = "target/reports";
+	private static final int IMPORT_BATCH_SIZE = 20;
+	private static final List<Field.Name> TIMELINE_FIELDS = Arrays.asList(Field.Name.values());
+
+	private final Jtrac jtrac;
+	private final DataGenerator generator;
+	private final int threads;
+	private final int warmupMillis;
+	private final int measureMillis;
+	private final Map<String, Scenario> scenarios = new LinkedHashMap<String, Scenario>();
+
+	/**
+	 * one unit of work, must be safe to call from multiple threads
+	 */
+	public interface Scenario {
+		void execute() throws Exception;
+	}
+
+	public Benchmark(Jtrac jtrac, DataGenerator generator, int threads, int warmupMillis, int measureMillis) {
+		this.jtrac = jtrac;
+		this.generator = generator;
+		this.threads = threads;
+		this.warmupMillis = warmupMillis;
+		this.measureMillis = measureMillis;
+		initScenarios();
+	}
+
+	private void initScenarios() {
+		scenarios.put("create", new Scenario() {
+			public void execute() {
+				Item item = new Item();
+				item.setSpace(generator.randomSpace());
+				item.setLoggedBy(generator.randomUser());
+				item.setAssignedTo(generator.randomUser());
+				item.setStatus(State.OPEN);
+				item.setSummary(generator.randomText(6));
+				item.setDetail(generator.randomText(60));
+				item.setSeverity(1);
+				item.setPriority(1);
+				item.setCusInt01(1);
+				item.setSendNotifications(false);
+				jtrac.storeItem(item, null);
+			}
+		});
+		scenarios.put("import", new Scenario() {
+			public void execute() {
+				List<Item> items = new ArrayList<Item>();
+				for (int i = 0; i < IMPORT_BATCH_SIZE; i++) {
+					Item item = new Item();
+					item.setSpace(generator.randomSpace());
+					item.setLoggedBy(generator.randomUser());
+					item.setAssignedTo(generator.randomUser());
+					item.setStatus(State.OPEN);
+					item.setSummary(generator.randomText(6));
+					item.setDetail(generator.randomText(60));
+					item.setSeverity(1);
+					item.setPriority(1);
+					item.setCusInt01(1);
+					items.add(item);
+				}
+				jtrac.storeItems(items);
+			}
+		});
+		scenarios.put("comment", new Scenario() {
+			public void execute() {
+				History history = new History();
+				history.setLoggedBy(generator.randomUser());
+				history.setComment(generator.randomText(30));
+				history.setStatus(State.OPEN);
+				history.setAssignedTo(generator.randomUser());
+				history.setSendNotifications(false);
+				jtrac.storeHistoryForItem(generator.randomItemId(), history, null);
+			}
+		});
+		scenarios.put("view", new Scenario() {
+			public void execute() {
+				jtrac.loadItem(generator.randomItemId());
+			}
+		});
+		scenarios.put("timeline", new Scenario() {
+			public void execute() {
+				Item item = new Item();
+				item.setId(generator.randomItemId());
+				jtrac.findHistoryForItem(item, Long.MAX_VALUE, 25, TIMELINE_FIELDS);
+			}
+		});
+		scenarios.put("list-page", new Scenario() {
+			public void execute() {
+				ItemSearch itemSearch = new ItemSearch(generator.randomSpace());
+				itemSearch.setCurrentPage(0);
+				jtrac.findItems(itemSearch);
+			}
+		});
+		scenarios.put("list-filtered", new Scenario() {
+			public void execute() {
+				ItemSearch itemSearch = new ItemSearch(generator.randomSpace());
+				itemSearch.setStatus(State.OPEN);
+				itemSearch.setAssignedTo(generator.randomUser());
+				jtrac.findItems(itemSearch);
+			}
+		});
+		scenarios.put("text-search", new Scenario() {
+			public void execute() {
+				ItemSearch itemSearch = new ItemSearch(generator.randomSpace());
+				ColumnHeading ch = itemSearch.getColumnHeading(ColumnHeading.Name.DETAIL.getText());
+				ch.getFilterCriteria().setExpression(FilterCriteria.Expression.CONTAINS);
+				ch.getFilterCriteria().setValue(generator.randomWord());
+				jtrac.findItems(itemSearch);
+			}
+		});
+		scenarios.put("dashboard", new Scenario() {
+			public void execute() {
+				User user = generator.randomUser();
+				jtrac.loadCountsForUser(user);
+			}
+		});
+		scenarios.put("export", new Scenario() {
+			public void execute() {
+				ItemSearch itemSearch = new ItemSearch(generator.randomSpace());
+				jtrac.writeAsXml(itemSearch, new NullWriter());
+			}
+		});
+	}
+
+	public Map<String, Scenario> getScenarios() {
+		return scenarios;
+	}
+
+	public List<BenchmarkResult> run() throws Exception {
+		List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+		for (Map.Entry<String, Scenario> entry : scenarios.entrySet()) {
+			logger.info("warming up '" + entry.getKey() + "'");
+			run(entry.getKey(), entry.getValue(), warmupMillis);
+			logger.info("measuring '" + entry.getKey() + "'");
+			BenchmarkResult result = run(entry.getKey(), entry.getValue(), measureMillis);
+			logger.info("'" + entry.getKey() + "': " + result.getCount() + " ops, "
+					+ result.getMean() + " us mean, " + result.getPercentile(95) + " us p95");
+			results.add(result);
+		}
+		return results;
+	}
+
+	public BenchmarkResult run(String name, final Scenario scenario, int durationMillis) throws Exception {
+		final long endTime = System.currentTimeMillis() + durationMillis;
+		final List<long[]> perThread = new ArrayList<long[]>();
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(threads);
+		final int[] counts = new int[threads];
+		final long[] allocated = new long[threads];
+		for (int i = 0; i < threads; i++) {
+			perThread.add(new long[1024]);
+		}
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < threads; i++) {
+			final int index = i;
+			Thread thread = new Thread("benchmark-" + name + "-" + i) {
+				@Override
+				public void run() {
+					long allocatedBefore = allocatedBytes();
+					try {
+						while (System.currentTimeMillis() < endTime) {
+							long t = System.nanoTime();
+							try {
+								scenario.execute();
+							} catch (Exception e) {
+								if (errors.incrementAndGet() == 1) {
+									logger.error("scenario failed", e);
+								}
+								continue;
+							}
+							long[] samples = perThread.get(index);
+							if (counts[index] == samples.length) {
+								long[] temp = new long[samples.length * 2];
+								System.arraycopy(samples, 0, temp, 0, samples.length);
+								samples = temp;
+								perThread.set(index, samples);
+							}
+							samples[counts[index]++] = (System.nanoTime() - t) / 1000;
+						}
+					} finally {
+						allocated[index] = allocatedBefore < 0 ? -1 : allocatedBytes() - allocatedBefore;
+						done.countDown();
+					}
+				}
+			};
+			thread.start();
+		}
+		done.await();
+		long elapsed = System.currentTimeMillis() - start;
+		int total = 0;
+		for (int count : counts) {
+			total += count;
+		}
+		long allocatedTotal = 0;
+		for (long bytes : allocated) {
+			if (bytes < 0) {
+				allocatedTotal = -1;
+				break;
+			}
+			allocatedTotal += bytes;
+		}
+		long[] samples = new long[total];
+		int position = 0;
+		for (int i = 0; i < threads; i++) {
+			System.arraycopy(perThread.get(i), 0, samples, position, counts[i]);
+			position += counts[i];
+		}
+		return new BenchmarkResult(name, threads, elapsed, samples, errors.get(), allocatedTotal);
+	}
+
+	/**
+	 * bytes allocated so far by the current thread, -1 if the JVM does not support it
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+		if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+		return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	//==========================================================================
+
+	public static void writeReport(List<BenchmarkResult> results, Properties baseline, String header) throws IOException {
+		File dir = new File(REPORT_DIR);
+		dir.mkdirs();
+		Properties props = new Properties();
+		PrintWriter out = new PrintWriter(new File(dir, "benchmark.txt"), "UTF-8");
+		try {
+			out.println(header);
+			out.println();
+			out.println(String.format("%-16s %8s %10s %10s %10s %10s %10s %10s %8s %10s",
+					"scenario", "threads", "ops", "ops/sec", "mean us", "p50 us", "p99 us", "KB/op", "errors", "vs base"));
+			for (BenchmarkResult r : results) {
+				String change = "";
+				String base = baseline == null ? null : baseline.getProperty(r.getName() + ".throughput");
+				if (base != null && Double.parseDouble(base) > 0) {
+					double percent = (r.getThroughput() / Double.parseDouble(base) - 1) * 100;
+					change = String.format("%+.1f%%", percent);
+				}
+				long allocated = r.getAllocatedPerOperation();
+				out.println(String.format("%-16s %8d %10d %10.1f %10d %10d %10d %10s %8d %10s",
+						r.getName(), r.getThreads(), r.getCount(), r.getThroughput(), r.getMean(),
+						r.getPercentile(50), r.getPercentile(99), allocated < 0 ? "n/a" : (allocated / 1024) + "",
+						r.getErrors(), change));
+				props.setProperty(r.getName() + ".throughput", r.getThroughput() + "");
+				props.setProperty(r.getName() + ".mean", r.getMean() + "");
+				props.setProperty(r.getName() + ".p50", r.getPercentile(50) + "");
+				props.setProperty(r.getName() + ".p95", r.getPercentile(95) + "");
+				props.setProperty(r.getName() + ".p99", r.getPercentile(99) + "");
+				props.setProperty(r.getName() + ".max", r.getMax() + "");
+				props.setProperty(r.getName() + ".allocated", allocated + "");
+			}
+		} finally {
+			out.close();
+		}
+		OutputStream os = new FileOutputStream(new File(dir, "benchmark.properties"));
+		try {
+			props.store(os, header);
+		} finally {
+			os.close();
+		}
+	}
+
+	private static Properties loadBaseline() throws IOException {
+		String path = System.getProperty("benchmark.baseline");
+		if (path == null || !new File(path).exists()) {
+			return null;
+		}
+		Properties props = new Properties();
+		InputStream is = new FileInputStream(path);
+		try {
+			props.load(is);
+		} finally {
+			is.close();
+		}
+		return props;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int spaces = Integer.getInteger("benchmark.spaces", 5);
+		int users = Integer.getInteger("benchmark.users", 200);
+		int items = Integer.getInteger("benchmark.items", 2000);
+		int comments = Integer.getInteger("benchmark.comments", 3);
+		int threads = Integer.getInteger("benchmark.threads", 4);
+		int warmup = Integer.getInteger("benchmark.warmup", 5) * 1000;
+		int measure = Integer.getInteger("benchmark.measure", 20) * 1000;
+		int checkpoint = Integer.getInteger("benchmark.history.checkpoint", 0);
+		FileUtils.deleteDirectory(new File(HOME));
+		new File(HOME).mkdirs();
+		System.setProperty("jtrac.home", HOME);
+		FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(
+				"src/main/webapp/WEB-INF/applicationContext.xml",
+				"src/main/webapp/WEB-INF/applicationContext-lucene.xml");
+		try {
+			Jtrac jtrac = (Jtrac) context.getBean("jtrac");
+			jtrac.storeConfig(new Config("history.checkpoint.interval", checkpoint + ""));
+			DataGenerator generator = new DataGenerator(jtrac, 42);
+			generator.setSpaceCount(spaces);
+			generator.setUserCount(users);
+			generator.setItemsPerSpace(items);
+			generator.setCommentsPerItem(comments);
+			long start = System.currentTimeMillis();
+			generator.generate();
+			long generateMillis = System.currentTimeMillis() - start;
+			Benchmark benchmark = new Benchmark(jtrac, generator, threads, warmup, measure);
+			List<BenchmarkResult> results = benchmark.run();
+			String header = "jtrac " + jtrac.getReleaseVersion() + " benchmark, " + new Date()
+					+ ", spaces=" + spaces + ", users=" + users + ", items/space=" + items
+					+ ", comments/item=" + comments + ", generate time=" + generateMillis + " ms"
+					+ ", history checkpoint=" + checkpoint + ", database size=" + databaseSize();
+			writeReport(results, loadBaseline(), header);
+			logger.info("report written to '" + REPORT_DIR + "/benchmark.txt'");
+		} finally {
+			context.close();
+		}
+	}
+
+	/**
+	 * size of the embedded database files, including the transaction log
+	 */
+	private static String databaseSize() {
+		File dir = new File(HOME, "db");
+		if (!dir.exists()) {
+			return "n/a";
+		}
+		return FileUtils.byteCountToDisplaySize(FileUtils.sizeOfDirectory(dir));
+	}
+
+	/**
+	 * the export scenario should measure query and serialization cost, not IO
+	 */
+	private static class NullWriter extends Writer {
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			// discard
+		}
+
+		@Override
+		public void flush() {
+			// nothing to do
+		}
+
+		@Override
+		public void close() {
+			// nothing to do
+		}
+	}
+
+}
@@ -0,0 +1,81 @@
+package info.jtrac.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * latency samples of one scenario, all times in microseconds, plus the
+ * bytes allocated by all threads while it ran (-1 if not measurable)
+ */
+public class BenchmarkResult {
+
+	private final String name;
+	private final int threads;
+	private final long elapsedMillis;
+	private final long[] samples;
+	private final int errors;
+	private final long allocatedBytes;
+
+	public BenchmarkResult(String name, int threads, long elapsedMillis, long[] samples, int errors, long allocatedBytes) {
+		this.name = name;
+		this.threads = threads;
+		this.elapsedMillis = elapsedMillis;
+		this.samples = samples.clone();
+		this.errors = errors;
+		this.allocatedBytes = allocatedBytes;
+		Arrays.sort(this.samples);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public int getCount() {
+		return samples.length;
+	}
+
+	public int getErrors() {
+		return errors;
+	}
+
+	public double getThroughput() {
+		if (elapsedMillis == 0) {
+			return 0;
+		}
+		return samples.length * 1000.0 / elapsedMillis;
+	}
+
+	public long getMean() {
+		if (samples.length == 0) {
+			return 0;
+		}
+		long total = 0;
+		for (long sample : samples) {
+			total += sample;
+		}
+		return total / samples.length;
+	}
+
+	public long getPercentile(double percentile) {
+		if (samples.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(percentile / 100 * samples.length) - 1;
+		return samples[Math.max(0, Math.min(index, samples.length - 1))];
+	}
+
+	public long getAllocatedPerOperation() {
+		if (allocatedBytes < 0 || samples.length == 0) {
+			return -1;
+		}
+		return allocatedBytes / samples.length;
+	}
+
+	public long getMax() {
+		return samples.length == 0 ? 0 : samples[samples.length - 1];
+	}
+
+}
@@ -0,0 +1,218 @@
+package info.jtrac.benchmark;
+
+import info.jtrac.domain.Field;
+import info.jtrac.domain.History;
+import info.jtrac.domain.Item;
+import info.jtrac.domain.Metadata;
+import info.jtrac.domain.Space;
+import info.jtrac.domain.State;
+import info.jtrac.domain.User;
+import info.jtrac.service.Jtrac;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+/**
+ * generates a synthetic but realistic data set purely through the Jtrac
+ * service API, so that everything that happens in production (sequence
+ * numbers, history records, indexing) also happens here
+ *
+ * a fixed random seed is used so that two runs against two builds
+ * produce exactly the same data and the numbers can be compared
+ */
+public class DataGenerator {
+
+	private static final Logger logger = Logger.getLogger(DataGenerator.class);
+
+	private static final String[] WORDS = {
+		"server", "timeout", "login", "page", "report", "export", "database", "index",
+		"search", "mail", "attachment", "crash", "slow", "error", "button", "layout",
+		"firefox", "upgrade", "memory", "disk", "network", "proxy", "cache", "session"
+	};
+
+	private final Jtrac jtrac;
+	private final Random random;
+
+	private int spaceCount = 2;
+	private int userCount = 10;
+	private int itemsPerSpace = 100;
+	private int commentsPerItem = 2;
+
+	private final List<Space> spaces = new ArrayList<Space>();
+	private final List<User> users = new ArrayList<User>();
+	private final List<Long> itemIds = new ArrayList<Long>();
+
+	public DataGenerator(Jtrac jtrac, long seed) {
+		this.jtrac = jtrac;
+		this.random = new Random(seed);
+	}
+
+	public void generate() {
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < spaceCount; i++) {
+			spaces.add(createSpace(i));
+		}
+		for (int i = 0; i < userCount; i++) {
+			users.add(createUser(i));
+		}
+		for (Space space : spaces) {
+			for (int i = 0; i < itemsPerSpace; i++) {
+				Item item = createItem(space);
+				itemIds.add(item.getId());
+				for (int j = 0; j < commentsPerItem; j++) {
+					addComment(item);
+				}
+				if ((i + 1) % 1000 == 0) {
+					logger.info("space '" + space.getPrefixCode() + "', items generated: " + (i + 1));
+				}
+			}
+		}
+		logger.info("generated " + spaces.size() + " spaces, " + users.size() + " users, "
+				+ itemIds.size() + " items in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private Space createSpace(int index) {
+		Space space = new Space();
+		space.setPrefixCode("BENCH" + index);
+		space.setName("Benchmark Space " + index);
+		space.setMetadata(createMetadata());
+		return jtrac.storeSpace(space);
+	}
+
+	private Metadata createMetadata() {
+		Metadata metadata = new Metadata();
+		metadata.initRoles();
+		Field severity = new Field(Field.Name.SEVERITY);
+		severity.initOptions();
+		metadata.add(severity);
+		Field priority = new Field(Field.Name.PRIORITY);
+		priority.initOptions();
+		metadata.add(priority);
+		Field component = new Field(Field.Name.CUS_INT_01);
+		component.setLabel("Component");
+		for (int i = 0; i < 12; i++) {
+			component.addOption("Component " + i);
+		}
+		metadata.add(component);
+		Field estimate = new Field(Field.Name.CUS_DBL_01);
+		estimate.setLabel("Estimate");
+		estimate.setOptional(true);
+		metadata.add(estimate);
+		Field reference = new Field(Field.Name.CUS_STR_01);
+		reference.setLabel("Reference");
+		reference.setOptional(true);
+		metadata.add(reference);
+		Field dueDate = new Field(Field.Name.CUS_TIM_01);
+		dueDate.setLabel("Due Date");
+		dueDate.setOptional(true);
+		metadata.add(dueDate);
+		return metadata;
+	}
+
+	private User createUser(int index) {
+		User user = new User();
+		user.setLoginName("bench" + index);
+		user.setName("Benchmark User " + index);
+		user.setEmail("bench" + index + "@localhost");
+		user.setPassword(jtrac.encodeClearText("bench" + index));
+		for (Space space : spaces) {
+			user.addSpaceWithRole(space, "DEFAULT");
+		}
+		return jtrac.storeUser(user);
+	}
+
+	private Item createItem(Space space) {
+		Item item = new Item();
+		item.setSpace(space);
+		item.setLoggedBy(randomUser());
+		item.setAssignedTo(randomUser());
+		item.setStatus(State.OPEN);
+		item.setSummary(randomText(6));
+		item.setDetail(randomText(60));
+		item.setSeverity(1 + random.nextInt(5));
+		item.setPriority(1 + random.nextInt(5));
+		item.setCusInt01(1 + random.nextInt(12));
+		item.setCusDbl01(random.nextInt(400) / 4.0);
+		item.setCusStr01("REF-" + random.nextInt(100000));
+		item.setCusTim01(new Date(System.currentTimeMillis() + random.nextInt(90) * 86400000L));
+		item.setSendNotifications(false);
+		return jtrac.storeItem(item, null);
+	}
+
+	private void addComment(Item item) {
+		History history = new History();
+		history.setLoggedBy(randomUser());
+		history.setComment(randomText(30));
+		// close roughly one in four items so that status filters have something to do
+		if (random.nextInt(4) == 0) {
+			history.setStatus(State.CLOSED);
+		} else {
+			history.setStatus(State.OPEN);
+			history.setAssignedTo(randomUser());
+		}
+		history.setSendNotifications(false);
+		jtrac.storeHistoryForItem(item.getId(), history, null);
+	}
+
+	public User randomUser() {
+		return users.get(random.nextInt(users.size()));
+	}
+
+	public Space randomSpace() {
+		return spaces.get(random.nextInt(spaces.size()));
+	}
+
+	public long randomItemId() {
+		return itemIds.get(random.nextInt(itemIds.size()));
+	}
+
+	public String randomWord() {
+		return WORDS[random.nextInt(WORDS.length)];
+	}
+
+	public String randomText(int wordCount) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < wordCount; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(randomWord());
+		}
+		return sb.toString();
+	}
+
+	//==========================================================================
+
+	public List<Space> getSpaces() {
+		return spaces;
+	}
+
+	public List<User> getUsers() {
+		return users;
+	}
+
+	public List<Long> getItemIds() {
+		return itemIds;
+	}
+
+	public void setSpaceCount(int spaceCount) {
+		this.spaceCount = spaceCount;
+	}
+
+	public void setUserCount(int userCount) {
+		this.userCount = userCount;
+	}
+
+	public void setItemsPerSpace(int itemsPerSpace) {
+		this.itemsPerSpace = itemsPerSpace;
+	}
+
+	public void setCommentsPerItem(int commentsPerItem) {
+		this.commentsPerItem = commentsPerItem;
+	}
+
+}
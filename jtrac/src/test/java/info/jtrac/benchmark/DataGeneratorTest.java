@@ -0,0 +1,29 @@
+package info.jtrac.benchmark;
+
+import static org.junit.Assert.*;
+import info.jtrac.JtracTestBase;
+
+import org.junit.Test;
+
+/**
+ * keeps the benchmark data generator honest, runs with a tiny data set
+ */
+public class DataGeneratorTest extends JtracTestBase {
+
+	@Test
+	public void testGeneratorCreatesExpectedRecords() {
+		DataGenerator generator = new DataGenerator(jtrac, 42);
+		generator.setSpaceCount(2);
+		generator.setUserCount(3);
+		generator.setItemsPerSpace(4);
+		generator.setCommentsPerItem(2);
+		generator.generate();
+		assertEquals(2, generator.getSpaces().size());
+		assertEquals(8, generator.getItemIds().size());
+		assertEquals(8, countRowsInTable("items"));
+		// one history record for the item creation plus one per comment
+		assertEquals(24, countRowsInTable("history"));
+		assertEquals(3, jtrac.findUsersForSpace(generator.getSpaces().get(0).getId()).size());
+	}
+
+}
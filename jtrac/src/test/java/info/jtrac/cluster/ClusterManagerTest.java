@@ -0,0 +1,80 @@
+package info.jtrac.cluster;
+
+import static org.junit.Assert.*;
+import info.jtrac.JtracTestBase;
+import info.jtrac.domain.ClusterEvent;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ClusterManagerTest extends JtracTestBase {
+
+	private ClusterManager start(String nodeName) {
+		ClusterManager cluster = new ClusterManager();
+		cluster.setDao(dao);
+		cluster.setNodeName(nodeName);
+		cluster.start();
+		return cluster;
+	}
+
+	@Test
+	public void testFirstLiveNodeIsLeader() {
+		ClusterManager a = start("a");
+		ClusterManager b = start("b");
+		assertFalse(a.isLeader());
+		a.heartbeat();
+		b.heartbeat();
+		assertTrue(a.isLeader());
+		assertFalse(b.isLeader());
+		assertEquals(2, b.getNodes().size());
+		a.stop();
+		b.heartbeat();
+		assertTrue(b.isLeader());
+		assertEquals(1, b.getNodes().size());
+		b.stop();
+	}
+
+	@Test
+	public void testEventsGoToOtherNodesOnly() {
+		ClusterManager a = start("a");
+		ClusterManager b = start("b");
+		a.publish(ClusterEvent.PRINCIPALS);
+		a.publish(ClusterEvent.CONFIG);
+		assertTrue(a.receive().isEmpty());
+		List<ClusterEvent> events = b.receive();
+		assertEquals(2, events.size());
+		assertEquals(ClusterEvent.PRINCIPALS, events.get(0).getType());
+		assertEquals(ClusterEvent.CONFIG, events.get(1).getType());
+		assertTrue(b.receive().isEmpty());
+		a.stop();
+		b.stop();
+	}
+
+	@Test
+	public void testNotClusteredNodeIsAlwaysLeader() {
+		ClusterManager cluster = start("");
+		assertFalse(cluster.isEnabled());
+		assertTrue(cluster.isLeader());
+		cluster.publish(ClusterEvent.USERS);
+		assertEquals(0, dao.loadLastClusterEventId());
+	}
+
+	@Test
+	public void testCursorAsksAgainForGapsUntilSeen() {
+		LogCursor cursor = new LogCursor(10, 60000);
+		assertTrue(cursor.add(11));
+		assertTrue(cursor.add(14));
+		assertEquals(Arrays.asList(12L, 13L), cursor.getGaps());
+		assertFalse(cursor.add(14));
+		assertTrue(cursor.add(13));
+		assertFalse(cursor.add(13));
+		assertEquals(Arrays.asList(12L), cursor.getGaps());
+		assertEquals(14, cursor.getLastId());
+		cursor = new LogCursor(10, -1);
+		cursor.add(12);
+		assertTrue(cursor.getGaps().isEmpty());
+	}
+
+}
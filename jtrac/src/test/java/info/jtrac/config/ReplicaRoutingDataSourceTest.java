@@ -0,0 +1,139 @@
+package info.jtrac.config;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * a second in-memory HSQLDB stands in for the replica, "replication" is
+ * copying the heartbeat row over
+ */
+public class ReplicaRoutingDataSourceTest {
+
+	private static final String PRIMARY_URL = "jdbc:hsqldb:mem:primary";
+	private static final String REPLICA_URL = "jdbc:hsqldb:mem:replica";
+
+	private ReplicaRoutingDataSource routing;
+	private JdbcTemplate primary;
+	private JdbcTemplate replica;
+
+	@Before
+	public void setUp() throws Exception {
+		DriverManagerDataSource primaryDataSource = new DriverManagerDataSource(PRIMARY_URL, "sa", "");
+		primaryDataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+		primary = new JdbcTemplate(primaryDataSource);
+		routing = new ReplicaRoutingDataSource();
+		routing.setPrimaryDataSource(primaryDataSource);
+		routing.setReplicaUrls(REPLICA_URL);
+		routing.setDriverClassName("org.hsqldb.jdbcDriver");
+		routing.setUsername("sa");
+		routing.setPassword("");
+		routing.afterPropertiesSet();
+		DriverManagerDataSource replicaDataSource = new DriverManagerDataSource(REPLICA_URL, "sa", "");
+		replicaDataSource.setDriverClassName("org.hsqldb.jdbcDriver");
+		replica = new JdbcTemplate(replicaDataSource);
+		primary.execute("create table config (param varchar(255) primary key, value varchar(255))");
+		replica.execute("create table config (param varchar(255) primary key, value varchar(255))");
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ReplicaRoutingDataSource.unbindLastWrite();
+		routing.destroy();
+		primary.execute("drop table config");
+		replica.execute("drop table config");
+	}
+
+	private void replicate() {
+		String heartbeat = primary.queryForObject("select value from config where param = ?", String.class,
+				ReplicaRoutingDataSource.HEARTBEAT_PARAM);
+		replica.update("delete from config");
+		replica.update("insert into config (param, value) values (?, ?)", ReplicaRoutingDataSource.HEARTBEAT_PARAM, heartbeat);
+	}
+
+	private String readFrom() {
+		try {
+			Connection connection = routing.getConnection();
+			try {
+				return connection.getMetaData().getURL();
+			} finally {
+				connection.close();
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private String inTransaction(boolean readOnly) {
+		TransactionTemplate template = new TransactionTemplate(
+				new DataSourceTransactionManager(new LazyConnectionDataSourceProxy(routing)));
+		template.setReadOnly(readOnly);
+		return template.execute(new TransactionCallback<String>() {
+			public String doInTransaction(TransactionStatus status) {
+				return readFrom();
+			}
+		});
+	}
+
+	@Test
+	public void testReplicaIsUsedOnlyOnceCheckedAndCaughtUp() {
+		assertEquals(PRIMARY_URL, readFrom());
+		routing.checkReplicas();
+		// no heartbeat on the replica yet
+		assertEquals(PRIMARY_URL, readFrom());
+		replicate();
+		routing.checkReplicas();
+		assertEquals(REPLICA_URL, readFrom());
+		assertEquals(REPLICA_URL, inTransaction(true));
+		assertEquals(PRIMARY_URL, inTransaction(false));
+	}
+
+	@Test
+	public void testReadsFollowOwnWritesUntilReplicaCatchesUp() throws Exception {
+		AtomicLong session = new AtomicLong();
+		ReplicaRoutingDataSource.bindLastWrite(session);
+		routing.checkReplicas();
+		replicate();
+		routing.checkReplicas();
+		assertEquals(REPLICA_URL, readFrom());
+		inTransaction(false);
+		assertTrue(session.get() > 0);
+		assertEquals(PRIMARY_URL, readFrom());
+		// other sessions are not affected
+		ReplicaRoutingDataSource.bindLastWrite(new AtomicLong());
+		assertEquals(REPLICA_URL, readFrom());
+		ReplicaRoutingDataSource.bindLastWrite(session);
+		Thread.sleep(5);
+		routing.checkReplicas();
+		replicate();
+		routing.checkReplicas();
+		assertEquals(REPLICA_URL, readFrom());
+	}
+
+	@Test
+	public void testLaggingReplicaIsNotUsed() {
+		routing.setMaxLagSeconds(30);
+		routing.checkReplicas();
+		replica.update("insert into config (param, value) values (?, ?)", ReplicaRoutingDataSource.HEARTBEAT_PARAM,
+				String.valueOf(System.currentTimeMillis() - 60000));
+		routing.checkReplicas();
+		assertEquals(PRIMARY_URL, readFrom());
+		replicate();
+		routing.checkReplicas();
+		assertEquals(REPLICA_URL, readFrom());
+	}
+
+}
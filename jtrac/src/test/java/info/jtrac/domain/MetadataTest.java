@@ -1,4 +1,5 @@
 package info.jtrac.domain;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -85,4 +86,30 @@ public class MetadataTest extends TestCase {
 
 	}
 
+	public void testColumnsOptionsAndStatesOfPendingBulkOperationsAreNotReused() {
+		Metadata m = getMetadata();
+		m.initRoles();
+		Space space = new Space();
+		space.setId(1);
+		Field field = m.getField("cusInt01");
+		field.addOption("1", "High");
+		field.addOption("2", "Low");
+		List<BulkOperation> pending = Arrays.asList(
+				BulkOperation.fieldToNull(space, new Field(Field.Name.CUS_INT_03)),
+				BulkOperation.fieldValueToNull(space, field, 3),
+				BulkOperation.statusToOpen(space, 2));
+
+		Set<Field.Name> reserved = BulkOperation.getFieldNames(pending);
+		assertTrue(reserved.contains(Field.Name.CUS_INT_03));
+		assertFalse(m.getUnusedFieldNames(reserved).contains(Field.Name.CUS_INT_03));
+		assertEquals(Field.Name.CUS_INT_04, m.getNextAvailableField(3, reserved).getName());
+
+		field.addOption("Medium", BulkOperation.getOptionKeys(pending, field.getName()));
+		assertEquals("Medium", field.getOptions().get("4"));
+		assertTrue(BulkOperation.getOptionKeys(pending, Field.Name.CUS_INT_02).isEmpty());
+
+		m.addState("Review", BulkOperation.getStates(pending));
+		assertEquals("Review", m.getStatusValue(3));
+	}
+
 }
@@ -0,0 +1,145 @@
+package info.jtrac.job;
+
+import static org.junit.Assert.*;
+import info.jtrac.JtracTestBase;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+public class JobManagerTest extends JtracTestBase {
+
+	@Autowired
+	private JobManager jobManager;
+
+	private JobStatus waitFor(JobStatus status) throws Exception {
+		long end = System.currentTimeMillis() + 10000;
+		while (!status.isDone() && System.currentTimeMillis() < end) {
+			Thread.sleep(20);
+		}
+		assertTrue(status.isDone());
+		return status;
+	}
+
+	@Test
+	public void testJobReportsProgressAndCompletes() throws Exception {
+		JobStatus status = jobManager.submit("maintenance", new Job("test-progress") {
+			@Override
+			public void run(JobStatus status) {
+				status.setTotalSize(3);
+				for (int i = 0; i < 3; i++) {
+					status.incrementPosition();
+				}
+				status.setMessage("done");
+			}
+		});
+		waitFor(status);
+		assertEquals(JobStatus.State.COMPLETED, status.getState());
+		assertEquals(100, status.getPercentComplete());
+		assertEquals("done", status.getMessage());
+		assertSame(status, jobManager.getStatus(status.getId()));
+		assertEquals(status, jobManager.getJobs().get(0));
+	}
+
+	@Test
+	public void testFailedJobKeepsErrorMessage() throws Exception {
+		JobStatus status = jobManager.submit("maintenance", new Job("test-failure") {
+			@Override
+			public void run(JobStatus status) {
+				throw new IllegalStateException("boom");
+			}
+		});
+		waitFor(status);
+		assertEquals(JobStatus.State.FAILED, status.getState());
+		assertEquals("boom", status.getMessage());
+	}
+
+	@Test
+	public void testRunningJobCanBeCancelled() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		JobStatus status = jobManager.submit("maintenance", new Job("test-cancel") {
+			@Override
+			public void run(JobStatus status) throws Exception {
+				started.countDown();
+				while (!status.isCancelled()) {
+					Thread.sleep(10);
+				}
+			}
+		});
+		assertTrue(started.await(10, TimeUnit.SECONDS));
+		assertTrue(jobManager.isActive("test-cancel"));
+		assertTrue(jobManager.cancel(status.getId()));
+		waitFor(status);
+		assertEquals(JobStatus.State.CANCELLED, status.getState());
+		assertFalse(jobManager.isActive("test-cancel"));
+	}
+
+	@Test
+	public void testRejectedJobIsMarkedFailed() throws Exception {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(1);
+		executor.setMaxPoolSize(1);
+		executor.setQueueCapacity(1);
+		executor.initialize();
+		JobManager manager = new JobManager();
+		manager.setPools(Collections.singletonMap("tiny", executor));
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		try {
+			manager.submit("tiny", new Job("test-running") {
+				@Override
+				public void run(JobStatus status) throws Exception {
+					started.countDown();
+					release.await(10, TimeUnit.SECONDS);
+				}
+			});
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			JobStatus queued = manager.submit("tiny", new Job("test-queued") {
+				@Override
+				public void run(JobStatus status) {
+				}
+			});
+			try {
+				manager.submit("tiny", new Job("test-rejected") {
+					@Override
+					public void run(JobStatus status) {
+					}
+				});
+				fail("expected the job to be rejected");
+			} catch (RejectedExecutionException e) {
+				// expected
+			}
+			JobStatus rejected = manager.getJobs().get(0);
+			assertEquals("test-rejected", rejected.getName());
+			assertEquals(JobStatus.State.FAILED, rejected.getState());
+			assertFalse(manager.isActive("test-rejected"));
+			assertTrue(manager.isActive("test-queued"));
+			release.countDown();
+			waitFor(queued);
+		} finally {
+			release.countDown();
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testExecuteRunsOnNamedPool() throws Exception {
+		final CountDownLatch done = new CountDownLatch(1);
+		final String[] threadName = new String[1];
+		jobManager.execute("index", new Runnable() {
+			@Override
+			public void run() {
+				threadName[0] = Thread.currentThread().getName();
+				done.countDown();
+			}
+		});
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		assertTrue(threadName[0].startsWith("indexExecutor"));
+	}
+
+}
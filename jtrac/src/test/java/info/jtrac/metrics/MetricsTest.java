@@ -0,0 +1,91 @@
+package info.jtrac.metrics;
+
+import static org.junit.Assert.*;
+import info.jtrac.JtracTestBase;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+
+public class MetricsTest extends JtracTestBase {
+
+	@Autowired
+	private Metrics metrics;
+
+	@Test
+	public void testHistogramPercentiles() {
+		Histogram h = new Histogram("test");
+		for (int i = 1; i <= 100; i++) {
+			h.record(i);
+		}
+		assertEquals(100, h.getCount());
+		assertEquals(50, h.getMean());
+		assertEquals(100, h.getMax());
+		assertEquals(50, h.getPercentile(50));
+		assertEquals(100, h.getPercentile(95));
+	}
+
+	@Test
+	public void testNestedUnitsOfWorkAreMerged() {
+		RequestStats outer = RequestStats.begin("outer");
+		RequestStats inner = RequestStats.begin("inner");
+		assertSame(outer, inner);
+		RequestStats.statementExecuted("select 1", 1000);
+		assertNull(RequestStats.end());
+		RequestStats done = RequestStats.end();
+		assertSame(outer, done);
+		assertEquals("outer", done.getName());
+		assertEquals(1, done.getStatements());
+		assertNull(RequestStats.current());
+	}
+
+	@Test
+	public void testServiceCallsAreTimedAndStatementsCounted() {
+		metrics.reset();
+		jtrac.findAllUsers();
+		Histogram timer = null;
+		for (Histogram h : metrics.getTimers()) {
+			if (h.getName().equals("Jtrac.findAllUsers")) {
+				timer = h;
+			}
+		}
+		assertNotNull(timer);
+		assertEquals(1, timer.getCount());
+		assertTrue(metrics.getStatements("Jtrac.findAllUsers").getMax() >= 1);
+		assertTrue(metrics.getEntities("Jtrac.findAllUsers").getMax() >= 1);
+	}
+
+	@Test
+	public void testRepeatedStatementsAreFlagged() {
+		metrics.reset();
+		RequestStats.begin("test");
+		for (int i = 0; i < 50; i++) {
+			RequestStats.statementExecuted("select * from users where id = ?", 1000);
+		}
+		metrics.record(RequestStats.end());
+		assertEquals(1, metrics.getSuspects().size());
+		assertEquals(50, metrics.getSuspects().get(0).getMaxRepeats());
+	}
+
+	@Test
+	public void testRequestNamesAreCapped() {
+		metrics.reset();
+		for (int i = 0; i < Metrics.MAX_NAMES + 10; i++) {
+			RequestStats.begin("/api random" + i);
+			metrics.record(RequestStats.end());
+		}
+		List<Histogram> requests = metrics.getRequests();
+		assertEquals(Metrics.MAX_NAMES + 1, requests.size());
+		Histogram other = null;
+		for (Histogram h : requests) {
+			if (h.getName().equals(Metrics.OTHER)) {
+				other = h;
+			}
+		}
+		assertNotNull(other);
+		assertEquals(10, other.getCount());
+		metrics.reset();
+	}
+
+}
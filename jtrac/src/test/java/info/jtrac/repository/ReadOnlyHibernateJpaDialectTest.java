@@ -0,0 +1,122 @@
+package info.jtrac.repository;
+
+import static org.junit.Assert.*;
+import info.jtrac.JtracTestBase;
+import info.jtrac.domain.User;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * the scopes are run on a separate thread, away from the transaction of the
+ * test base, so that the read paths behave like they do when called from the
+ * web tier
+ */
+public class ReadOnlyHibernateJpaDialectTest extends JtracTestBase {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	private TransactionTemplate template(int propagation, boolean readOnly) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(propagation);
+		template.setReadOnly(readOnly);
+		return template;
+	}
+
+	private Session getSession() {
+		return entityManager.unwrap(Session.class);
+	}
+
+	private User loadAdmin() {
+		return dao.findUsersByLoginName("admin").get(0);
+	}
+
+	private void runOutsideTestTransaction(final Runnable runnable) throws Throwable {
+		final Throwable[] failure = new Throwable[1];
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					runnable.run();
+				} catch (Throwable t) {
+					failure[0] = t;
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		if (failure[0] != null) {
+			throw failure[0];
+		}
+	}
+
+	@Test
+	public void testReadPathsLoadEntitiesReadOnly() throws Throwable {
+		runOutsideTestTransaction(new Runnable() {
+			public void run() {
+				template(TransactionDefinition.PROPAGATION_SUPPORTS, true).execute(new TransactionCallback<Object>() {
+					public Object doInTransaction(TransactionStatus status) {
+						User admin = loadAdmin();
+						assertTrue(getSession().isReadOnly(admin));
+						assertEquals(FlushMode.MANUAL, getSession().getFlushMode());
+						return null;
+					}
+				});
+			}
+		});
+	}
+
+	@Test
+	public void testWritingTransactionInsideReadScopeIsNotReadOnly() throws Throwable {
+		runOutsideTestTransaction(new Runnable() {
+			public void run() {
+				template(TransactionDefinition.PROPAGATION_SUPPORTS, true).execute(new TransactionCallback<Object>() {
+					public Object doInTransaction(TransactionStatus status) {
+						final User admin = loadAdmin();
+						template(TransactionDefinition.PROPAGATION_REQUIRED, false).execute(new TransactionCallback<Object>() {
+							public Object doInTransaction(TransactionStatus status) {
+								assertFalse(getSession().contains(admin));
+								assertFalse(getSession().isReadOnly(loadAdmin()));
+								assertEquals(FlushMode.AUTO, getSession().getFlushMode());
+								return null;
+							}
+						});
+						assertTrue(getSession().isReadOnly(admin));
+						assertEquals(FlushMode.MANUAL, getSession().getFlushMode());
+						return null;
+					}
+				});
+			}
+		});
+	}
+
+	@Test
+	public void testOtherScopesAreNotReadOnly() throws Throwable {
+		runOutsideTestTransaction(new Runnable() {
+			public void run() {
+				template(TransactionDefinition.PROPAGATION_SUPPORTS, false).execute(new TransactionCallback<Object>() {
+					public Object doInTransaction(TransactionStatus status) {
+						assertFalse(getSession().isReadOnly(loadAdmin()));
+						return null;
+					}
+				});
+			}
+		});
+		// the transaction of the test base
+		assertFalse(getSession().isReadOnly(loadAdmin()));
+	}
+
+}
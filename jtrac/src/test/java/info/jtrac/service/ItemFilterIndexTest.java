@@ -0,0 +1,208 @@
+package info.jtrac.service;
+
+import static org.junit.Assert.*;
+import info.jtrac.domain.Field;
+import info.jtrac.domain.FilterCriteria.Expression;
+import info.jtrac.domain.Item;
+import info.jtrac.domain.ItemSearch;
+import info.jtrac.domain.Metadata;
+import info.jtrac.domain.Space;
+import info.jtrac.domain.State;
+import info.jtrac.domain.User;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ItemFilterIndexTest {
+
+	private Space space;
+	private User alice;
+	private User bob;
+
+	private ItemFilterIndex load() {
+		Metadata metadata = new Metadata();
+		Field field = new Field(Field.Name.CUS_INT_01);
+		// options not in key order
+		field.addOption("3", "Low");
+		field.addOption("1", "High");
+		field.addOption("2", "Medium");
+		metadata.add(field);
+		metadata.add(new Field(Field.Name.CUS_DBL_01));
+		metadata.add(new Field(Field.Name.CUS_TIM_01));
+		space = new Space();
+		space.setId(7);
+		space.setMetadata(metadata);
+		alice = new User();
+		alice.setId(10);
+		bob = new User();
+		bob.setId(11);
+		ItemFilterIndex index = new ItemFilterIndex();
+		index.setMinItems(0);
+		ItemFilterIndex.Loader loader = index.newLoader(space.getId());
+		loader.processRow(getRow(1, State.OPEN, 1, 1.5, alice, 1000));
+		loader.processRow(getRow(2, State.OPEN, 3, null, bob, 2000));
+		loader.processRow(getRow(3, State.CLOSED, null, 3.0, null, null));
+		loader.processRow(getRow(4, State.OPEN, 2, 4.5, alice, 4000));
+		index.load(loader);
+		assertTrue(index.isLoaded(space.getId()));
+		return index;
+	}
+
+	private Object[] getRow(long id, int status, Integer cusInt01, Double cusDbl01, User assignedTo, Integer day) {
+		Item item = new Item();
+		item.setId(id);
+		item.setStatus(status);
+		item.setCusInt01(cusInt01);
+		item.setCusDbl01(cusDbl01);
+		item.setCusTim01(day == null ? null : new Date(day * 1000L));
+		item.setAssignedTo(assignedTo);
+		item.setLoggedBy(alice);
+		item.setTimeStamp(new Date(id * 1000L));
+		return ItemFilterIndex.getRow(item);
+	}
+
+	private void filter(ItemSearch itemSearch, String name, Expression expression, Object... values) {
+		itemSearch.getColumnHeading(name).getFilterCriteria().setExpression(expression);
+		if (expression == Expression.IN) {
+			itemSearch.getColumnHeading(name).getFilterCriteria().setValues(Arrays.asList(values));
+		} else {
+			itemSearch.getColumnHeading(name).getFilterCriteria().setValue(values[0]);
+			if (values.length > 1) {
+				itemSearch.getColumnHeading(name).getFilterCriteria().setValue2(values[1]);
+			}
+		}
+	}
+
+	private List<Long> find(ItemFilterIndex index, ItemSearch itemSearch) {
+		List<Long> ids = index.find(itemSearch);
+		assertEquals(ids.size(), itemSearch.getResultCount());
+		return ids;
+	}
+
+	@Test
+	public void testFiltersMatchLikeTheDatabase() {
+		ItemFilterIndex index = load();
+		ItemSearch itemSearch = new ItemSearch(space);
+		assertEquals(Arrays.asList(4L, 3L, 2L, 1L), find(index, itemSearch));
+		filter(itemSearch, "status", Expression.IN, State.OPEN);
+		assertEquals(Arrays.asList(4L, 2L, 1L), find(index, itemSearch));
+		// drop down keys come from the form as strings
+		filter(itemSearch, "cusInt01", Expression.IN, "1", "3");
+		assertEquals(Arrays.asList(2L, 1L), find(index, itemSearch));
+		filter(itemSearch, "assignedTo", Expression.IN, alice);
+		assertEquals(Arrays.asList(1L), find(index, itemSearch));
+
+		itemSearch = new ItemSearch(space);
+		// nulls never match, not even "not equal"
+		filter(itemSearch, "cusDbl01", Expression.NOT_EQ, 1.5);
+		assertEquals(Arrays.asList(4L, 3L), find(index, itemSearch));
+		filter(itemSearch, "cusDbl01", Expression.BETWEEN, 1.5, 4.5);
+		assertEquals(Arrays.asList(3L), find(index, itemSearch));
+
+		itemSearch = new ItemSearch(space);
+		filter(itemSearch, "cusTim01", Expression.GT, new Date(1000 * 1000L));
+		assertEquals(Arrays.asList(4L, 2L), find(index, itemSearch));
+		filter(itemSearch, "timeStamp", Expression.LT, new Date(3 * 1000L));
+		assertEquals(Arrays.asList(2L), find(index, itemSearch));
+		// ignored for the time stamp by the database search
+		filter(itemSearch, "timeStamp", Expression.EQ, new Date(3 * 1000L));
+		assertEquals(Arrays.asList(4L, 2L), find(index, itemSearch));
+
+		itemSearch = new ItemSearch(space);
+		itemSearch.setItemIds(Arrays.asList(2L, 3L, 99L));
+		assertEquals(Arrays.asList(3L, 2L), find(index, itemSearch));
+	}
+
+	@Test
+	public void testPagesAndSortOrders() {
+		ItemFilterIndex index = load();
+		ItemSearch itemSearch = new ItemSearch(space);
+		itemSearch.setPageSize(3);
+		assertEquals(Arrays.asList(4L, 3L, 2L), index.find(itemSearch));
+		itemSearch.setCurrentPage(1);
+		assertEquals(Arrays.asList(1L), index.find(itemSearch));
+		assertEquals(4, itemSearch.getResultCount());
+		itemSearch.setCurrentPage(2);
+		assertTrue(index.find(itemSearch).isEmpty());
+
+		itemSearch = new ItemSearch(space);
+		itemSearch.setSortDescending(false);
+		// in the order of the options, null first
+		itemSearch.setSortFieldName("cusInt01");
+		assertEquals(Arrays.asList(3L, 2L, 1L, 4L), find(index, itemSearch));
+		itemSearch.setSortFieldName("cusDbl01");
+		assertEquals(Arrays.asList(2L, 1L, 3L, 4L), find(index, itemSearch));
+		// ties on the id
+		itemSearch.setSortFieldName("assignedTo");
+		assertEquals(Arrays.asList(3L, 1L, 4L, 2L), find(index, itemSearch));
+		itemSearch.setSortDescending(true);
+		assertEquals(Arrays.asList(2L, 4L, 1L, 3L), find(index, itemSearch));
+	}
+
+	@Test
+	public void testUpdatesAndRemovalsAreVisible() {
+		ItemFilterIndex index = load();
+		ItemSearch itemSearch = new ItemSearch(space);
+		filter(itemSearch, "status", Expression.IN, State.CLOSED);
+		assertEquals(Arrays.asList(3L), find(index, itemSearch));
+		index.put(space.getId(), getRow(1, State.CLOSED, 1, 1.5, alice, 1000));
+		index.remove(space.getId(), 3);
+		assertEquals(Arrays.asList(1L), find(index, itemSearch));
+		// the row of the removed item is reused
+		index.put(space.getId(), getRow(5, State.CLOSED, null, null, bob, null));
+		assertEquals(Arrays.asList(5L, 1L), find(index, itemSearch));
+		filter(itemSearch, "assignedTo", Expression.IN, bob);
+		assertEquals(Arrays.asList(5L), find(index, itemSearch));
+		// rows given for some of the items, the others are gone
+		index.update(space.getId(), Collections.singletonList(getRow(2, State.CLOSED, 3, null, bob, 2000)), Arrays.asList(2L, 5L));
+		assertEquals(Arrays.asList(2L), find(index, itemSearch));
+		for (long id = 100; id < 300; id++) {
+			index.put(space.getId(), getRow(id, State.OPEN, 2, null, null, null));
+		}
+		itemSearch = new ItemSearch(space);
+		itemSearch.setPageSize(1000);
+		assertEquals(203, find(index, itemSearch).size());
+	}
+
+	@Test
+	public void testLoadRacingWithUpdateIsDiscarded() {
+		ItemFilterIndex index = load();
+		index.invalidate(space.getId());
+		assertTrue(index.isLoadDue(space.getId()));
+		assertNull(index.find(new ItemSearch(space)));
+		ItemFilterIndex.Loader loader = index.newLoader(space.getId());
+		index.remove(space.getId(), 1);
+		index.load(loader);
+		assertFalse(index.isLoaded(space.getId()));
+		// too small
+		index.setMinItems(10);
+		loader = index.newLoader(space.getId());
+		loader.processRow(getRow(1, State.OPEN, 1, 1.5, alice, 1000));
+		index.load(loader);
+		assertFalse(index.isLoaded(space.getId()));
+		assertFalse(index.isLoadDue(space.getId()));
+	}
+
+	@Test
+	public void testSearchesTheIndexCannotAnswer() {
+		ItemFilterIndex index = load();
+		ItemSearch itemSearch = new ItemSearch(space);
+		assertTrue(ItemFilterIndex.isSupported(itemSearch));
+		itemSearch.getColumnHeading("summary").getFilterCriteria().setExpression(Expression.CONTAINS);
+		itemSearch.getColumnHeading("summary").getFilterCriteria().setValue("text");
+		assertFalse(ItemFilterIndex.isSupported(itemSearch));
+		assertNull(index.find(itemSearch));
+		itemSearch = new ItemSearch(space);
+		itemSearch.setSortFieldName("summary");
+		assertFalse(ItemFilterIndex.isSupported(itemSearch));
+		itemSearch = new ItemSearch(space);
+		itemSearch.setShowHistory(true);
+		assertFalse(ItemFilterIndex.isSupported(itemSearch));
+		assertFalse(ItemFilterIndex.isSupported(new ItemSearch(alice)));
+	}
+
+}
@@ -0,0 +1,91 @@
+package info.jtrac.service;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ItemTagIndexTest {
+
+	private ItemTagIndex load() {
+		ItemTagIndex index = new ItemTagIndex();
+		ItemTagIndex.Loader loader = index.newLoader(7);
+		loader.processRow(new Object[] {1L, "ui"});
+		loader.processRow(new Object[] {1L, "crash"});
+		loader.processRow(new Object[] {2L, "ui"});
+		loader.processRow(new Object[] {3L, "crash"});
+		loader.processRow(new Object[] {3L, "db"});
+		// ids far apart end up in different containers of the bitmaps
+		loader.processRow(new Object[] {70000L, "ui"});
+		index.load(loader);
+		assertTrue(index.isLoaded(7));
+		return index;
+	}
+
+	private List<Long> find(ItemTagIndex index, boolean all, String... tagNames) {
+		return index.find(7, Arrays.asList(tagNames), all);
+	}
+
+	@Test
+	public void testAnyAndAllOfTheTags() {
+		ItemTagIndex index = load();
+		assertEquals(Arrays.asList(1L, 2L, 70000L), find(index, false, "ui"));
+		assertEquals(Arrays.asList(1L, 2L, 3L, 70000L), find(index, false, "ui", "crash"));
+		assertEquals(Arrays.asList(1L), find(index, true, "ui", "crash"));
+		assertEquals(Arrays.asList(3L), find(index, false, "db", "unknown"));
+		assertTrue(find(index, true, "db", "unknown").isEmpty());
+		assertTrue(find(index, false, "unknown").isEmpty());
+		// other spaces are not mixed in
+		assertNull(index.find(8, Collections.singletonList("ui"), false));
+	}
+
+	@Test
+	public void testCountsOfTheMostUsedTags() {
+		ItemTagIndex index = load();
+		Map<String, Integer> counts = index.getCounts(7, 0);
+		assertEquals(Arrays.asList("crash", "db", "ui"), Arrays.asList(counts.keySet().toArray()));
+		assertEquals(Arrays.asList(2, 1, 3), Arrays.asList(counts.values().toArray()));
+		// ties are broken by name, still alphabetical
+		counts = index.getCounts(7, 2);
+		assertEquals(Arrays.asList("crash", "ui"), Arrays.asList(counts.keySet().toArray()));
+		assertNull(index.getCounts(8, 0));
+	}
+
+	@Test
+	public void testUpdatesReplaceTheTagsOfAnItem() {
+		ItemTagIndex index = load();
+		Map<Long, List<String>> tagsByItem = new HashMap<Long, List<String>>();
+		tagsByItem.put(1L, Arrays.asList("db"));
+		tagsByItem.put(3L, Collections.<String>emptyList());
+		tagsByItem.put(4L, Arrays.asList("ui", "new"));
+		index.update(7, tagsByItem);
+		assertEquals(Arrays.asList(2L, 4L, 70000L), find(index, false, "ui"));
+		assertTrue(find(index, false, "crash").isEmpty());
+		assertEquals(Arrays.asList(1L), find(index, false, "db"));
+		assertEquals(Arrays.asList(4L), find(index, true, "new", "ui"));
+		assertFalse(index.getCounts(7, 0).containsKey("crash"));
+	}
+
+	@Test
+	public void testLoadRacingWithUpdateIsDiscarded() {
+		ItemTagIndex index = load();
+		index.invalidate(7);
+		assertFalse(index.isLoaded(7));
+		assertNull(find(index, false, "ui"));
+		ItemTagIndex.Loader loader = index.newLoader(7);
+		loader.processRow(new Object[] {1L, "ui"});
+		index.update(7, Collections.singletonMap(1L, Collections.<String>emptyList()));
+		index.load(loader);
+		assertFalse(index.isLoaded(7));
+		loader = index.newLoader(7);
+		index.load(loader);
+		assertTrue(index.isLoaded(7));
+		assertTrue(find(index, false, "ui").isEmpty());
+	}
+
+}
@@ -2,19 +2,34 @@ package info.jtrac.service;
 
 import static org.junit.Assert.*;
 import info.jtrac.JtracTestBase;
+import info.jtrac.domain.BatchInfo;
+import info.jtrac.domain.BulkOperation;
+import info.jtrac.domain.BulkRecord;
 import info.jtrac.domain.Config;
 import info.jtrac.domain.Counts;
 import info.jtrac.domain.CountsHolder;
 import info.jtrac.domain.Field;
+import info.jtrac.domain.FilterCriteria;
+import info.jtrac.domain.History;
+import info.jtrac.domain.HistoryDelta;
 import info.jtrac.domain.Item;
+import info.jtrac.domain.ItemChange;
 import info.jtrac.domain.ItemItem;
+import info.jtrac.domain.ItemSearch;
 import info.jtrac.domain.ItemUser;
 import info.jtrac.domain.Metadata;
 import info.jtrac.domain.Space;
 import info.jtrac.domain.State;
 import info.jtrac.domain.User;
 import info.jtrac.domain.UserSpaceRole;
-
+import info.jtrac.metrics.RequestStats;
+import info.jtrac.repository.HibernateJtracDao;
+import info.jtrac.repository.RowCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -25,6 +40,7 @@ import javax.persistence.PersistenceContext;
 
 import org.acegisecurity.GrantedAuthority;
 import org.acegisecurity.userdetails.UserDetails;
+import org.hibernate.Hibernate;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.transaction.PlatformTransactionManager;
@@ -40,6 +56,12 @@ public class JtracTest extends JtracTestBase {
 	protected PlatformTransactionManager transactionManager;
 	@PersistenceContext
 	private EntityManager entityManager;
+	@Autowired
+	private PrincipalCache principalCache;
+	@Autowired
+	private ItemFilterIndex itemFilterIndex;
+	@Autowired
+	private ItemTagIndex itemTagIndex;
 
 	private Space createSpace() {
 		Space space = new Space();
@@ -58,6 +80,43 @@ public class JtracTest extends JtracTestBase {
 		return metadata;
 	}
 
+	private Space createSpaceWithUser() {
+		return createSpaceWithUser(new Metadata());
+	}
+
+	/**
+	 * stores a space with the given metadata and the default roles, and the
+	 * user "test" with the DEFAULT role in it, see jtrac.loadUser("test")
+	 */
+	private Space createSpaceWithUser(Metadata metadata) {
+		Space space = createSpace();
+		metadata.initRoles();
+		space.setMetadata(metadata);
+		space = jtrac.storeSpace(space);
+		User user = new User();
+		user.setLoginName("test");
+		user.setName("Test User");
+		user.setEmail("dummy");
+		user.addSpaceWithRole(space, "DEFAULT");
+		jtrac.storeUser(user);
+		return space;
+	}
+
+	/**
+	 * an open item logged by the user, not stored yet
+	 */
+	private Item newItem(Space space, User user) {
+		Item item = new Item();
+		item.setSpace(space);
+		item.setLoggedBy(user);
+		item.setStatus(State.OPEN);
+		return item;
+	}
+
+	private Item storeItem(Space space, User user) {
+		return jtrac.storeItem(newItem(space, user), null);
+	}
+
 	private void cleanDatabase() {
 		jdbcTemplate.execute("delete from user_space_roles where id > 1");
 		deleteFromTables(new String[] {
@@ -164,6 +223,50 @@ public class JtracTest extends JtracTestBase {
 
 	}
 
+	@Test
+	public void testPrincipalIsCachedUntilRolesChange() {
+		Space space = createSpace();
+		space.setMetadata(getMetadata());
+		space = jtrac.storeSpace(space);
+		User user = new User();
+		user.setLoginName("test");
+		user.addSpaceWithRole(space, "ROLE_TEST");
+		jtrac.storeUser(user);
+
+		long version = principalCache.getVersion();
+		long misses = principalCache.getMisses();
+		jtrac.loadUserByUsername("test");
+		long hits = principalCache.getHits();
+		jtrac.loadUserByUsername("test");
+		assertEquals(misses + 1, principalCache.getMisses());
+		assertEquals(hits + 1, principalCache.getHits());
+		// every caller gets a copy of its own to change
+		User first = (User) jtrac.loadUserByUsername("test");
+		first.setLocale("de");
+		first.addSpaceWithRole(space, "ROLE_GUEST");
+		User again = (User) jtrac.loadUserByUsername("test");
+		assertNotSame(first, again);
+		assertNull(again.getLocale());
+		assertEquals(1, again.getSpaceRolesMap().get(space.getId()).size());
+
+		User second = (User) jtrac.storeUserSpaceRole(jtrac.loadUser("test"), space, "ROLE_OTHER");
+		assertTrue(principalCache.getVersion() > version);
+		assertEquals(0, principalCache.getSize());
+		second = (User) jtrac.loadUserByUsername("test");
+		assertEquals(2, second.getSpaceRolesMap().get(space.getId()).size());
+		assertEquals(1, principalCache.getSize());
+
+		version = principalCache.getVersion();
+		Space other = createSpace();
+		other.setPrefixCode("OTHER");
+		other.setGuestAllowed(true);
+		other.setMetadata(getMetadata());
+		jtrac.storeSpace(other);
+		assertTrue(principalCache.getVersion() > version);
+		User third = (User) jtrac.loadUserByUsername("test");
+		assertTrue(third.isAllocatedToSpace(jtrac.loadSpace("OTHER").getId()));
+	}
+
 	private User createAndStoreAdmin() {
 		User user = new User();
 		user.setLoginName("test");
@@ -209,6 +312,162 @@ public class JtracTest extends JtracTestBase {
 		assertEquals(1, c.getTotal());
 	}
 
+	@Test
+	public void testItemChangesArePagedByCursor() {
+		long start = jtrac.loadLastItemChangeId();
+		Space s = createSpaceWithUser();
+		User u = jtrac.loadUser("test");
+		Item i0 = storeItem(s, u);
+		Item i1 = storeItem(s, u);
+		History history = new History();
+		history.setLoggedBy(u);
+		history.setComment("comment");
+		jtrac.storeHistoryForItem(i0.getId(), history, null);
+
+		// not served until a minute old, lower ids may still be uncommitted
+		assertEquals(0, jtrac.findItemChanges(u, start, 2).size());
+		long position = jtrac.loadLastItemChangeId();
+		settleItemChanges();
+		List<ItemChange> page = jtrac.findItemChanges(u, start, 2);
+		assertTrue(position < page.get(0).getId());
+		assertEquals(2, page.size());
+		assertEquals(ItemChange.CREATED, page.get(0).getType());
+		assertEquals(i0.getId(), page.get(0).getItemId());
+		assertEquals(i1.getId(), page.get(1).getItemId());
+		page = jtrac.findItemChanges(u, page.get(1).getId(), 2);
+		assertEquals(1, page.size());
+		ItemChange change = page.get(0);
+		assertEquals(ItemChange.UPDATED, change.getType());
+		assertEquals(i0.getId(), change.getItemId());
+		assertNotNull(change.getHistoryId());
+		assertEquals(change.getId(), jtrac.loadLastItemChangeId());
+		assertEquals(0, jtrac.findItemChanges(u, change.getId(), 2).size());
+
+		User other = new User();
+		other.setLoginName("other");
+		other = jtrac.storeUser(other);
+		assertEquals(0, jtrac.findItemChanges(other, start, 10).size());
+
+		jtrac.removeItem(jtrac.loadItem(i1.getId()));
+		settleItemChanges();
+		page = jtrac.findItemChanges(jtrac.loadUser(1), change.getId(), 10);
+		assertEquals(1, page.size());
+		assertEquals(ItemChange.DELETED, page.get(0).getType());
+		assertEquals(i1.getSequenceNum(), page.get(0).getSequenceNum());
+	}
+
+	@Test
+	public void testScrollItemsReturnsSelectedColumnsInIdOrder() {
+		Space s = createSpaceWithUser();
+		User u = jtrac.loadUser("test");
+		for (int i = 0; i < 3; i++) {
+			Item item = newItem(s, u);
+			item.setSummary("summary " + i);
+			jtrac.storeItem(item, null);
+		}
+		final List<Object[]> rows = new ArrayList<Object[]>();
+		RowCallback callback = new RowCallback() {
+			public void processRow(Object[] row) {
+				rows.add(row);
+			}
+		};
+		List<String> columns = Arrays.asList("summary", "loggedBy", "status");
+		jtrac.scrollItems(u, null, 0, 2, columns, callback);
+		assertEquals(2, rows.size());
+		assertEquals(7, rows.get(0).length);
+		assertEquals("TEST", rows.get(0)[2]);
+		assertEquals(1L, rows.get(0)[3]);
+		assertEquals("summary 0", rows.get(0)[4]);
+		assertEquals("test", rows.get(0)[5]);
+		assertEquals(State.OPEN, rows.get(0)[6]);
+		long afterId = (Long) rows.get(1)[0];
+		rows.clear();
+		jtrac.scrollItems(u, s, afterId, 2, columns, callback);
+		assertEquals(1, rows.size());
+		assertEquals("summary 2", rows.get(0)[4]);
+		rows.clear();
+		User other = new User();
+		other.setLoginName("other");
+		other = jtrac.storeUser(other);
+		jtrac.scrollItems(other, null, 0, 10, columns, callback);
+		assertEquals(0, rows.size());
+	}
+
+	@Test
+	public void testVersionTagsChangeWithItems() {
+		Space s = createSpaceWithUser();
+		User u = jtrac.loadUser("test");
+		assertNull(jtrac.loadItemVersionTag("TEST-1"));
+		ItemSearch itemSearch = new ItemSearch(s);
+		String searchTag = jtrac.loadItemSearchVersionTag(u, itemSearch);
+		Item i = storeItem(s, u);
+		String itemTag = jtrac.loadItemVersionTag("TEST-1");
+		assertNotNull(itemTag);
+		assertEquals(itemTag, jtrac.loadItemVersionTag("TEST-1"));
+		String newSearchTag = jtrac.loadItemSearchVersionTag(u, itemSearch);
+		assertFalse(searchTag.equals(newSearchTag));
+		assertEquals(newSearchTag, jtrac.loadItemSearchVersionTag(u, itemSearch));
+
+		History history = new History();
+		history.setLoggedBy(u);
+		history.setComment("comment only");
+		jtrac.storeHistoryForItem(i.getId(), history, null);
+		assertFalse(itemTag.equals(jtrac.loadItemVersionTag("TEST-1")));
+		assertFalse(newSearchTag.equals(jtrac.loadItemSearchVersionTag(u, itemSearch)));
+	}
+
+	@Test
+	public void testBulkRecordsAreValidatedAndStored() {
+		Metadata metadata = new Metadata();
+		Field severity = new Field(Field.Name.SEVERITY);
+		severity.initOptions();
+		metadata.add(severity);
+		createSpaceWithUser(metadata);
+		User u = jtrac.loadUser("test");
+		long start = jtrac.loadLastItemChangeId();
+
+		List<BulkRecord> records = new ArrayList<BulkRecord>();
+		BulkRecord r0 = new BulkRecord(0, BulkRecord.Type.ITEM, "TEST");
+		r0.put("summary", "first");
+		r0.put("severity", "Major");
+		r0.put("assignedTo", "test");
+		records.add(r0);
+		BulkRecord r1 = new BulkRecord(1, BulkRecord.Type.ITEM, "TEST");
+		r1.put("summary", "missing severity");
+		records.add(r1);
+		BulkRecord r2 = new BulkRecord(2, BulkRecord.Type.ITEM, "TEST");
+		r2.put("summary", "second");
+		r2.put("severity", "4");
+		records.add(r2);
+		BulkRecord r3 = new BulkRecord(3, BulkRecord.Type.HISTORY, "TEST-1");
+		r3.put("comment", "a comment");
+		records.add(r3);
+		BulkRecord r4 = new BulkRecord(4, BulkRecord.Type.ITEM, "NOSUCH");
+		r4.put("summary", "bad space");
+		records.add(r4);
+		BulkRecord r5 = new BulkRecord(5, BulkRecord.Type.ITEM, "TEST");
+		r5.put("summary", "bad option");
+		r5.put("severity", "Whatever");
+		records.add(r5);
+		jtrac.storeBulkRecords(u, records);
+
+		assertEquals("TEST-1", r0.getRefId());
+		assertEquals("severity is required", r1.getError());
+		// no gaps in the sequence for rejected records
+		assertEquals("TEST-2", r2.getRefId());
+		assertEquals("TEST-1", r3.getRefId());
+		assertNotNull(r4.getError());
+		assertNotNull(r5.getError());
+
+		Item item = jtrac.loadItemByRefId("TEST-1");
+		assertEquals(2, item.getSeverity().intValue());
+		assertEquals("test", item.getAssignedTo().getLoginName());
+		assertEquals(2, item.getHistory().size());
+		assertEquals(4, jtrac.loadItemByRefId("TEST-2").getSeverity().intValue());
+		settleItemChanges();
+		assertEquals(3, jtrac.findItemChanges(u, start, 10).size());
+	}
+
 	@Test
 	public void testRemoveSpaceRoleDoesNotOrphanDatabaseRecord() {
 		Space space = createSpace();
@@ -447,9 +706,587 @@ public class JtracTest extends JtracTestBase {
 
 	}
 
+	@Test
+	public void testUsersArePagedAndFoundThroughUserIndex() {
+		for (int i = 0; i < 5; i++) {
+			User u = new User();
+			u.setLoginName("paged" + i);
+			u.setName("Paged User " + i);
+			u.setEmail("paged" + i + "@example.com");
+			jtrac.storeUser(u);
+		}
+		flushAndClearEntityManager();
+		// admin user exists also
+		assertEquals(6, jtrac.loadCountOfAllUsers());
+		List<User> page = jtrac.findUsers(2, 2);
+		assertEquals(2, page.size());
+		assertEquals("Paged User 1", page.get(0).getName());
+
+		assertEquals(5, jtrac.loadCountOfUsersMatching("paged", "loginName"));
+		List<User> matching = jtrac.findUsersMatching("PAGED USER", "name", 3, 10);
+		assertEquals(2, matching.size());
+		assertEquals("paged3", matching.get(0).getLoginName());
+		assertEquals(0, jtrac.findUsersMatching("paged", "email", 10, 10).size());
+
+		Space space = createSpace();
+		Metadata m = getMetadata();
+		m.initRoles();
+		space.setMetadata(m);
+		space = jtrac.storeSpace(space);
+		User u = jtrac.loadUser("paged0");
+		for (String roleKey : space.getMetadata().getAllRoleKeys()) {
+			u = jtrac.storeUserSpaceRole(u, space, roleKey);
+		}
+		flushAndClearEntityManager();
+		List<User> choices = jtrac.findUsersNotFullyAllocatedToSpace(space.getId(), "pag", 3);
+		assertEquals(3, choices.size());
+		assertEquals("paged1", choices.get(0).getLoginName());
+
+		jtrac.removeUser(jtrac.loadUser("paged4"));
+		assertEquals(4, jtrac.findUsersMatching("paged", "loginName").size());
+	}
+
+	@Test
+	public void testBulkOperationsRunInChunksAndKeepProgress() {
+		Space s = createSpaceWithUser(getMetadata());
+		User u = jtrac.loadUser("test");
+		List<Item> items = new ArrayList<Item>();
+		for (int i = 0; i < 5; i++) {
+			Item item = newItem(s, u);
+			item.setStatus(i % 2 == 0 ? 2 : State.OPEN);
+			item.setCusInt01(1);
+			items.add(jtrac.storeItem(item, null));
+		}
+		Item related = items.get(4);
+		related.addRelated(items.get(0), ItemItem.RELATED);
+		jtrac.updateItem(related, u);
+		flushAndClearEntityManager();
+
+		BulkOperation operation = BulkOperation.statusToOpen(s, 2);
+		BulkOperation copy = BulkOperation.fromConfig(operation.getConfigParam(), "7");
+		assertEquals(operation.getConfigParam(), copy.getConfigParam());
+		assertEquals(7, copy.getLastItemId());
+
+		settleItemChanges();
+		long lastChange = jtrac.loadLastItemChangeId();
+		BatchInfo batchInfo = new BatchInfo();
+		batchInfo.setBatchSize(2);
+		assertEquals(3, jtrac.runBulkOperation(operation, batchInfo));
+		assertEquals(5, batchInfo.getCurrentPosition());
+		assertEquals(items.get(4).getId(), operation.getLastItemId());
+		assertNull(jtrac.loadConfig(operation.getConfigParam()));
+		assertEquals(0, jtrac.loadCountOfRecordsHavingStatus(s, 2));
+		settleItemChanges();
+		assertEquals(3, jtrac.findItemChanges(u, lastChange, 10).size());
+		flushAndClearEntityManager();
+
+		Field field = s.getMetadata().getField("cusInt01");
+		assertEquals(5, jtrac.bulkUpdateFieldToNull(s, field));
+		assertEquals(0, jtrac.loadCountOfRecordsHavingFieldNotNull(s, field));
+		flushAndClearEntityManager();
+
+		// a cancelled operation stops after the chunk in progress and leaves its progress behind
+		operation = BulkOperation.removeSpace(s);
+		batchInfo = new BatchInfo() {
+			@Override
+			public boolean isCancelled() {
+				return getCurrentPosition() > 0;
+			}
+		};
+		batchInfo.setBatchSize(2);
+		jtrac.storeConfig(new Config(operation.getConfigParam(), "0"));
+		assertEquals(operation.getConfigParam(), jtrac.findPendingBulkOperations(s).get(0).getConfigParam());
+		assertEquals(2, jtrac.runBulkOperation(operation, batchInfo));
+		assertEquals(items.get(1).getId() + "", jtrac.loadConfig(operation.getConfigParam()));
+		flushAndClearEntityManager();
+
+		jtrac.runBulkOperation(BulkOperation.fromConfig(operation.getConfigParam(),
+				jtrac.loadConfig(operation.getConfigParam())), new BatchInfo());
+		flushAndClearEntityManager();
+		assertNull(jtrac.loadSpace(s.getId()));
+		assertNull(jtrac.loadConfig(operation.getConfigParam()));
+		// 3 status changes, 5 field changes and 5 deletes
+		settleItemChanges();
+		List<ItemChange> changes = jtrac.findItemChanges(jtrac.loadUser(1), lastChange, 100);
+		assertEquals(13, changes.size());
+		assertEquals(ItemChange.DELETED, changes.get(12).getType());
+	}
+
+	@Test
+	public void testBulkOperationIsClaimedByOneNodeAtATime() {
+		Space s = new Space();
+		s.setId(1);
+		BulkOperation operation = BulkOperation.removeSpace(s);
+		assertFalse("nothing to claim without progress", dao.claimBulkOperation(operation, "node1", 60000));
+		jtrac.storeConfig(new Config(operation.getConfigParam(), "0"));
+		assertTrue(dao.claimBulkOperation(operation, "node1", 60000));
+		assertFalse(dao.claimBulkOperation(operation, "node2", 60000));
+		assertTrue("renewed", dao.claimBulkOperation(operation, "node1", -1));
+		assertTrue("lease ran out", dao.claimBulkOperation(operation, "node2", 60000));
+		assertFalse(dao.claimBulkOperation(operation, "node1", 60000));
+		assertEquals(1, jtrac.findPendingBulkOperations(s).size());
+	}
+
+	@Test
+	public void testHistoryIsPagedNewestFirst() {
+		Space s = createSpaceWithUser(getMetadata());
+		User u = jtrac.loadUser("test");
+		Item item = newItem(s, u);
+		item.setAssignedTo(u);
+		item.setCusInt01(1);
+		item = jtrac.storeItem(item, null);
+		for (int i = 0; i < 4; i++) {
+			History history = new History();
+			history.setLoggedBy(u);
+			history.setAssignedTo(u);
+			history.setStatus(State.OPEN);
+			history.setComment("comment " + i);
+			history.setCusInt01(1);
+			jtrac.storeHistoryForItem(item.getId(), history, null);
+		}
+		flushAndClearEntityManager();
+
+		assertEquals(5, jtrac.loadCountOfHistoryForItem(item));
+		List<Field.Name> names = Arrays.asList(Field.Name.CUS_INT_01, Field.Name.CUS_INT_02);
+		assertEquals(Arrays.asList(Field.Name.CUS_INT_01), jtrac.findFieldNamesUsedInHistory(item, names));
+
+		List<History> page = jtrac.findHistoryForItem(item, Long.MAX_VALUE, 3, names);
+		assertEquals(3, page.size());
+		assertEquals("comment 3", page.get(0).getComment());
+		assertEquals("comment 1", page.get(2).getComment());
+		assertEquals("Test User", page.get(0).getLoggedBy().getName());
+		assertEquals(1, page.get(0).getValue(Field.Name.CUS_INT_01));
+		assertSame(item, page.get(0).getParent());
+
+		List<History> older = jtrac.findHistoryForItem(item, page.get(2).getId(), 3, names);
+		assertEquals(2, older.size());
+		assertEquals("comment 0", older.get(0).getComment());
+		assertTrue(older.get(1).getId() < older.get(0).getId());
+
+		// the history is only loaded when asked for, a detached item can still be updated
+		Item loaded = jtrac.loadItem(item.getId());
+		assertFalse(Hibernate.isInitialized(loaded.getHistory()));
+		assertTrue(Hibernate.isInitialized(jtrac.loadItemWithHistoryByRefId(item.getRefId()).getHistory()));
+		flushAndClearEntityManager();
+		loaded.setEditReason("edited");
+		jtrac.updateItem(loaded, u);
+		flushAndClearEntityManager();
+		assertEquals(6, jtrac.loadCountOfHistoryForItem(item));
+		assertEquals("edited", jtrac.findHistoryForItem(item, Long.MAX_VALUE, 1, names).get(0).getComment());
+	}
+
+	@Test
+	public void testHistoryStoredAsChangesIsRebuilt() {
+		jtrac.storeConfig(new Config("history.checkpoint.interval", "3"));
+		try {
+			Space s = createSpaceWithUser(getMetadata());
+			User u = jtrac.loadUser("test");
+			Item item = newItem(s, u);
+			item.setSummary("summary");
+			item.setCusInt01(1);
+			item = jtrac.storeItem(item, null);
+			addComment(item, u);
+			flushAndClearEntityManager();
+			item = jtrac.loadItem(item.getId());
+			item.setCusInt01(2);
+			jtrac.updateItem(item, u);
+			flushAndClearEntityManager();
+			addComment(item, u);
+			addComment(item, u);
+			flushAndClearEntityManager();
+
+			// full snapshot, no change, cusInt01 changed, checkpoint, no change
+			long bit = HistoryDelta.bit(Field.Name.CUS_INT_01);
+			assertEquals(Arrays.<Object> asList(null, 0L, bit, null, 0L), findHistoryColumn(item, "changes"));
+			assertEquals(Arrays.<Object> asList(1L, null, 2L, 2L, null), findHistoryColumn(item, "cus_int_01"));
+
+			List<Field.Name> names = Arrays.asList(Field.Name.CUS_INT_01);
+			List<History> page = jtrac.findHistoryForItem(item, Long.MAX_VALUE, 2, names);
+			assertEquals(2, page.get(1).getValue(Field.Name.CUS_INT_01));
+			page = jtrac.findHistoryForItem(item, page.get(1).getId(), 2, names);
+			assertEquals(2, page.get(0).getValue(Field.Name.CUS_INT_01));
+			assertEquals(1, page.get(1).getValue(Field.Name.CUS_INT_01));
+
+			List<History> states = HistoryDelta.expand(jtrac.loadItem(item.getId()).getHistory());
+			assertEquals(1, states.get(1).getValue(Field.Name.CUS_INT_01));
+			assertEquals(2, states.get(4).getValue(Field.Name.CUS_INT_01));
+			assertEquals("summary", states.get(4).getSummary());
+			flushAndClearEntityManager();
+
+			jtrac.storeConfig(new Config("history.checkpoint.interval", "0"));
+			assertEquals(3, jtrac.compactHistory(new BatchInfo()));
+			flushAndClearEntityManager();
+			assertEquals(Arrays.<Object> asList(null, null, null, null, null), findHistoryColumn(item, "changes"));
+			assertEquals(Arrays.<Object> asList(1L, 1L, 2L, 2L, 2L), findHistoryColumn(item, "cus_int_01"));
+
+			jtrac.storeConfig(new Config("history.checkpoint.interval", "2"));
+			assertEquals(2, jtrac.compactHistory(new BatchInfo()));
+			flushAndClearEntityManager();
+			assertEquals(Arrays.<Object> asList(null, 0L, null, 0L, null), findHistoryColumn(item, "changes"));
+		} finally {
+			jtrac.storeConfig(new Config("history.checkpoint.interval", "0"));
+		}
+	}
+
+	@Test
+	public void testClosedItemsAreMovedToArchive() {
+		Space s = createSpaceWithUser(getMetadata());
+		s.setArchiveAfterDays(30);
+		s = jtrac.storeSpace(s);
+		User u = jtrac.loadUser("test");
+		Item closed = null;
+		for (int i = 0; i < 3; i++) {
+			Item item = newItem(s, u);
+			item.setStatus(i == 2 ? State.OPEN : State.CLOSED);
+			item.setSummary("summary " + i);
+			item = jtrac.storeItem(item, null);
+			addComment(item, u);
+			if (i == 0) {
+				closed = item;
+			}
+		}
+		flushAndClearEntityManager();
+		// only the first item has been closed for long enough
+		jdbcTemplate.update("update history set time_stamp = ? where item_id = ?",
+				new Date(System.currentTimeMillis() - 40 * 24 * 60 * 60 * 1000L), closed.getId());
+		assertEquals(1, jtrac.archiveItems(new BatchInfo()));
+		flushAndClearEntityManager();
+		assertEquals(0, jtrac.archiveItems(new BatchInfo()));
+
+		assertNull(jtrac.loadItemByRefId("TEST-1"));
+		assertEquals(2, jtrac.findItems(new ItemSearch(s)).size());
+		ItemSearch itemSearch = new ItemSearch(s);
+		itemSearch.setArchived(true);
+		List<Item> archived = jtrac.findItems(itemSearch);
+		assertEquals(1, archived.size());
+		assertTrue(archived.get(0).isArchived());
+		assertEquals("summary 0", archived.get(0).getSummary());
+
+		Item item = jtrac.loadArchivedItemByRefId("TEST-1");
+		assertTrue(item.isArchived());
+		assertEquals(2, item.getHistory().size());
+		assertEquals(2, jtrac.loadCountOfHistoryForItem(item));
+		assertEquals(2, jtrac.findHistoryForItem(item, Long.MAX_VALUE, 10, new ArrayList<Field.Name>()).size());
+		assertNull(jtrac.loadArchivedItemByRefId("TEST-2"));
+		settleItemChanges();
+		List<ItemChange> changes = jtrac.findItemChanges(u, 0, 10);
+		assertEquals(ItemChange.ARCHIVED, changes.get(changes.size() - 1).getType());
+	}
+
+	@Test
+	public void testArchivedItemsAreRemovedWithTheirSpaceAndUsers() {
+		Space s = createSpaceWithUser(getMetadata());
+		s.setArchiveAfterDays(30);
+		s = jtrac.storeSpace(s);
+		User u = jtrac.loadUser("test");
+		User watcher = new User();
+		watcher.setLoginName("watcher");
+		watcher.setName("Watcher");
+		watcher.setEmail("watcher");
+		jtrac.storeUser(watcher);
+		Item item = newItem(s, u);
+		item.setStatus(State.CLOSED);
+		Set<ItemUser> itemUsers = new HashSet<ItemUser>();
+		itemUsers.add(new ItemUser(jtrac.loadUser("watcher"), 0));
+		item.setItemUsers(itemUsers);
+		item = jtrac.storeItem(item, null);
+		flushAndClearEntityManager();
+		jdbcTemplate.update("update history set time_stamp = ? where item_id = ?",
+				new Date(System.currentTimeMillis() - 40 * 24 * 60 * 60 * 1000L), item.getId());
+		assertEquals(1, jtrac.archiveItems(new BatchInfo()));
+		flushAndClearEntityManager();
+
+		// only named in archived history, so not offered for deletion
+		assertEquals(1, jtrac.loadCountOfHistoryInvolvingUser(jtrac.loadUser("test")));
+		// only watching an archived item
+		assertEquals(0, jtrac.loadCountOfHistoryInvolvingUser(jtrac.loadUser("watcher")));
+		jtrac.removeUser(jtrac.loadUser("watcher"));
+		flushAndClearEntityManager();
+		assertNull(jtrac.loadUser("watcher"));
+
+		jtrac.removeSpace(jtrac.loadSpace(s.getId()));
+		flushAndClearEntityManager();
+		assertNull(jtrac.loadSpace(s.getId()));
+		assertEquals(0, jdbcTemplate.queryForObject("select count(0) from items_archive", Integer.class).intValue());
+		assertEquals(0, jdbcTemplate.queryForObject("select count(0) from history_archive", Integer.class).intValue());
+		assertEquals(0, jtrac.loadCountOfHistoryInvolvingUser(jtrac.loadUser("test")));
+		jtrac.removeUser(jtrac.loadUser("test"));
+		flushAndClearEntityManager();
+		assertNull(jtrac.loadUser("test"));
+	}
+
+	@Test
+	public void testItemInsertsAreBatchedWithPooledIds() {
+		Space s = createSpaceWithUser();
+		User u = jtrac.loadUser("test");
+		Item first = newItem(s, u);
+		first.setSummary("first");
+		Set<ItemUser> itemUsers = new HashSet<ItemUser>();
+		for (int i = 0; i < 3; i++) {
+			itemUsers.add(new ItemUser(u, i));
+		}
+		first.setItemUsers(itemUsers);
+		Item second = newItem(s, u);
+		second.setSummary("second");
+		RequestStats.begin("test");
+		try {
+			jtrac.storeItems(Arrays.asList(first, second));
+			entityManager.flush();
+		} finally {
+			RequestStats stats = RequestStats.end();
+			int itemUserInserts = 0;
+			for (Map.Entry<String, Integer> entry : stats.getSqlCounts().entrySet()) {
+				if (entry.getKey().startsWith("insert into item_users")) {
+					itemUserInserts += entry.getValue();
+				}
+			}
+			assertEquals(1, itemUserInserts);
+		}
+		entityManager.clear();
+		first = jtrac.loadItemByRefId("TEST-1");
+		second = jtrac.loadItemByRefId("TEST-2");
+		// both ids come from the same block
+		assertEquals(first.getId() + 1, second.getId());
+		((HibernateJtracDao) dao).checkIdSequences();
+		Item third = storeItem(s, u);
+		assertTrue(third.getId() > second.getId());
+		assertEquals(3, jtrac.loadItem(first.getId()).getItemUsers().size());
+	}
+
+	@Test
+	public void testItemSavesWriteOnlyWhatChanged() {
+		Space s = createSpaceWithUser(getMetadata());
+		User u = jtrac.loadUser("test");
+		Item item = newItem(s, u);
+		item.setAssignedTo(u);
+		item.setSummary("summary");
+		Set<ItemUser> itemUsers = new HashSet<ItemUser>();
+		itemUsers.add(new ItemUser(u));
+		item.setItemUsers(itemUsers);
+		Map<String, Integer> writes = storeAndCountWrites(item, null);
+		// no second pass over the new row or the watcher keys
+		assertEquals(Integer.valueOf(1), writes.get("insert into items"));
+		assertEquals(Integer.valueOf(1), writes.get("insert into item_users"));
+		assertNull(writes.get("update items"));
+		assertNull(writes.get("update item_users"));
+		entityManager.clear();
+		item = jtrac.loadItemByRefId("TEST-1");
+		int version = item.getVersion();
+
+		History comment = new History();
+		comment.setLoggedBy(u);
+		comment.setComment("comment");
+		comment.setSendNotifications(false);
+		comment.setItemUsers(new HashSet<ItemUser>(item.getItemUsers()));
+		writes = storeAndCountWrites(item, comment);
+		assertEquals(Integer.valueOf(1), writes.get("insert into history"));
+		assertNull(writes.get("update items"));
+		assertNull(writes.get("insert into item_users"));
+		assertNull(writes.get("delete from item_users"));
+		entityManager.clear();
+		item = jtrac.loadItemByRefId("TEST-1");
+		assertEquals(version, item.getVersion());
+
+		History close = new History();
+		close.setLoggedBy(u);
+		close.setStatus(State.CLOSED);
+		close.setComment("closed");
+		close.setSendNotifications(false);
+		writes = storeAndCountWrites(item, close);
+		assertEquals(Integer.valueOf(1), writes.get("insert into history"));
+		assertEquals(Integer.valueOf(1), writes.get("update items"));
+		assertEquals(Integer.valueOf(1), writes.get("delete from item_users"));
+		entityManager.clear();
+		item = jtrac.loadItemByRefId("TEST-1");
+		assertEquals(State.CLOSED, item.getStatus().intValue());
+		assertEquals(version + 1, item.getVersion());
+		assertEquals(0, item.getItemUsers().size());
+	}
+
+	/**
+	 * stores a new item (history null) or a history for an existing item and
+	 * returns the number of executes per write statement, keyed by the verb and
+	 * table name ("insert into items", "update items") and ignoring sequence calls
+	 */
+	private Map<String, Integer> storeAndCountWrites(Item item, History history) {
+		RequestStats.begin("test");
+		RequestStats stats;
+		try {
+			if (history == null) {
+				jtrac.storeItem(item, null);
+			} else {
+				jtrac.storeHistoryForItem(item.getId(), history, null);
+			}
+			entityManager.flush();
+		} finally {
+			stats = RequestStats.end();
+		}
+		Map<String, Integer> writes = new HashMap<String, Integer>();
+		for (Map.Entry<String, Integer> entry : stats.getSqlCounts().entrySet()) {
+			String[] words = entry.getKey().split(" ");
+			if (words.length < 3 || !words[0].matches("insert|update|delete")) {
+				continue;
+			}
+			String key = words[0].equals("update") ? "update " + words[1] : words[0] + " " + words[1] + " " + words[2];
+			Integer count = writes.get(key);
+			writes.put(key, (count == null ? 0 : count) + entry.getValue());
+		}
+		if (writes.containsKey("update items")) {
+			for (String sql : stats.getSqlCounts().keySet()) {
+				if (sql.startsWith("update items")) {
+					// dynamic update: only the columns that changed are written
+					assertFalse(sql.contains("summary="));
+				}
+			}
+		}
+		return writes;
+	}
+
+	@Test
+	public void testItemFilterIndexFindsWhatTheDatabaseFinds() {
+		Metadata metadata = getMetadata();
+		Field field = metadata.getField("cusInt01");
+		field.addOption("1", "High");
+		field.addOption("2", "Low");
+		Space s = createSpaceWithUser(metadata);
+		User u = jtrac.loadUser("test");
+		for (int i = 0; i < 7; i++) {
+			Item item = newItem(s, u);
+			item.setAssignedTo(i % 2 == 0 ? u : null);
+			item.setStatus(i % 3 == 0 ? State.CLOSED : State.OPEN);
+			item.setCusInt01(i % 3 == 1 ? null : i % 2 + 1);
+			item.setSummary("summary " + i);
+			jtrac.storeItem(item, null);
+		}
+		ItemSearch itemSearch = new ItemSearch(s);
+		itemSearch.setPageSize(2);
+		itemSearch.setCurrentPage(1);
+		itemSearch.setSortFieldName("cusInt01");
+		itemSearch.setSortDescending(false);
+		itemSearch.getColumnHeading("status").getFilterCriteria().setExpression(FilterCriteria.Expression.IN);
+		itemSearch.getColumnHeading("status").getFilterCriteria().setValues(Arrays.asList(State.OPEN));
+		List<Item> expected = jtrac.findItems(itemSearch);
+		long expectedCount = itemSearch.getResultCount();
+		assertEquals(4, expectedCount);
+		itemFilterIndex.setMinItems(0);
+		try {
+			assertEquals(expected, jtrac.findItems(itemSearch));
+			assertTrue(itemFilterIndex.isLoaded(s.getId()));
+			itemSearch.getColumnHeading("assignedTo").getFilterCriteria().setExpression(FilterCriteria.Expression.IN);
+			itemSearch.getColumnHeading("assignedTo").getFilterCriteria().setValues(Arrays.asList(u));
+			itemSearch.setCurrentPage(0);
+			RequestStats.begin("test");
+			List<Item> list;
+			try {
+				list = jtrac.findItems(itemSearch);
+			} finally {
+				RequestStats stats = RequestStats.end();
+				// only the page of items is loaded, nothing is counted
+				for (String sql : stats.getSqlCounts().keySet()) {
+					assertFalse(sql, sql.startsWith("select count"));
+				}
+			}
+			assertEquals(2, itemSearch.getResultCount());
+			assertEquals(2, list.size());
+			itemFilterIndex.setMinItems(-1);
+			assertEquals(list, jtrac.findItems(itemSearch));
+			assertEquals(2, itemSearch.getResultCount());
+		} finally {
+			itemFilterIndex.setMinItems(-1);
+			itemFilterIndex.invalidate();
+		}
+	}
+
+	@Test
+	public void testItemTagsCanBeSearchedAndCounted() {
+		Space s = createSpaceWithUser(getMetadata());
+		User u = jtrac.loadUser("test");
+		List<Item> items = new ArrayList<Item>();
+		for (int i = 0; i < 3; i++) {
+			Item item = newItem(s, u);
+			item.setSummary("summary " + i);
+			jtrac.storeItem(item, null);
+			items.add(item);
+		}
+		try {
+			jtrac.addItemTags(items.get(0), Arrays.asList("ui", "crash"));
+			jtrac.addItemTags(items.get(1), Arrays.asList("ui"));
+			// adding a tag twice changes nothing
+			jtrac.addItemTags(items.get(1), Arrays.asList("ui"));
+			jtrac.addItemTags(items.get(2), Arrays.asList("crash"));
+			jtrac.removeItemTag(items.get(2), "crash");
+			jtrac.removeItemTag(items.get(2), "unknown");
+			flushAndClearEntityManager();
+			assertEquals(Arrays.asList("crash", "ui"), jtrac.loadItem(items.get(0).getId()).getTagNames());
+			assertTrue(jtrac.loadItem(items.get(2).getId()).getTagNames().isEmpty());
+
+			ItemSearch itemSearch = new ItemSearch(s);
+			itemSearch.getColumnHeading("tags").getFilterCriteria().setExpression(FilterCriteria.Expression.IN);
+			itemSearch.getColumnHeading("tags").getFilterCriteria().setValues(Arrays.asList("ui", "crash"));
+			assertEquals(Arrays.asList(items.get(1).getId(), items.get(0).getId()), getIds(jtrac.findItems(itemSearch)));
+			assertEquals(2, itemSearch.getResultCount());
+			assertTrue(itemTagIndex.isLoaded(s.getId()));
+			itemSearch.getColumnHeading("tags").getFilterCriteria().setExpression(FilterCriteria.Expression.ALL);
+			assertEquals(Arrays.asList(items.get(0).getId()), getIds(jtrac.findItems(itemSearch)));
+			// combined with other filters
+			itemSearch.getColumnHeading("tags").getFilterCriteria().setExpression(FilterCriteria.Expression.IN);
+			itemSearch.getColumnHeading("summary").getFilterCriteria().setExpression(FilterCriteria.Expression.EQ);
+			itemSearch.getColumnHeading("summary").getFilterCriteria().setValue("summary 1");
+			assertEquals(Arrays.asList(items.get(1).getId()), getIds(jtrac.findItems(itemSearch)));
+			itemSearch = new ItemSearch(s);
+			itemSearch.setTagName("unknown");
+			assertTrue(jtrac.findItems(itemSearch).isEmpty());
+			assertEquals(0, itemSearch.getResultCount());
+
+			Map<String, Integer> counts = jtrac.loadTagCloud(s.getId(), 0);
+			assertEquals(Arrays.asList("crash", "ui"), new ArrayList<String>(counts.keySet()));
+			assertEquals(Integer.valueOf(1), counts.get("crash"));
+			assertEquals(Integer.valueOf(2), counts.get("ui"));
+			assertEquals(Arrays.asList("ui"), new ArrayList<String>(jtrac.loadTagCloud(s.getId(), 1).keySet()));
+		} finally {
+			// the index is only kept up to date after commit
+			itemTagIndex.invalidate();
+		}
+	}
+
+	private List<Long> getIds(List<Item> items) {
+		List<Long> ids = new ArrayList<Long>();
+		for (Item item : items) {
+			ids.add(item.getId());
+		}
+		return ids;
+	}
+
+	private void addComment(Item item, User u) {
+		History history = new History();
+		history.setLoggedBy(u);
+		history.setComment("comment");
+		history.setSendNotifications(false);
+		jtrac.storeHistoryForItem(item.getId(), history, null);
+	}
+
+	private List<Object> findHistoryColumn(Item item, String column) {
+		List<Object> values = new ArrayList<Object>();
+		for (Map<String, Object> row : jdbcTemplate.queryForList("select " + column + " as value from history"
+				+ " where item_id = ? order by id", item.getId())) {
+			Object value = row.get("value");
+			values.add(value instanceof Number ? (Object) ((Number) value).longValue() : value);
+		}
+		return values;
+	}
+
 	private void flushAndClearEntityManager() {
 		entityManager.flush();
 		entityManager.clear();
 	}
 
+	/**
+	 * backdates the change log past the time after which changes are served
+	 */
+	private void settleItemChanges() {
+		entityManager.flush();
+		jdbcTemplate.update("update item_changes set time_stamp = ?", new Date(System.currentTimeMillis() - 3600 * 1000L));
+		entityManager.clear();
+	}
+
 }
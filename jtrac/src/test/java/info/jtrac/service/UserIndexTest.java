@@ -0,0 +1,67 @@
+package info.jtrac.service;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class UserIndexTest {
+
+	private UserIndex load() {
+		UserIndex index = new UserIndex();
+		List<Object[]> rows = new ArrayList<Object[]>();
+		rows.add(new Object[] { 1L, "jsmith", "John Smith", "john.smith@example.com" });
+		rows.add(new Object[] { 2L, "adoe", "Anne Doe", "anne@doe.org" });
+		rows.add(new Object[] { 3L, "bjohnson", "Bob Johnson", "bob@example.com" });
+		index.load(rows, index.getVersion());
+		return index;
+	}
+
+	@Test
+	public void testContainsSearchIsCaseInsensitiveAndOrderedByName() {
+		UserIndex index = load();
+		assertEquals(Arrays.asList(3L, 1L), index.find("JOHN", null));
+		assertEquals(Arrays.asList(3L, 1L), index.find("john", "name"));
+		assertEquals(Arrays.asList(1L), index.find("mit", "loginName"));
+		assertEquals(Arrays.asList(3L, 1L), index.find("example", "email"));
+		assertTrue(index.find("xyz", null).isEmpty());
+	}
+
+	@Test
+	public void testShortSearchMatchesStartOfWords() {
+		UserIndex index = load();
+		assertEquals(Arrays.asList(2L), index.find("do", null));
+		assertEquals(Arrays.asList(1L), index.find("j", "loginName"));
+		assertEquals(Arrays.asList(1L), index.find("sm", null));
+	}
+
+	@Test
+	public void testUpdatesAndRemovalsAreVisible() {
+		UserIndex index = load();
+		index.put(1L, "jsmith", "Jane Smith", "jane@example.com");
+		assertEquals(Arrays.asList(3L), index.find("john", "name"));
+		assertEquals(Arrays.asList(1L), index.find("jane", null));
+		index.remove(3L);
+		assertTrue(index.find("johnson", null).isEmpty());
+		assertEquals(2, index.size());
+		for (long i = 10; i < 3000; i++) {
+			index.put(i, "user" + i, "User " + i, null);
+			index.remove(i);
+		}
+		assertEquals(2, index.size());
+		assertEquals(Arrays.asList(2L, 1L), index.find("", null));
+	}
+
+	@Test
+	public void testLoadRacingWithUpdateIsDiscarded() {
+		UserIndex index = new UserIndex();
+		long version = index.getVersion();
+		index.put(5L, "late", "Late Comer", null);
+		index.load(new ArrayList<Object[]>(), version);
+		assertFalse(index.isLoaded());
+	}
+
+}
@@ -1,7 +1,15 @@
 package info.jtrac.svn;
 
+import static org.junit.Assert.*;
+import info.jtrac.util.SvnCommitStats;
+import info.jtrac.util.SvnUtils;
 
+import java.io.File;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
+import org.tmatesoft.svn.core.SVNLogEntry;
 //import org.tmatesoft.svn.core.SVNDirEntry;
 //import org.tmatesoft.svn.core.SVNException;
 //import org.tmatesoft.svn.core.SVNNodeKind;
@@ -20,6 +28,62 @@ public class SvnTest {
 
 	}
 
+	private SVNLogEntry getEntry(long revision, String author) {
+		return new SVNLogEntry(null, revision, author, new Date(), "message");
+	}
+
+	@Test
+	public void testCommitStatsAreCountedIncrementallyAndStored() throws Exception {
+		File dir = new File("target/svn-stats");
+		FileUtils.deleteDirectory(dir);
+		SvnCommitStats stats = SvnCommitStats.load(dir, "uuid");
+		assertEquals(-1, stats.getLastRevision());
+		stats.handleLogEntry(getEntry(0, null));
+		stats.handleLogEntry(getEntry(1, "DOMAIN\\Alice"));
+		stats.handleLogEntry(getEntry(2, "bob"));
+		stats.handleLogEntry(getEntry(3, "alice"));
+		stats.store(dir);
+		byte[] png = SvnUtils.getCommitsChartPng(stats, dir, 200, 100);
+		assertTrue(new File(dir, "uuid-3-200x100.png").exists());
+
+		stats = SvnCommitStats.load(dir, "uuid");
+		assertEquals(3, stats.getLastRevision());
+		assertEquals(2, (int) stats.getCommitsPerCommitter().get("alice"));
+		assertEquals(1, (int) stats.getCommitsPerCommitter().get("bob"));
+		// revisions already counted are ignored
+		stats.handleLogEntry(getEntry(2, "bob"));
+		assertEquals(1, (int) stats.getCommitsPerCommitter().get("bob"));
+		assertArrayEquals(png, SvnUtils.getCommitsChartPng(stats, dir, 200, 100));
+
+		stats.handleLogEntry(getEntry(4, "bob"));
+		assertEquals(2, (int) stats.getCommitsPerCommitter().get("bob"));
+		SvnUtils.getCommitsChartPng(stats, dir, 200, 100);
+		assertTrue(new File(dir, "uuid-4-200x100.png").exists());
+		assertFalse(new File(dir, "uuid-3-200x100.png").exists());
+
+		// revisions that did not touch the path are not read again
+		stats.setLastRevision(9);
+		stats.setLastRevision(7);
+		stats.store(dir);
+		stats = SvnCommitStats.load(dir, "uuid");
+		assertEquals(9, stats.getLastRevision());
+		stats.handleLogEntry(getEntry(8, "bob"));
+		assertEquals(2, (int) stats.getCommitsPerCommitter().get("bob"));
+	}
+
+	@Test
+	public void testCommitStatsKeyIsSafeAsFileName() throws Exception {
+		String key = SvnCommitStats.getKey("../../etc/passwd", "trunk");
+		assertTrue(key.matches("[0-9a-f]{32}"));
+		assertFalse(key.equals(SvnCommitStats.getKey("../../etc/passwd", "branches/1.0")));
+		try {
+			SvnCommitStats.load(new File("target/svn-stats"), "../uuid");
+			fail("key with path separators accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
 	/*
     public void testSvn() throws Exception {
         String url = "https://adms.satyam.com/svn/jtrac/trunk/jtrac";
@@ -0,0 +1,57 @@
+package info.jtrac.util;
+
+import static org.junit.Assert.*;
+import info.jtrac.domain.BulkRecord;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+public class BulkRecordReaderTest {
+
+	private BulkRecordReader getReader(String xml) throws Exception {
+		return new BulkRecordReader(new ByteArrayInputStream(xml.getBytes("UTF-8")));
+	}
+
+	@Test
+	public void testBulkRecordsAreReadOneAtATime() throws Exception {
+		BulkRecordReader reader = getReader("<items space='TEST'>"
+				+ "<item><summary>first</summary><cusInt01>High</cusInt01></item>"
+				+ "<item space='OTHER'><summary>second</summary>"
+				+ "<relatedItems><relatedItem refId='TEST-1'/></relatedItems></item>"
+				+ "<!-- comment --><history refId='TEST-1'><comment>done</comment></history>"
+				+ "</items>");
+		assertTrue(reader.isBulk());
+		BulkRecord r0 = reader.next();
+		assertEquals(0, r0.getIndex());
+		assertEquals("TEST", r0.getKey());
+		assertFalse(r0.isHistory());
+		assertEquals("first", r0.get("summary"));
+		assertEquals("High", r0.get("cusInt01"));
+		BulkRecord r1 = reader.next();
+		assertEquals("OTHER", r1.getKey());
+		assertEquals("second", r1.get("summary"));
+		assertNull(r1.get("relatedItems"));
+		BulkRecord r2 = reader.next();
+		assertTrue(r2.isHistory());
+		assertEquals("TEST-1", r2.getKey());
+		assertEquals("done", r2.get("comment"));
+		assertNull(reader.next());
+	}
+
+	@Test
+	public void testSingleItemIsAccepted() throws Exception {
+		BulkRecordReader reader = getReader("<item space='TEST'><summary>only</summary></item>");
+		assertFalse(reader.isBulk());
+		assertEquals("only", reader.next().get("summary"));
+		assertNull(reader.next());
+	}
+
+	@Test(expected = XMLStreamException.class)
+	public void testUnknownRecordIsRejected() throws Exception {
+		getReader("<items><foo/></items>").next();
+	}
+
+}
@@ -0,0 +1,90 @@
+package info.jtrac.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class IdBitmapTest {
+
+	@Test
+	public void testAddRemoveAndOrder() {
+		IdBitmap bitmap = new IdBitmap();
+		assertTrue(bitmap.isEmpty());
+		assertTrue(bitmap.add(70000));
+		assertTrue(bitmap.add(3));
+		assertTrue(bitmap.add(1L << 40));
+		assertFalse(bitmap.add(3));
+		assertEquals(Arrays.asList(3L, 70000L, 1L << 40), bitmap.toList());
+		assertTrue(bitmap.contains(70000));
+		assertFalse(bitmap.contains(70001));
+		assertTrue(bitmap.remove(70000));
+		assertFalse(bitmap.remove(70000));
+		assertEquals(2, bitmap.getCardinality());
+		assertTrue(bitmap.remove(3));
+		assertTrue(bitmap.remove(1L << 40));
+		assertTrue(bitmap.isEmpty());
+	}
+
+	@Test
+	public void testDenseContainersSwitchToWordsAndBack() {
+		IdBitmap bitmap = new IdBitmap();
+		TreeSet<Long> expected = new TreeSet<Long>();
+		for (long id = 0; id < 10000; id++) {
+			bitmap.add(id);
+			expected.add(id);
+		}
+		assertEquals(new ArrayList<Long>(expected), bitmap.toList());
+		for (long id = 0; id < 10000; id += 2) {
+			assertTrue(bitmap.remove(id));
+			expected.remove(id);
+		}
+		assertEquals(5000, bitmap.getCardinality());
+		for (long id = 1; id < 10000; id += 4) {
+			assertTrue(bitmap.remove(id));
+			expected.remove(id);
+		}
+		// back below the threshold
+		assertEquals(new ArrayList<Long>(expected), bitmap.toList());
+		assertFalse(bitmap.contains(1));
+		assertTrue(bitmap.contains(3));
+	}
+
+	@Test
+	public void testAndOrMatchSets() {
+		Random random = new Random(42);
+		for (int round = 0; round < 20; round++) {
+			TreeSet<Long> a = new TreeSet<Long>();
+			TreeSet<Long> b = new TreeSet<Long>();
+			// sparse and dense ranges, some keys on one side only
+			int range = round % 2 == 0 ? 200000 : 20000;
+			for (int i = 0; i < 6000 + random.nextInt(6000); i++) {
+				a.add((long) random.nextInt(range));
+			}
+			for (int i = 0; i < random.nextInt(12000); i++) {
+				b.add((long) random.nextInt(range) + range / 4);
+			}
+			IdBitmap x = IdBitmap.of(a);
+			IdBitmap y = IdBitmap.of(b);
+			TreeSet<Long> and = new TreeSet<Long>(a);
+			and.retainAll(b);
+			TreeSet<Long> or = new TreeSet<Long>(a);
+			or.addAll(b);
+			assertEquals(new ArrayList<Long>(and), x.and(y).toList());
+			assertEquals(new ArrayList<Long>(and), y.and(x).toList());
+			assertEquals(new ArrayList<Long>(or), x.or(y).toList());
+			assertEquals(or.size(), y.or(x).getCardinality());
+			// results share nothing with the operands
+			IdBitmap union = x.or(y);
+			for (Long id : a) {
+				union.remove(id);
+			}
+			assertEquals(new ArrayList<Long>(a), x.toList());
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package info.jtrac.util;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class JsonWriterTest {
+
+	@Test
+	public void testCommasAreWrittenBetweenValuesAtEveryLevel() throws Exception {
+		StringWriter sw = new StringWriter();
+		JsonWriter json = new JsonWriter(sw);
+		json.beginObject();
+		json.property("a", 1);
+		json.name("b").beginArray();
+		for (Object o : Arrays.asList(true, "x", null, 1.5)) {
+			json.value(o);
+		}
+		json.beginObject().endObject();
+		json.endArray();
+		json.property("c", Double.NaN);
+		json.endObject();
+		assertEquals("{\"a\":1,\"b\":[true,\"x\",null,1.5,{}],\"c\":null}", sw.toString());
+	}
+
+	@Test
+	public void testStringsAreEscaped() throws Exception {
+		StringWriter sw = new StringWriter();
+		new JsonWriter(sw).value("\"a\\b\"\n</script>\u0001 ");
+		assertEquals("\"\\\"a\\\\b\\\"\\n\\u003c/script\\u003e\\u0001\\u2028\"", sw.toString());
+	}
+
+}
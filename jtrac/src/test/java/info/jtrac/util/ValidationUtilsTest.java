@@ -49,4 +49,17 @@ public class ValidationUtilsTest extends TestCase {
         assertFalse(ValidationUtils.isValidStateName("Ab cd"));
     }
     
+    public void testValidateTagName() {
+        assertTrue(ValidationUtils.isValidTagName("abcd"));
+        assertTrue(ValidationUtils.isValidTagName("release-2.1"));
+        assertTrue(ValidationUtils.isValidTagName("c++"));
+        assertTrue(ValidationUtils.isValidTagName("c#"));
+        assertTrue(ValidationUtils.isValidTagName("\u00fcbersetzung"));
+        assertFalse(ValidationUtils.isValidTagName("Abcd"));
+        assertFalse(ValidationUtils.isValidTagName("ab_cd"));
+        assertFalse(ValidationUtils.isValidTagName("ab cd"));
+        assertFalse(ValidationUtils.isValidTagName("-abcd"));
+        assertFalse(ValidationUtils.isValidTagName(""));
+    }
+    
 }
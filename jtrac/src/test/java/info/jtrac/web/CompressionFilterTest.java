@@ -0,0 +1,115 @@
+package info.jtrac.web;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+import org.springframework.core.io.FileSystemResourceLoader;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockServletConfig;
+import org.springframework.mock.web.MockServletContext;
+
+public class CompressionFilterTest {
+
+	private MockHttpServletResponse doFilter(String acceptEncoding, final String contentType, final String body) throws Exception {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/app/test");
+		if (acceptEncoding != null) {
+			request.addHeader("Accept-Encoding", acceptEncoding);
+		}
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		new CompressionFilter().doFilter(request, response, new FilterChain() {
+			public void doFilter(ServletRequest req, ServletResponse res) throws IOException, ServletException {
+				res.setContentType(contentType);
+				res.getWriter().write(body);
+			}
+		});
+		return response;
+	}
+
+	private String repeat(String s, int count) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			sb.append(s);
+		}
+		return sb.toString();
+	}
+
+	private String gunzip(byte[] bytes) throws IOException {
+		InputStream is = new GZIPInputStream(new ByteArrayInputStream(bytes));
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		int b;
+		while ((b = is.read()) != -1) {
+			baos.write(b);
+		}
+		return baos.toString("ISO-8859-1");
+	}
+
+	@Test
+	public void testLargeHtmlIsCompressed() throws Exception {
+		String body = repeat("<tr><td>row</td></tr>", 200);
+		MockHttpServletResponse response = doFilter("gzip, deflate", "text/html", body);
+		assertEquals("gzip", response.getHeader("Content-Encoding"));
+		assertEquals("Accept-Encoding", response.getHeader("Vary"));
+		assertTrue(response.getContentAsByteArray().length < body.length());
+		assertEquals(body, gunzip(response.getContentAsByteArray()));
+	}
+
+	@Test
+	public void testSmallOrBinaryOrUnacceptedIsNotCompressed() throws Exception {
+		MockHttpServletResponse response = doFilter("gzip", "text/html", "<p>small</p>");
+		assertNull(response.getHeader("Content-Encoding"));
+		assertEquals("<p>small</p>", response.getContentAsString());
+		String body = repeat("x", 5000);
+		response = doFilter("gzip", "image/gif", body);
+		assertNull(response.getHeader("Content-Encoding"));
+		assertEquals(body, response.getContentAsString());
+		response = doFilter(null, "text/html", body);
+		assertNull(response.getHeader("Content-Encoding"));
+		response = doFilter("gzip;q=0, identity", "text/html", body);
+		assertNull(response.getHeader("Content-Encoding"));
+	}
+
+	@Test
+	public void testFingerprintedResourcesAreCachedAndPreCompressed() throws Exception {
+		MockServletContext servletContext = new MockServletContext("src/main/webapp", new FileSystemResourceLoader());
+		StaticResourceServlet servlet = new StaticResourceServlet();
+		servlet.init(new MockServletConfig(servletContext));
+		String url = StaticResourceServlet.getUrl(servletContext, "yui/dom/dom-min.js");
+		assertTrue(url.matches("resources/v-[0-9a-f]{12}/yui/dom/dom-min\\.js"));
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/" + url);
+		request.setPathInfo(url.substring("resources".length()));
+		request.addHeader("Accept-Encoding", "gzip");
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		servlet.service(request, response);
+		assertEquals(200, response.getStatus());
+		assertEquals("gzip", response.getHeader("Content-Encoding"));
+		assertEquals("public, max-age=31536000", response.getHeader("Cache-Control"));
+		String etag = (String) response.getHeader("ETag");
+		// stale or missing fingerprint, and revalidation
+		request = new MockHttpServletRequest("GET", "/resources/yui/dom/dom-min.js");
+		request.setPathInfo("/yui/dom/dom-min.js");
+		request.addHeader("If-None-Match", etag);
+		response = new MockHttpServletResponse();
+		servlet.service(request, response);
+		assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+		assertEquals("public, max-age=3600", response.getHeader("Cache-Control"));
+		request = new MockHttpServletRequest("GET", "/resources/../WEB-INF/web.xml");
+		request.setPathInfo("/../WEB-INF/web.xml");
+		response = new MockHttpServletResponse();
+		servlet.service(request, response);
+		assertEquals(HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+	}
+
+}
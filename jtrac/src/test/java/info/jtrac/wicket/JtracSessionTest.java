@@ -0,0 +1,66 @@
+package info.jtrac.wicket;
+
+import static org.junit.Assert.*;
+import info.jtrac.JtracTestBase;
+import info.jtrac.benchmark.DataGenerator;
+import info.jtrac.domain.ItemSearch;
+import info.jtrac.domain.Space;
+import info.jtrac.domain.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+import org.apache.log4j.Logger;
+import org.apache.wicket.PageParameters;
+import org.junit.Test;
+
+/**
+ * compares what a session used to hold (the user graph, the current space and
+ * the item search) with the ids and search spec that it holds now
+ */
+public class JtracSessionTest extends JtracTestBase {
+
+	private static final Logger logger = Logger.getLogger(JtracSessionTest.class);
+
+	private static int getSerializedSize(Serializable... objects) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		for (Serializable o : objects) {
+			out.writeObject(o);
+		}
+		out.close();
+		return bytes.size();
+	}
+
+	@Test
+	public void testSearchSpecIsSmallAndRestoresSearch() throws Exception {
+		DataGenerator generator = new DataGenerator(jtrac, 42);
+		generator.setSpaceCount(3);
+		generator.setUserCount(20);
+		generator.setItemsPerSpace(0);
+		generator.generate();
+		Space space = generator.getSpaces().get(0);
+		User user = (User) jtrac.loadUserByUsername(generator.getUsers().get(0).getLoginName());
+
+		PageParameters params = new PageParameters();
+		params.put("s", space.getId() + "");
+		params.put("assignedTo", "in_" + user.getId());
+		params.put("pageSize", "50");
+		ItemSearch itemSearch = ItemListPage.getItemSearch(jtrac, user, params);
+		itemSearch.setCurrentPage(2);
+
+		JtracSession.SearchSpec spec = new JtracSession.SearchSpec(itemSearch);
+		int before = getSerializedSize(user, space, itemSearch);
+		int after = getSerializedSize(user.getId(), user.getLoginName(), space.getId(), spec);
+		logger.info("serialized session state, entities: " + before + " bytes, ids and spec: " + after + " bytes");
+		assertTrue(after * 10 < before);
+
+		ItemSearch restored = spec.toItemSearch(jtrac, user);
+		assertEquals(space.getId(), restored.getSpace().getId());
+		assertEquals(50, restored.getPageSize());
+		assertEquals(2, restored.getCurrentPage());
+		assertEquals(Processor.getAsQueryString(itemSearch), Processor.getAsQueryString(restored));
+	}
+
+}